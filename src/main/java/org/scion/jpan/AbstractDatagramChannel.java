@@ -16,23 +16,36 @@ package org.scion.jpan;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.*;
 import java.nio.ByteBuffer;
 import java.nio.channels.AlreadyConnectedException;
+import java.nio.channels.AsynchronousCloseException;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.DatagramChannel;
 import java.nio.channels.NotYetConnectedException;
 import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
 import org.scion.jpan.internal.ExtensionHeader;
 import org.scion.jpan.internal.InternalConstants;
 import org.scion.jpan.internal.ScionHeaderParser;
 import org.scion.jpan.internal.ScmpParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 abstract class AbstractDatagramChannel<C extends AbstractDatagramChannel<?>> implements Closeable {
 
+  private static final Logger LOG =
+      LoggerFactory.getLogger(AbstractDatagramChannel.class.getName());
+
   protected static final int DEFAULT_BUFFER_SIZE = 2000;
+  // FlowID of the SCION header if the application does not specify a flow
+  protected static final int DEFAULT_FLOW_ID = 1;
+  // Maximum number of packets that the background receiver queues for receive() or read()
+  private static final int BACKGROUND_QUEUE_SIZE = 256;
   private final java.nio.channels.DatagramChannel channel;
   private ByteBuffer bufferReceive;
   private ByteBuffer bufferSend;
@@ -55,9 +68,11 @@ abstract class AbstractDatagramChannel<C extends AbstractDatagramChannel<?>> imp
           Constants.ENV_PATH_EXPIRY_MARGIN,
           Constants.DEFAULT_PATH_EXPIRY_MARGIN);
   private int cfgTrafficClass;
+  private long cfgPacingRate = 0;
   private Consumer<Scmp.Message> errorListener;
   private boolean cfgRemoteDispatcher = false;
   private InetSocketAddress overrideExternalAddress = null;
+  private BackgroundReceiver backgroundReceiver;
 
   protected AbstractDatagramChannel(ScionService service) throws IOException {
     this(service, DatagramChannel.open());
@@ -73,6 +88,11 @@ abstract class AbstractDatagramChannel<C extends AbstractDatagramChannel<?>> imp
 
   protected void configureBlocking(boolean block) throws IOException {
     synchronized (stateLock) {
+      if (backgroundReceiver != null) {
+        // The internal channel must remain blocking for the background receiver
+        backgroundReceiver.blocking = block;
+        return;
+      }
       channel.configureBlocking(block);
     }
   }
@@ -80,6 +100,9 @@ abstract class AbstractDatagramChannel<C extends AbstractDatagramChannel<?>> imp
   // `protected` because it should not be visible in ScmpChannel API.
   protected boolean isBlocking() {
     synchronized (stateLock) {
+      if (backgroundReceiver != null) {
+        return backgroundReceiver.blocking;
+      }
       return channel.isBlocking();
     }
   }
@@ -208,7 +231,10 @@ abstract class AbstractDatagramChannel<C extends AbstractDatagramChannel<?>> imp
   @Override
   public void close() throws IOException {
     synchronized (stateLock) {
-      channel.disconnect();
+      if (backgroundReceiver == null) {
+        // disconnect() would block while the background receiver is waiting for packets
+        channel.disconnect();
+      }
       channel.close();
       connectionPath = null;
     }
@@ -326,7 +352,7 @@ abstract class AbstractDatagramChannel<C extends AbstractDatagramChannel<?>> imp
     ensureBound();
     while (true) {
       buffer.clear();
-      InetSocketAddress srcAddress = (InetSocketAddress) channel.receive(buffer);
+      InetSocketAddress srcAddress = receiveRaw(buffer);
       if (srcAddress == null) {
         // this indicates nothing is available - non-blocking mode
         return null;
@@ -353,6 +379,32 @@ abstract class AbstractDatagramChannel<C extends AbstractDatagramChannel<?>> imp
     }
   }
 
+  private InetSocketAddress receiveRaw(ByteBuffer buffer) throws IOException {
+    BackgroundReceiver receiver;
+    synchronized (stateLock) {
+      receiver = backgroundReceiver;
+    }
+    if (receiver != null) {
+      return receiver.receive(buffer);
+    }
+    return (InetSocketAddress) channel.receive(buffer);
+  }
+
+  private void startBackgroundReceiver() throws IOException {
+    synchronized (stateLock) {
+      if (backgroundReceiver != null) {
+        return;
+      }
+      ensureBound();
+      BackgroundReceiver receiver = new BackgroundReceiver(channel.isBlocking());
+      channel.configureBlocking(true);
+      backgroundReceiver = receiver;
+      Thread thread = new Thread(receiver, "jpan-scmp-receiver-" + channel.getLocalAddress());
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
   protected InternalConstants.HdrTypes receiveExtensionHeader(
       ByteBuffer buffer, InternalConstants.HdrTypes hdrType) {
     if (hdrType == InternalConstants.HdrTypes.END_TO_END
@@ -461,6 +513,10 @@ abstract class AbstractDatagramChannel<C extends AbstractDatagramChannel<?>> imp
           return (T) (Integer) cfgExpirationSafetyMargin;
         } else if (ScionSocketOptions.SCION_TRAFFIC_CLASS.equals(option)) {
           return (T) (Integer) cfgTrafficClass;
+        } else if (ScionSocketOptions.SCION_API_RECEIVE_SCMP_IN_BACKGROUND.equals(option)) {
+          return (T) (Boolean) (backgroundReceiver != null);
+        } else if (ScionSocketOptions.SCION_PACING_RATE.equals(option)) {
+          return (T) (Long) cfgPacingRate;
         } else {
           throw new UnsupportedOperationException();
         }
@@ -488,6 +544,19 @@ abstract class AbstractDatagramChannel<C extends AbstractDatagramChannel<?>> imp
             throw new IllegalArgumentException("trafficClass is not in range 0 -- 255");
           }
           cfgTrafficClass = trafficClass;
+        } else if (ScionSocketOptions.SCION_API_RECEIVE_SCMP_IN_BACKGROUND.equals(option)) {
+          if ((Boolean) t) {
+            startBackgroundReceiver();
+          } else if (backgroundReceiver != null) {
+            throw new UnsupportedOperationException("Background receiver cannot be stopped");
+          }
+        } else if (ScionSocketOptions.SCION_PACING_RATE.equals(option)) {
+          long rate = (Long) t;
+          if (rate < 0 && rate != ScionSocketOptions.PACING_PATH_BANDWIDTH) {
+            throw new IllegalArgumentException("Invalid pacing rate: " + rate);
+          }
+          cfgPacingRate = rate;
+          onPacingRateChanged();
         } else {
           throw new UnsupportedOperationException();
         }
@@ -505,6 +574,17 @@ abstract class AbstractDatagramChannel<C extends AbstractDatagramChannel<?>> imp
     return cfgExpirationSafetyMargin;
   }
 
+  protected long getCfgPacingRate() {
+    synchronized (stateLock) {
+      return cfgPacingRate;
+    }
+  }
+
+  /** Called with stateLock held when {@link ScionSocketOptions#SCION_PACING_RATE} is set. */
+  protected void onPacingRateChanged() {
+    // Pacing is implemented by subclasses.
+  }
+
   private void checkLockedForRead() {
     if (!readLock().isLocked()) {
       throw new IllegalStateException("Access must be READ locked!");
@@ -551,6 +631,46 @@ abstract class AbstractDatagramChannel<C extends AbstractDatagramChannel<?>> imp
   protected void buildHeader(
       ByteBuffer buffer, Path path, int payloadLength, InternalConstants.HdrTypes hdrType)
       throws IOException {
+    buildHeader(buffer, path, payloadLength, hdrType, DEFAULT_FLOW_ID);
+  }
+
+  /**
+   * @param buffer The output buffer
+   * @param path path
+   * @param payloadLength payload length
+   * @param hdrType Header type e.g. SCMP
+   * @param flowId FlowID of the SCION header (20 bit)
+   * @throws IOException in case of IOException.
+   */
+  protected void buildHeader(
+      ByteBuffer buffer,
+      Path path,
+      int payloadLength,
+      InternalConstants.HdrTypes hdrType,
+      int flowId)
+      throws IOException {
+    synchronized (stateLock) {
+      buildHeader(buffer, path, payloadLength, hdrType, flowId, cfgTrafficClass);
+    }
+  }
+
+  /**
+   * @param buffer The output buffer
+   * @param path path
+   * @param payloadLength payload length
+   * @param hdrType Header type e.g. SCMP
+   * @param flowId FlowID of the SCION header (20 bit)
+   * @param trafficClass traffic class of the SCION header
+   * @throws IOException in case of IOException.
+   */
+  protected void buildHeader(
+      ByteBuffer buffer,
+      Path path,
+      int payloadLength,
+      InternalConstants.HdrTypes hdrType,
+      int flowId,
+      int trafficClass)
+      throws IOException {
     synchronized (stateLock) {
       ensureBound();
       buffer.clear();
@@ -603,7 +723,8 @@ abstract class AbstractDatagramChannel<C extends AbstractDatagramChannel<?>> imp
           path.getRemoteIsdAs(),
           path.getRemoteAddress().getAddress(),
           hdrType,
-          cfgTrafficClass);
+          trafficClass,
+          flowId);
       ScionHeaderParser.writePath(buffer, rawPath);
 
       if (hdrType == InternalConstants.HdrTypes.UDP) {
@@ -653,4 +774,122 @@ abstract class AbstractDatagramChannel<C extends AbstractDatagramChannel<?>> imp
   protected Object stateLock() {
     return stateLock;
   }
+
+  /**
+   * Receives packets in a background thread. SCMP errors are processed immediately, i.e. they are
+   * passed to checkListeners(). All other packets are queued for the next receive() or read().
+   */
+  private class BackgroundReceiver implements Runnable {
+    private final ReceivedPacket closedMarker = new ReceivedPacket(null, null);
+    private final BlockingQueue<ReceivedPacket> queue =
+        new ArrayBlockingQueue<>(BACKGROUND_QUEUE_SIZE);
+    // Buffers of packets that have been consumed by receive(), for reuse.
+    private final BlockingQueue<ByteBuffer> freeBuffers =
+        new ArrayBlockingQueue<>(BACKGROUND_QUEUE_SIZE);
+    // Blocking mode as seen by the user, the internal channel is always blocking.
+    private volatile boolean blocking;
+    // Set if the receiver stopped because of an unexpected error.
+    private volatile RuntimeException failure;
+
+    BackgroundReceiver(boolean blocking) {
+      this.blocking = blocking;
+    }
+
+    @Override
+    public void run() {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(65536);
+      try {
+        while (true) {
+          buffer.clear();
+          InetSocketAddress srcAddress = (InetSocketAddress) channel.receive(buffer);
+          buffer.flip();
+          try {
+            if (!receiveScmpError(buffer, srcAddress)) {
+              queuePacket(buffer, srcAddress);
+            }
+          } catch (RuntimeException e) {
+            // E.g. thrown by an error listener. Drop the packet but keep receiving.
+            LOG.warn("Failed to process packet from {}", srcAddress, e);
+          }
+        }
+      } catch (IOException e) {
+        // The channel has been closed
+      } catch (RuntimeException e) {
+        LOG.error("Background receiver failed", e);
+        failure = e;
+      }
+      queue.clear();
+      queue.offer(closedMarker);
+    }
+
+    private void queuePacket(ByteBuffer buffer, InetSocketAddress srcAddress) {
+      ByteBuffer data = freeBuffers.poll();
+      if (data == null || data.capacity() < buffer.remaining()) {
+        data = ByteBuffer.allocate(Math.max(buffer.remaining(), DEFAULT_BUFFER_SIZE));
+      }
+      data.clear();
+      data.put(buffer).flip();
+      // If the queue is full, we drop the packet, consistent with UDP behavior.
+      if (!queue.offer(new ReceivedPacket(srcAddress, data))) {
+        freeBuffers.offer(data);
+      }
+    }
+
+    private boolean receiveScmpError(ByteBuffer buffer, InetSocketAddress srcAddress) {
+      if (ScionHeaderParser.validate(buffer.asReadOnlyBuffer()) != null) {
+        return false;
+      }
+      try {
+        InternalConstants.HdrTypes hdrType = ScionHeaderParser.extractNextHeader(buffer);
+        buffer.position(ScionHeaderParser.extractHeaderLength(buffer));
+        hdrType = receiveExtensionHeader(buffer, hdrType);
+        if (hdrType == InternalConstants.HdrTypes.SCMP
+            && ScmpParser.extractType(buffer).id() < Scmp.Type.INFO_128.id()) {
+          receiveScmp(buffer, ScionHeaderParser.extractResponsePath(buffer, srcAddress));
+          return true;
+        }
+      } catch (UnsupportedOperationException e) {
+        // Let receive() deal with it
+      }
+      buffer.position(0);
+      return false;
+    }
+
+    InetSocketAddress receive(ByteBuffer buffer) throws IOException {
+      ReceivedPacket packet;
+      try {
+        packet = blocking ? queue.take() : queue.poll();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+      if (packet == null) {
+        return null;
+      }
+      if (packet == closedMarker) {
+        queue.offer(closedMarker);
+        if (failure != null) {
+          throw new IOException("Background receiver failed", failure);
+        }
+        throw new AsynchronousCloseException();
+      }
+      ByteBuffer data = packet.data;
+      if (data.remaining() > buffer.remaining()) {
+        data.limit(data.position() + buffer.remaining());
+      }
+      buffer.put(data);
+      freeBuffers.offer(data);
+      return packet.srcAddress;
+    }
+  }
+
+  private static class ReceivedPacket {
+    private final InetSocketAddress srcAddress;
+    private final ByteBuffer data;
+
+    ReceivedPacket(InetSocketAddress srcAddress, ByteBuffer data) {
+      this.srcAddress = srcAddress;
+      this.data = data;
+    }
+  }
 }
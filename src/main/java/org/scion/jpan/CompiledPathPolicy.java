@@ -0,0 +1,225 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A path policy that has been compiled by {@link PathPolicyBuilder}. Evaluation works directly on
+ * the primitive metadata of the paths. {@link #filter(List)} and {@link #filterAll(List)} do not
+ * allocate objects per path, the scratch space for hop sequence matching is allocated once per
+ * call.
+ *
+ * <p>This class is immutable and thread safe.
+ */
+public class CompiledPathPolicy implements PathPolicy {
+
+  private final PathPolicyBuilder.HopPredicates acl;
+  private final boolean[] aclAllow;
+  private final PathPolicyBuilder.HopPredicates sequence;
+  private final char[] quantifiers;
+  private final PathPolicyBuilder.Order[] order;
+
+  CompiledPathPolicy(
+      PathPolicyBuilder.HopPredicates acl,
+      boolean[] aclAllow,
+      PathPolicyBuilder.HopPredicates sequence,
+      char[] quantifiers,
+      PathPolicyBuilder.Order[] order) {
+    this.acl = acl;
+    this.aclAllow = aclAllow;
+    this.sequence = sequence;
+    this.quantifiers = quantifiers;
+    this.order = order;
+  }
+
+  /**
+   * @param paths A list of candidate paths
+   * @return The first path with the highest preference that matches ACL and sequence.
+   * @throws NoSuchElementException if no matching path could be found.
+   */
+  @Override
+  public Path filter(List<Path> paths) {
+    Scratch scratch = new Scratch();
+    Path best = null;
+    for (int i = 0; i < paths.size(); i++) {
+      Path path = paths.get(i);
+      if (matches(path, scratch) && (best == null || compare(path, best) < 0)) {
+        best = path;
+      }
+    }
+    if (best == null) {
+      throw new NoSuchElementException(NO_PATH);
+    }
+    return best;
+  }
+
+  /**
+   * @param paths A list of candidate paths
+   * @return All paths that match ACL and sequence, ordered by preference. Paths with equal
+   *     preference keep their original order.
+   */
+  public List<Path> filterAll(List<Path> paths) {
+    Scratch scratch = new Scratch();
+    List<Path> result = new ArrayList<>(paths.size());
+    for (int i = 0; i < paths.size(); i++) {
+      if (matches(paths.get(i), scratch)) {
+        result.add(paths.get(i));
+      }
+    }
+    if (order.length > 0) {
+      result.sort(this::compare);
+    }
+    return result;
+  }
+
+  /**
+   * @param path A path
+   * @return 'true' if the path is allowed by the ACL and matches the hop sequence.
+   */
+  public boolean matches(Path path) {
+    return matches(path, new Scratch());
+  }
+
+  private boolean matches(Path path, Scratch scratch) {
+    if (acl == null && sequence == null && path instanceof RequestPath) {
+      // Nothing to check, avoid decoding the path.
+      return true;
+    }
+    PathMetadata meta = path.getMetadata();
+    if (meta == null) {
+      return false;
+    }
+    return matchesAcl(meta) && (sequence == null || matchesSequence(meta, scratch));
+  }
+
+  private boolean matchesAcl(PathMetadata meta) {
+    if (acl == null) {
+      return true;
+    }
+    for (int i = 0; i < meta.getInterfaceCount(); i++) {
+      long isdAs = meta.getInterfaceIsdAs(i);
+      long id = meta.getInterfaceId(i);
+      boolean allowed = false;
+      for (int e = 0; e < acl.size(); e++) {
+        if (acl.matchesInterface(e, isdAs, id)) {
+          allowed = aclAllow[e];
+          break;
+        }
+      }
+      if (!allowed) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int hopCount(PathMetadata meta) {
+    int n = meta.getInterfaceCount();
+    return n == 0 ? 0 : n / 2 + 1;
+  }
+
+  // The interface list contains the egress interface of the first AS, then ingress/egress pairs of
+  // all transit ASes and finally the ingress interface of the last AS.
+  private static boolean matchesHop(
+      PathPolicyBuilder.HopPredicates predicates, int p, PathMetadata meta, int hop) {
+    int n = meta.getInterfaceCount();
+    int inPos = 2 * hop - 1;
+    int outPos = 2 * hop;
+    long isdAs = meta.getInterfaceIsdAs(hop == 0 ? 0 : inPos);
+    long ingress = hop == 0 ? 0 : meta.getInterfaceId(inPos);
+    long egress = outPos < n ? meta.getInterfaceId(outPos) : 0;
+    return predicates.matchesHop(p, isdAs, ingress, egress);
+  }
+
+  // Matching is a DP over (token, hop) that is evaluated backwards: matched[h] is 'true' if the
+  // tokens t..end match the hops h..end. Each predicate is evaluated at most once per (token, hop),
+  // so matching takes O(tokens * hops) instead of exponential time with backtracking.
+  private boolean matchesSequence(PathMetadata meta, Scratch scratch) {
+    int nHops = hopCount(meta);
+    scratch.ensureCapacity(nHops + 1);
+    boolean[] next = scratch.next;
+    boolean[] matched = scratch.matched;
+    Arrays.fill(next, 0, nHops, false);
+    next[nHops] = true;
+    for (int t = sequence.size() - 1; t >= 0; t--) {
+      for (int h = nHops; h >= 0; h--) {
+        boolean hopMatches = h < nHops && matchesHop(sequence, t, meta, h);
+        switch (quantifiers[t]) {
+          case '?':
+            matched[h] = next[h] || (hopMatches && next[h + 1]);
+            break;
+          case '*':
+            matched[h] = next[h] || (hopMatches && matched[h + 1]);
+            break;
+          case '+':
+            matched[h] = hopMatches && (next[h + 1] || matched[h + 1]);
+            break;
+          default:
+            matched[h] = hopMatches && next[h + 1];
+        }
+      }
+      boolean[] tmp = next;
+      next = matched;
+      matched = tmp;
+    }
+    return next[0];
+  }
+
+  private int compare(Path path1, Path path2) {
+    for (PathPolicyBuilder.Order o : order) {
+      int result;
+      switch (o) {
+        case MIN_LATENCY:
+          result = Long.compare(path1.totalLatency(), path2.totalLatency());
+          break;
+        case MAX_BANDWIDTH:
+          result = Long.compare(path2.bottleneckBandwidth(), path1.bottleneckBandwidth());
+          break;
+        case MIN_HOPS:
+          result = Integer.compare(path1.interfaceCount(), path2.interfaceCount());
+          break;
+        case MAX_MTU:
+          result = Integer.compare(path2.mtu(), path1.mtu());
+          break;
+        case MAX_EXPIRATION:
+          result = Long.compare(path2.expiration(), path1.expiration());
+          break;
+        default:
+          throw new UnsupportedOperationException(o.name());
+      }
+      if (result != 0) {
+        return result;
+      }
+    }
+    return 0;
+  }
+
+  /** Rows of the matching DP, reused for all paths of a filter() call. */
+  private static class Scratch {
+    private boolean[] next = new boolean[0];
+    private boolean[] matched = new boolean[0];
+
+    void ensureCapacity(int n) {
+      if (next.length < n) {
+        next = new boolean[n];
+        matched = new boolean[n];
+      }
+    }
+  }
+}
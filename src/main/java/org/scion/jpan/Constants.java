@@ -21,7 +21,10 @@ public final class Constants {
    */
   @Deprecated public static final int DISPATCHER_PORT = 30041;
 
+  /** Address of the daemon, e.g. localhost:30255 or unix:///run/shm/sciond.sock */
   public static final String PROPERTY_DAEMON = "org.scion.daemon";
+
+  /** Address of the daemon, e.g. localhost:30255 or unix:///run/shm/sciond.sock */
   public static final String ENV_DAEMON = "SCION_DAEMON";
   public static final String DEFAULT_DAEMON = "localhost:30255";
 
@@ -61,6 +64,95 @@ public final class Constants {
   /** Time (in seconds) before expiration at which a paths is automatically renewed. */
   public static final int DEFAULT_PATH_EXPIRY_MARGIN = 10;
 
+  /**
+   * Time (in milliseconds) after which a segment request is also sent to the next control service.
+   * This should be roughly the p95 latency of segment requests. A value &lt;= 0 disables hedging.
+   */
+  public static final String PROPERTY_CONTROL_SERVICE_HEDGE_DELAY =
+      "org.scion.controlService.hedgeDelay";
+
+  /**
+   * Time (in milliseconds) after which a segment request is also sent to the next control service.
+   * This should be roughly the p95 latency of segment requests. A value &lt;= 0 disables hedging.
+   */
+  public static final String ENV_CONTROL_SERVICE_HEDGE_DELAY = "SCION_CONTROL_SERVICE_HEDGE_DELAY";
+
+  public static final int DEFAULT_CONTROL_SERVICE_HEDGE_DELAY = 200;
+
+  /**
+   * Overall deadline (in milliseconds) for a segment request, including all hedged and failed-over
+   * requests to further control services.
+   */
+  public static final String PROPERTY_CONTROL_SERVICE_DEADLINE = "org.scion.controlService.deadline";
+
+  /**
+   * Overall deadline (in milliseconds) for a segment request, including all hedged and failed-over
+   * requests to further control services.
+   */
+  public static final String ENV_CONTROL_SERVICE_DEADLINE = "SCION_CONTROL_SERVICE_DEADLINE";
+
+  public static final int DEFAULT_CONTROL_SERVICE_DEADLINE = 5_000;
+
+  /** Deadline (in milliseconds) for asynchronous path and address lookups in ScionService. */
+  public static final String PROPERTY_ASYNC_DEADLINE = "org.scion.asyncDeadline";
+
+  /** Deadline (in milliseconds) for asynchronous path and address lookups in ScionService. */
+  public static final String ENV_ASYNC_DEADLINE = "SCION_ASYNC_DEADLINE";
+
+  public static final int DEFAULT_ASYNC_DEADLINE = 10_000;
+
+  /**
+   * Time (in seconds) for which an interface is considered down after receiving an SCMP "External
+   * Interface Down" or "Internal Connectivity Down" error. Paths that traverse such an interface
+   * are avoided during this time.
+   */
+  public static final String PROPERTY_INTERFACE_DOWN_TIMEOUT = "org.scion.interfaceDownTimeout";
+
+  /**
+   * Time (in seconds) for which an interface is considered down after receiving an SCMP "External
+   * Interface Down" or "Internal Connectivity Down" error. Paths that traverse such an interface
+   * are avoided during this time.
+   */
+  public static final String ENV_INTERFACE_DOWN_TIMEOUT = "SCION_INTERFACE_DOWN_TIMEOUT";
+
+  public static final int DEFAULT_INTERFACE_DOWN_TIMEOUT = 60;
+
+  /**
+   * Time (in seconds) for which latencies measured by SCMP echo probes are used for path selection,
+   * see {@link PathPolicy#MEASURED_LATENCY}.
+   */
+  public static final String PROPERTY_PATH_PROBE_TTL = "org.scion.pathProbeTtl";
+
+  /**
+   * Time (in seconds) for which latencies measured by SCMP echo probes are used for path selection,
+   * see {@link PathPolicy#MEASURED_LATENCY}.
+   */
+  public static final String ENV_PATH_PROBE_TTL = "SCION_PATH_PROBE_TTL";
+
+  public static final int DEFAULT_PATH_PROBE_TTL = 60;
+
+  /**
+   * Timeout (in milliseconds) for SCMP echo probes, see {@link
+   * ScionService#probePaths(java.util.List)}.
+   */
+  public static final String PROPERTY_PATH_PROBE_TIMEOUT = "org.scion.pathProbeTimeout";
+
+  /**
+   * Timeout (in milliseconds) for SCMP echo probes, see {@link
+   * ScionService#probePaths(java.util.List)}.
+   */
+  public static final String ENV_PATH_PROBE_TIMEOUT = "SCION_PATH_PROBE_TIMEOUT";
+
+  public static final int DEFAULT_PATH_PROBE_TIMEOUT = 1_000;
+
+  /** Time (in seconds) between two path lookups for path watches, see {@link PathWatch}. */
+  public static final String PROPERTY_PATH_WATCH_INTERVAL = "org.scion.pathWatchInterval";
+
+  /** Time (in seconds) between two path lookups for path watches, see {@link PathWatch}. */
+  public static final String ENV_PATH_WATCH_INTERVAL = "SCION_PATH_WATCH_INTERVAL";
+
+  public static final int DEFAULT_PATH_WATCH_INTERVAL = 60;
+
   /**
    * Disable usage of OS search domains for DNS lookup, e.g from /etc/resolv.conf. This needs to be
    * disabled for JUnit testing.
@@ -0,0 +1,75 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.scion.jpan.internal.CorkBuffer;
+
+/**
+ * Splits datagrams that were sent by a {@link ScionDatagramChannel} with corking enabled (see
+ * {@link ScionDatagramChannel#setCorking(boolean)}) into the original messages. Every message is
+ * prefixed with its length as unsigned 16 bit integer (big endian).
+ */
+public final class CorkDeframer {
+
+  private static final int LENGTH_PREFIX = CorkBuffer.LENGTH_PREFIX;
+
+  private CorkDeframer() {}
+
+  /**
+   * Read the next message from the datagram and advance the position of the datagram to the
+   * following message.
+   *
+   * @param datagram payload of a received datagram
+   * @return A slice of the datagram that contains the message, or `null` if the datagram has no
+   *     remaining messages.
+   * @throws ScionException if the datagram is malformed. The position of the datagram is not
+   *     changed in this case.
+   */
+  public static ByteBuffer next(ByteBuffer datagram) throws ScionException {
+    if (!datagram.hasRemaining()) {
+      return null;
+    }
+    if (datagram.remaining() < LENGTH_PREFIX) {
+      throw new ScionException("Truncated message length");
+    }
+    int pos = datagram.position();
+    int length = datagram.getShort(pos) & 0xFFFF;
+    if (datagram.remaining() < LENGTH_PREFIX + length) {
+      throw new ScionException("Truncated message: " + length);
+    }
+    ByteBuffer message = datagram.duplicate();
+    message.position(pos + LENGTH_PREFIX);
+    message.limit(pos + LENGTH_PREFIX + length);
+    datagram.position(pos + LENGTH_PREFIX + length);
+    return message.slice();
+  }
+
+  /**
+   * @param datagram payload of a received datagram
+   * @return All messages of the datagram as slices of the datagram.
+   * @throws ScionException if the datagram is malformed.
+   */
+  public static List<ByteBuffer> split(ByteBuffer datagram) throws ScionException {
+    List<ByteBuffer> messages = new ArrayList<>();
+    ByteBuffer message;
+    while ((message = next(datagram)) != null) {
+      messages.add(message);
+    }
+    return messages;
+  }
+}
@@ -0,0 +1,115 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Utility for selecting sets of paths that share as few links as possible, e.g. for sending
+ * redundant copies of a datagram, see {@link ScionDatagramChannel#setRedundancy(int)}.
+ *
+ * <p>Two paths share a link if they traverse the same interface, i.e. the same ISD-AS and interface
+ * ID.
+ */
+public final class DisjointPaths {
+
+  private DisjointPaths() {}
+
+  /**
+   * Select up to `count` paths that are maximally link-disjoint. The first path of the list is
+   * always selected. Every following path is the one that shares the fewest links with the paths
+   * selected so far. Ties are broken by the number of hops and then by the order of the input list,
+   * so callers should order the paths by preference, e.g. with a {@link PathPolicy}. Paths with
+   * identical hops are selected at most once.
+   *
+   * <p>This is a greedy approximation; it does not guarantee the optimal set.
+   *
+   * @param paths candidate paths, e.g. from {@link ScionService#getPaths(long,
+   *     java.net.InetSocketAddress)}
+   * @param count maximum number of paths to select
+   * @return the selected paths, in order of selection.
+   */
+  public static List<Path> select(List<Path> paths, int count) {
+    List<Path> selected = new ArrayList<>(Math.min(count, paths.size()));
+    Set<Long> fingerprints = new HashSet<>();
+    Map<Long, Set<Long>> usedInterfaces = new HashMap<>();
+    List<Path> remaining = new ArrayList<>(paths);
+    while (selected.size() < count && !remaining.isEmpty()) {
+      Path best = null;
+      int bestShared = Integer.MAX_VALUE;
+      for (Path path : remaining) {
+        int shared = sharedLinks(path, usedInterfaces);
+        if (shared < bestShared
+            || (shared == bestShared
+                && path.getMetadata().getInterfaceCount()
+                    < best.getMetadata().getInterfaceCount())) {
+          best = path;
+          bestShared = shared;
+        }
+      }
+      remaining.remove(best);
+      if (fingerprints.add(best.getMetadata().getFingerprint())) {
+        selected.add(best);
+        addInterfaces(best, usedInterfaces);
+      }
+    }
+    return selected;
+  }
+
+  /**
+   * @param path1 a path
+   * @param path2 another path
+   * @return the number of links of path1 that are also traversed by path2.
+   */
+  public static int sharedLinks(Path path1, Path path2) {
+    Map<Long, Set<Long>> interfaces = new HashMap<>();
+    addInterfaces(path2, interfaces);
+    return sharedLinks(path1, interfaces);
+  }
+
+  private static int sharedLinks(Path path, Map<Long, Set<Long>> interfaces) {
+    if (interfaces.isEmpty()) {
+      return 0;
+    }
+    // Interfaces come in pairs: egress interface of an AS and ingress interface of the next AS.
+    PathMetadata meta = path.getMetadata();
+    int shared = 0;
+    for (int i = 0; i + 1 < meta.getInterfaceCount(); i += 2) {
+      if (contains(interfaces, meta, i) || contains(interfaces, meta, i + 1)) {
+        shared++;
+      }
+    }
+    return shared;
+  }
+
+  private static boolean contains(Map<Long, Set<Long>> interfaces, PathMetadata meta, int i) {
+    Set<Long> ids = interfaces.get(meta.getInterfaceIsdAs(i));
+    return ids != null && ids.contains(meta.getInterfaceId(i));
+  }
+
+  private static void addInterfaces(Path path, Map<Long, Set<Long>> interfaces) {
+    PathMetadata meta = path.getMetadata();
+    for (int i = 0; i < meta.getInterfaceCount(); i++) {
+      interfaces
+          .computeIfAbsent(meta.getInterfaceIsdAs(i), k -> new HashSet<>())
+          .add(meta.getInterfaceId(i));
+    }
+  }
+}
@@ -0,0 +1,617 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import org.scion.jpan.internal.ReedSolomon;
+
+/**
+ * A channel that protects datagrams with forward error correction (FEC), so that lost datagrams can
+ * be recovered by the receiver without retransmission. All paths share a single underlying {@link
+ * ScionDatagramChannel}.
+ *
+ * <p>Datagrams are grouped into blocks of k data shards. For every block, m parity shards are
+ * computed with a Reed-Solomon code. The receiver can reconstruct all datagrams of a block from any
+ * k of the k+m packets. Data shards are sent immediately, parity shards are sent when the block is
+ * complete or when {@link #flush()} is called. The shards of a block are spread round-robin over
+ * the paths of the channel, so with k+m shards on n paths the loss of one path can be compensated
+ * if m &gt;= (k+m)/n.
+ *
+ * <p>Every packet starts with a header of {@link #HEADER_LENGTH} bytes:
+ *
+ * <pre>
+ *  0: version (1 byte), k (1 byte), m (1 byte), shard index (1 byte)
+ *  4: block number (4 bytes)
+ *  8: data shard count (1 byte, parity shards only), reserved (1 byte), shard length (2 bytes)
+ * </pre>
+ *
+ * Data shards contain the payload length (2 bytes) followed by the payload. The data shard count
+ * can be smaller than k if a block was flushed before it was complete.
+ *
+ * <p>The receiver delivers data shards immediately and recovered data shards as soon as enough
+ * shards of their block have arrived. It keeps state for up to {@value #MAX_BLOCKS} incomplete
+ * blocks. Shard buffers are pooled, so encoding and decoding do not allocate memory once the pool
+ * is warmed up.
+ *
+ * <p>This class is thread safe.
+ */
+public class FecChannel implements Closeable {
+
+  /** Length of the header that precedes the shard of every packet. */
+  public static final int HEADER_LENGTH = 12;
+
+  /** Maximum length of the payload of a datagram. */
+  public static final int MAX_PAYLOAD_LENGTH = 1400;
+
+  private static final byte VERSION = 1;
+  private static final int DEFAULT_DATA_SHARDS = 8;
+  private static final int DEFAULT_PARITY_SHARDS = 2;
+  private static final int DEFAULT_MAX_PATHS = 4;
+  private static final int MAX_BLOCKS = 16;
+  private static final int MAX_SHARD_LENGTH = MAX_PAYLOAD_LENGTH + 2;
+
+  private final ScionDatagramChannel channel;
+  private final Object sendLock = new Object();
+  private final Object receiveLock = new Object();
+  // Fields below are guarded by sendLock.
+  private PathPolicy pathPolicy = PathPolicy.DEFAULT;
+  private int maxPaths = DEFAULT_MAX_PATHS;
+  private List<Path> paths = new ArrayList<>();
+  private ReedSolomon encoder = new ReedSolomon(DEFAULT_DATA_SHARDS, DEFAULT_PARITY_SHARDS);
+  private byte[][] sendShards = newShards(DEFAULT_DATA_SHARDS + DEFAULT_PARITY_SHARDS);
+  private int blockNumber = 0;
+  private int nDataShards = 0;
+  private int maxShardLength = 0;
+  private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(HEADER_LENGTH + MAX_SHARD_LENGTH);
+  // Fields below are guarded by receiveLock.
+  private final ByteBuffer receiveBuffer =
+      ByteBuffer.allocateDirect(HEADER_LENGTH + MAX_SHARD_LENGTH);
+  private final Map<BlockKey, Block> blocks = new LinkedHashMap<>();
+  private final ArrayDeque<Block> recoveredBlocks = new ArrayDeque<>();
+  private final Map<Integer, ReedSolomon> decoders = new HashMap<>();
+  private final ArrayDeque<byte[]> pool = new ArrayDeque<>();
+  private long datagramsRecovered = 0;
+
+  protected FecChannel(ScionDatagramChannel channel) {
+    this.channel = channel;
+  }
+
+  public static FecChannel open() throws IOException {
+    return open(null);
+  }
+
+  public static FecChannel open(ScionService service) throws IOException {
+    return new FecChannel(ScionDatagramChannel.open(service));
+  }
+
+  public FecChannel bind(InetSocketAddress address) throws IOException {
+    channel.bind(address);
+    return this;
+  }
+
+  public InetSocketAddress getLocalAddress() throws IOException {
+    return channel.getLocalAddress();
+  }
+
+  public void configureBlocking(boolean block) throws IOException {
+    channel.configureBlocking(block);
+  }
+
+  public boolean isBlocking() {
+    return channel.isBlocking();
+  }
+
+  public boolean isOpen() {
+    return channel.isOpen();
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  /**
+   * Request paths to the destination and select up to {@link #setMaxPaths(int)} paths. The first
+   * path is chosen by the path policy, the other paths are maximally link-disjoint with the first
+   * path and with each other, see {@link DisjointPaths}.
+   *
+   * @param dstIsdAs Destination ISD/AS
+   * @param dstAddress Destination address
+   * @return this channel
+   * @throws NoSuchElementException if no path was found.
+   */
+  public FecChannel connect(long dstIsdAs, InetSocketAddress dstAddress) {
+    List<Path> candidates = channel.getOrCreateService().getPaths(dstIsdAs, dstAddress);
+    PathPolicy policy;
+    int max;
+    synchronized (sendLock) {
+      policy = pathPolicy;
+      max = maxPaths;
+    }
+    Path first = policy.filter(candidates);
+    List<Path> ordered = new ArrayList<>(candidates.size());
+    ordered.add(first);
+    for (Path path : candidates) {
+      if (path != first) {
+        ordered.add(path);
+      }
+    }
+    setPaths(DisjointPaths.select(ordered, max));
+    return this;
+  }
+
+  /**
+   * Use the given paths, regardless of the path policy.
+   *
+   * @param paths paths to the same destination
+   */
+  public void setPaths(List<Path> paths) {
+    if (paths.isEmpty()) {
+      throw new NoSuchElementException(PathPolicy.NO_PATH);
+    }
+    synchronized (sendLock) {
+      this.paths = new ArrayList<>(paths);
+    }
+  }
+
+  /**
+   * @return The paths that are used for sending.
+   */
+  public List<Path> getPaths() {
+    synchronized (sendLock) {
+      return new ArrayList<>(paths);
+    }
+  }
+
+  public PathPolicy getPathPolicy() {
+    synchronized (sendLock) {
+      return pathPolicy;
+    }
+  }
+
+  /**
+   * Set the path policy that is used by {@link #connect(long, InetSocketAddress)}. The default is
+   * {@link PathPolicy#DEFAULT}.
+   *
+   * @param pathPolicy the path policy
+   */
+  public void setPathPolicy(PathPolicy pathPolicy) {
+    synchronized (sendLock) {
+      this.pathPolicy = pathPolicy;
+    }
+  }
+
+  /**
+   * @param maxPaths maximum number of paths selected by {@link #connect(long, InetSocketAddress)}.
+   *     Default is 4.
+   */
+  public void setMaxPaths(int maxPaths) {
+    if (maxPaths < 1) {
+      throw new IllegalArgumentException("maxPaths must be at least 1: " + maxPaths);
+    }
+    synchronized (sendLock) {
+      this.maxPaths = maxPaths;
+    }
+  }
+
+  /**
+   * Set the number of data and parity shards per block. The current block is flushed first. The
+   * receiver does not need to be configured, it learns the parameters from the packet headers.
+   * Default is k=8, m=2.
+   *
+   * @param dataShards number of datagrams per block (k), at least 1
+   * @param parityShards number of parity shards per block (m), at least 0
+   * @throws IOException in case of an IO error while flushing
+   */
+  public void setCoding(int dataShards, int parityShards) throws IOException {
+    if (dataShards < 1 || parityShards < 0 || dataShards + parityShards > 256) {
+      throw new IllegalArgumentException(
+          "Invalid number of shards: k=" + dataShards + " m=" + parityShards);
+    }
+    synchronized (sendLock) {
+      flush();
+      encoder = new ReedSolomon(dataShards, parityShards);
+      sendShards = newShards(dataShards + parityShards);
+    }
+  }
+
+  public int getDataShards() {
+    synchronized (sendLock) {
+      return encoder.getDataShards();
+    }
+  }
+
+  public int getParityShards() {
+    synchronized (sendLock) {
+      return encoder.getParityShards();
+    }
+  }
+
+  /**
+   * Send the content of the buffer as data shard of the current block. If the block is complete,
+   * the parity shards are sent as well.
+   *
+   * @param srcBuffer payload, at most {@link #MAX_PAYLOAD_LENGTH} bytes
+   * @return The number of payload bytes sent.
+   * @throws IOException in case of an IO error
+   * @throws NoSuchElementException if the channel has no paths.
+   */
+  public int write(ByteBuffer srcBuffer) throws IOException {
+    int len = srcBuffer.remaining();
+    if (len > MAX_PAYLOAD_LENGTH) {
+      throw new IllegalArgumentException("Payload too large: " + len);
+    }
+    synchronized (sendLock) {
+      if (paths.isEmpty()) {
+        throw new NoSuchElementException(PathPolicy.NO_PATH);
+      }
+      byte[] shard = sendShards[nDataShards];
+      shard[0] = (byte) (len >>> 8);
+      shard[1] = (byte) len;
+      srcBuffer.get(shard, 2, len);
+      maxShardLength = Math.max(maxShardLength, len + 2);
+      sendShard(nDataShards, 0, shard, len + 2);
+      nDataShards++;
+      if (nDataShards == encoder.getDataShards()) {
+        flush();
+      }
+      return len;
+    }
+  }
+
+  /**
+   * Send the parity shards of the current block, even if the block is not complete. This should be
+   * called after the last datagram of a burst, otherwise the last datagrams are not protected.
+   *
+   * @throws IOException in case of an IO error
+   */
+  public void flush() throws IOException {
+    synchronized (sendLock) {
+      if (nDataShards == 0) {
+        return;
+      }
+      int k = encoder.getDataShards();
+      // Pad data shards and treat shards of a partial block as zero
+      for (int i = 0; i < k; i++) {
+        int len = i < nDataShards ? shardLength(sendShards[i]) : 0;
+        Arrays.fill(sendShards[i], len, maxShardLength, (byte) 0);
+      }
+      encoder.encode(sendShards, maxShardLength);
+      for (int j = 0; j < encoder.getParityShards(); j++) {
+        sendShard(k + j, nDataShards + j, sendShards[k + j], maxShardLength);
+      }
+      blockNumber++;
+      nDataShards = 0;
+      maxShardLength = 0;
+    }
+  }
+
+  /**
+   * @param index shard index
+   * @param position position of the shard in the sequence of packets of the block
+   */
+  private void sendShard(int index, int position, byte[] shard, int len) throws IOException {
+    boolean isParity = index >= encoder.getDataShards();
+    sendBuffer.clear();
+    sendBuffer.put(VERSION);
+    sendBuffer.put((byte) encoder.getDataShards());
+    sendBuffer.put((byte) encoder.getParityShards());
+    sendBuffer.put((byte) index);
+    sendBuffer.putInt(blockNumber);
+    sendBuffer.put((byte) (isParity ? nDataShards : 0));
+    sendBuffer.put((byte) 0);
+    sendBuffer.putShort((short) len);
+    sendBuffer.put(shard, 0, len);
+    sendBuffer.flip();
+    if (!isParity) {
+      position = index;
+    }
+    channel.send(sendBuffer, paths.get(position % paths.size()));
+  }
+
+  /**
+   * Receive a datagram that was sent by a FecChannel. The header is removed, only the payload is
+   * copied into the buffer. Packets without valid header are dropped.
+   *
+   * @param userBuffer buffer for the payload
+   * @return The sequence number of the datagram (block number * 256 + shard index) or -1 if the
+   *     channel is in non-blocking mode and no datagram is available.
+   * @throws IOException in case of an IO error
+   */
+  public long receive(ByteBuffer userBuffer) throws IOException {
+    synchronized (receiveLock) {
+      while (true) {
+        long seq = deliverRecovered(userBuffer);
+        if (seq >= 0) {
+          return seq;
+        }
+        receiveBuffer.clear();
+        ScionSocketAddress sender = channel.receive(receiveBuffer);
+        if (sender == null) {
+          return -1;
+        }
+        receiveBuffer.flip();
+        seq = processShard(sender, userBuffer);
+        if (seq >= 0) {
+          return seq;
+        }
+      }
+    }
+  }
+
+  /**
+   * @return The number of datagrams that were recovered from parity shards.
+   */
+  public long getDatagramsRecovered() {
+    synchronized (receiveLock) {
+      return datagramsRecovered;
+    }
+  }
+
+  /**
+   * @return the sequence number if the shard is a new data shard that was copied to the userBuffer,
+   *     otherwise -1.
+   */
+  private long processShard(ScionSocketAddress sender, ByteBuffer userBuffer) {
+    ByteBuffer buf = receiveBuffer;
+    if (buf.remaining() < HEADER_LENGTH || buf.get() != VERSION) {
+      return -1;
+    }
+    int k = Byte.toUnsignedInt(buf.get());
+    int m = Byte.toUnsignedInt(buf.get());
+    int index = Byte.toUnsignedInt(buf.get());
+    int number = buf.getInt();
+    int dataCount = Byte.toUnsignedInt(buf.get());
+    buf.get();
+    int len = Short.toUnsignedInt(buf.getShort());
+    if (k == 0
+        || k + m > 256
+        || index >= k + m
+        || len > MAX_SHARD_LENGTH
+        || len != buf.remaining()
+        || (index >= k && (dataCount == 0 || dataCount > k))
+        || (index < k
+            && (len < 2 || Short.toUnsignedInt(buf.getShort(buf.position())) != len - 2))) {
+      return -1;
+    }
+
+    Block block = getBlock(new BlockKey(sender, number), k, m);
+    if (block == null || block.present[index]) {
+      return -1; // Block is finished, evicted or inconsistent, or duplicate shard
+    }
+    byte[] shard = block.shards[index] = takeShard();
+    buf.get(shard, 0, len);
+    block.present[index] = true;
+    block.lengths[index] = len;
+    if (index >= k) {
+      block.dataCount = dataCount;
+      block.shardLength = len;
+    }
+
+    long seq = -1;
+    if (index < k) {
+      deliver(block, index, userBuffer);
+      seq = sequenceNumber(number, index);
+    }
+    if (!block.recovered) {
+      tryRecover(block);
+    }
+    if (block.isFinished()) {
+      releaseBlock(block);
+    }
+    return seq;
+  }
+
+  private void tryRecover(Block block) {
+    if (block.dataCount == 0) {
+      return; // no parity shard received yet
+    }
+    int k = block.k;
+    int nPresent = 0;
+    int nMissing = 0;
+    for (int i = 0; i < k + block.m; i++) {
+      if (block.present[i] || (i >= block.dataCount && i < k)) {
+        nPresent++;
+      } else if (i < k) {
+        nMissing++;
+      }
+    }
+    if (nMissing == 0 || nPresent < k) {
+      return;
+    }
+    int shardLength = block.shardLength;
+    for (int i = 0; i < k; i++) {
+      block.missing[i] = !block.present[i] && i < block.dataCount;
+      if (block.shards[i] == null) {
+        block.shards[i] = takeShard();
+      }
+      if (i >= block.dataCount) {
+        // Shards beyond the end of a partial block are zero
+        Arrays.fill(block.shards[i], 0, shardLength, (byte) 0);
+        block.present[i] = true;
+      } else if (block.present[i]) {
+        Arrays.fill(block.shards[i], block.lengths[i], shardLength, (byte) 0);
+      }
+    }
+    ReedSolomon decoder =
+        decoders.computeIfAbsent(k * 256 + block.m, key -> new ReedSolomon(k, block.m));
+    decoder.decode(block.shards, block.present, shardLength);
+    for (int i = 0; i < k; i++) {
+      if (block.missing[i]) {
+        block.present[i] = true;
+      }
+    }
+    block.recovered = true;
+    recoveredBlocks.add(block);
+  }
+
+  private long deliverRecovered(ByteBuffer userBuffer) {
+    while (!recoveredBlocks.isEmpty()) {
+      Block block = recoveredBlocks.peek();
+      for (int i = 0; i < block.dataCount; i++) {
+        if (block.missing[i]) {
+          block.missing[i] = false;
+          deliver(block, i, userBuffer);
+          datagramsRecovered++;
+          long seq = sequenceNumber(block.key.number, i);
+          if (block.isFinished()) {
+            recoveredBlocks.poll();
+            releaseBlock(block);
+          }
+          return seq;
+        }
+      }
+      recoveredBlocks.poll();
+    }
+    return -1;
+  }
+
+  private static void deliver(Block block, int index, ByteBuffer userBuffer) {
+    byte[] shard = block.shards[index];
+    int payloadLength = Math.min(shardLength(shard) - 2, userBuffer.remaining());
+    userBuffer.put(shard, 2, payloadLength);
+    block.nDelivered++;
+  }
+
+  private Block getBlock(BlockKey key, int k, int m) {
+    Block block = blocks.get(key);
+    if (block == null) {
+      if (blocks.size() >= MAX_BLOCKS) {
+        Iterator<Block> iter = blocks.values().iterator();
+        Block eldest = iter.next();
+        iter.remove();
+        recoveredBlocks.remove(eldest);
+        releaseShards(eldest);
+      }
+      block = new Block(key, k, m);
+      blocks.put(key, block);
+    }
+    if (block.finished || block.k != k || block.m != m) {
+      return null;
+    }
+    return block;
+  }
+
+  /** Release the shard buffers but keep the block to detect late shards. */
+  private void releaseBlock(Block block) {
+    block.finished = true;
+    releaseShards(block);
+  }
+
+  private void releaseShards(Block block) {
+    for (int i = 0; i < block.shards.length; i++) {
+      if (block.shards[i] != null) {
+        if (pool.size() < MAX_BLOCKS * 16) {
+          pool.add(block.shards[i]);
+        }
+        block.shards[i] = null;
+      }
+    }
+  }
+
+  private byte[] takeShard() {
+    byte[] shard = pool.poll();
+    return shard != null ? shard : new byte[MAX_SHARD_LENGTH];
+  }
+
+  private static byte[][] newShards(int n) {
+    byte[][] shards = new byte[n][];
+    for (int i = 0; i < n; i++) {
+      shards[i] = new byte[MAX_SHARD_LENGTH];
+    }
+    return shards;
+  }
+
+  /** Returns the length of the data shard, including the 2 byte length prefix. */
+  private static int shardLength(byte[] shard) {
+    return (((shard[0] & 0xff) << 8) | (shard[1] & 0xff)) + 2;
+  }
+
+  private static long sequenceNumber(int blockNumber, int index) {
+    return (Integer.toUnsignedLong(blockNumber) << 8) | index;
+  }
+
+  private static class Block {
+    private final BlockKey key;
+    private final int k;
+    private final int m;
+    private final byte[][] shards;
+    private final boolean[] present;
+    private final boolean[] missing;
+    private final int[] lengths;
+    // Number of data shards, known once a parity shard was received
+    private int dataCount = 0;
+    private int shardLength = 0;
+    private int nDelivered = 0;
+    private boolean recovered = false;
+    private boolean finished = false;
+
+    Block(BlockKey key, int k, int m) {
+      this.key = key;
+      this.k = k;
+      this.m = m;
+      this.shards = new byte[k + m][];
+      this.present = new boolean[k + m];
+      this.missing = new boolean[k];
+      this.lengths = new int[k + m];
+    }
+
+    boolean isFinished() {
+      return nDelivered == (dataCount > 0 ? dataCount : k);
+    }
+  }
+
+  private static class BlockKey {
+    private final InetSocketAddress sender;
+    private final long isdAs;
+    private final int number;
+
+    BlockKey(ScionSocketAddress sender, int number) {
+      this.sender = sender;
+      this.isdAs = sender.getIsdAs();
+      this.number = number;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      BlockKey other = (BlockKey) o;
+      return number == other.number && isdAs == other.isdAs && sender.equals(other.sender);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(sender, isdAs, number);
+    }
+  }
+}
@@ -0,0 +1,123 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Assigns flows to paths with weighted rendezvous hashing (highest random weight hashing), a form
+ * of consistent hashing. A flow is assigned to the path with the highest score {@code weight /
+ * -ln(hash(flow, path))}. This has the following properties:
+ *
+ * <ul>
+ *   <li>The fraction of flows that is assigned to a path is proportional to the weight of the path.
+ *   <li>When a path is removed, only the flows of this path are moved to other paths. When a path
+ *       is added, it only takes over flows from other paths, no flows move between existing paths.
+ *   <li>Paths are identified by their fingerprint, i.e. a refreshed path keeps its flows.
+ * </ul>
+ *
+ * <p>The weight of a path is its bottleneck bandwidth, see {@link
+ * PathMetadata#getBottleneckBandwidth()}. Paths without bandwidth information get the average
+ * weight of the paths with bandwidth information, or weight 1 if no path has bandwidth information.
+ *
+ * <p>This class is not thread safe.
+ */
+public class FlowPathScheduler {
+
+  private List<Path> paths = Collections.emptyList();
+  // Hash seed for each path, derived from the fingerprint
+  private long[] seeds = new long[0];
+  private double[] weights = new double[0];
+
+  public FlowPathScheduler() {}
+
+  /**
+   * @param paths Paths with metadata, i.e. {@link RequestPath}s.
+   */
+  public FlowPathScheduler(List<Path> paths) {
+    setPaths(paths);
+  }
+
+  /**
+   * Replace the set of paths.
+   *
+   * @param paths Paths with metadata, i.e. {@link RequestPath}s.
+   */
+  public void setPaths(List<Path> paths) {
+    int n = paths.size();
+    long[] newSeeds = new long[n];
+    double[] newWeights = new double[n];
+    double sum = 0;
+    int known = 0;
+    for (int i = 0; i < n; i++) {
+      newSeeds[i] = mix(paths.get(i).getMetadata().getFingerprint());
+      newWeights[i] = paths.get(i).bottleneckBandwidth();
+      if (newWeights[i] > 0) {
+        sum += newWeights[i];
+        known++;
+      }
+    }
+    double defaultWeight = known > 0 ? sum / known : 1;
+    for (int i = 0; i < n; i++) {
+      if (newWeights[i] <= 0) {
+        newWeights[i] = defaultWeight;
+      }
+    }
+    this.paths = Collections.unmodifiableList(new ArrayList<>(paths));
+    this.seeds = newSeeds;
+    this.weights = newWeights;
+  }
+
+  public List<Path> getPaths() {
+    return paths;
+  }
+
+  /**
+   * @param flowId flow identifier
+   * @return the path for the flow.
+   * @throws NoSuchElementException if there are no paths.
+   */
+  public Path getPath(int flowId) {
+    if (paths.isEmpty()) {
+      throw new NoSuchElementException("No paths available");
+    }
+    long flowHash = mix(flowId);
+    int best = 0;
+    double bestScore = -1;
+    for (int i = 0; i < seeds.length; i++) {
+      // Uniform in (0, 1)
+      double u = ((mix(seeds[i] ^ flowHash) >>> 11) + 0.5) * 0x1.0p-53;
+      double score = weights[i] / -Math.log(u);
+      if (score > bestScore) {
+        bestScore = score;
+        best = i;
+      }
+    }
+    return paths.get(best);
+  }
+
+  /** 64-bit finalizer of MurmurHash3. */
+  private static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+}
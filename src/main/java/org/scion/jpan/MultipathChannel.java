@@ -0,0 +1,412 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A channel that spreads datagrams over multiple paths to the same destination ("striping"), e.g.
+ * for aggregating the bandwidth of disjoint paths. All paths share a single underlying {@link
+ * ScionDatagramChannel}.
+ *
+ * <p>Paths are ordered by applying the path policy repeatedly: the first path is the one returned
+ * by {@link PathPolicy#filter(List)}, the second path is the one returned for the remaining paths,
+ * and so on. From this list, up to {@link #setMaxPaths(int)} paths are chosen with {@link
+ * DisjointPaths#select(List, int)}, so that the paths share as few links as possible. Datagrams are
+ * distributed in proportion to the weight of each path. The weight is the throughput that was
+ * reported with {@link #reportThroughput(Path, long)} or, if no throughput was reported, the
+ * announced bandwidth of the path's narrowest link. Paths without either are weighted with the
+ * average of the other paths.
+ *
+ * <p>Every datagram starts with a header of {@link #HEADER_LENGTH} bytes:
+ *
+ * <pre>
+ *  0: version (1 byte), path ID (1 byte), reserved (2 bytes)
+ *  4: per-path sequence number (4 bytes)
+ *  8: channel sequence number (8 bytes)
+ * </pre>
+ *
+ * The channel sequence number allows the receiver to restore the order of the datagrams, the
+ * per-path sequence number allows it to detect loss on individual paths. {@link
+ * #receive(ByteBuffer)} removes the header.
+ *
+ * <p>This class is thread safe.
+ */
+public class MultipathChannel implements Closeable {
+
+  /** Length of the header that precedes the payload of every datagram. */
+  public static final int HEADER_LENGTH = 16;
+
+  private static final byte VERSION = 1;
+  private static final int DEFAULT_MAX_PATHS = 4;
+  // Smoothing factor for reported throughput
+  private static final double ALPHA = 0.25;
+
+  private final ScionDatagramChannel channel;
+  private final Object sendLock = new Object();
+  private final Object receiveLock = new Object();
+  // Fields below are guarded by sendLock.
+  private PathPolicy pathPolicy = PathPolicy.DEFAULT;
+  private int maxPaths = DEFAULT_MAX_PATHS;
+  private Stripe[] stripes = new Stripe[0];
+  private long sequenceNumber = 0;
+  private ByteBuffer sendBuffer = ByteBuffer.allocateDirect(2000);
+  // Fields below are guarded by receiveLock.
+  private ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(2000);
+  private int lastPathId = -1;
+  private long lastPathSequenceNumber = -1;
+
+  protected MultipathChannel(ScionDatagramChannel channel) {
+    this.channel = channel;
+  }
+
+  public static MultipathChannel open() throws IOException {
+    return open(null);
+  }
+
+  public static MultipathChannel open(ScionService service) throws IOException {
+    return new MultipathChannel(ScionDatagramChannel.open(service));
+  }
+
+  public MultipathChannel bind(InetSocketAddress address) throws IOException {
+    channel.bind(address);
+    return this;
+  }
+
+  public InetSocketAddress getLocalAddress() throws IOException {
+    return channel.getLocalAddress();
+  }
+
+  public void configureBlocking(boolean block) throws IOException {
+    channel.configureBlocking(block);
+  }
+
+  public boolean isBlocking() {
+    return channel.isBlocking();
+  }
+
+  public boolean isOpen() {
+    return channel.isOpen();
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  /**
+   * Request paths to the destination and select the paths for striping with the path policy.
+   *
+   * @param dstIsdAs Destination ISD/AS
+   * @param dstAddress Destination address
+   * @return this channel
+   * @throws NoSuchElementException if no path was found.
+   */
+  public MultipathChannel connect(long dstIsdAs, InetSocketAddress dstAddress) {
+    List<Path> paths = channel.getOrCreateService().getPaths(dstIsdAs, dstAddress);
+    setPaths(selectPaths(paths));
+    return this;
+  }
+
+  /**
+   * Use the given paths for striping, regardless of the path policy. Statistics of paths that were
+   * used before are discarded.
+   *
+   * @param paths paths to the same destination, at most 256.
+   */
+  public void setPaths(List<Path> paths) {
+    if (paths.isEmpty()) {
+      throw new NoSuchElementException(PathPolicy.NO_PATH);
+    }
+    if (paths.size() > 256) {
+      throw new IllegalArgumentException("Too many paths: " + paths.size());
+    }
+    Stripe[] newStripes = new Stripe[paths.size()];
+    for (int i = 0; i < newStripes.length; i++) {
+      newStripes[i] = new Stripe(i, paths.get(i));
+    }
+    synchronized (sendLock) {
+      stripes = newStripes;
+      updateWeights();
+    }
+  }
+
+  /**
+   * @return The paths that are used for striping.
+   */
+  public List<Path> getPaths() {
+    synchronized (sendLock) {
+      List<Path> paths = new ArrayList<>(stripes.length);
+      for (Stripe stripe : stripes) {
+        paths.add(stripe.path);
+      }
+      return paths;
+    }
+  }
+
+  public PathPolicy getPathPolicy() {
+    synchronized (sendLock) {
+      return pathPolicy;
+    }
+  }
+
+  /**
+   * Set the path policy that is used by {@link #connect(long, InetSocketAddress)}. The default is
+   * {@link PathPolicy#DEFAULT}.
+   *
+   * @param pathPolicy the path policy
+   */
+  public void setPathPolicy(PathPolicy pathPolicy) {
+    synchronized (sendLock) {
+      this.pathPolicy = pathPolicy;
+    }
+  }
+
+  /**
+   * @param maxPaths maximum number of paths selected by {@link #connect(long, InetSocketAddress)}.
+   *     Default is 4.
+   */
+  public void setMaxPaths(int maxPaths) {
+    if (maxPaths < 1 || maxPaths > 256) {
+      throw new IllegalArgumentException("maxPaths must be in [1, 256]: " + maxPaths);
+    }
+    synchronized (sendLock) {
+      this.maxPaths = maxPaths;
+    }
+  }
+
+  /**
+   * Report the throughput that was measured on a path, e.g. by the receiver. Reported values are
+   * smoothed and take precedence over the announced bandwidth of the path.
+   *
+   * @param path one of the paths returned by {@link #getPaths()}
+   * @param bitsPerSecond measured throughput
+   */
+  public void reportThroughput(Path path, long bitsPerSecond) {
+    synchronized (sendLock) {
+      for (Stripe stripe : stripes) {
+        if (stripe.path == path) {
+          stripe.measured =
+              stripe.measured < 0
+                  ? bitsPerSecond
+                  : (1 - ALPHA) * stripe.measured + ALPHA * bitsPerSecond;
+          updateWeights();
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * @param path one of the paths returned by {@link #getPaths()}
+   * @return The number of datagrams sent on the path.
+   */
+  public long getDatagramsSent(Path path) {
+    synchronized (sendLock) {
+      for (Stripe stripe : stripes) {
+        if (stripe.path == path) {
+          return stripe.datagramsSent;
+        }
+      }
+      return 0;
+    }
+  }
+
+  /**
+   * Send the content of the buffer on the next path.
+   *
+   * @param srcBuffer payload
+   * @return The number of payload bytes sent.
+   * @throws IOException in case of an IO error
+   * @throws NoSuchElementException if the channel has no paths.
+   */
+  public int write(ByteBuffer srcBuffer) throws IOException {
+    synchronized (sendLock) {
+      if (stripes.length == 0) {
+        throw new NoSuchElementException(PathPolicy.NO_PATH);
+      }
+      int len = srcBuffer.remaining();
+      Stripe stripe = nextStripe(len);
+      if (sendBuffer.capacity() < len + HEADER_LENGTH) {
+        sendBuffer = ByteBuffer.allocateDirect(len + HEADER_LENGTH);
+      }
+      sendBuffer.clear();
+      sendBuffer.put(VERSION);
+      sendBuffer.put((byte) stripe.id);
+      sendBuffer.putShort((short) 0);
+      sendBuffer.putInt(stripe.sequenceNumber);
+      sendBuffer.putLong(sequenceNumber);
+      sendBuffer.put(srcBuffer);
+      sendBuffer.flip();
+      channel.send(sendBuffer, stripe.path);
+      stripe.sequenceNumber++;
+      stripe.datagramsSent++;
+      sequenceNumber++;
+      return len;
+    }
+  }
+
+  /**
+   * Receive a datagram that was sent by a MultipathChannel. The header is removed, only the payload
+   * is copied into the buffer. Datagrams without valid header are dropped.
+   *
+   * @param userBuffer buffer for the payload
+   * @return The channel sequence number of the datagram or -1 if the channel is in non-blocking
+   *     mode and no datagram is available.
+   * @throws IOException in case of an IO error
+   */
+  public long receive(ByteBuffer userBuffer) throws IOException {
+    synchronized (receiveLock) {
+      while (true) {
+        if (receiveBuffer.capacity() < userBuffer.remaining() + HEADER_LENGTH) {
+          receiveBuffer = ByteBuffer.allocateDirect(userBuffer.remaining() + HEADER_LENGTH);
+        }
+        receiveBuffer.clear();
+        if (channel.receive(receiveBuffer) == null) {
+          return -1;
+        }
+        receiveBuffer.flip();
+        if (receiveBuffer.remaining() < HEADER_LENGTH || receiveBuffer.get() != VERSION) {
+          continue;
+        }
+        lastPathId = Byte.toUnsignedInt(receiveBuffer.get());
+        receiveBuffer.getShort();
+        lastPathSequenceNumber = Integer.toUnsignedLong(receiveBuffer.getInt());
+        long seq = receiveBuffer.getLong();
+        if (receiveBuffer.remaining() > userBuffer.remaining()) {
+          // Like DatagramChannel, silently discard what does not fit into the buffer.
+          receiveBuffer.limit(receiveBuffer.position() + userBuffer.remaining());
+        }
+        userBuffer.put(receiveBuffer);
+        return seq;
+      }
+    }
+  }
+
+  /**
+   * @return The path ID of the last datagram returned by {@link #receive(ByteBuffer)}.
+   */
+  public int getLastPathId() {
+    synchronized (receiveLock) {
+      return lastPathId;
+    }
+  }
+
+  /**
+   * @return The per-path sequence number of the last datagram returned by {@link
+   *     #receive(ByteBuffer)}.
+   */
+  public long getLastPathSequenceNumber() {
+    synchronized (receiveLock) {
+      return lastPathSequenceNumber;
+    }
+  }
+
+  private List<Path> selectPaths(List<Path> paths) {
+    PathPolicy policy;
+    int max;
+    synchronized (sendLock) {
+      policy = pathPolicy;
+      max = maxPaths;
+    }
+    // Order the acceptable paths by preference, then pick the most link-disjoint subset.
+    List<Path> candidates = new ArrayList<>(paths);
+    List<Path> ordered = new ArrayList<>();
+    while (!candidates.isEmpty()) {
+      Path path;
+      try {
+        path = policy.filter(candidates);
+      } catch (NoSuchElementException e) {
+        break;
+      }
+      candidates.remove(path);
+      ordered.add(path);
+    }
+    return DisjointPaths.select(ordered, max);
+  }
+
+  /**
+   * Selects the path with the earliest virtual finish time (weighted fair queueing), so that each
+   * path gets a share of the bytes that is proportional to its weight. Must be called while holding
+   * the sendLock.
+   */
+  private Stripe nextStripe(int len) {
+    Stripe best = null;
+    double bestFinish = Double.MAX_VALUE;
+    for (Stripe stripe : stripes) {
+      double finish = stripe.virtualTime + (len + HEADER_LENGTH) / stripe.weight;
+      if (finish < bestFinish) {
+        bestFinish = finish;
+        best = stripe;
+      }
+    }
+    best.virtualTime = bestFinish;
+    if (bestFinish > 1e12) {
+      // Avoid loss of precision
+      double min = Double.MAX_VALUE;
+      for (Stripe stripe : stripes) {
+        min = Math.min(min, stripe.virtualTime);
+      }
+      for (Stripe stripe : stripes) {
+        stripe.virtualTime -= min;
+      }
+    }
+    return best;
+  }
+
+  /** Must be called while holding the sendLock. */
+  private void updateWeights() {
+    double sum = 0;
+    int known = 0;
+    for (Stripe stripe : stripes) {
+      double w = stripe.measured > 0 ? stripe.measured : stripe.announced;
+      if (w > 0) {
+        sum += w;
+        known++;
+      }
+    }
+    double fallback = known > 0 ? sum / known : 1;
+    for (Stripe stripe : stripes) {
+      double w = stripe.measured > 0 ? stripe.measured : stripe.announced;
+      stripe.weight = w > 0 ? w : fallback;
+      stripe.virtualTime = 0;
+    }
+  }
+
+  private static class Stripe {
+    private final int id;
+    private final Path path;
+    // Announced bandwidth in bit/s, 0 if unknown
+    private final double announced;
+    // Reported throughput in bit/s, -1 if unknown
+    private double measured = -1;
+    private double weight;
+    private double virtualTime = 0;
+    private int sequenceNumber = 0;
+    private long datagramsSent = 0;
+
+    Stripe(int id, Path path) {
+      this.id = id;
+      this.path = path;
+      this.announced = path.bottleneckBandwidth() * 1000.0;
+    }
+  }
+}
@@ -16,6 +16,7 @@ package org.scion.jpan;
 
 import java.net.*;
 import java.util.Arrays;
+import org.scion.jpan.internal.MeasuredLatencies;
 
 /**
  * A Path is an InetSocketAddress/ISD/AS of a destination host plus a path to that host.
@@ -55,6 +56,53 @@ public abstract class Path {
 
   public abstract PathMetadata getMetadata();
 
+  // The following accessors are used by PathPolicies to rank paths. Subclasses may override them
+  // to avoid decoding the metadata of paths that the policy discards. Paths without metadata rank
+  // after paths with metadata.
+
+  long fingerprint() {
+    PathMetadata meta = getMetadata();
+    return meta == null ? 0 : meta.getFingerprint();
+  }
+
+  int interfaceCount() {
+    PathMetadata meta = getMetadata();
+    return meta == null ? Integer.MAX_VALUE : meta.getInterfaceCount();
+  }
+
+  int internalHopsCount() {
+    PathMetadata meta = getMetadata();
+    return meta == null ? Integer.MAX_VALUE : meta.getInternalHopsCount();
+  }
+
+  long totalLatency() {
+    PathMetadata meta = getMetadata();
+    return meta == null ? Long.MAX_VALUE : meta.getTotalLatency();
+  }
+
+  long bottleneckBandwidth() {
+    PathMetadata meta = getMetadata();
+    return meta == null ? 0 : meta.getBottleneckBandwidth();
+  }
+
+  int mtu() {
+    PathMetadata meta = getMetadata();
+    return meta == null ? 0 : meta.getMtu();
+  }
+
+  long expiration() {
+    PathMetadata meta = getMetadata();
+    return meta == null ? 0 : meta.getExpiration();
+  }
+
+  /**
+   * @return The round trip time measured by the ScionService that returned this path, see {@link
+   *     ScionService#probePaths(java.util.List)}.
+   */
+  long measuredRttNanos() {
+    return MeasuredLatencies.UNKNOWN;
+  }
+
   @Override
   public String toString() {
     try {
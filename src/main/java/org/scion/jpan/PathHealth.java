@@ -0,0 +1,158 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan;
+
+import java.util.Arrays;
+
+/**
+ * Health statistics of a path, as measured by a {@link PathHealthMonitor} or as reported with
+ * {@link ScionDatagramChannel#reportPathSample(Path, long, boolean)}. RTT and loss rate are
+ * exponentially weighted moving averages (EWMA), percentiles are computed over the most recent RTT
+ * samples.
+ *
+ * <p>This class is thread safe.
+ */
+public class PathHealth {
+
+  // Smoothing factor for the RTT, same as for TCP's SRTT (RFC 6298)
+  private static final double RTT_ALPHA = 0.125;
+  private static final double LOSS_ALPHA = 0.1;
+  // Number of RTT samples that are kept for percentiles
+  private static final int WINDOW = 64;
+  // Minimum number of samples before a path can be considered degraded
+  private static final int MIN_SAMPLES = 3;
+
+  private final Path path;
+  private final long[] rtts = new long[WINDOW];
+  private int rttCount = 0;
+  private int rttPos = 0;
+  private double rttEwma = -1;
+  private double lossEwma = 0;
+  private long sampleCount = 0;
+  private long lossCount = 0;
+
+  PathHealth(Path path) {
+    this.path = path;
+  }
+
+  /**
+   * @param path path
+   * @param previous statistics of an earlier instance of the same path, may be 'null'.
+   */
+  PathHealth(Path path, PathHealth previous) {
+    this.path = path;
+    if (previous != null) {
+      synchronized (previous) {
+        System.arraycopy(previous.rtts, 0, rtts, 0, WINDOW);
+        rttCount = previous.rttCount;
+        rttPos = previous.rttPos;
+        rttEwma = previous.rttEwma;
+        lossEwma = previous.lossEwma;
+        sampleCount = previous.sampleCount;
+        lossCount = previous.lossCount;
+      }
+    }
+  }
+
+  synchronized void recordRtt(long rttNanos) {
+    rtts[rttPos] = rttNanos;
+    rttPos = (rttPos + 1) % WINDOW;
+    rttCount = Math.min(rttCount + 1, WINDOW);
+    rttEwma = rttEwma < 0 ? rttNanos : (1 - RTT_ALPHA) * rttEwma + RTT_ALPHA * rttNanos;
+    lossEwma = (1 - LOSS_ALPHA) * lossEwma;
+    sampleCount++;
+  }
+
+  synchronized void recordLoss() {
+    lossEwma = (1 - LOSS_ALPHA) * lossEwma + LOSS_ALPHA;
+    sampleCount++;
+    lossCount++;
+  }
+
+  /**
+   * @param maxRttNanos RTT threshold
+   * @param maxLossRate loss rate threshold
+   * @return 'true' if enough samples have been recorded and any of the thresholds is exceeded.
+   */
+  synchronized boolean isDegraded(long maxRttNanos, double maxLossRate) {
+    if (sampleCount < MIN_SAMPLES) {
+      return false;
+    }
+    return lossEwma > maxLossRate || (rttEwma >= 0 && rttEwma > maxRttNanos);
+  }
+
+  public Path getPath() {
+    return path;
+  }
+
+  /**
+   * @return The smoothed RTT in nanoseconds or -1 if no RTT has been measured yet.
+   */
+  public synchronized long getRttNanos() {
+    return rttEwma < 0 ? -1 : Math.round(rttEwma);
+  }
+
+  /**
+   * @param percentile percentile, e.g. 50 for the median or 99.
+   * @return The given percentile of the recent RTT samples in nanoseconds or -1 if no RTT has been
+   *     measured yet.
+   */
+  public synchronized long getRttPercentileNanos(double percentile) {
+    if (percentile < 0 || percentile > 100) {
+      throw new IllegalArgumentException("Percentile must be in [0, 100]: " + percentile);
+    }
+    if (rttCount == 0) {
+      return -1;
+    }
+    long[] sorted = Arrays.copyOf(rtts, rttCount);
+    Arrays.sort(sorted);
+    int index = (int) Math.ceil(percentile / 100 * rttCount) - 1;
+    return sorted[Math.max(0, index)];
+  }
+
+  /**
+   * @return The smoothed loss rate, a value between 0 and 1.
+   */
+  public synchronized double getLossRate() {
+    return lossEwma;
+  }
+
+  /**
+   * @return The number of samples (answered and lost probes).
+   */
+  public synchronized long getSampleCount() {
+    return sampleCount;
+  }
+
+  /**
+   * @return The number of lost probes.
+   */
+  public synchronized long getLossCount() {
+    return lossCount;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "PathHealth{rttNanos="
+        + getRttNanos()
+        + ", lossRate="
+        + lossEwma
+        + ", samples="
+        + sampleCount
+        + ", lost="
+        + lossCount
+        + '}';
+  }
+}
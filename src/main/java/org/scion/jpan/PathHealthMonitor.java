@@ -0,0 +1,517 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.function.Consumer;
+import org.scion.jpan.internal.ByteUtil;
+import org.scion.jpan.internal.InternalConstants;
+import org.scion.jpan.internal.ScmpParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Monitors the health of paths by periodically sending SCMP echo requests over them. For every
+ * path, the monitor keeps track of RTT and loss rate, see {@link PathHealth}.
+ *
+ * <p>Channels can be registered with {@link #register(ScionDatagramChannel)}. The monitor then
+ * probes the path that the channel is currently using for its connection. When a path breaches the
+ * thresholds (see {@link #setThresholds(Duration, double)}), all channels that use the path are
+ * notified and will switch to another path during the next send() or write(), in the same way as
+ * they do for paths that traverse an interface that was reported as down.
+ *
+ * <p>All probing is done by a single thread with a single socket. Probes are scheduled with a
+ * priority queue and replies are matched by sequence number, so monitoring thousands of paths is
+ * cheap. Probes that are not answered within the timeout count as lost when the timeout expires.
+ * Channels and the degradation listener are notified from the monitor thread without holding any
+ * lock of the monitor.
+ *
+ * <p>This class is thread safe.
+ */
+public class PathHealthMonitor implements AutoCloseable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PathHealthMonitor.class);
+  // The sequence number of a probe is the ID of the target.
+  private static final int MAX_TARGETS = 1 << 16;
+  private static final byte[] NO_DATA = new byte[0];
+  // SCMP echo header (8 bytes) + send time (8 bytes)
+  private static final int PROBE_LENGTH = 16;
+
+  private final MonitorChannel channel;
+  private final Thread thread;
+  private final Object lock = new Object();
+  // All fields below are guarded by 'lock'.
+  private final Map<Long, Target> targets = new HashMap<>();
+  private final List<Target> targetsById = new ArrayList<>();
+  private final ArrayDeque<Integer> freeIds = new ArrayDeque<>();
+  private final PriorityQueue<Target> schedule =
+      new PriorityQueue<>(Comparator.comparingLong(t -> t.nextProbe));
+  // Targets with a pending probe, ordered by the time when the probe counts as lost.
+  private final PriorityQueue<Target> timeouts =
+      new PriorityQueue<>(Comparator.comparingLong(t -> t.deadline));
+  private final Set<ScionDatagramChannel> channels = Collections.newSetFromMap(new WeakHashMap<>());
+  private long nextChannelSync = System.nanoTime();
+  private long intervalNanos = Duration.ofSeconds(1).toNanos();
+  private long timeoutNanos = Duration.ofSeconds(1).toNanos();
+  private long maxRttNanos = Long.MAX_VALUE;
+  private double maxLossRate = 1.0;
+  private Consumer<PathHealth> listener;
+  private volatile boolean closed = false;
+  // Notifications for degraded paths, only accessed by the monitor thread.
+  private final List<Runnable> notifications = new ArrayList<>();
+
+  private PathHealthMonitor(ScionService service) throws IOException {
+    this.channel = new MonitorChannel(service);
+    this.thread = new Thread(this::run, "jpan-path-monitor-" + channel.localPort);
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  public static PathHealthMonitor open() throws IOException {
+    return open(Scion.defaultService());
+  }
+
+  public static PathHealthMonitor open(ScionService service) throws IOException {
+    return new PathHealthMonitor(service);
+  }
+
+  /**
+   * @param interval time between two probes on the same path. Default is 1 second.
+   */
+  public void setProbeInterval(Duration interval) {
+    synchronized (lock) {
+      intervalNanos = interval.toNanos();
+    }
+    channel.wakeup();
+  }
+
+  /**
+   * @param timeout time after which an unanswered probe counts as lost. Default is 1 second.
+   */
+  public void setProbeTimeout(Duration timeout) {
+    synchronized (lock) {
+      timeoutNanos = timeout.toNanos();
+    }
+  }
+
+  /**
+   * Set the thresholds for considering a path as degraded. By default, paths are never considered
+   * degraded.
+   *
+   * @param maxRtt maximum smoothed RTT
+   * @param maxLossRate maximum smoothed loss rate, a value between 0 and 1
+   */
+  public void setThresholds(Duration maxRtt, double maxLossRate) {
+    synchronized (lock) {
+      this.maxRttNanos = maxRtt.toNanos();
+      this.maxLossRate = maxLossRate;
+    }
+  }
+
+  /**
+   * Install a listener that is called whenever a path starts breaching the thresholds. The listener
+   * is called from the monitor thread and must not block.
+   *
+   * @param listener the listener
+   * @return Any previously installed listener or 'null' if none was installed.
+   */
+  public Consumer<PathHealth> setDegradationListener(Consumer<PathHealth> listener) {
+    synchronized (lock) {
+      Consumer<PathHealth> old = this.listener;
+      this.listener = listener;
+      return old;
+    }
+  }
+
+  /**
+   * Monitor the path of a channel. The monitor follows the channel when it switches to a different
+   * path. Channels are held weakly, i.e. they are no longer monitored once they are garbage
+   * collected. Unconnected channels are not monitored.
+   *
+   * @param channel a channel
+   */
+  public void register(ScionDatagramChannel channel) {
+    synchronized (lock) {
+      channels.add(channel);
+      nextChannelSync = System.nanoTime();
+    }
+    this.channel.wakeup();
+  }
+
+  public void unregister(ScionDatagramChannel channel) {
+    synchronized (lock) {
+      channels.remove(channel);
+      nextChannelSync = System.nanoTime();
+    }
+  }
+
+  /**
+   * Monitor a path independently of any channel.
+   *
+   * @param path the path
+   * @return The health statistics of the path.
+   */
+  public PathHealth addPath(RequestPath path) {
+    PathHealth health;
+    synchronized (lock) {
+      Target target = getOrCreateTarget(path);
+      target.explicit = true;
+      health = target.health;
+    }
+    channel.wakeup();
+    return health;
+  }
+
+  public void removePath(RequestPath path) {
+    synchronized (lock) {
+      Target target = targets.get(path.getMetadata().getFingerprint());
+      if (target != null) {
+        target.explicit = false;
+        if (target.channels.isEmpty()) {
+          removeTarget(target);
+        }
+      }
+    }
+  }
+
+  /**
+   * @param path a path
+   * @return The health statistics of the path or 'null' if the path is not monitored.
+   */
+  public PathHealth getHealth(Path path) {
+    synchronized (lock) {
+      Target target = targets.get(path.getMetadata().getFingerprint());
+      return target == null ? null : target.health;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    channel.close();
+    try {
+      thread.join(1000);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void run() {
+    while (!closed) {
+      long waitNanos = intervalNanos;
+      try {
+        synchronized (lock) {
+          waitNanos = runDueTasks(System.nanoTime());
+        }
+        notifyDegraded();
+        channel.select(Math.max(1, waitNanos / 1_000_000));
+        receiveReplies();
+        notifyDegraded();
+      } catch (ClosedChannelException | ClosedSelectorException e) {
+        // closed
+        return;
+      } catch (IOException e) {
+        if (!closed) {
+          LOG.error("Path health monitor failed: {}", e.getMessage());
+        }
+        return;
+      } catch (RuntimeException e) {
+        // Keep monitoring the other paths.
+        LOG.error("Error in path health monitor: {}", e.getMessage(), e);
+        notifyDegraded();
+      }
+    }
+  }
+
+  /**
+   * Counts expired probes as lost and sends all due probes. Must be called while holding the lock.
+   *
+   * @return time in nanoseconds until the next probe or timeout is due.
+   */
+  private long runDueTasks(long now) {
+    if (now - nextChannelSync >= 0) {
+      nextChannelSync = now + intervalNanos;
+      syncChannels();
+    }
+    Target expired;
+    while ((expired = timeouts.peek()) != null && now - expired.deadline >= 0) {
+      timeouts.poll();
+      expired.pending = false;
+      expired.health.recordLoss();
+      checkThresholds(expired);
+    }
+    Target target;
+    while ((target = schedule.peek()) != null && now - target.nextProbe >= 0) {
+      schedule.poll();
+      if (target.pending) {
+        // The probe interval is shorter than the timeout, the new probe replaces the pending one.
+        timeouts.remove(target);
+        target.health.recordLoss();
+        checkThresholds(target);
+      }
+      target.pending = true;
+      target.sentNanos = now;
+      target.deadline = now + timeoutNanos;
+      timeouts.add(target);
+      try {
+        channel.sendProbe(target.path, target.id, now);
+      } catch (IOException | RuntimeException e) {
+        LOG.debug("Sending probe failed: {}", e.getMessage());
+      }
+      target.nextProbe = now + intervalNanos;
+      schedule.add(target);
+    }
+    long next = nextChannelSync;
+    if (target != null && target.nextProbe - next < 0) {
+      next = target.nextProbe;
+    }
+    if (!timeouts.isEmpty() && timeouts.peek().deadline - next < 0) {
+      next = timeouts.peek().deadline;
+    }
+    return next - now;
+  }
+
+  /**
+   * Find the paths that are currently used by registered channels. Must be called while holding the
+   * lock.
+   */
+  private void syncChannels() {
+    for (Target target : targets.values()) {
+      target.channels.clear();
+    }
+    for (ScionDatagramChannel ch : channels) {
+      Path path = ch.isOpen() ? ch.getConnectionPath() : null;
+      Path current = path == null ? null : ch.getMappedPath(path);
+      if (current instanceof RequestPath) {
+        try {
+          Target target = getOrCreateTarget((RequestPath) current);
+          target.channels.add(ch);
+        } catch (IllegalStateException e) {
+          LOG.warn("Cannot monitor path of channel: {}", e.getMessage());
+        }
+      }
+    }
+    List<Target> unused = new ArrayList<>();
+    for (Target target : targets.values()) {
+      if (!target.explicit && target.channels.isEmpty()) {
+        unused.add(target);
+      }
+    }
+    for (Target target : unused) {
+      removeTarget(target);
+    }
+  }
+
+  private Target getOrCreateTarget(RequestPath path) {
+    long fingerprint = path.getMetadata().getFingerprint();
+    Target target = targets.get(fingerprint);
+    if (target == null) {
+      int id;
+      if (!freeIds.isEmpty()) {
+        id = freeIds.poll();
+      } else if (targetsById.size() < MAX_TARGETS) {
+        id = targetsById.size();
+        targetsById.add(null);
+      } else {
+        throw new IllegalStateException("Too many paths: " + MAX_TARGETS);
+      }
+      target = new Target(id, path);
+      target.nextProbe = System.nanoTime();
+      targets.put(fingerprint, target);
+      targetsById.set(id, target);
+      schedule.add(target);
+    }
+    return target;
+  }
+
+  private void removeTarget(Target target) {
+    targets.remove(target.path.getMetadata().getFingerprint());
+    targetsById.set(target.id, null);
+    freeIds.add(target.id);
+    schedule.remove(target);
+    timeouts.remove(target);
+  }
+
+  private void receiveReplies() throws IOException {
+    while (true) {
+      ByteBuffer buffer = channel.receiveReply();
+      if (buffer == null) {
+        return;
+      }
+      long now = System.nanoTime();
+      int pos = buffer.position();
+      int id = ByteUtil.toUnsigned(buffer.getShort(pos + 6));
+      long sentNanos = buffer.getLong(pos + 8);
+      synchronized (lock) {
+        Target target = id < targetsById.size() ? targetsById.get(id) : null;
+        // Ignore replies for targets that have been removed or for earlier probes.
+        if (target == null || !target.pending || target.sentNanos != sentNanos) {
+          continue;
+        }
+        target.pending = false;
+        timeouts.remove(target);
+        long rtt = now - sentNanos;
+        if (rtt > timeoutNanos) {
+          target.health.recordLoss();
+        } else {
+          target.health.recordRtt(rtt);
+        }
+        checkThresholds(target);
+      }
+    }
+  }
+
+  /**
+   * Must be called while holding the lock. Notifications are queued and sent by {@link
+   * #notifyDegraded()} after the lock has been released.
+   */
+  private void checkThresholds(Target target) {
+    boolean degraded = target.health.isDegraded(maxRttNanos, maxLossRate);
+    if (degraded && !target.degraded) {
+      LOG.info("Path degraded: {}", target.health);
+      List<ScionDatagramChannel> affected = new ArrayList<>(target.channels);
+      Consumer<PathHealth> l = listener;
+      RequestPath path = target.path;
+      PathHealth health = target.health;
+      notifications.add(
+          () -> {
+            for (ScionDatagramChannel ch : affected) {
+              ch.markPathDegraded(path);
+            }
+            if (l != null) {
+              l.accept(health);
+            }
+          });
+    }
+    target.degraded = degraded;
+  }
+
+  /** Must be called without holding the lock. */
+  private void notifyDegraded() {
+    for (Runnable notification : notifications) {
+      try {
+        notification.run();
+      } catch (RuntimeException e) {
+        LOG.error("Degradation listener failed: {}", e.getMessage(), e);
+      }
+    }
+    notifications.clear();
+  }
+
+  private static class Target {
+    private final int id;
+    private final RequestPath path;
+    private final PathHealth health;
+    private final Set<ScionDatagramChannel> channels =
+        Collections.newSetFromMap(new WeakHashMap<>());
+    // 'true' if the path was added with addPath()
+    private boolean explicit = false;
+    private boolean degraded = false;
+    private long nextProbe;
+    private boolean pending = false;
+    private long sentNanos;
+    // Time when the pending probe counts as lost.
+    private long deadline;
+
+    Target(int id, RequestPath path) {
+      this.id = id;
+      this.path = path;
+      this.health = new PathHealth(path);
+    }
+  }
+
+  private static class MonitorChannel extends AbstractDatagramChannel<MonitorChannel> {
+    private final Selector selector;
+    private final int localPort;
+
+    MonitorChannel(ScionService service) throws IOException {
+      super(service);
+      this.selector = Selector.open();
+      super.channel().configureBlocking(false);
+      super.channel().register(selector, SelectionKey.OP_READ);
+      super.bind(new InetSocketAddress(0));
+      this.localPort = super.getLocalAddress().getPort();
+    }
+
+    void sendProbe(Path path, int sequenceNumber, long sentNanos) throws IOException {
+      writeLock().lock();
+      try {
+        ByteBuffer buffer = getBufferSend(DEFAULT_BUFFER_SIZE);
+        buildHeader(buffer, path, PROBE_LENGTH, InternalConstants.HdrTypes.SCMP);
+        ScmpParser.buildScmpPing(buffer, Scmp.Type.INFO_128, localPort, sequenceNumber, NO_DATA);
+        buffer.putLong(sentNanos);
+        buffer.flip();
+        sendRaw(buffer, path);
+      } finally {
+        writeLock().unlock();
+      }
+    }
+
+    void select(long timeoutMs) throws IOException {
+      selector.select(timeoutMs);
+      selector.selectedKeys().clear();
+    }
+
+    void wakeup() {
+      selector.wakeup();
+    }
+
+    /**
+     * @return A buffer that is positioned at the SCMP header of an echo reply or 'null' if no reply
+     *     is available.
+     */
+    ByteBuffer receiveReply() throws IOException {
+      readLock().lock();
+      try {
+        while (true) {
+          ByteBuffer buffer = getBufferReceive(DEFAULT_BUFFER_SIZE);
+          if (receiveFromChannel(buffer, InternalConstants.HdrTypes.SCMP) == null) {
+            return null;
+          }
+          if (buffer.remaining() >= PROBE_LENGTH
+              && ByteUtil.toUnsigned(buffer.get(buffer.position())) == Scmp.Type.INFO_129.id()
+              && ByteUtil.toUnsigned(buffer.getShort(buffer.position() + 4)) == localPort) {
+            return buffer;
+          }
+        }
+      } finally {
+        readLock().unlock();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      super.close();
+      selector.close();
+    }
+  }
+}
@@ -14,46 +14,116 @@
 
 package org.scion.jpan;
 
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Duration;
 import java.io.UncheckedIOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
-import java.util.Collections;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.RandomAccess;
+import java.util.function.IntFunction;
+import java.util.function.IntToLongFunction;
+import java.util.function.IntUnaryOperator;
 import org.scion.jpan.internal.IPHelper;
+import org.scion.jpan.internal.PathFingerprint;
 import org.scion.jpan.proto.daemon.Daemon;
 
 /**
  * PathMetadata contains the raw path and meta information such as bandwidth, latency or geo
  * coordinates. PathMetadata is available from Paths that are created/returned by the ScionService
  * when requesting a new path from the control service.
+ *
+ * <p>The meta information is decoded once and stored in compact arrays. The indexed accessors, such
+ * as {@link #getInterfaceIsdAs(int)} or {@link #getLatency(int)}, do not allocate any objects and
+ * are preferable for evaluating many paths, e.g. in a PathPolicy. The raw path and the first hop
+ * address are only materialized when they are first requested, i.e. usually only for the path that
+ * is selected by the PathPolicy.
+ *
+ * <p>This class is thread safe.
  */
 public class PathMetadata {
 
-  private final Daemon.Path pathProtoc;
-  private final byte[] pathRaw;
+  private static final LinkType[] LINK_TYPES = LinkType.values();
+
+  // The raw path is copied from the protobuf ByteString when it is first requested.
+  private ByteString pathRawProto;
+  private volatile byte[] pathRaw;
   // We store the first hop separately to void creating unnecessary objects.
-  private final InetSocketAddress firstHop;
+  private volatile InetSocketAddress firstHop;
+  private final Interface localInterface;
+  private final long[] interfaceIsdAs;
+  private final long[] interfaceIds;
+  private final long fingerprint;
+  private final int mtu;
+  private final long expiration;
+  private final int[] latencyMs;
+  private final long[] bandwidth;
+  private final GeoCoordinates[] geo;
+  private final LinkType[] linkTypes;
+  private final int[] internalHops;
+  private final String[] notes;
+  private final EpicAuths epicAuths;
 
   static PathMetadata create(Daemon.Path path, InetAddress dstIP, int dstPort) {
     return new PathMetadata(path, dstIP, dstPort);
   }
 
   private PathMetadata(Daemon.Path path, InetAddress dstIP, int dstPort) {
-    this.pathProtoc = path;
-    this.pathRaw = path.getRaw().toByteArray();
+    this.pathRawProto = path.getRaw();
     // path length 0 means "local AS"
-    if (getRawPath().length == 0) {
+    if (pathRawProto.isEmpty()) {
       firstHop = new InetSocketAddress(dstIP, dstPort);
-    } else {
-      firstHop = getFirstHopAddress(path);
     }
+    this.localInterface = new Interface(path.getInterface());
+
+    int nInterfaces = path.getInterfacesCount();
+    this.interfaceIsdAs = new long[nInterfaces];
+    this.interfaceIds = new long[nInterfaces];
+    for (int i = 0; i < nInterfaces; i++) {
+      Daemon.PathInterface pathInterface = path.getInterfaces(i);
+      interfaceIsdAs[i] = pathInterface.getIsdAs();
+      interfaceIds[i] = pathInterface.getId();
+    }
+    this.fingerprint = PathFingerprint.compute(interfaceIsdAs, interfaceIds);
+
+    this.mtu = path.getMtu();
+    this.expiration = path.getExpiration().getSeconds();
+
+    this.latencyMs = new int[path.getLatencyCount()];
+    for (int i = 0; i < latencyMs.length; i++) {
+      latencyMs[i] = toMillis(path.getLatency(i));
+    }
+
+    this.bandwidth = new long[path.getBandwidthCount()];
+    for (int i = 0; i < bandwidth.length; i++) {
+      bandwidth[i] = path.getBandwidth(i);
+    }
+
+    this.geo = new GeoCoordinates[path.getGeoCount()];
+    for (int i = 0; i < geo.length; i++) {
+      geo[i] = new GeoCoordinates(path.getGeo(i));
+    }
+
+    this.linkTypes = new LinkType[path.getLinkTypeCount()];
+    for (int i = 0; i < linkTypes.length; i++) {
+      int value = path.getLinkTypeValue(i);
+      linkTypes[i] = value >= 0 && value < LINK_TYPES.length ? LINK_TYPES[value] : LINK_TYPES[0];
+    }
+
+    this.internalHops = new int[path.getInternalHopsCount()];
+    for (int i = 0; i < internalHops.length; i++) {
+      internalHops[i] = path.getInternalHops(i);
+    }
+
+    this.notes = path.getNotesList().toArray(new String[0]);
+    this.epicAuths = new EpicAuths(path.getEpicAuths());
   }
 
-  private InetSocketAddress getFirstHopAddress(Daemon.Path internalPath) {
+  private static InetSocketAddress parseFirstHopAddress(String underlayAddressString) {
     try {
-      String underlayAddressString = internalPath.getInterface().getAddress().getAddress();
       int splitIndex = underlayAddressString.indexOf(':');
       InetAddress ip = IPHelper.toInetAddress(underlayAddressString.substring(0, splitIndex));
       int port = Integer.parseUnsignedInt(underlayAddressString.substring(splitIndex + 1));
@@ -64,102 +134,210 @@ public class PathMetadata {
     }
   }
 
-  private Daemon.Path protoPath() {
-    if (pathProtoc == null) {
-      throw new IllegalStateException(
-          "Information is only available for paths that"
-              + " were retrieved directly from a path server.");
-    }
-    return pathProtoc;
-  }
-
   public InetSocketAddress getFirstHopAddress() throws UnknownHostException {
-    return firstHop;
+    InetSocketAddress address = firstHop;
+    if (address == null) {
+      // Parsing is idempotent, no need to synchronize.
+      address = parseFirstHopAddress(localInterface.getAddress());
+      firstHop = address;
+    }
+    return address;
   }
 
   public byte[] getRawPath() {
-    return pathRaw;
+    byte[] raw = pathRaw;
+    if (raw == null) {
+      synchronized (this) {
+        if (pathRaw == null) {
+          pathRaw = pathRawProto.toByteArray();
+          pathRawProto = null;
+        }
+        raw = pathRaw;
+      }
+    }
+    return raw;
   }
 
   /**
    * @return Interface for exiting the local AS using this path.
-   * @throws IllegalStateException if this is path is only a raw path
    */
   public Interface getInterface() {
-    return new Interface(protoPath().getInterface());
+    return localInterface;
   }
 
   /**
    * @return The list of interfaces the path is composed of.
-   * @throws IllegalStateException if this is path is only a raw path
    */
   public List<PathInterface> getInterfacesList() {
-    return Collections.unmodifiableList(
-        protoPath().getInterfacesList().stream()
-            .map(PathInterface::new)
-            .collect(Collectors.toList()));
+    return new ListView<>(
+        interfaceIds.length, i -> new PathInterface(getInterfaceIsdAs(i), getInterfaceId(i)));
+  }
+
+  /**
+   * @return The number of interfaces the path is composed of.
+   */
+  public int getInterfaceCount() {
+    return interfaceIds.length;
+  }
+
+  /**
+   * @param index index of the interface, see {@link #getInterfacesList()}.
+   * @return ISD-AS of the interface.
+   */
+  public long getInterfaceIsdAs(int index) {
+    return interfaceIsdAs[index];
+  }
+
+  /**
+   * @param index index of the interface, see {@link #getInterfacesList()}.
+   * @return ID of the interface in its AS.
+   */
+  public long getInterfaceId(int index) {
+    return interfaceIds[index];
+  }
+
+  /**
+   * A fingerprint of the sequence of interfaces of this path. Paths that traverse the same
+   * interfaces have the same fingerprint. The fingerprint is stable, i.e. it does not change
+   * between path lookups or JVM instances. Different paths have different fingerprints with very
+   * high probability, use {@link #hasSameInterfaces(PathMetadata)} to rule out collisions.
+   *
+   * @return A 64-bit fingerprint of the interface sequence.
+   */
+  public long getFingerprint() {
+    return fingerprint;
+  }
+
+  /**
+   * @param other metadata of another path
+   * @return 'true' if both paths traverse the same interfaces in the same order.
+   */
+  public boolean hasSameInterfaces(PathMetadata other) {
+    return fingerprint == other.fingerprint
+        && Arrays.equals(interfaceIds, other.interfaceIds)
+        && Arrays.equals(interfaceIsdAs, other.interfaceIsdAs);
   }
 
   /**
    * @return The maximum transmission unit (MTU) on the path.
-   * @throws IllegalStateException if this is path is only a raw path
    */
   public int getMtu() {
-    return protoPath().getMtu();
+    return mtu;
   }
 
   /**
    * @return The point in time when this path expires. In seconds since UNIX epoch.
-   * @throws IllegalStateException if this is path is only a raw path
    */
   public long getExpiration() {
-    return protoPath().getExpiration().getSeconds();
+    return expiration;
   }
 
   /**
    * @return Latency lists the latencies between any two consecutive interfaces. Entry i describes
    *     the latency between interface i and i+1. Consequently, there are N-1 entries for N
    *     interfaces. A 0-value indicates that the AS did not announce a latency for this hop.
-   * @throws IllegalStateException if this is path is only a raw path
    */
   public List<Integer> getLatencyList() {
-    return Collections.unmodifiableList(
-        protoPath().getLatencyList().stream()
-            .map(time -> (int) (time.getSeconds() * 1_000 + time.getNanos() / 1_000_000))
-            .collect(Collectors.toList()));
+    return new ListView<>(latencyMs.length, this::getLatency);
+  }
+
+  /**
+   * @return The number of entries in {@link #getLatencyList()}.
+   */
+  public int getLatencyCount() {
+    return latencyMs.length;
+  }
+
+  /**
+   * @param index index of the entry, see {@link #getLatencyList()}.
+   * @return Latency in milliseconds between interface i and i+1.
+   */
+  public int getLatency(int index) {
+    return latencyMs[index];
   }
 
   /**
    * @return Bandwidth lists the bandwidth between any two consecutive interfaces, in Kbit/s. Entry
    *     i describes the bandwidth between interfaces i and i+1. A 0-value indicates that the AS did
    *     not announce a bandwidth for this hop.
-   * @throws IllegalStateException if this is path is only a raw path
    */
   public List<Long> getBandwidthList() {
-    return protoPath().getBandwidthList();
+    return new ListView<>(bandwidth.length, this::getBandwidth);
+  }
+
+  /**
+   * @return The number of entries in {@link #getBandwidthList()}.
+   */
+  public int getBandwidthCount() {
+    return bandwidth.length;
+  }
+
+  /**
+   * @param index index of the entry, see {@link #getBandwidthList()}.
+   * @return Bandwidth in Kbit/s between interface i and i+1.
+   */
+  public long getBandwidth(int index) {
+    return bandwidth[index];
+  }
+
+  /**
+   * @return The bottleneck bandwidth of the path in Kbit/s, i.e. the minimum announced bandwidth.
+   *     Hops without bandwidth information are ignored. Returns 0 if no hop announced a bandwidth,
+   *     so paths with unknown bandwidth rank after all paths with known bandwidth.
+   */
+  public long getBottleneckBandwidth() {
+    return bottleneckBandwidth(bandwidth.length, i -> bandwidth[i]);
+  }
+
+  /**
+   * @return The sum of the announced latencies in milliseconds. Hops without latency information
+   *     count as Integer.MAX_VALUE, so paths with unknown latency rank after paths with known
+   *     latency.
+   */
+  long getTotalLatency() {
+    return totalLatency(latencyMs.length, i -> latencyMs[i]);
+  }
+
+  static int toMillis(Duration time) {
+    return (int) (time.getSeconds() * 1_000 + time.getNanos() / 1_000_000);
+  }
+
+  static long bottleneckBandwidth(int count, IntToLongFunction bandwidth) {
+    long min = Long.MAX_VALUE;
+    for (int i = 0; i < count; i++) {
+      long b = bandwidth.applyAsLong(i);
+      if (b > 0) {
+        min = Math.min(min, b);
+      }
+    }
+    return min == Long.MAX_VALUE ? 0 : min;
+  }
+
+  static long totalLatency(int count, IntUnaryOperator latencyMs) {
+    // A 0-value indicates that the AS did not announce a latency for this hop.
+    long sum = 0;
+    for (int i = 0; i < count; i++) {
+      int latency = latencyMs.applyAsInt(i);
+      sum += latency > 0 ? latency : Integer.MAX_VALUE;
+    }
+    return sum;
   }
 
   /**
    * @return Geo lists the geographical position of the border routers along the path. Entry i
    *     describes the position of the router for interface i. A 0-value indicates that the AS did
    *     not announce a position for this router.
-   * @throws IllegalStateException if this is path is only a raw path
    */
   public List<GeoCoordinates> getGeoList() {
-    return Collections.unmodifiableList(
-        protoPath().getGeoList().stream().map(GeoCoordinates::new).collect(Collectors.toList()));
+    return new ListView<>(geo.length, i -> geo[i]);
   }
 
   /**
    * @return LinkType contains the announced link type of inter-domain links. Entry i describes the
    *     link between interfaces 2*i and 2*i+1.
-   * @throws IllegalStateException if this is path is only a raw path
    */
   public List<LinkType> getLinkTypeList() {
-    return Collections.unmodifiableList(
-        protoPath().getLinkTypeList().stream()
-            .map(linkType -> LinkType.values()[linkType.getNumber()])
-            .collect(Collectors.toList()));
+    return new ListView<>(linkTypes.length, i -> linkTypes[i]);
   }
 
   /**
@@ -167,27 +345,55 @@ public class PathMetadata {
    *     describes the hop between interfaces 2*i+1 and 2*i+2 in the same AS. Consequently, there
    *     are no entries for the first and last ASes, as these are not traversed completely by the
    *     path.
-   * @throws IllegalStateException if this is path is only a raw path
    */
   public List<Integer> getInternalHopsList() {
-    return protoPath().getInternalHopsList();
+    return new ListView<>(internalHops.length, i -> internalHops[i]);
+  }
+
+  /**
+   * @return The number of entries in {@link #getInternalHopsList()}.
+   */
+  public int getInternalHopsCount() {
+    return internalHops.length;
   }
 
   /**
    * @return Notes contains the notes added by ASes on the path, in the order of occurrence. Entry i
    *     is the note of AS i on the path.
-   * @throws IllegalStateException if this is path is only a raw path
    */
   public List<String> getNotesList() {
-    return protoPath().getNotesList();
+    return new ListView<>(notes.length, i -> notes[i]);
   }
 
   /**
    * @return EpicAuths contains the EPIC authenticators used to calculate the PHVF and LHVF.
-   * @throws IllegalStateException if this is path is only a raw path
    */
   public EpicAuths getEpicAuths() {
-    return new EpicAuths(protoPath().getEpicAuths());
+    return epicAuths;
+  }
+
+  /** Read-only list view on one of the metadata arrays. */
+  private static class ListView<T> extends AbstractList<T> implements RandomAccess {
+    private final int size;
+    private final IntFunction<T> getter;
+
+    ListView(int size, IntFunction<T> getter) {
+      this.size = size;
+      this.getter = getter;
+    }
+
+    @Override
+    public T get(int index) {
+      if (index < 0 || index >= size) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+      }
+      return getter.apply(index);
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
   }
 
   public enum LinkType {
@@ -245,9 +451,9 @@ public class PathMetadata {
 
     private final long id;
 
-    private PathInterface(Daemon.PathInterface pathInterface) {
-      this.isdAs = pathInterface.getIsdAs();
-      this.id = pathInterface.getId();
+    private PathInterface(long isdAs, long id) {
+      this.isdAs = isdAs;
+      this.id = id;
     }
 
     /**
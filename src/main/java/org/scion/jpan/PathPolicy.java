@@ -15,6 +15,7 @@
 package org.scion.jpan;
 
 import java.util.*;
+import org.scion.jpan.internal.MeasuredLatencies;
 
 public interface PathPolicy {
   String NO_PATH = "No path found to destination.";
@@ -22,6 +23,7 @@ public interface PathPolicy {
   PathPolicy MAX_BANDWIDTH = new MaxBandwith();
   PathPolicy MIN_LATENCY = new MinLatency();
   PathPolicy MIN_HOPS = new MinHopCount();
+  PathPolicy MEASURED_LATENCY = new MeasuredLatency();
   PathPolicy DEFAULT = MIN_HOPS;
 
   class First implements PathPolicy {
@@ -30,10 +32,14 @@ public interface PathPolicy {
     }
   }
 
+  /**
+   * Selects the path with the highest bottleneck bandwidth, see {@link
+   * PathMetadata#getBottleneckBandwidth()}. Paths without bandwidth information are ranked last.
+   */
   class MaxBandwith implements PathPolicy {
     public Path filter(List<Path> paths) {
       return paths.stream()
-          .max(Comparator.comparing(path -> Collections.min(path.getMetadata().getBandwidthList())))
+          .max(Comparator.comparingLong(Path::bottleneckBandwidth))
           .orElseThrow(() -> new NoSuchElementException(NO_PATH));
     }
   }
@@ -43,20 +49,47 @@ public interface PathPolicy {
       // A 0-value indicates that the AS did not announce a latency for this hop.
       // We use Integer.MAX_VALUE for comparison of these ASes.
       return paths.stream()
-          .min(
-              Comparator.comparing(
-                  path ->
-                      path.getMetadata().getLatencyList().stream()
-                          .mapToLong(l -> l > 0 ? l : Integer.MAX_VALUE)
-                          .reduce(0, Long::sum)))
+          .min(Comparator.comparingLong(Path::totalLatency))
           .orElseThrow(() -> new NoSuchElementException(NO_PATH));
     }
   }
 
+  /**
+   * Selects the path with the lowest round trip time measured by SCMP echo probes, see {@link
+   * ScionService#probePaths(List)}. ScionService.lookupAndGetPath() probes all paths without recent
+   * measurement before applying this policy. Measurements are looked up in the ScionService that
+   * returned the paths. Paths without measurement are ranked after measured paths by their
+   * announced latency, paths that did not respond to a probe are ranked last.
+   */
+  class MeasuredLatency implements PathPolicy {
+    static final Comparator<Path> COMPARATOR =
+        Comparator.comparingInt(MeasuredLatency::rank).thenComparingLong(MeasuredLatency::latency);
+
+    public Path filter(List<Path> paths) {
+      return paths.stream().min(COMPARATOR).orElseThrow(() -> new NoSuchElementException(NO_PATH));
+    }
+
+    private static int rank(Path path) {
+      long rtt = path.measuredRttNanos();
+      if (rtt == MeasuredLatencies.UNKNOWN) {
+        return 1;
+      }
+      return rtt == MeasuredLatencies.TIMED_OUT ? 2 : 0;
+    }
+
+    private static long latency(Path path) {
+      long rtt = path.measuredRttNanos();
+      if (rtt == MeasuredLatencies.UNKNOWN) {
+        return path.totalLatency();
+      }
+      return rtt;
+    }
+  }
+
   class MinHopCount implements PathPolicy {
     public Path filter(List<Path> paths) {
       return paths.stream()
-          .min(Comparator.comparing(path -> path.getMetadata().getInternalHopsList().size()))
+          .min(Comparator.comparingInt(Path::internalHopsCount))
           .orElseThrow(() -> new NoSuchElementException(NO_PATH));
     }
   }
@@ -77,8 +110,9 @@ public interface PathPolicy {
     }
 
     private boolean checkPath(Path path) {
-      for (PathMetadata.PathInterface pif : path.getMetadata().getInterfacesList()) {
-        int isd = (int) (pif.getIsdAs() >>> 48);
+      PathMetadata meta = path.getMetadata();
+      for (int i = 0; i < meta.getInterfaceCount(); i++) {
+        int isd = (int) (meta.getInterfaceIsdAs(i) >>> 48);
         if (!allowedIsds.contains(isd)) {
           return false;
         }
@@ -103,8 +137,9 @@ public interface PathPolicy {
     }
 
     private boolean checkPath(Path path) {
-      for (PathMetadata.PathInterface pif : path.getMetadata().getInterfacesList()) {
-        int isd = (int) (pif.getIsdAs() >>> 48);
+      PathMetadata meta = path.getMetadata();
+      for (int i = 0; i < meta.getInterfaceCount(); i++) {
+        int isd = (int) (meta.getInterfaceIsdAs(i) >>> 48);
         if (disallowedIsds.contains(isd)) {
           return false;
         }
@@ -0,0 +1,227 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Builder for path policies in the style of the scionproto path policy language. A policy consists
+ * of an optional ACL, an optional hop sequence and an optional list of preferences for ordering the
+ * remaining paths. The builder compiles the policy once into a {@link CompiledPathPolicy} that
+ * evaluates paths directly on the primitive metadata of each path. Compiled policies are immutable
+ * and can be cached and shared between threads.
+ *
+ * <p>Hop predicates have the form <code>ISD[-AS][#IF[,IF]]</code>, where '0' is a wildcard for ISD,
+ * AS or interface ID, e.g. <code>1-ff00:0:110#2</code>, <code>1-0#0</code> or <code>2</code>. With
+ * a single interface, the predicate matches if either the ingress or egress interface of the hop
+ * matches. With two interfaces, they are matched against ingress and egress, respectively.
+ *
+ * <p>Example:
+ *
+ * <pre>
+ * PathPolicy policy = new PathPolicyBuilder()
+ *     .acl("- 1-ff00:0:111#2", "+ 1", "-")
+ *     .sequence("1-ff00:0:110 0* 1-ff00:0:112")
+ *     .orderBy(PathPolicyBuilder.Order.MIN_LATENCY, PathPolicyBuilder.Order.MAX_BANDWIDTH)
+ *     .build();
+ * </pre>
+ */
+public class PathPolicyBuilder {
+
+  private static final long ISD_MASK = 0xFFFFL << 48;
+  private static final long AS_MASK = (1L << 48) - 1L;
+
+  private String[] acl;
+  private String sequence;
+  private Order[] order = new Order[0];
+
+  public enum Order {
+    /** Prefer paths with lower total latency. Hops without announced latency count as very slow. */
+    MIN_LATENCY,
+    /** Prefer paths with higher bottleneck bandwidth. */
+    MAX_BANDWIDTH,
+    /** Prefer paths with fewer interfaces. */
+    MIN_HOPS,
+    /** Prefer paths with larger MTU. */
+    MAX_MTU,
+    /** Prefer paths that expire later. */
+    MAX_EXPIRATION,
+  }
+
+  /**
+   * Set the ACL. Each entry consists of an action ('+' for allow, '-' for deny) followed by an
+   * optional hop predicate with at most one interface, e.g. "+ 1-ff00:0:110#1". An action without
+   * predicate matches all interfaces. Every interface of a path is checked against the entries in
+   * order and the first matching entry decides. A path is rejected if any of its interfaces is
+   * denied or does not match any entry.
+   *
+   * @param entries ACL entries
+   * @return this builder
+   */
+  public PathPolicyBuilder acl(String... entries) {
+    this.acl = entries.clone();
+    return this;
+  }
+
+  /**
+   * Set the hop sequence. The sequence is a whitespace separated list of hop predicates, each
+   * optionally followed by a quantifier '?' (0 or 1), '*' (0 or more) or '+' (1 or more). A path
+   * matches if its sequence of hops (ASes) matches the complete sequence, e.g. "1-ff00:0:110 0*
+   * 2-ff00:0:210". Alternatives and groups are not supported.
+   *
+   * @param sequence hop sequence
+   * @return this builder
+   */
+  public PathPolicyBuilder sequence(String sequence) {
+    this.sequence = sequence;
+    return this;
+  }
+
+  /**
+   * Set the preferences for ordering paths that pass the ACL and hop sequence. Later preferences
+   * are only used to break ties of earlier preferences. Without preferences, the order of the
+   * candidate paths is kept.
+   *
+   * @param order preferences
+   * @return this builder
+   */
+  public PathPolicyBuilder orderBy(Order... order) {
+    this.order = order.clone();
+    return this;
+  }
+
+  /**
+   * @return The compiled policy
+   * @throws IllegalArgumentException if the ACL or the sequence cannot be parsed.
+   */
+  public CompiledPathPolicy build() {
+    HopPredicates aclPredicates = null;
+    boolean[] aclAllow = null;
+    if (acl != null) {
+      if (acl.length == 0) {
+        throw new IllegalArgumentException("ACL must not be empty");
+      }
+      aclPredicates = new HopPredicates(acl.length);
+      aclAllow = new boolean[acl.length];
+      for (int i = 0; i < acl.length; i++) {
+        String entry = acl[i].trim();
+        if (entry.startsWith("+")) {
+          aclAllow[i] = true;
+        } else if (!entry.startsWith("-")) {
+          throw new IllegalArgumentException("ACL entry must start with '+' or '-': " + entry);
+        }
+        String predicate = entry.substring(1).trim();
+        aclPredicates.parse(i, predicate.isEmpty() ? "0" : predicate);
+        if (aclPredicates.if2[i] != -1) {
+          throw new IllegalArgumentException("ACL entry must have at most one interface: " + entry);
+        }
+      }
+    }
+
+    HopPredicates seqPredicates = null;
+    char[] seqQuantifiers = null;
+    if (sequence != null) {
+      String[] tokens = sequence.trim().split("\\s+");
+      List<String> nonEmpty = new ArrayList<>(Arrays.asList(tokens));
+      nonEmpty.removeIf(String::isEmpty);
+      seqPredicates = new HopPredicates(nonEmpty.size());
+      seqQuantifiers = new char[nonEmpty.size()];
+      for (int i = 0; i < nonEmpty.size(); i++) {
+        String token = nonEmpty.get(i);
+        char last = token.charAt(token.length() - 1);
+        if (last == '?' || last == '*' || last == '+') {
+          seqQuantifiers[i] = last;
+          token = token.substring(0, token.length() - 1);
+        } else {
+          seqQuantifiers[i] = ' ';
+        }
+        seqPredicates.parse(i, token);
+      }
+    }
+    return new CompiledPathPolicy(
+        aclPredicates, aclAllow, seqPredicates, seqQuantifiers, order.clone());
+  }
+
+  /** Compiled hop predicates, stored as primitive arrays. */
+  static class HopPredicates {
+    final long[] isdAs;
+    final long[] mask;
+    final long[] if1;
+    // -1 if the predicate has only one interface
+    final long[] if2;
+
+    HopPredicates(int size) {
+      isdAs = new long[size];
+      mask = new long[size];
+      if1 = new long[size];
+      if2 = new long[size];
+    }
+
+    int size() {
+      return isdAs.length;
+    }
+
+    private void parse(int i, String predicate) {
+      try {
+        String iaPart = predicate;
+        if2[i] = -1;
+        int hashPos = predicate.indexOf('#');
+        if (hashPos >= 0) {
+          iaPart = predicate.substring(0, hashPos);
+          String[] ifs = predicate.substring(hashPos + 1).split(",", -1);
+          if (ifs.length > 2) {
+            throw new IllegalArgumentException("Too many interfaces");
+          }
+          if1[i] = Long.parseUnsignedLong(ifs[0]);
+          if (ifs.length == 2) {
+            if2[i] = Long.parseUnsignedLong(ifs[1]);
+          }
+        }
+        long ia;
+        if (iaPart.indexOf('-') < 0) {
+          int isd = Integer.parseUnsignedInt(iaPart);
+          if (isd > 0xFFFF) {
+            throw new IllegalArgumentException("ISD out of range: " + isd);
+          }
+          ia = (long) isd << 48;
+        } else {
+          ia = ScionUtil.parseIA(iaPart);
+        }
+        mask[i] = ((ia & ISD_MASK) != 0 ? ISD_MASK : 0) | ((ia & AS_MASK) != 0 ? AS_MASK : 0);
+        isdAs[i] = ia;
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException("Invalid hop predicate: \"" + predicate + "\"", e);
+      }
+    }
+
+    /** Match an interface against a predicate with at most one interface. */
+    boolean matchesInterface(int i, long ia, long id) {
+      return (ia & mask[i]) == isdAs[i] && (if1[i] == 0 || if1[i] == id);
+    }
+
+    /** Match a hop (an AS with ingress and egress interface) against a predicate. */
+    boolean matchesHop(int i, long ia, long ingress, long egress) {
+      if ((ia & mask[i]) != isdAs[i]) {
+        return false;
+      }
+      if (if2[i] == -1) {
+        return if1[i] == 0 || if1[i] == ingress || if1[i] == egress;
+      }
+      return (if1[i] == 0 || if1[i] == ingress) && (if2[i] == 0 || if2[i] == egress);
+    }
+  }
+}
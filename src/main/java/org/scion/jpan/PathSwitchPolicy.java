@@ -0,0 +1,88 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan;
+
+import java.time.Duration;
+
+/**
+ * Policy for switching the connected path of a {@link ScionDatagramChannel} based on the path
+ * quality that is reported by the application, see {@link
+ * ScionDatagramChannel#reportPathSample(Path, long, boolean)}.
+ *
+ * <p>Paths are compared by their expected delivery time, i.e. the smoothed RTT divided by the
+ * success rate. To avoid flapping, a switch requires a minimum number of samples on both paths, a
+ * minimum relative improvement, and a minimum time since the previous switch.
+ */
+public class PathSwitchPolicy {
+
+  /** 20% improvement, 5 samples, 5 seconds between switches. */
+  public static final PathSwitchPolicy DEFAULT =
+      new PathSwitchPolicy(0.2, 5, Duration.ofSeconds(5));
+
+  private final double minImprovement;
+  private final int minSamples;
+  private final Duration holdTime;
+
+  /**
+   * @param minImprovement minimum relative improvement, e.g. 0.2 for 20%
+   * @param minSamples minimum number of samples of the current and the new path
+   * @param holdTime minimum time between two switches
+   */
+  public PathSwitchPolicy(double minImprovement, int minSamples, Duration holdTime) {
+    if (minImprovement < 0 || minImprovement >= 1) {
+      throw new IllegalArgumentException("minImprovement must be in [0, 1): " + minImprovement);
+    }
+    this.minImprovement = minImprovement;
+    this.minSamples = minSamples;
+    this.holdTime = holdTime;
+  }
+
+  public double getMinImprovement() {
+    return minImprovement;
+  }
+
+  public int getMinSamples() {
+    return minSamples;
+  }
+
+  public Duration getHoldTime() {
+    return holdTime;
+  }
+
+  /**
+   * @param current the health of the current path
+   * @param candidate the health of another path
+   * @return 'true' if the candidate is better than the current path by the required margin.
+   */
+  public boolean isBetter(PathHealth current, PathHealth candidate) {
+    if (current.getSampleCount() < minSamples || candidate.getSampleCount() < minSamples) {
+      return false;
+    }
+    return score(candidate) < score(current) * (1 - minImprovement);
+  }
+
+  /**
+   * @param health path health
+   * @return The expected time in nanoseconds for a successful delivery, lower is better.
+   */
+  static double score(PathHealth health) {
+    long rtt = health.getRttNanos();
+    double success = 1 - health.getLossRate();
+    if (rtt < 0 || success <= 0) {
+      return Double.POSITIVE_INFINITY;
+    }
+    return rtt / success;
+  }
+}
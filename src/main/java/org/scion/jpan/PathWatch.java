@@ -0,0 +1,339 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan;
+
+import java.net.InetAddress;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.scion.jpan.internal.MeasuredLatencies;
+import org.scion.jpan.internal.PathFingerprint;
+import org.scion.jpan.internal.SharedScheduler;
+import org.scion.jpan.proto.daemon.Daemon;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A subscription to path changes for a destination, see {@link ScionService#watchPaths(long,
+ * java.net.InetSocketAddress, Consumer)}. The listener receives incremental updates with paths that
+ * were added, removed or are about to expire.
+ *
+ * <p>All watches for the same destination ISD/AS share a single path lookup. Lookups are repeated
+ * periodically (see {@link Constants#PROPERTY_PATH_WATCH_INTERVAL}) and whenever a path is about to
+ * expire (see {@link Constants#PROPERTY_PATH_EXPIRY_MARGIN}).
+ *
+ * <p>Paths are identified by their interfaces, see {@link PathMetadata#getFingerprint()}. If a path
+ * is replaced by a path with the same interfaces and a later expiration, the new path is reported
+ * as added; it is not reported as removed. Expired paths are reported as removed.
+ */
+public class PathWatch implements AutoCloseable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PathWatch.class);
+
+  private final Group group;
+  private final InetAddress dstAddress;
+  private final int dstPort;
+  private final Consumer<Update> listener;
+  // Fields below are guarded by 'this'.
+  // Fingerprint -> path
+  private Map<Long, Path> paths = new LinkedHashMap<>();
+  // Fingerprints of paths that have been reported as expiring
+  private final Set<Long> expiring = new HashSet<>();
+  private boolean closed = false;
+
+  PathWatch(Group group, InetAddress dstAddress, int dstPort, Consumer<Update> listener) {
+    this.group = group;
+    this.dstAddress = dstAddress;
+    this.dstPort = dstPort;
+    this.listener = listener;
+  }
+
+  public long getDestinationIsdAs() {
+    return group.dstIsdAs;
+  }
+
+  public InetAddress getDestinationAddress() {
+    return dstAddress;
+  }
+
+  public int getDestinationPort() {
+    return dstPort;
+  }
+
+  /**
+   * @return The paths as of the last update.
+   */
+  public synchronized List<Path> getPaths() {
+    return new ArrayList<>(paths.values());
+  }
+
+  /** Stop watching. The listener will not be called anymore after this method returns. */
+  @Override
+  public void close() {
+    synchronized (this) {
+      closed = true;
+    }
+    group.service.removePathWatch(this);
+  }
+
+  Group getGroup() {
+    return group;
+  }
+
+  /**
+   * Compares the paths to the previous paths and calls the listener if anything has changed. The
+   * listener is called while holding the lock so that updates are delivered in order.
+   */
+  synchronized void update(List<Daemon.Path> rawPaths, int expiryMargin) {
+    if (closed) {
+      return;
+    }
+    long now = Instant.now().getEpochSecond();
+    Map<Long, Path> next = new LinkedHashMap<>();
+    Map<Long, Daemon.Path> nextRaw = new LinkedHashMap<>();
+    for (Daemon.Path raw : rawPaths) {
+      long expiration = raw.getExpiration().getSeconds();
+      if (expiration < now) {
+        continue;
+      }
+      long fingerprint = PathFingerprint.compute(raw);
+      Daemon.Path other = nextRaw.get(fingerprint);
+      if (other == null || other.getExpiration().getSeconds() < expiration) {
+        nextRaw.put(fingerprint, raw);
+      }
+    }
+
+    List<Path> added = new ArrayList<>();
+    for (Map.Entry<Long, Daemon.Path> e : nextRaw.entrySet()) {
+      long fingerprint = e.getKey();
+      long expiration = e.getValue().getExpiration().getSeconds();
+      Path old = paths.get(fingerprint);
+      if (old != null && old.getMetadata().getExpiration() >= expiration) {
+        // Keep the existing instance
+        next.put(fingerprint, old);
+        continue;
+      }
+      Path path =
+          RequestPath.create(e.getValue(), group.dstIsdAs, dstAddress, dstPort, group.latencies);
+      next.put(fingerprint, path);
+      added.add(path);
+      expiring.remove(fingerprint);
+    }
+
+    List<Path> removed = new ArrayList<>();
+    for (Map.Entry<Long, Path> e : paths.entrySet()) {
+      if (!next.containsKey(e.getKey())) {
+        removed.add(e.getValue());
+        expiring.remove(e.getKey());
+      }
+    }
+
+    List<Path> expiringSoon = new ArrayList<>();
+    for (Map.Entry<Long, Path> e : next.entrySet()) {
+      if (e.getValue().getMetadata().getExpiration() - expiryMargin <= now
+          && expiring.add(e.getKey())) {
+        expiringSoon.add(e.getValue());
+      }
+    }
+
+    paths = next;
+    if (!added.isEmpty() || !removed.isEmpty() || !expiringSoon.isEmpty()) {
+      Update update = new Update(added, removed, expiringSoon, new ArrayList<>(next.values()));
+      try {
+        listener.accept(update);
+      } catch (RuntimeException e) {
+        LOG.error("Path watch listener failed: {}", e.getMessage());
+      }
+    }
+  }
+
+  /** Changes of the paths to a destination. */
+  public static class Update {
+    private final List<Path> added;
+    private final List<Path> removed;
+    private final List<Path> expiringSoon;
+    private final List<Path> paths;
+
+    Update(List<Path> added, List<Path> removed, List<Path> expiringSoon, List<Path> paths) {
+      this.added = Collections.unmodifiableList(added);
+      this.removed = Collections.unmodifiableList(removed);
+      this.expiringSoon = Collections.unmodifiableList(expiringSoon);
+      this.paths = Collections.unmodifiableList(paths);
+    }
+
+    /**
+     * @return New paths, including paths that replace a path with the same interfaces.
+     */
+    public List<Path> getAdded() {
+      return added;
+    }
+
+    /**
+     * @return Paths that are no longer available or have expired.
+     */
+    public List<Path> getRemoved() {
+      return removed;
+    }
+
+    /**
+     * @return Paths that will expire within the expiry margin.
+     */
+    public List<Path> getExpiringSoon() {
+      return expiringSoon;
+    }
+
+    /**
+     * @return All current paths.
+     */
+    public List<Path> getPaths() {
+      return paths;
+    }
+  }
+
+  /** All watches for a destination ISD/AS. They share a single, periodic path lookup. */
+  static class Group {
+    private final ScionService service;
+    private final MeasuredLatencies latencies;
+    private final long dstIsdAs;
+    private final List<PathWatch> watches = new CopyOnWriteArrayList<>();
+    // Fields below are guarded by 'this'.
+    private List<Daemon.Path> lastPaths = null;
+    private ScheduledFuture<?> task = null;
+    private boolean lookupRunning = false;
+    private boolean closed = false;
+
+    Group(ScionService service, long dstIsdAs) {
+      this.service = service;
+      this.latencies = service == null ? null : service.getMeasuredLatencies();
+      this.dstIsdAs = dstIsdAs;
+    }
+
+    synchronized void add(PathWatch watch) {
+      watches.add(watch);
+      if (lastPaths != null) {
+        // Deliver the known paths without a new lookup
+        int margin = service.getPathExpiryMargin();
+        SharedScheduler.schedule(() -> watch.update(getLastPaths(), margin), 0, TimeUnit.SECONDS);
+      } else if (!lookupRunning) {
+        scheduleLookup(0);
+      }
+    }
+
+    private synchronized List<Daemon.Path> getLastPaths() {
+      return lastPaths;
+    }
+
+    /**
+     * @return 'true' if the group is empty and has been closed.
+     */
+    synchronized boolean remove(PathWatch watch) {
+      watches.remove(watch);
+      if (watches.isEmpty()) {
+        close();
+        return true;
+      }
+      return false;
+    }
+
+    synchronized void close() {
+      closed = true;
+      if (task != null) {
+        task.cancel(false);
+        task = null;
+      }
+    }
+
+    /** Must be called while holding the lock. */
+    private void scheduleLookup(long delaySeconds) {
+      if (closed) {
+        return;
+      }
+      if (task != null) {
+        task.cancel(false);
+      }
+      task = SharedScheduler.schedule(this::lookup, delaySeconds, TimeUnit.SECONDS);
+    }
+
+    private void lookup() {
+      synchronized (this) {
+        task = null;
+        if (closed || lookupRunning) {
+          return;
+        }
+        lookupRunning = true;
+      }
+      try {
+        service
+            .withDeadline(service.getPathListAsync(service.getLocalIsdAs(), dstIsdAs))
+            .whenComplete(
+                (rawPaths, t) -> {
+                  if (t != null) {
+                    LOG.info("Path lookup for path watch failed: {}", t.getMessage());
+                  }
+                  lookupCompleted(rawPaths);
+                });
+      } catch (RuntimeException e) {
+        LOG.info("Path lookup for path watch failed: {}", e.getMessage());
+        lookupCompleted(null);
+      }
+    }
+
+    private void lookupCompleted(List<Daemon.Path> rawPaths) {
+      int margin = service.getPathExpiryMargin();
+      long interval = service.getPathWatchIntervalSeconds();
+      long delay = interval;
+      if (rawPaths != null) {
+        synchronized (this) {
+          lastPaths = rawPaths;
+        }
+        for (PathWatch watch : watches) {
+          watch.update(rawPaths, margin);
+        }
+        delay = getNextEvent(rawPaths, margin, interval);
+      }
+      synchronized (this) {
+        lookupRunning = false;
+        scheduleLookup(delay);
+      }
+    }
+
+    /**
+     * @return Seconds until the next path is about to expire or has expired, at least 1 and at most
+     *     `interval`.
+     */
+    private static long getNextEvent(List<Daemon.Path> rawPaths, int margin, long interval) {
+      long now = Instant.now().getEpochSecond();
+      long next = now + interval;
+      for (Daemon.Path raw : rawPaths) {
+        long expiration = raw.getExpiration().getSeconds();
+        if (expiration - margin > now) {
+          next = Math.min(next, expiration - margin);
+        } else if (expiration > now) {
+          next = Math.min(next, expiration);
+        }
+      }
+      return Math.max(1, next - now);
+    }
+  }
+}
@@ -18,29 +18,62 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.util.List;
+import org.scion.jpan.internal.MeasuredLatencies;
+import org.scion.jpan.internal.PathFingerprint;
 import org.scion.jpan.proto.daemon.Daemon;
 
 /**
  * A RequestPath is a Path with additional meta information such as bandwidth, latency or geo
  * coordinates. RequestPaths are created/returned by the ScionService when requesting a new path
  * from the control service.
+ *
+ * <p>RequestPaths are materialized lazily: the protobuf path is only decoded when the metadata, the
+ * raw path or the first hop is requested for the first time. Ranking paths by latency, bandwidth,
+ * hop count, MTU, expiration or fingerprint reads the protobuf directly, so the built-in orderings
+ * of {@link PathPolicy} and {@link PathPolicyBuilder} do not decode paths that they discard.
+ * Filters that inspect the interfaces of a path (ACL, hop sequence, ISD filters) decode every path
+ * they inspect.
  */
 public class RequestPath extends Path {
 
-  private final PathMetadata metadata;
+  // Released once the metadata has been decoded.
+  private volatile Daemon.Path protoPath;
+  private volatile PathMetadata metadata;
+  // Measurements of the ScionService that created this path, may be 'null'.
+  private final MeasuredLatencies latencies;
 
   static RequestPath create(Daemon.Path path, long dstIsdAs, InetAddress dstIP, int dstPort) {
-    return new RequestPath(path, dstIsdAs, dstIP, dstPort);
+    return new RequestPath(path, dstIsdAs, dstIP, dstPort, null);
   }
 
-  private RequestPath(Daemon.Path path, long dstIsdAs, InetAddress dstIP, int dstPort) {
-    super(path.getRaw().toByteArray(), dstIsdAs, dstIP, dstPort);
-    this.metadata = PathMetadata.create(path, dstIP, dstPort);
+  static RequestPath create(
+      Daemon.Path path,
+      long dstIsdAs,
+      InetAddress dstIP,
+      int dstPort,
+      MeasuredLatencies latencies) {
+    return new RequestPath(path, dstIsdAs, dstIP, dstPort, latencies);
+  }
+
+  private RequestPath(
+      Daemon.Path path,
+      long dstIsdAs,
+      InetAddress dstIP,
+      int dstPort,
+      MeasuredLatencies latencies) {
+    super(null, dstIsdAs, dstIP, dstPort);
+    this.protoPath = path;
+    this.latencies = latencies;
+  }
+
+  @Override
+  public byte[] getRawPath() {
+    return getMetadata().getRawPath();
   }
 
   @Override
   public InetSocketAddress getFirstHopAddress() throws UnknownHostException {
-    return metadata.getFirstHopAddress();
+    return getMetadata().getFirstHopAddress();
   }
 
   /**
@@ -50,7 +83,7 @@ public class RequestPath extends Path {
    */
   @Deprecated // To be removed in 0.3.0
   public PathMetadata.Interface getInterface() {
-    return metadata.getInterface();
+    return getMetadata().getInterface();
   }
 
   /**
@@ -60,7 +93,7 @@ public class RequestPath extends Path {
    */
   @Deprecated // To be removed in 0.3.0
   public List<PathMetadata.PathInterface> getInterfacesList() {
-    return metadata.getInterfacesList();
+    return getMetadata().getInterfacesList();
   }
 
   /**
@@ -70,7 +103,7 @@ public class RequestPath extends Path {
    */
   @Deprecated // To be removed in 0.3.0
   public int getMtu() {
-    return metadata.getMtu();
+    return getMetadata().getMtu();
   }
 
   /**
@@ -80,7 +113,7 @@ public class RequestPath extends Path {
    */
   @Deprecated // To be removed in 0.3.0
   public long getExpiration() {
-    return metadata.getExpiration();
+    return getMetadata().getExpiration();
   }
 
   /**
@@ -92,7 +125,7 @@ public class RequestPath extends Path {
    */
   @Deprecated // To be removed in 0.3.0
   public List<Integer> getLatencyList() {
-    return metadata.getLatencyList();
+    return getMetadata().getLatencyList();
   }
 
   /**
@@ -104,7 +137,7 @@ public class RequestPath extends Path {
    */
   @Deprecated // To be removed in 0.3.0
   public List<Long> getBandwidthList() {
-    return metadata.getBandwidthList();
+    return getMetadata().getBandwidthList();
   }
 
   /**
@@ -116,7 +149,7 @@ public class RequestPath extends Path {
    */
   @Deprecated // To be removed in 0.3.0
   public List<PathMetadata.GeoCoordinates> getGeoList() {
-    return metadata.getGeoList();
+    return getMetadata().getGeoList();
   }
 
   /**
@@ -127,7 +160,7 @@ public class RequestPath extends Path {
    */
   @Deprecated // To be removed in 0.3.0
   public List<PathMetadata.LinkType> getLinkTypeList() {
-    return metadata.getLinkTypeList();
+    return getMetadata().getLinkTypeList();
   }
 
   /**
@@ -140,7 +173,7 @@ public class RequestPath extends Path {
    */
   @Deprecated // To be removed in 0.3.0
   public List<Integer> getInternalHopsList() {
-    return metadata.getInternalHopsList();
+    return getMetadata().getInternalHopsList();
   }
 
   /**
@@ -151,7 +184,7 @@ public class RequestPath extends Path {
    */
   @Deprecated // To be removed in 0.3.0
   public List<String> getNotesList() {
-    return metadata.getNotesList();
+    return getMetadata().getNotesList();
   }
 
   /**
@@ -161,10 +194,82 @@ public class RequestPath extends Path {
    */
   @Deprecated // To be removed in 0.3.0
   public PathMetadata.EpicAuths getEpicAuths() {
-    return metadata.getEpicAuths();
+    return getMetadata().getEpicAuths();
   }
 
+  @Override
   public PathMetadata getMetadata() {
-    return metadata;
+    PathMetadata meta = metadata;
+    if (meta == null) {
+      synchronized (this) {
+        if (metadata == null) {
+          metadata = PathMetadata.create(protoPath, getRemoteAddress(), getRemotePort());
+          protoPath = null;
+        }
+        meta = metadata;
+      }
+    }
+    return meta;
+  }
+
+  boolean isDecoded() {
+    return protoPath == null;
+  }
+
+  @Override
+  long measuredRttNanos() {
+    if (latencies == null) {
+      return MeasuredLatencies.UNKNOWN;
+    }
+    return latencies.getRttNanos(getRemoteIsdAs(), fingerprint());
+  }
+
+  @Override
+  long fingerprint() {
+    Daemon.Path proto = protoPath;
+    return proto != null ? PathFingerprint.compute(proto) : getMetadata().getFingerprint();
+  }
+
+  @Override
+  int interfaceCount() {
+    Daemon.Path proto = protoPath;
+    return proto != null ? proto.getInterfacesCount() : getMetadata().getInterfaceCount();
+  }
+
+  @Override
+  int internalHopsCount() {
+    Daemon.Path proto = protoPath;
+    return proto != null ? proto.getInternalHopsCount() : getMetadata().getInternalHopsCount();
+  }
+
+  @Override
+  long totalLatency() {
+    Daemon.Path proto = protoPath;
+    if (proto == null) {
+      return getMetadata().getTotalLatency();
+    }
+    return PathMetadata.totalLatency(
+        proto.getLatencyCount(), i -> PathMetadata.toMillis(proto.getLatency(i)));
+  }
+
+  @Override
+  long bottleneckBandwidth() {
+    Daemon.Path proto = protoPath;
+    if (proto == null) {
+      return getMetadata().getBottleneckBandwidth();
+    }
+    return PathMetadata.bottleneckBandwidth(proto.getBandwidthCount(), proto::getBandwidth);
+  }
+
+  @Override
+  int mtu() {
+    Daemon.Path proto = protoPath;
+    return proto != null ? proto.getMtu() : getMetadata().getMtu();
+  }
+
+  @Override
+  long expiration() {
+    Daemon.Path proto = protoPath;
+    return proto != null ? proto.getExpiration().getSeconds() : getMetadata().getExpiration();
   }
 }
@@ -44,7 +44,8 @@ public final class Scion {
    * Create a new service instance that connects to a daemon. Services created with this method will
    * never be returned by {@link #defaultService()}.
    *
-   * @param hostAndPort of the local daemon in the form of IP:port
+   * @param hostAndPort of the local daemon in the form of IP:port or, for a Unix domain socket,
+   *     unix:///path/to/sciond.sock (Linux only)
    * @return new ScionService instance
    */
   public static CloseableService newServiceWithDaemon(String hostAndPort) {
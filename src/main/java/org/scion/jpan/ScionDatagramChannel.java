@@ -15,20 +15,47 @@
 package org.scion.jpan;
 
 import java.io.Closeable;
+import java.io.Flushable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.ref.WeakReference;
 import java.net.*;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ByteChannel;
 import java.nio.channels.NotYetConnectedException;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.WeakHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import org.scion.jpan.internal.CorkBuffer;
+import org.scion.jpan.internal.DuplicateFilter;
+import org.scion.jpan.internal.FailedInterfaces;
+import org.scion.jpan.internal.FlowPaths;
 import org.scion.jpan.internal.InternalConstants;
+import org.scion.jpan.internal.MessageFragmenter;
+import org.scion.jpan.internal.MessageReassembler;
+import org.scion.jpan.internal.Pacer;
+import org.scion.jpan.internal.PathContext;
+import org.scion.jpan.internal.PathFingerprint;
+import org.scion.jpan.internal.Redundancy;
 import org.scion.jpan.internal.ScionHeaderParser;
+import org.scion.jpan.internal.SendScheduler;
+import org.scion.jpan.internal.SharedScheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class ScionDatagramChannel extends AbstractDatagramChannel<ScionDatagramChannel>
-    implements ByteChannel, Closeable {
+    implements ByteChannel, Closeable, Flushable {
 
   public enum RefreshPolicy {
     /** No refresh. */
@@ -39,11 +66,73 @@ public class ScionDatagramChannel extends AbstractDatagramChannel<ScionDatagramC
     POLICY
   }
 
+  private static final Logger LOG = LoggerFactory.getLogger(ScionDatagramChannel.class.getName());
+  // Minimum time between two background refresh attempts for the same path.
+  private static final long REFRESH_RETRY_SECONDS = 2;
+  // Minimum time between two failover attempts if no working path was found.
+  private static final long FAILOVER_RETRY_NANOS = TimeUnit.SECONDS.toNanos(1);
+  // Number of paths with reported samples above which expired paths are removed.
+  private static final int MAX_PATH_SAMPLES = 64;
+  // Default maximum number of queued packets per send class.
+  private static final int DEFAULT_MAX_QUEUE_DEPTH = 256;
+  // MTU if the path has no MTU information.
+  private static final int DEFAULT_MTU = 1280;
+  // Common header + address header with IPv6 addresses + UDP header.
+  private static final int SCION_OVERHEAD = 60 + 8;
+  private static final int DEFAULT_MAX_MESSAGE_SIZE = 1024 * 1024;
+  private static final int DEFAULT_MAX_REASSEMBLY_BYTES = 4 * 1024 * 1024;
+  private static final long DEFAULT_REASSEMBLY_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+  // Maximum UDP payload
+  private static final int MAX_DATAGRAM_SIZE = 65535;
+
   // Store on path per (non-Scion-)destination address
   private final WeakHashMap<InetSocketAddress, RequestPath> resolvedDestinations =
       new WeakHashMap<>();
   // Store a refreshed paths for every path
   private final WeakHashMap<Path, RequestPath> refreshedPaths = new WeakHashMap<>();
+  // Paths that are refreshed in the background. Guarded by stateLock.
+  private final WeakHashMap<Path, RefreshEntry> trackedPaths = new WeakHashMap<>();
+  private ScheduledFuture<?> refreshTask;
+  private long refreshTaskTime;
+  private long nextFailoverAttempt = System.nanoTime();
+  // Path quality as reported by the application, by destination ISD/AS and path fingerprint.
+  // Guarded by stateLock.
+  private final Map<PathFingerprint.Key, PathHealth> pathSamples = new HashMap<>();
+  private PathSwitchPolicy pathSwitchPolicy = null;
+  private long nextPathSwitch = System.nanoTime();
+  private final PathContext pathContext = new ChannelPathContext();
+  // Redundant copies, see setRedundancy(). The number of copies and the sequence number are
+  // guarded by writeLock, the alternative paths by stateLock.
+  private final Redundancy redundancy = new Redundancy(pathContext);
+  // Guarded by readLock.
+  private DuplicateFilter duplicateFilter = null;
+  // Paths for write(ByteBuffer, int), see getFlowPath(). Guarded by stateLock.
+  private final FlowPaths flowPaths = new FlowPaths(pathContext);
+  // Pacing, see SCION_PACING_RATE. Guarded by stateLock.
+  private final Pacer pacer = new Pacer();
+  // Send queues, see addSendClass().
+  private final SendScheduler sendScheduler = new SendScheduler();
+  private final SendScheduler.PacketSender packetSender = new ChannelPacketSender();
+  // Guarded by stateLock
+  private final List<SendClass> sendClasses = new ArrayList<>();
+  // Guarded by stateLock.
+  private boolean drainScheduled = false;
+  // Corking, see setCorking(). Guarded by writeLock.
+  private final CorkBuffer corkBuffer = new CorkBuffer(new ChannelCorkSender(), DEFAULT_MTU);
+  // If not `null`, this overrides isBlocking() for the pacer. Guarded by writeLock.
+  // The cork timer must not block the shared scheduler; fragments of a message must not be dropped.
+  private Boolean blockOnPacer = null;
+  // Messages, see sendMessage() and receiveMessage().
+  // Guarded by stateLock.
+  private boolean messageFraming = false;
+  // Guarded by writeLock.
+  private final MessageFragmenter fragmenter = new MessageFragmenter();
+  // Guarded by readLock.
+  private int cfgMaxMessageSize = DEFAULT_MAX_MESSAGE_SIZE;
+  private int cfgMaxReassemblyBytes = DEFAULT_MAX_REASSEMBLY_BYTES;
+  private long cfgReassemblyTimeoutNanos = DEFAULT_REASSEMBLY_TIMEOUT_NANOS;
+  private MessageReassembler reassembler = null;
+  private ByteBuffer messageBuffer = null;
 
   protected ScionDatagramChannel(ScionService service, java.nio.channels.DatagramChannel channel)
       throws IOException {
@@ -79,13 +168,23 @@ public class ScionDatagramChannel extends AbstractDatagramChannel<ScionDatagramC
     readLock().lock();
     try {
       ByteBuffer buffer = getBufferReceive(userBuffer.capacity());
-      ResponsePath receivePath = receiveFromChannel(buffer, InternalConstants.HdrTypes.UDP);
-      if (receivePath == null) {
-        return null; // non-blocking, nothing available
+      while (true) {
+        ResponsePath receivePath = receiveFromChannel(buffer, InternalConstants.HdrTypes.UDP);
+        if (receivePath == null) {
+          return null; // non-blocking, nothing available
+        }
+        int skip = 0;
+        if (duplicateFilter != null) {
+          skip = checkRedundancyHeader(buffer, receivePath);
+          if (skip < 0) {
+            buffer.clear();
+            continue; // duplicate or invalid
+          }
+        }
+        ScionHeaderParser.extractUserPayload(buffer, userBuffer, skip);
+        buffer.clear();
+        return receivePath.getRemoteSocketAddress();
       }
-      ScionHeaderParser.extractUserPayload(buffer, userBuffer);
-      buffer.clear();
-      return receivePath.getRemoteSocketAddress();
     } finally {
       readLock().unlock();
     }
@@ -109,7 +208,7 @@ public class ScionDatagramChannel extends AbstractDatagramChannel<ScionDatagramC
       throw new IllegalArgumentException("Address must be of type InetSocketAddress.");
     }
     if (destination instanceof ScionSocketAddress) {
-      return send(srcBuffer, ((ScionSocketAddress) destination).getPath(), RefreshPolicy.OFF);
+      return send(srcBuffer, ((ScionSocketAddress) destination).getPath(), RefreshPolicy.OFF, null);
     }
 
     InetSocketAddress dst = (InetSocketAddress) destination;
@@ -121,7 +220,7 @@ public class ScionDatagramChannel extends AbstractDatagramChannel<ScionDatagramC
         resolvedDestinations.put(dst, path);
       }
     }
-    return send(srcBuffer, path, RefreshPolicy.POLICY);
+    return send(srcBuffer, path, RefreshPolicy.POLICY, null);
   }
 
   /**
@@ -136,25 +235,61 @@ public class ScionDatagramChannel extends AbstractDatagramChannel<ScionDatagramC
    * @see java.nio.channels.DatagramChannel#send(ByteBuffer, SocketAddress)
    */
   public int send(ByteBuffer srcBuffer, Path path) throws IOException {
-    return send(srcBuffer, path, RefreshPolicy.SAME_LINKS);
+    return send(srcBuffer, path, RefreshPolicy.SAME_LINKS, null);
+  }
+
+  /**
+   * Queue the content of the buffer for sending with the send scheduler, see {@link
+   * #addSendClass(int, int)}. The packet carries the traffic class of `sendClass`.
+   *
+   * @param srcBuffer Data to send
+   * @param path Path to destination. Expiration is *not* verified.
+   * @param sendClass a class returned by {@link #addSendClass(int, int)}
+   * @return The number of bytes queued or 0 if the channel is non-blocking and the queue of the
+   *     class is full.
+   * @throws IOException if an error occurs.
+   */
+  public int send(ByteBuffer srcBuffer, Path path, SendClass sendClass) throws IOException {
+    return send(srcBuffer, path, RefreshPolicy.SAME_LINKS, sendClass);
   }
 
-  private int send(ByteBuffer srcBuffer, Path path, RefreshPolicy refresh) throws IOException {
+  private int send(ByteBuffer srcBuffer, Path path, RefreshPolicy refresh, SendClass sendClass)
+      throws IOException {
+    if (!writeLock().isHeldByCurrentThread()) {
+      refreshIfExpired(path, refresh);
+    }
+    if (sendClass != null && !sendScheduler.reserve(sendClass.getQueue(), isBlocking())) {
+      return 0;
+    }
+    boolean reserved = sendClass != null;
     writeLock().lock();
     try {
-      ByteBuffer buffer = getBufferSend(srcBuffer.remaining());
-      checkPathAndBuildHeaderUDP(buffer, path, srcBuffer.remaining(), refresh);
-      int headerSize = buffer.position();
+      int len = srcBuffer.remaining() + redundancy.getHeaderLength();
+      ByteBuffer buffer = getBufferSend(len);
+      Path actualPath =
+          checkPathAndBuildHeaderUDP(buffer, path, len, refresh, DEFAULT_FLOW_ID, sendClass);
+      int headerSize = buffer.position() + redundancy.getHeaderLength();
+      if (sendClass == null && !pace(actualPath, buffer.position() + len)) {
+        return 0;
+      }
+      int srcPos = srcBuffer.position();
       try {
+        redundancy.putHeader(buffer, 0);
         buffer.put(srcBuffer);
       } catch (BufferOverflowException e) {
         throw new IOException("Packet is larger than max send buffer size.");
       }
       buffer.flip();
-      int size = sendRaw(buffer, path);
+      int size = sendPacket(buffer, actualPath, sendClass, reserved);
+      reserved = false;
+      if (size == 0) {
+        return 0; // non-blocking and the socket buffer is full
+      }
+      sendRedundantCopies(srcBuffer, srcPos, actualPath, DEFAULT_FLOW_ID, sendClass);
       return size - headerSize;
     } finally {
       writeLock().unlock();
+      finishQueuedSend(sendClass, reserved);
     }
   }
 
@@ -182,7 +317,8 @@ public class ScionDatagramChannel extends AbstractDatagramChannel<ScionDatagramC
 
   /**
    * Write the content of a ByteBuffer to a connection. This method uses the path that was provided
-   * or looked up during `connect()`. The path will automatically be refreshed when expired.
+   * or looked up during `connect()`. The path will automatically be refreshed when expired. With
+   * corking enabled, the content may be sent later, see {@link #setCorking(boolean)}.
    *
    * @param src The data to send
    * @return The number of bytes written.
@@ -193,134 +329,1455 @@ public class ScionDatagramChannel extends AbstractDatagramChannel<ScionDatagramC
    */
   @Override
   public int write(ByteBuffer src) throws IOException {
+    refreshIfExpired(getConnectionPath(), RefreshPolicy.POLICY);
     writeLock().lock();
     try {
       checkOpen();
       checkConnected(true);
-      Path path = getConnectionPath();
+      if (corkBuffer.isEnabled()) {
+        return corkBuffer.cork(src);
+      }
+      return write(src, getConnectionPath(), RefreshPolicy.POLICY, DEFAULT_FLOW_ID, null, false);
+    } finally {
+      writeLock().unlock();
+    }
+  }
+
+  /**
+   * Queue the content of a ByteBuffer for sending to the connected destination with the send
+   * scheduler, see {@link #addSendClass(int, int)}. The packet carries the traffic class of
+   * `sendClass`.
+   *
+   * @param src The data to send
+   * @param sendClass a class returned by {@link #addSendClass(int, int)}
+   * @return The number of bytes queued or 0 if the channel is non-blocking and the queue of the
+   *     class is full.
+   * @throws NotYetConnectedException If the channel is not connected.
+   * @throws java.nio.channels.ClosedChannelException If the channel is closed.
+   * @throws IOException If some IOError occurs.
+   */
+  public int write(ByteBuffer src, SendClass sendClass) throws IOException {
+    refreshIfExpired(getConnectionPath(), RefreshPolicy.POLICY);
+    if (!sendScheduler.reserve(sendClass.getQueue(), isBlocking())) {
+      return 0;
+    }
+    boolean reserved = true;
+    writeLock().lock();
+    try {
+      checkOpen();
+      checkConnected(true);
+      int n =
+          write(src, getConnectionPath(), RefreshPolicy.POLICY, DEFAULT_FLOW_ID, sendClass, true);
+      reserved = false;
+      return n;
+    } finally {
+      writeLock().unlock();
+      finishQueuedSend(sendClass, reserved);
+    }
+  }
+
+  /**
+   * Write the content of a ByteBuffer to a connection as part of a flow. Different flows may use
+   * different paths to the connected destination while all datagrams of a flow use the same path,
+   * see {@link #getFlowPath(int)}. The flow ID is also written to the FlowID field of the SCION
+   * header, so that routers can keep flows together as well.
+   *
+   * @param src The data to send
+   * @param flowId The flow ID, 0 to 2^20-1.
+   * @return The number of bytes written.
+   * @throws NotYetConnectedException If the channel is not connected.
+   * @throws java.nio.channels.ClosedChannelException If the channel is closed.
+   * @throws IOException If some IOError occurs.
+   */
+  public int write(ByteBuffer src, int flowId) throws IOException {
+    FlowPaths.checkFlowId(flowId);
+    initFlowPaths();
+    writeLock().lock();
+    try {
+      checkOpen();
+      checkConnected(true);
+      return write(src, selectFlowPath(flowId), RefreshPolicy.OFF, flowId, null, false);
+    } finally {
+      writeLock().unlock();
+    }
+  }
 
-      ByteBuffer buffer = getBufferSend(src.remaining());
+  private int write(
+      ByteBuffer src,
+      Path path,
+      RefreshPolicy refresh,
+      int flowId,
+      SendClass sendClass,
+      boolean reserved)
+      throws IOException {
+    try {
       int len = src.remaining();
-      checkPathAndBuildHeaderUDP(buffer, path, len, RefreshPolicy.POLICY);
+      int hdrLen = redundancy.getHeaderLength();
+      ByteBuffer buffer = getBufferSend(len + hdrLen);
+      Path actualPath =
+          checkPathAndBuildHeaderUDP(buffer, path, len + hdrLen, refresh, flowId, sendClass);
+      if (sendClass == null && !pace(actualPath, buffer.position() + len + hdrLen)) {
+        return 0;
+      }
+      int srcPos = src.position();
+      redundancy.putHeader(buffer, 0);
       buffer.put(src);
       buffer.flip();
 
-      int sent = sendRaw(buffer, path);
+      int sent = sendPacket(buffer, actualPath, sendClass, reserved);
+      if (sent == 0) {
+        return 0; // non-blocking and the socket buffer is full
+      }
       if (sent < buffer.limit() || buffer.remaining() > 0) {
         throw new ScionException("Failed to send all data.");
       }
+      sendRedundantCopies(src, srcPos, actualPath, flowId, sendClass);
       return len - buffer.remaining();
     } catch (BufferOverflowException e) {
       throw new IOException("Source buffer larger than MTU", e);
-    } finally {
-      writeLock().unlock();
     }
   }
 
   /**
-   * @param path path
-   * @param payloadLength payload length
-   * @throws IOException in case of IOException.
+   * Flows are assigned to paths with consistent hashing, weighted by the bandwidth of the paths,
+   * see {@link FlowPathScheduler}. The paths are all paths to the connected destination that do not
+   * traverse interfaces that were reported as down. When a path disappears, e.g. because it failed
+   * or expired, only the flows of this path are moved to other paths.
+   *
+   * <p>The paths are looked up once per destination. Afterward, they are refreshed in the
+   * background before they expire or when a path has failed.
+   *
+   * @param flowId The flow ID, 0 to 2^20-1.
+   * @return The path that is used by {@link #write(ByteBuffer, int)} for the flow.
+   * @throws NotYetConnectedException If the channel is not connected.
    */
-  private void checkPathAndBuildHeaderUDP(
-      ByteBuffer buffer, Path path, int payloadLength, RefreshPolicy rf) throws IOException {
-    synchronized (super.stateLock()) {
-      if (path instanceof RequestPath) {
-        RequestPath requestPath = (RequestPath) path;
-        RequestPath newPath = refreshPath(requestPath, rf);
-        if (newPath != null) {
-          refreshedPaths.put(path, newPath);
-          updateConnection(requestPath, true);
-        }
+  public Path getFlowPath(int flowId) {
+    FlowPaths.checkFlowId(flowId);
+    initFlowPaths();
+    return selectFlowPath(flowId);
+  }
+
+  /**
+   * Look up the paths for flows if they have not been looked up for the connected destination. The
+   * lookup blocks, so this must be called without holding any lock.
+   */
+  private void initFlowPaths() {
+    RequestPath connectionPath;
+    synchronized (stateLock()) {
+      Path path = getConnectionPath();
+      if (!(path instanceof RequestPath) || flowPaths.hasPaths(path)) {
+        return;
       }
-      // + 8 for UDP overlay header length
-      buildHeader(buffer, path, payloadLength + 8, InternalConstants.HdrTypes.UDP);
+      connectionPath = (RequestPath) path;
+    }
+    List<Path> paths = getOrCreateService().getPaths(connectionPath);
+    synchronized (stateLock()) {
+      flowPaths.setPaths(connectionPath, paths);
+    }
+  }
+
+  /** Select the path for a flow without blocking, see {@link #getFlowPath(int)}. */
+  private Path selectFlowPath(int flowId) {
+    synchronized (stateLock()) {
+      return flowPaths.getPath(flowId);
     }
   }
 
   /**
-   * Checks whether the current path is expired and requests and assigns a new path if required.
+   * Send every datagram over up to `copies` paths, see {@link #getRedundancy()}. The receiver
+   * should enable duplicate suppression with {@link #setDuplicateSuppression(boolean)}.
    *
-   * @param path RequestPath that may need refreshing
-   * @param refreshPolicy Path refresh policy
-   * @return a new Path if the path was updated, otherwise `null`.
+   * <p>The first copy uses the path that was passed to send() or the connection path. The other
+   * copies use paths to the same destination that share as few links as possible with the first
+   * path and with each other, see {@link DisjointPaths}. Fewer copies are sent if not enough
+   * different paths are available. Copies are only sent over {@link RequestPath}s, i.e. replies via
+   * a {@link ResponsePath} are sent only once (but still carry the redundancy header).
+   *
+   * <p>The alternative paths for the connection path are looked up by this method. Alternative
+   * paths for other paths are looked up in the background, so the first datagrams over such a path
+   * may be sent with fewer copies.
+   *
+   * <p>With copies &gt; 1, every datagram is prefixed with an 8 byte header that identifies
+   * duplicates. The receiver must therefore also be a {@link ScionDatagramChannel} with duplicate
+   * suppression enabled, and both ends must enable or disable the option together.
+   *
+   * @param copies number of copies per datagram, 1 disables redundant sending.
    */
-  private RequestPath refreshPath(RequestPath path, RefreshPolicy refreshPolicy) {
-    int expiryMargin = getCfgExpirationSafetyMargin();
-    if (Instant.now().getEpochSecond() + expiryMargin <= path.getMetadata().getExpiration()) {
-      return null;
+  public void setRedundancy(int copies) {
+    writeLock().lock();
+    try {
+      redundancy.setCopies(copies);
+    } finally {
+      writeLock().unlock();
     }
-    // expired, get new path
-    List<Path> paths = getOrCreateService().getPaths(path);
-    switch (refreshPolicy) {
-      case OFF:
-        // let this pass until it is ACTUALLY expired
-        if (Instant.now().getEpochSecond() <= path.getMetadata().getExpiration()) {
-          return path;
+    RequestPath primary = null;
+    synchronized (stateLock()) {
+      Path connectionPath = getConnectionPath();
+      if (copies > 1 && connectionPath instanceof RequestPath) {
+        primary = getCurrentPath((RequestPath) connectionPath);
+      }
+    }
+    if (primary != null) {
+      // Look up the alternative paths here rather than on the send path.
+      try {
+        List<Path> paths = getOrCreateService().getPaths(primary);
+        synchronized (stateLock()) {
+          redundancy.setPaths(primary, paths);
         }
-        throw new ScionRuntimeException("Path is expired");
-      case POLICY:
-        return (RequestPath) getPathPolicy().filter(getOrCreateService().getPaths(path));
-      case SAME_LINKS:
-        return findPathSameLinks(paths, path);
-      default:
-        throw new UnsupportedOperationException();
+      } catch (ScionRuntimeException e) {
+        LOG.info("Path lookup for redundant copies failed: {}", e.getMessage());
+      }
     }
   }
 
-  private RequestPath findPathSameLinks(List<Path> paths, RequestPath path) {
-    List<PathMetadata.PathInterface> reference = path.getMetadata().getInterfacesList();
-    for (Path newPath : paths) {
-      List<PathMetadata.PathInterface> ifs = newPath.getMetadata().getInterfacesList();
-      if (ifs.size() != reference.size()) {
-        continue;
-      }
-      boolean isSame = true;
-      for (int i = 0; i < ifs.size(); i++) {
-        // In theory we could compare only the first ISD/AS and then only Interface IDs....
-        PathMetadata.PathInterface if1 = ifs.get(i);
-        PathMetadata.PathInterface if2 = reference.get(i);
-        if (if1.getIsdAs() != if2.getIsdAs() || if1.getId() != if2.getId()) {
-          isSame = false;
-          break;
-        }
+  /**
+   * @return the number of copies per datagram, see {@link #setRedundancy(int)}.
+   */
+  public int getRedundancy() {
+    writeLock().lock();
+    try {
+      return redundancy.getCopies();
+    } finally {
+      writeLock().unlock();
+    }
+  }
+
+  /**
+   * If enabled, receive() and read() drop duplicate datagrams that were sent by a channel with
+   * {@link #setRedundancy(int)} &gt; 1 and remove the redundancy header. Duplicates are detected
+   * with a sliding window of the most recent {@value DuplicateFilter#WINDOW_SIZE} sequence numbers
+   * per sender. Every datagram must carry the redundancy header, datagrams without a valid header
+   * are dropped. Default is 'false'.
+   *
+   * @param enabled 'true' to enable duplicate suppression.
+   */
+  public void setDuplicateSuppression(boolean enabled) {
+    readLock().lock();
+    try {
+      if (!enabled) {
+        duplicateFilter = null;
+      } else if (duplicateFilter == null) {
+        duplicateFilter = new DuplicateFilter();
       }
-      if (isSame) {
-        return (RequestPath) newPath;
+    } finally {
+      readLock().unlock();
+    }
+  }
+
+  public boolean isDuplicateSuppression() {
+    readLock().lock();
+    try {
+      return duplicateFilter != null;
+    } finally {
+      readLock().unlock();
+    }
+  }
+
+  /**
+   * Enable or disable corking for {@link #write(ByteBuffer)}. With corking, messages are not sent
+   * immediately but packed into a single datagram, each message prefixed with its length (2 bytes).
+   * The datagram is sent when the next message would exceed the path MTU (see {@link
+   * PathMetadata#getMtu()}), when {@link #flush()} is called, or when the cork delay has passed
+   * since the first message was corked, see {@link #setCorkDelay(Duration)}. The receiver splits
+   * the datagrams with {@link CorkDeframer}.
+   *
+   * <p>Corking only applies to write(ByteBuffer) on a connected channel. Messages must fit into a
+   * single datagram on the path MTU; larger messages are rejected, see {@link
+   * #writeMessage(ByteBuffer)} for sending them. Disabling corking and closing the channel flush
+   * pending messages.
+   *
+   * @param enabled 'true' to enable corking. Default is 'false'.
+   * @throws IOException if pending messages cannot be sent.
+   */
+  public void setCorking(boolean enabled) throws IOException {
+    writeLock().lock();
+    try {
+      if (enabled) {
+        corkBuffer.enable();
+      } else {
+        corkBuffer.disable();
       }
+    } finally {
+      writeLock().unlock();
+    }
+  }
+
+  public boolean isCorking() {
+    writeLock().lock();
+    try {
+      return corkBuffer.isEnabled();
+    } finally {
+      writeLock().unlock();
     }
-    return null;
   }
 
   /**
-   * The channel maintains mappings from input address to output paths. Input addresses are given as
-   * input to {@link #send(ByteBuffer, SocketAddress)}. The channel tries to resolve the address via
-   * DNS TXT record to a SCION enabled address and stores the result in the mapping for future use.
+   * @param delay Maximum time that a message is held back by corking. Default is 1ms.
+   * @see #setCorking(boolean)
+   */
+  public void setCorkDelay(Duration delay) {
+    if (delay.isNegative()) {
+      throw new IllegalArgumentException("Delay must not be negative: " + delay);
+    }
+    writeLock().lock();
+    try {
+      corkBuffer.setDelayNanos(delay.toNanos());
+    } finally {
+      writeLock().unlock();
+    }
+  }
+
+  /**
+   * Send all messages that were held back by corking, see {@link #setCorking(boolean)}. This waits
+   * for the pacer (see {@link ScionSocketOptions#SCION_PACING_RATE}) also if the channel is
+   * non-blocking. If a non-blocking channel cannot send because the socket buffer is full, the
+   * messages are kept and sent after the cork delay.
    *
-   * @param address A destination address
-   * @return The mapped path or the path itself if no mapping is available.
+   * @throws IOException if an error occurs.
    */
-  public Path getMappedPath(InetSocketAddress address) {
-    synchronized (stateLock()) {
-      return resolvedDestinations.get(address);
+  @Override
+  public void flush() throws IOException {
+    writeLock().lock();
+    try {
+      if (corkBuffer.getPendingBytes() == 0) {
+        return;
+      }
+      checkOpen();
+      checkConnected(true);
+      blockOnPacer = true;
+      corkBuffer.flush();
+    } finally {
+      blockOnPacer = null;
+      writeLock().unlock();
+    }
+  }
+
+  private void onCorkTimer() {
+    if (!writeLock().tryLock()) {
+      corkBuffer.retryTimer();
+      return;
+    }
+    try {
+      blockOnPacer = false;
+      corkBuffer.onTimer();
+    } catch (IOException e) {
+      LOG.info("Failed to send corked messages: {}", e.getMessage());
+    } finally {
+      blockOnPacer = null;
+      writeLock().unlock();
     }
   }
 
   /**
-   * The channel maintains mappings from input path to output paths. Input paths are given as input
-   * to {@link #send(ByteBuffer, Path)}. If the path is valid, it is also used as actual path for
-   * any packet sent to the destination. If the path has expired, the channel will try to find an
-   * identical, but more recent path and store it in the mapping.
+   * Enable or disable message framing for {@link #writeMessage(ByteBuffer)}, {@link
+   * #sendMessage(ByteBuffer, Path)} and {@link #receiveMessage(ByteBuffer)}. With framing, every
+   * datagram of a message starts with a 16 byte fragment header. Both ends must enable framing; the
+   * receiver drops datagrams without a valid fragment header. The message methods throw an {@link
+   * IllegalStateException} if framing is disabled. Default is 'false'.
    *
-   * @param path A Path
-   * @return The mapped path or the path itself if no mapping is available.
+   * @param enabled 'true' to enable message framing.
    */
-  public Path getMappedPath(Path path) {
-    if (!(path instanceof RequestPath)) {
-      return null;
+  public void setMessageFraming(boolean enabled) {
+    synchronized (stateLock()) {
+      messageFraming = enabled;
     }
+  }
+
+  public boolean isMessageFraming() {
     synchronized (stateLock()) {
-      return refreshedPaths.getOrDefault(path, (RequestPath) path);
+      return messageFraming;
+    }
+  }
+
+  private void checkMessageFraming() {
+    if (!isMessageFraming()) {
+      throw new IllegalStateException("Message framing is disabled, see setMessageFraming().");
+    }
+  }
+
+  /**
+   * Send a message to the connected destination. Messages may be larger than the path MTU; they are
+   * split into fragments that fit into the path MTU (see {@link PathMetadata#getMtu()}), and the
+   * receiver reassembles them with {@link #receiveMessage(ByteBuffer)}. Fragments are sized with
+   * the current path, i.e. fragmentation adapts when the path changes while a message is sent.
+   * Messages are not corked, see {@link #setCorking(boolean)}. Message framing must be enabled, see
+   * {@link #setMessageFraming(boolean)}.
+   *
+   * @param src The message
+   * @return The number of bytes sent. In non-blocking mode, this may be 0 if the pacer or the
+   *     socket buffer does not permit sending the first fragment. Once the first fragment is sent,
+   *     this waits until the remaining fragments are sent.
+   * @throws NotYetConnectedException If the channel is not connected.
+   * @throws IllegalStateException If message framing is disabled.
+   * @throws IOException If some IOError occurs.
+   */
+  public int writeMessage(ByteBuffer src) throws IOException {
+    checkMessageFraming();
+    refreshIfExpired(getConnectionPath(), RefreshPolicy.POLICY);
+    writeLock().lock();
+    try {
+      checkOpen();
+      checkConnected(true);
+      return sendMessage(src, getConnectionPath(), RefreshPolicy.POLICY);
+    } finally {
+      writeLock().unlock();
+    }
+  }
+
+  /**
+   * Send a message via the given path, see {@link #writeMessage(ByteBuffer)}.
+   *
+   * @param src The message
+   * @param path Path to destination
+   * @return The number of bytes sent, see {@link #writeMessage(ByteBuffer)}.
+   * @throws IOException If some IOError occurs.
+   */
+  public int sendMessage(ByteBuffer src, Path path) throws IOException {
+    checkMessageFraming();
+    refreshIfExpired(path, RefreshPolicy.SAME_LINKS);
+    writeLock().lock();
+    try {
+      checkOpen();
+      return sendMessage(src, path, RefreshPolicy.SAME_LINKS);
+    } finally {
+      writeLock().unlock();
+    }
+  }
+
+  private int sendMessage(ByteBuffer src, Path path, RefreshPolicy refresh) throws IOException {
+    try {
+      return fragmenter.send(src, new ChannelFragmentSender(path, refresh));
+    } finally {
+      blockOnPacer = null;
+    }
+  }
+
+  /**
+   * Receive a message that was sent with {@link #writeMessage(ByteBuffer)} or {@link
+   * #sendMessage(ByteBuffer, Path)}. Fragments of messages are reassembled; this works for
+   * concurrent messages from multiple senders. Incomplete messages are dropped after a timeout or
+   * when they would exceed the memory limit, see {@link #configureMessageReassembly(int, int,
+   * Duration)}. Message framing must be enabled, see {@link #setMessageFraming(boolean)}; datagrams
+   * without a valid fragment header are dropped.
+   *
+   * @param dst Destination buffer. If the message is larger than the remaining space, the remainder
+   *     is silently discarded.
+   * @return The address of the sender or `null` if the channel is non-blocking and no complete
+   *     message is available.
+   * @throws IllegalStateException If message framing is disabled.
+   * @throws IOException If some IOError occurs.
+   */
+  public ScionSocketAddress receiveMessage(ByteBuffer dst) throws IOException {
+    checkMessageFraming();
+    readLock().lock();
+    try {
+      if (reassembler == null) {
+        reassembler =
+            new MessageReassembler(
+                cfgMaxMessageSize, cfgMaxReassemblyBytes, cfgReassemblyTimeoutNanos);
+        messageBuffer = ByteBuffer.allocate(MAX_DATAGRAM_SIZE);
+      }
+      while (true) {
+        messageBuffer.clear();
+        ScionSocketAddress sender = receive(messageBuffer);
+        if (sender == null) {
+          return null;
+        }
+        messageBuffer.flip();
+        if (!MessageReassembler.isFragment(messageBuffer)) {
+          LOG.debug("Dropping datagram without fragment header from {}", sender);
+          continue;
+        }
+        ByteBuffer message =
+            reassembler.add(sender.getIsdAs(), sender, messageBuffer, System.nanoTime());
+        if (message != null) {
+          putTruncated(dst, message);
+          reassembler.release(message);
+          return sender;
+        }
+      }
+    } finally {
+      readLock().unlock();
+    }
+  }
+
+  private static void putTruncated(ByteBuffer dst, ByteBuffer src) {
+    if (src.remaining() > dst.remaining()) {
+      src.limit(src.position() + dst.remaining());
+    }
+    dst.put(src);
+  }
+
+  /**
+   * Configure reassembly for {@link #receiveMessage(ByteBuffer)}. Incomplete messages are
+   * discarded.
+   *
+   * @param maxMessageSize Maximum size of a message. Larger messages are dropped. Default is 1 MiB.
+   * @param maxBufferedBytes Maximum memory for incomplete messages. If this is exceeded, the oldest
+   *     incomplete messages are dropped. Default is 4 MiB.
+   * @param timeout Incomplete messages are dropped after this time. Default is 5 seconds.
+   */
+  public void configureMessageReassembly(
+      int maxMessageSize, int maxBufferedBytes, Duration timeout) {
+    if (maxMessageSize < 1 || maxBufferedBytes < maxMessageSize) {
+      throw new IllegalArgumentException(
+          "Require 0 < maxMessageSize <= maxBufferedBytes: "
+              + maxMessageSize
+              + " / "
+              + maxBufferedBytes);
+    }
+    readLock().lock();
+    try {
+      cfgMaxMessageSize = maxMessageSize;
+      cfgMaxReassemblyBytes = maxBufferedBytes;
+      cfgReassemblyTimeoutNanos = timeout.toNanos();
+      reassembler = null;
+    } finally {
+      readLock().unlock();
+    }
+  }
+
+  /**
+   * @return The number of incomplete messages that were dropped by {@link
+   *     #receiveMessage(ByteBuffer)} because of timeouts or memory limits.
+   */
+  public long getDroppedMessageCount() {
+    readLock().lock();
+    try {
+      return reassembler != null ? reassembler.getDroppedMessages() : 0;
+    } finally {
+      readLock().unlock();
+    }
+  }
+
+  /**
+   * @param path a path
+   * @return The maximum UDP payload length for the path that does not exceed the path MTU.
+   */
+  static int getMaxPayloadLength(Path path) {
+    int mtu = path.getMetadata() != null ? path.getMetadata().getMtu() : 0;
+    if (mtu <= 0) {
+      // Unknown
+      mtu = DEFAULT_MTU;
+    }
+    return mtu - SCION_OVERHEAD - path.getRawPath().length;
+  }
+
+  /**
+   * Add a class to the send scheduler. Packets that are sent with {@link #send(ByteBuffer, Path,
+   * SendClass)} or {@link #write(ByteBuffer, SendClass)} are queued per class and sent in deficit
+   * round robin order, i.e. classes share the sending rate in proportion to their weights and
+   * packets of one class are not queued behind bursts of another class. Queues build up when
+   * packets are sent faster than the pacer permits, see {@link
+   * ScionSocketOptions#SCION_PACING_RATE}, or when several threads send concurrently. Packets that
+   * are sent without a class bypass the queues.
+   *
+   * <p>Queued packets are sent by the sending threads or, if the pacer delays them, by a background
+   * task. Packets that are still queued when the channel is closed are dropped.
+   *
+   * @param trafficClass traffic class of the SCION header for packets of this class, 0 -- 255
+   * @param weight relative share of the sending rate, at least 1
+   * @return the new class
+   */
+  public SendClass addSendClass(int trafficClass, int weight) {
+    SendClass sendClass =
+        new SendClass(sendScheduler.addClass(trafficClass, weight, DEFAULT_MAX_QUEUE_DEPTH));
+    synchronized (stateLock()) {
+      sendClasses.add(sendClass);
+    }
+    return sendClass;
+  }
+
+  /**
+   * @return All classes that were added with {@link #addSendClass(int, int)}.
+   */
+  public List<SendClass> getSendClasses() {
+    synchronized (stateLock()) {
+      return Collections.unmodifiableList(new ArrayList<>(sendClasses));
+    }
+  }
+
+  private int sendPacket(ByteBuffer packet, Path path, SendClass sendClass, boolean reserved)
+      throws IOException {
+    if (sendClass == null) {
+      return sendRaw(packet, path);
+    }
+    int size = packet.remaining();
+    sendScheduler.send(sendClass.getQueue(), packet, path, reserved, packetSender);
+    return size;
+  }
+
+  private void finishQueuedSend(SendClass sendClass, boolean reserved) {
+    if (sendClass != null) {
+      if (reserved) {
+        sendScheduler.cancelReservation(sendClass.getQueue());
+      }
+      drainSendQueues();
+    }
+  }
+
+  /** Send queued packets until the queues are empty or the pacer delays the next packet. */
+  private void drainSendQueues() {
+    long delay = sendScheduler.drain(packetSender);
+    if (delay > 0) {
+      scheduleDrain(delay);
+    }
+  }
+
+  private void scheduleDrain(long delayNanos) {
+    synchronized (stateLock()) {
+      if (drainScheduled || !isOpen()) {
+        return;
+      }
+      drainScheduled = true;
+    }
+    SharedScheduler.schedule(
+        () -> {
+          synchronized (stateLock()) {
+            drainScheduled = false;
+          }
+          drainSendQueues();
+        },
+        delayNanos,
+        TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Report the throughput that was measured on a path, e.g. by the receiver. With {@link
+   * ScionSocketOptions#SCION_PACING_RATE} set to {@link ScionSocketOptions#PACING_PATH_BANDWIDTH},
+   * the last reported value is used as pacing rate for the path instead of the announced bandwidth.
+   *
+   * @param path a path
+   * @param bitsPerSecond measured throughput
+   */
+  public void reportThroughput(Path path, long bitsPerSecond) {
+    if (bitsPerSecond <= 0) {
+      throw new IllegalArgumentException("Throughput must be positive: " + bitsPerSecond);
+    }
+    synchronized (stateLock()) {
+      pacer.reportThroughput(path, bitsPerSecond);
+    }
+  }
+
+  /**
+   * @param path a path
+   * @return The rate (bit/s) at which packets on the path are paced, or 0 if they are not paced.
+   * @see ScionSocketOptions#SCION_PACING_RATE
+   */
+  public long getPacingRate(Path path) {
+    synchronized (stateLock()) {
+      return pacer.getRate(path);
+    }
+  }
+
+  @Override
+  protected void onPacingRateChanged() {
+    pacer.setRate(getCfgPacingRate());
+  }
+
+  /**
+   * Wait until the pacer of the path permits sending a packet and take tokens for the packet.
+   *
+   * @param path the path
+   * @param bytes packet size
+   * @return 'false' if the channel is non-blocking and the packet cannot be sent yet.
+   */
+  private boolean pace(Path path, int bytes) throws IOException {
+    while (true) {
+      long delay = tryPace(path, bytes);
+      if (delay == 0) {
+        return true;
+      }
+      if (blockOnPacer != null ? !blockOnPacer : !isBlocking()) {
+        return false;
+      }
+      LockSupport.parkNanos(delay);
+      if (Thread.currentThread().isInterrupted()) {
+        throw new InterruptedIOException("Interrupted while waiting for pacer");
+      }
+    }
+  }
+
+  /**
+   * Take tokens for a packet if the pacer of the path permits sending it now.
+   *
+   * @param path the path
+   * @param bytes packet size
+   * @return 0 if the packet can be sent now, otherwise the time (ns) until it can be sent.
+   */
+  private long tryPace(Path path, int bytes) {
+    synchronized (stateLock()) {
+      return pacer.tryPace(path, bytes);
+    }
+  }
+
+  /**
+   * Send copies of the payload over alternative paths and advance the sequence number.
+   *
+   * @param src the source buffer
+   * @param srcPos position of the payload in the source buffer
+   * @param path the path that was used for the first copy
+   * @param flowId the FlowID of the first copy
+   * @param sendClass the send class of the first copy or `null`
+   */
+  private void sendRedundantCopies(
+      ByteBuffer src, int srcPos, Path path, int flowId, SendClass sendClass) throws IOException {
+    if (redundancy.getCopies() <= 1) {
+      return;
+    }
+    if (path instanceof RequestPath) {
+      int end = src.position();
+      int len = end - srcPos + Redundancy.HEADER_LENGTH;
+      int copy = 1;
+      List<RequestPath> alternatives;
+      synchronized (stateLock()) {
+        alternatives = redundancy.getPaths((RequestPath) path);
+      }
+      for (RequestPath alternative : alternatives) {
+        ByteBuffer buffer = getBufferSend(len);
+        checkPathAndBuildHeaderUDP(buffer, alternative, len, RefreshPolicy.OFF, flowId, sendClass);
+        if (sendClass == null && !pace(alternative, buffer.position() + len)) {
+          continue; // non-blocking: skip this copy
+        }
+        redundancy.putHeader(buffer, copy++);
+        src.position(srcPos);
+        buffer.put(src);
+        buffer.flip();
+        try {
+          sendPacket(buffer, alternative, sendClass, false);
+        } catch (IOException e) {
+          LOG.info("Failed to send redundant copy: {}", e.getMessage());
+        }
+      }
+      src.position(end);
+    }
+    redundancy.nextSequence();
+  }
+
+  /**
+   * @param buffer the received datagram
+   * @param path the path of the datagram
+   * @return the length of the redundancy header or -1 if the datagram is a duplicate or has no
+   *     valid redundancy header.
+   */
+  private int checkRedundancyHeader(ByteBuffer buffer, ResponsePath path) {
+    int start = ScionHeaderParser.getUserPayloadStart(buffer);
+    if (!Redundancy.hasHeader(buffer, start)) {
+      LOG.debug("Dropping datagram without redundancy header from {}", path.getRemoteAddress());
+      return -1;
+    }
+    int sequence = Redundancy.getSequence(buffer, start);
+    InetSocketAddress sender = new InetSocketAddress(path.getRemoteAddress(), path.getRemotePort());
+    if (duplicateFilter.isDuplicate(path.getRemoteIsdAs(), sender, sequence)) {
+      return -1;
+    }
+    return Redundancy.HEADER_LENGTH;
+  }
+
+  /**
+   * Paths are usually refreshed in the background before they expire, see {@link
+   * #refreshInBackground()}. Paths that are already expired are refreshed by {@link
+   * #refreshIfExpired(Path, RefreshPolicy)} before the locks are taken. If no replacement is
+   * available, the last known path is used while the background refresh keeps trying, except for
+   * RefreshPolicy.OFF where expired paths are rejected.
+   *
+   * @param path path
+   * @param payloadLength payload length
+   * @param flowId FlowID of the SCION header
+   * @param sendClass send class that determines the traffic class, or `null` for the traffic class
+   *     of the channel
+   * @return the path that should be used for sending. This may be a refreshed version of `path`.
+   * @throws IOException in case of IOException.
+   */
+  private Path checkPathAndBuildHeaderUDP(
+      ByteBuffer buffer,
+      Path path,
+      int payloadLength,
+      RefreshPolicy rf,
+      int flowId,
+      SendClass sendClass)
+      throws IOException {
+    synchronized (super.stateLock()) {
+      Path actualPath = path;
+      if (path instanceof RequestPath) {
+        RequestPath requestPath = (RequestPath) path;
+        RequestPath current = rf == RefreshPolicy.OFF ? requestPath : getCurrentPath(requestPath);
+        if (rf == RefreshPolicy.OFF
+            && Instant.now().getEpochSecond() > current.getMetadata().getExpiration()) {
+          throw new ScionRuntimeException("Path is expired");
+        }
+        if (rf != RefreshPolicy.OFF) {
+          RefreshEntry entry = trackPath(requestPath, rf, current);
+          if (entry.failed) {
+            // Keep sending on the current path until the lookup completes
+            startFailover(requestPath, entry);
+            current = getCurrentPath(requestPath);
+          }
+        }
+        actualPath = current;
+      }
+      // + 8 for UDP overlay header length
+      InternalConstants.HdrTypes udp = InternalConstants.HdrTypes.UDP;
+      if (sendClass == null) {
+        buildHeader(buffer, actualPath, payloadLength + 8, udp, flowId);
+      } else {
+        buildHeader(
+            buffer, actualPath, payloadLength + 8, udp, flowId, sendClass.getTrafficClass());
+      }
+      return actualPath;
+    }
+  }
+
+  private RequestPath getCurrentPath(RequestPath path) {
+    RequestPath refreshed = refreshedPaths.get(path);
+    return refreshed != null ? refreshed : path;
+  }
+
+  /**
+   * Synchronously replaces a path that is already expired, e.g. a path that was already expired
+   * when it was passed to send(). This blocks for the path lookup and must be called without
+   * holding the writeLock or the stateLock.
+   *
+   * @param path RequestPath that may need refreshing
+   * @param refreshPolicy Path refresh policy
+   */
+  private void refreshIfExpired(Path path, RefreshPolicy refreshPolicy) throws IOException {
+    if (!(path instanceof RequestPath) || refreshPolicy == RefreshPolicy.OFF) {
+      return;
+    }
+    RequestPath requestPath = (RequestPath) path;
+    RequestPath current;
+    synchronized (stateLock()) {
+      current = getCurrentPath(requestPath);
+    }
+    if (Instant.now().getEpochSecond() <= current.getMetadata().getExpiration()) {
+      return;
+    }
+    // expired, get new path
+    List<Path> paths = removeFailedPaths(getOrCreateService().getPaths(current));
+    RequestPath newPath;
+    if (refreshPolicy == RefreshPolicy.SAME_LINKS) {
+      newPath = findPathSameLinks(paths, current);
+    } else {
+      try {
+        newPath = (RequestPath) getPathPolicy().filter(paths);
+      } catch (NoSuchElementException e) {
+        newPath = null;
+      }
+    }
+    synchronized (stateLock()) {
+      if (newPath == null || getCurrentPath(requestPath) != current || !isOpen()) {
+        return; // No replacement or path has been replaced in the meantime
+      }
+      refreshedPaths.put(requestPath, newPath);
+      updateConnection(requestPath, true);
+    }
+  }
+
+  /**
+   * Start an asynchronous lookup for a path that does not traverse any interface that was reported
+   * as down. The new path is swapped in when the lookup completes. Must be called while holding the
+   * stateLock.
+   *
+   * @param key the tracked path
+   * @param entry the refresh entry of the tracked path
+   */
+  private void startFailover(RequestPath key, RefreshEntry entry) {
+    if (entry.failoverRunning || System.nanoTime() - nextFailoverAttempt < 0 || !isOpen()) {
+      return;
+    }
+    entry.failoverRunning = true;
+    RequestPath current = getCurrentPath(key);
+    InetSocketAddress dst =
+        new InetSocketAddress(current.getRemoteAddress(), current.getRemotePort());
+    getOrCreateService()
+        .getPathsAsync(current.getRemoteIsdAs(), dst)
+        .whenComplete((paths, t) -> completeFailover(key, current, entry, paths, t));
+  }
+
+  private void completeFailover(
+      RequestPath key, RequestPath oldPath, RefreshEntry entry, List<Path> paths, Throwable t) {
+    synchronized (stateLock()) {
+      entry.failoverRunning = false;
+      if (t != null) {
+        LOG.info("Path lookup for failover failed: {}", t.getMessage());
+        nextFailoverAttempt = System.nanoTime() + FAILOVER_RETRY_NANOS;
+        return;
+      }
+      if (!isOpen() || trackedPaths.get(key) != entry || getCurrentPath(key) != oldPath) {
+        return; // Path has been replaced in the meantime
+      }
+      RequestPath newPath;
+      try {
+        newPath = (RequestPath) getPathPolicy().filter(removeFailedPaths(paths));
+      } catch (NoSuchElementException e) {
+        LOG.info("No working path found to {}", ScionUtil.toStringIA(key.getRemoteIsdAs()));
+        nextFailoverAttempt = System.nanoTime() + FAILOVER_RETRY_NANOS;
+        return;
+      }
+      refreshedPaths.put(key, newPath);
+      trackPath(key, entry.refreshPolicy, newPath);
+    }
+  }
+
+  private List<Path> removeFailedPaths(List<Path> paths) {
+    return failedInterfaces().removeAffected(paths);
+  }
+
+  /**
+   * Records interfaces that are reported as down by SCMP errors. Subsequent calls to send() or
+   * write() will avoid paths that traverse these interfaces. "External Interface Down" errors are
+   * also forwarded to the daemon.
+   */
+  @Override
+  protected void checkListeners(Scmp.Message scmpMsg) {
+    if (getOrCreateService().reportFailure(scmpMsg)) {
+      LOG.info("Received SCMP error: {}", scmpMsg);
+    }
+    super.checkListeners(scmpMsg);
+  }
+
+  private FailedInterfaces failedInterfaces() {
+    return getOrCreateService().getFailedInterfaces();
+  }
+
+  /**
+   * Report a measurement of the application, such as the RTT of a request/response exchange or a
+   * lost request. The samples are aggregated per path (see {@link #getPathHealth(Path)}) and, if a
+   * {@link PathSwitchPolicy} is set, used to switch the connection to a better path.
+   *
+   * <p>Samples for paths other than {@link RequestPath}s are ignored.
+   *
+   * @param path the path that was used
+   * @param rttNanos the measured RTT in nanoseconds, ignored if `lost` is 'true'
+   * @param lost 'true' if the packet or request was lost
+   */
+  public void reportPathSample(Path path, long rttNanos, boolean lost) {
+    if (!(path instanceof RequestPath)) {
+      return;
+    }
+    synchronized (stateLock()) {
+      PathFingerprint.Key key = sampleKey(path);
+      PathHealth health = pathSamples.get(key);
+      if (health == null || isNewer(path, health.getPath())) {
+        PathHealth old = health;
+        if (pathSamples.size() >= MAX_PATH_SAMPLES) {
+          removeExpiredPathSamples();
+        }
+        health = new PathHealth(path, old);
+        pathSamples.put(key, health);
+      }
+      if (lost) {
+        health.recordLoss();
+      } else {
+        health.recordRtt(rttNanos);
+      }
+      switchToBetterPath();
+    }
+  }
+
+  /**
+   * @param path a path
+   * @return The health of the path as reported with {@link #reportPathSample(Path, long, boolean)}
+   *     or 'null' if nothing was reported for the path.
+   */
+  public PathHealth getPathHealth(Path path) {
+    synchronized (stateLock()) {
+      return path.getMetadata() == null ? null : pathSamples.get(sampleKey(path));
+    }
+  }
+
+  private static PathFingerprint.Key sampleKey(Path path) {
+    return new PathFingerprint.Key(path.getRemoteIsdAs(), path.fingerprint());
+  }
+
+  public PathSwitchPolicy getPathSwitchPolicy() {
+    synchronized (stateLock()) {
+      return pathSwitchPolicy;
+    }
+  }
+
+  /**
+   * Set a policy for switching the connected path based on samples that are reported with {@link
+   * #reportPathSample(Path, long, boolean)}. The default is 'null', i.e. no switching.
+   *
+   * @param pathSwitchPolicy the policy or 'null'
+   * @see PathSwitchPolicy#DEFAULT
+   */
+  public void setPathSwitchPolicy(PathSwitchPolicy pathSwitchPolicy) {
+    synchronized (stateLock()) {
+      this.pathSwitchPolicy = pathSwitchPolicy;
+    }
+  }
+
+  /** Must be called while holding the stateLock. */
+  private void switchToBetterPath() {
+    if (pathSwitchPolicy == null || !isConnected()) {
+      return;
+    }
+    long now = System.nanoTime();
+    if (now - nextPathSwitch < 0 || !(getConnectionPath() instanceof RequestPath)) {
+      return;
+    }
+    RequestPath current = getCurrentPath((RequestPath) getConnectionPath());
+    PathHealth currentHealth = pathSamples.get(sampleKey(current));
+    if (currentHealth == null) {
+      return;
+    }
+    long nowSeconds = Instant.now().getEpochSecond();
+    PathHealth best = currentHealth;
+    for (PathHealth candidate : pathSamples.values()) {
+      RequestPath path = (RequestPath) candidate.getPath();
+      if (candidate != currentHealth
+          && PathContext.isSameDestination(path, current)
+          && nowSeconds <= path.getMetadata().getExpiration()
+          && !failedInterfaces().isAffected(path)
+          && pathSwitchPolicy.isBetter(best, candidate)) {
+        best = candidate;
+      }
+    }
+    if (best == currentHealth) {
+      return;
+    }
+    try {
+      updateConnection((RequestPath) best.getPath(), true);
+      nextPathSwitch = now + pathSwitchPolicy.getHoldTime().toNanos();
+      LOG.info("Switched to better path: {} -> {}", currentHealth, best);
+    } catch (IOException e) {
+      LOG.info("Failed to update connection: {}", e.getMessage());
+    }
+  }
+
+  private static boolean isNewer(Path path, Path reference) {
+    return path.getMetadata().getExpiration() > reference.getMetadata().getExpiration();
+  }
+
+  private void removeExpiredPathSamples() {
+    long now = Instant.now().getEpochSecond();
+    pathSamples.values().removeIf(h -> now > h.getPath().getMetadata().getExpiration());
+  }
+
+  /**
+   * Called by {@link PathHealthMonitor} when a path has breached the health thresholds. Subsequent
+   * calls to send() or write() will avoid the path, in the same way as paths that traverse an
+   * interface that was reported as down.
+   *
+   * @param path the degraded path
+   */
+  void markPathDegraded(Path path) {
+    failedInterfaces().addDegradedPath(path);
+    synchronized (stateLock()) {
+      for (RefreshEntry entry : new ArrayList<>(trackedPaths.values())) {
+        markFailed(entry);
+      }
+    }
+  }
+
+  /**
+   * Mark a tracked path as failed if it is affected by a failure and start looking for an
+   * alternative.
+   */
+  private void markFailed(RefreshEntry entry) {
+    synchronized (stateLock()) {
+      RequestPath key = entry.key.get();
+      if (key != null
+          && trackedPaths.get(key) == entry
+          && entry.getIndexedPath() != null
+          && failedInterfaces().isAffected(entry.getIndexedPath())) {
+        entry.failed = true;
+        startFailover(key, entry);
+      }
+    }
+  }
+
+  /**
+   * Register a path for background refresh and index its interfaces. Must be called while holding
+   * the stateLock.
+   */
+  private RefreshEntry trackPath(
+      RequestPath path, RefreshPolicy refreshPolicy, RequestPath current) {
+    RefreshEntry entry = trackedPaths.get(path);
+    if (entry == null) {
+      entry = new RefreshEntry(path, refreshPolicy);
+      trackedPaths.put(path, entry);
+    }
+    RequestPath indexedPath = entry.getIndexedPath();
+    if (indexedPath != current) {
+      ScionService service = getOrCreateService();
+      if (indexedPath != null) {
+        service.unindexPath(entry, indexedPath);
+      }
+      service.indexPath(entry, current);
+      entry.setIndexedPath(current);
+      entry.failed = failedInterfaces().isAffected(current);
+    } else if (entry.failed) {
+      // Failures expire
+      entry.failed = failedInterfaces().isAffected(current);
+    }
+    scheduleRefresh(entry.getDueTime(current, getCfgExpirationSafetyMargin()));
+    return entry;
+  }
+
+  /** Schedule the refresh task. Must be called while holding the stateLock. */
+  private void scheduleRefresh(long dueTime) {
+    if (refreshTask != null && refreshTaskTime <= dueTime) {
+      return;
+    }
+    if (refreshTask != null) {
+      refreshTask.cancel(false);
+    }
+    long delay = Math.max(0, dueTime - Instant.now().getEpochSecond());
+    refreshTaskTime = dueTime;
+    refreshTask = SharedScheduler.schedule(this::refreshInBackground, delay, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Requests new paths for all tracked paths that are close to expiry. A path is refreshed when its
+   * expiration is less than twice the expiration safety margin away, so that a new path is usually
+   * available before send() or write() would consider the path as expiring. The lookups are
+   * asynchronous, new paths are swapped in when the lookup completes.
+   */
+  private void refreshInBackground() {
+    List<Path> keys = new ArrayList<>();
+    List<RequestPath> currentPaths = new ArrayList<>();
+    List<RefreshEntry> entries = new ArrayList<>();
+    synchronized (stateLock()) {
+      refreshTask = null;
+      if (!isOpen()) {
+        return;
+      }
+      long now = Instant.now().getEpochSecond();
+      int margin = getCfgExpirationSafetyMargin();
+      long nextDueTime = Long.MAX_VALUE;
+      for (Map.Entry<Path, RefreshEntry> e : trackedPaths.entrySet()) {
+        RequestPath current = getCurrentPath((RequestPath) e.getKey());
+        long dueTime = e.getValue().getDueTime(current, margin);
+        if (dueTime <= now) {
+          e.getValue().nextAttempt = now + REFRESH_RETRY_SECONDS;
+          keys.add(e.getKey());
+          currentPaths.add(current);
+          entries.add(e.getValue());
+          dueTime = e.getValue().nextAttempt;
+        }
+        nextDueTime = Math.min(nextDueTime, dueTime);
+      }
+      if (nextDueTime != Long.MAX_VALUE) {
+        scheduleRefresh(nextDueTime);
+      }
+    }
+
+    for (int i = 0; i < keys.size(); i++) {
+      Path key = keys.get(i);
+      RequestPath current = currentPaths.get(i);
+      RefreshPolicy refreshPolicy = entries.get(i).refreshPolicy;
+      InetSocketAddress dst =
+          new InetSocketAddress(current.getRemoteAddress(), current.getRemotePort());
+      getOrCreateService()
+          .getPathsAsync(current.getRemoteIsdAs(), dst)
+          .whenComplete(
+              (paths, t) -> {
+                if (t != null) {
+                  LOG.info("Background path refresh failed: {}", t.getMessage());
+                } else {
+                  swapPath((RequestPath) key, current, paths, refreshPolicy);
+                }
+              });
+    }
+  }
+
+  private void swapPath(
+      RequestPath key, RequestPath oldPath, List<Path> allPaths, RefreshPolicy refreshPolicy) {
+    synchronized (stateLock()) {
+      if (getCurrentPath(key) != oldPath || !isOpen()) {
+        return; // Path has been replaced in the meantime
+      }
+      List<Path> paths = removeFailedPaths(allPaths);
+      RequestPath newPath;
+      if (refreshPolicy == RefreshPolicy.SAME_LINKS) {
+        newPath = findPathSameLinks(paths, oldPath);
+      } else {
+        try {
+          newPath = (RequestPath) getPathPolicy().filter(paths);
+        } catch (NoSuchElementException e) {
+          newPath = null;
+        }
+      }
+      long oldExpiration = oldPath.getMetadata().getExpiration();
+      if (newPath == null || newPath.getMetadata().getExpiration() <= oldExpiration) {
+        return;
+      }
+      refreshedPaths.put(key, newPath);
+      RefreshEntry entry = trackedPaths.get(key);
+      if (getConnectionPath() == key) {
+        try {
+          // This untracks `key`, the new connection path is tracked instead.
+          updateConnection(newPath, true);
+          key = newPath;
+        } catch (IOException e) {
+          LOG.info("Failed to update connection: {}", e.getMessage());
+        }
+      }
+      if (entry != null) {
+        trackPath(key, entry.refreshPolicy, newPath);
+      }
+    }
+  }
+
+  /**
+   * Stops the background refresh for the previous connection path when the connection changes. The
+   * path is tracked again if it is used with send().
+   */
+  @Override
+  protected void updateConnection(RequestPath newPath, boolean mustBeConnected) throws IOException {
+    synchronized (stateLock()) {
+      Path oldPath = getConnectionPath();
+      super.updateConnection(newPath, mustBeConnected);
+      if (oldPath != null && getConnectionPath() != oldPath) {
+        untrackPath(oldPath);
+      }
+    }
+  }
+
+  @Override
+  public void disconnect() throws IOException {
+    synchronized (stateLock()) {
+      Path oldPath = getConnectionPath();
+      super.disconnect();
+      if (oldPath != null) {
+        untrackPath(oldPath);
+      }
+    }
+  }
+
+  /** Must be called while holding the stateLock. */
+  private void untrackPath(Path path) {
+    RefreshEntry entry = trackedPaths.remove(path);
+    if (entry != null && entry.getIndexedPath() != null) {
+      getOrCreateService().unindexPath(entry, entry.getIndexedPath());
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    writeLock().lock();
+    try {
+      int pending = corkBuffer.getPendingBytes();
+      if (pending > 0 && isOpen() && isConnected()) {
+        blockOnPacer = true;
+        if (!corkBuffer.flush()) {
+          LOG.warn("Dropped {} bytes of corked messages on close: socket buffer full", pending);
+        }
+      }
+    } catch (IOException e) {
+      LOG.warn("Dropped corked messages on close: {}", e.getMessage());
+    } finally {
+      blockOnPacer = null;
+      writeLock().unlock();
+    }
+    synchronized (stateLock()) {
+      if (refreshTask != null) {
+        refreshTask.cancel(false);
+        refreshTask = null;
+      }
+      for (Path path : new ArrayList<>(trackedPaths.keySet())) {
+        untrackPath(path);
+      }
+    }
+    super.close();
+    sendScheduler.clear();
+  }
+
+  int getTrackedPathCount() {
+    synchronized (stateLock()) {
+      return trackedPaths.size();
+    }
+  }
+
+  private RequestPath findPathSameLinks(List<Path> paths, RequestPath path) {
+    PathMetadata reference = path.getMetadata();
+    for (Path newPath : paths) {
+      // Compares fingerprints first, the interfaces are only compared if these match.
+      if (reference.hasSameInterfaces(newPath.getMetadata())) {
+        return (RequestPath) newPath;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * The channel maintains mappings from input address to output paths. Input addresses are given as
+   * input to {@link #send(ByteBuffer, SocketAddress)}. The channel tries to resolve the address via
+   * DNS TXT record to a SCION enabled address and stores the result in the mapping for future use.
+   *
+   * @param address A destination address
+   * @return The mapped path or the path itself if no mapping is available.
+   */
+  public Path getMappedPath(InetSocketAddress address) {
+    synchronized (stateLock()) {
+      return resolvedDestinations.get(address);
+    }
+  }
+
+  /**
+   * The channel maintains mappings from input path to output paths. Input paths are given as input
+   * to {@link #send(ByteBuffer, Path)}. If the path is valid, it is also used as actual path for
+   * any packet sent to the destination. If the path has expired, the channel will try to find an
+   * identical, but more recent path and store it in the mapping.
+   *
+   * @param path A Path
+   * @return The mapped path or the path itself if no mapping is available.
+   */
+  public Path getMappedPath(Path path) {
+    if (!(path instanceof RequestPath)) {
+      return null;
+    }
+    synchronized (stateLock()) {
+      return refreshedPaths.getOrDefault(path, (RequestPath) path);
+    }
+  }
+
+  private class ChannelPathContext implements PathContext {
+    @Override
+    public void lookupPaths(RequestPath path, BiConsumer<List<Path>, Throwable> callback) {
+      InetSocketAddress dst = new InetSocketAddress(path.getRemoteAddress(), path.getRemotePort());
+      getOrCreateService()
+          .getPathsAsync(path.getRemoteIsdAs(), dst)
+          .whenComplete(
+              (paths, t) -> {
+                synchronized (stateLock()) {
+                  if (isOpen()) {
+                    callback.accept(paths, t);
+                  }
+                }
+              });
+    }
+
+    @Override
+    public FailedInterfaces getFailedInterfaces() {
+      return failedInterfaces();
+    }
+
+    @Override
+    public Path getConnectionPath() {
+      return ScionDatagramChannel.this.getConnectionPath();
+    }
+
+    @Override
+    public RequestPath getCurrentPath(RequestPath path) {
+      return ScionDatagramChannel.this.getCurrentPath(path);
+    }
+
+    @Override
+    public int getExpirationSafetyMargin() {
+      return getCfgExpirationSafetyMargin();
+    }
+  }
+
+  private class ChannelCorkSender implements CorkBuffer.Sender {
+    @Override
+    public int getMaxPayloadLength() {
+      return ScionDatagramChannel.this.getMaxPayloadLength(getConnectionPath())
+          - redundancy.getHeaderLength();
+    }
+
+    @Override
+    public boolean canSend() {
+      return isOpen() && isConnected();
+    }
+
+    @Override
+    public int send(ByteBuffer datagram) throws IOException {
+      return write(
+          datagram, getConnectionPath(), RefreshPolicy.POLICY, DEFAULT_FLOW_ID, null, false);
+    }
+
+    @Override
+    public void onTimer() {
+      onCorkTimer();
+    }
+  }
+
+  private class ChannelFragmentSender implements MessageFragmenter.Sender {
+    private final Path path;
+    private final RefreshPolicy refresh;
+
+    private ChannelFragmentSender(Path path, RefreshPolicy refresh) {
+      this.path = path;
+      this.refresh = refresh;
+    }
+
+    @Override
+    public int getMaxPayloadLength() {
+      Path current = path;
+      if (path instanceof RequestPath) {
+        synchronized (stateLock()) {
+          current = getCurrentPath((RequestPath) path);
+        }
+      }
+      return ScionDatagramChannel.this.getMaxPayloadLength(current) - redundancy.getHeaderLength();
+    }
+
+    @Override
+    public int send(ByteBuffer fragment, boolean mustComplete) throws IOException {
+      blockOnPacer = mustComplete ? Boolean.TRUE : null;
+      return refresh == RefreshPolicy.POLICY
+          ? write(fragment, path, refresh, DEFAULT_FLOW_ID, null, false)
+          : ScionDatagramChannel.this.send(fragment, path, refresh, null);
+    }
+  }
+
+  private class ChannelPacketSender implements SendScheduler.PacketSender {
+    @Override
+    public long tryPace(Path path, int bytes) {
+      return ScionDatagramChannel.this.tryPace(path, bytes);
+    }
+
+    @Override
+    public int send(ByteBuffer packet, Path path) throws IOException {
+      return sendRaw(packet, path);
+    }
+  }
+
+  private class RefreshEntry implements ScionService.FailureListener {
+    // The tracked path. Weak, the entry is the value of a WeakHashMap with this key.
+    private final WeakReference<RequestPath> key;
+    private final RefreshPolicy refreshPolicy;
+    private long nextAttempt = 0;
+    // The path that is currently registered in the interface index, if it differs from the key.
+    // The key must not be referenced strongly, otherwise it would never be garbage collected.
+    private RequestPath indexedReplacement;
+    private boolean indexed = false;
+    // 'true' if the indexed path traverses a failed interface or is degraded
+    private boolean failed;
+    private boolean failoverRunning = false;
+
+    RefreshEntry(RequestPath key, RefreshPolicy refreshPolicy) {
+      this.key = new WeakReference<>(key);
+      this.refreshPolicy = refreshPolicy;
+    }
+
+    @Override
+    public void onFailure() {
+      markFailed(this);
+    }
+
+    /**
+     * @return the path that is currently registered in the interface index or `null`.
+     */
+    RequestPath getIndexedPath() {
+      if (!indexed) {
+        return null;
+      }
+      return indexedReplacement != null ? indexedReplacement : key.get();
+    }
+
+    void setIndexedPath(RequestPath path) {
+      indexed = true;
+      indexedReplacement = path == key.get() ? null : path;
+    }
+
+    long getDueTime(RequestPath current, int margin) {
+      return Math.max(nextAttempt, current.getMetadata().getExpiration() - 2L * margin);
     }
   }
 }
@@ -28,17 +28,29 @@ import static org.scion.jpan.Constants.PROPERTY_DAEMON;
 import static org.scion.jpan.Constants.PROPERTY_USE_OS_SEARCH_DOMAINS;
 
 import io.grpc.*;
+import io.grpc.netty.shaded.io.netty.channel.epoll.Epoll;
+import io.grpc.stub.StreamObserver;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import org.scion.jpan.internal.*;
-import org.scion.jpan.proto.control_plane.SegmentLookupServiceGrpc;
 import org.scion.jpan.proto.daemon.Daemon;
 import org.scion.jpan.proto.daemon.DaemonServiceGrpc;
 import org.slf4j.Logger;
@@ -63,6 +75,7 @@ public class ScionService {
   private static final Logger LOG = LoggerFactory.getLogger(ScionService.class.getName());
 
   private static final String DNS_TXT_KEY = "scion";
+  private static final String UNIX_SOCKET_PREFIX = "unix:";
   private static final Object LOCK = new Object();
   private static final String ERR_INVALID_TXT = "Invalid TXT entry: ";
   private static final String ERR_INVALID_TXT_LOG = ERR_INVALID_TXT + "{}";
@@ -71,15 +84,47 @@ public class ScionService {
 
   private final LocalTopology localTopology;
   private final DaemonServiceGrpc.DaemonServiceBlockingStub daemonStub;
-  private final SegmentLookupServiceGrpc.SegmentLookupServiceBlockingStub segmentStub;
+  private final DaemonServiceGrpc.DaemonServiceStub daemonAsyncStub;
+  private final ControlServiceClient controlService;
 
   private final ManagedChannel channel;
   private static final long ISD_AS_NOT_SET = -1;
+  private static final int PROBE_DEADLINE_MARGIN_MS = 500;
   private final AtomicLong localIsdAs = new AtomicLong(ISD_AS_NOT_SET);
   private Thread shutdownHook;
   private final java.nio.channels.DatagramChannel[] ifDiscoveryChannel = {null};
   private final HostsFileParser hostsFile = new HostsFileParser();
   private final SimpleCache<String, ScionAddress> scionAddressCache = new SimpleCache<>(100);
+  private volatile Executor asyncExecutor = null;
+  private volatile long asyncDeadlineMs =
+      ScionUtil.getPropertyOrEnv(
+          Constants.PROPERTY_ASYNC_DEADLINE,
+          Constants.ENV_ASYNC_DEADLINE,
+          Constants.DEFAULT_ASYNC_DEADLINE);
+  private volatile int pathProbeTimeoutMs =
+      ScionUtil.getPropertyOrEnv(
+          Constants.PROPERTY_PATH_PROBE_TIMEOUT,
+          Constants.ENV_PATH_PROBE_TIMEOUT,
+          Constants.DEFAULT_PATH_PROBE_TIMEOUT);
+  private volatile int pathWatchIntervalSeconds =
+      ScionUtil.getPropertyOrEnv(
+          Constants.PROPERTY_PATH_WATCH_INTERVAL,
+          Constants.ENV_PATH_WATCH_INTERVAL,
+          Constants.DEFAULT_PATH_WATCH_INTERVAL);
+  // Path watches by destination ISD/AS
+  private final Map<Long, PathWatch.Group> pathWatches = new HashMap<>();
+  // Interfaces reported as down by SCMP errors, shared by all channels of this service.
+  private final FailedInterfaces failedInterfaces =
+      new FailedInterfaces(
+          ScionUtil.getPropertyOrEnv(
+              Constants.PROPERTY_INTERFACE_DOWN_TIMEOUT,
+              Constants.ENV_INTERFACE_DOWN_TIMEOUT,
+              Constants.DEFAULT_INTERFACE_DOWN_TIMEOUT));
+  // Round trip times measured by probePaths().
+  private final MeasuredLatencies measuredLatencies = new MeasuredLatencies();
+  // Interfaces of the paths that channels of this service refresh in the background.
+  // Guarded by itself.
+  private final InterfaceIndex<FailureListener> interfaceIndex = new InterfaceIndex<>();
 
   protected enum Mode {
     DAEMON,
@@ -91,9 +136,10 @@ public class ScionService {
   protected ScionService(String addressOrHost, Mode mode) {
     if (mode == Mode.DAEMON) {
       LOG.info("Bootstrapping with daemon: target={}", addressOrHost);
-      channel = Grpc.newChannelBuilder(addressOrHost, InsecureChannelCredentials.create()).build();
+      channel = createDaemonChannel(addressOrHost);
       daemonStub = DaemonServiceGrpc.newBlockingStub(channel);
-      segmentStub = null;
+      daemonAsyncStub = DaemonServiceGrpc.newStub(channel);
+      controlService = null;
       localTopology = null;
     } else {
       LOG.info("Bootstrapping with control service: mode={} target={}", mode.name(), addressOrHost);
@@ -107,13 +153,23 @@ public class ScionService {
       } else {
         throw new UnsupportedOperationException();
       }
-      String csHost = localTopology.getControlServerAddress();
-      LOG.info("Bootstrapping with control service: {}", csHost);
+      List<String> csHosts = localTopology.getControlServerAddresses();
+      LOG.info("Bootstrapping with control services: {}", csHosts);
       localIsdAs.set(localTopology.getLocalIsdAs());
-      // TODO InsecureChannelCredentials: Implement authentication!
-      channel = Grpc.newChannelBuilder(csHost, InsecureChannelCredentials.create()).build();
+      int hedgeDelay =
+          ScionUtil.getPropertyOrEnv(
+              Constants.PROPERTY_CONTROL_SERVICE_HEDGE_DELAY,
+              Constants.ENV_CONTROL_SERVICE_HEDGE_DELAY,
+              Constants.DEFAULT_CONTROL_SERVICE_HEDGE_DELAY);
+      int csDeadline =
+          ScionUtil.getPropertyOrEnv(
+              Constants.PROPERTY_CONTROL_SERVICE_DEADLINE,
+              Constants.ENV_CONTROL_SERVICE_DEADLINE,
+              Constants.DEFAULT_CONTROL_SERVICE_DEADLINE);
+      channel = null;
       daemonStub = null;
-      segmentStub = SegmentLookupServiceGrpc.newBlockingStub(channel);
+      daemonAsyncStub = null;
+      controlService = new ControlServiceClient(csHosts, hedgeDelay, csDeadline);
     }
     shutdownHook = addShutdownHook();
     try {
@@ -129,6 +185,16 @@ public class ScionService {
     }
   }
 
+  private static ManagedChannel createDaemonChannel(String target) {
+    if (target.startsWith(UNIX_SOCKET_PREFIX) && !Epoll.isAvailable()) {
+      // gRPC supports "unix://" targets only with the native epoll transport.
+      throw new ScionRuntimeException(
+          "Unix domain sockets are not supported on this platform: " + target,
+          Epoll.unavailabilityCause());
+    }
+    return Grpc.newChannelBuilder(target, InsecureChannelCredentials.create()).build();
+  }
+
   /**
    * Returns the default instance of the ScionService. The default instance is connected to the
    * daemon that is specified by the default properties or environment variables.
@@ -225,12 +291,24 @@ public class ScionService {
   }
 
   public void close() throws IOException {
+    synchronized (interfaceIndex) {
+      interfaceIndex.clear();
+    }
+    synchronized (pathWatches) {
+      for (PathWatch.Group group : pathWatches.values()) {
+        group.close();
+      }
+      pathWatches.clear();
+    }
     try {
-      if (!channel.shutdown().awaitTermination(5, TimeUnit.SECONDS)) {
+      if (channel != null && !channel.shutdown().awaitTermination(5, TimeUnit.SECONDS)) {
         if (!channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS)) {
           LOG.error("Failed to shut down ScionService gRPC ManagedChannel");
         }
       }
+      if (controlService != null) {
+        controlService.close();
+      }
       synchronized (ifDiscoveryChannel) {
         try {
           if (ifDiscoveryChannel[0] != null) {
@@ -374,7 +452,7 @@ public class ScionService {
     if (policy == null) {
       policy = PathPolicy.DEFAULT;
     }
-    return policy.filter(getPaths(lookupAddress(hostName), port));
+    return policy.filter(probeIfRequired(getPaths(lookupAddress(hostName), port), policy));
   }
 
   /**
@@ -389,7 +467,8 @@ public class ScionService {
     if (policy == null) {
       policy = PathPolicy.DEFAULT;
     }
-    return policy.filter(getPaths(lookupAddress(dstAddr.getHostString()), dstAddr.getPort()));
+    List<Path> paths = getPaths(lookupAddress(dstAddr.getHostString()), dstAddr.getPort());
+    return policy.filter(probeIfRequired(paths, policy));
   }
 
   /**
@@ -403,15 +482,448 @@ public class ScionService {
   public List<Path> getPaths(ScionAddress dstAddress, int dstPort) {
     long srcIsdAs = getLocalIsdAs();
     List<Daemon.Path> paths = getPathList(srcIsdAs, dstAddress.getIsdAs());
+    return toRequestPaths(paths, dstAddress, dstPort);
+  }
+
+  private List<Path> toRequestPaths(List<Daemon.Path> paths, ScionAddress dstAddress, int dstPort) {
     List<Path> scionPaths = new ArrayList<>(paths.size());
+    // RequestPaths decode the protobuf lazily, i.e. paths that are discarded by a PathPolicy are
+    // never fully materialized.
     for (int i = 0; i < paths.size(); i++) {
       scionPaths.add(
           RequestPath.create(
-              paths.get(i), dstAddress.getIsdAs(), dstAddress.getInetAddress(), dstPort));
+              paths.get(i),
+              dstAddress.getIsdAs(),
+              dstAddress.getInetAddress(),
+              dstPort,
+              measuredLatencies));
     }
     return scionPaths;
   }
 
+  /**
+   * Asynchronous version of {@link #getPaths(long, InetSocketAddress)}. In daemon mode the request
+   * is sent with the non-blocking gRPC stub. Otherwise, the segment lookup runs on the executor,
+   * see {@link #setAsyncExecutor(Executor)}.
+   *
+   * @param dstIsdAs Destination ISD/AS
+   * @param dstScionAddress Destination IP address. Must belong to a SCION enabled end host.
+   * @return A future with all paths returned by the path service. The future fails with a
+   *     ScionRuntimeException if the lookup fails or with a TimeoutException if the lookup takes
+   *     longer than the deadline, see {@link #setAsyncDeadline(Duration)}.
+   */
+  public CompletableFuture<List<Path>> getPathsAsync(
+      long dstIsdAs, InetSocketAddress dstScionAddress) {
+    if (dstScionAddress instanceof ScionSocketAddress) {
+      Path path = ((ScionSocketAddress) dstScionAddress).getPath();
+      ScionAddress dst = ScionAddress.create(path.getRemoteIsdAs(), path.getRemoteAddress());
+      return withDeadline(getPathsAsync(dst, path.getRemotePort()));
+    }
+    ScionAddress dst = ScionAddress.create(dstIsdAs, dstScionAddress.getAddress());
+    return withDeadline(getPathsAsync(dst, dstScionAddress.getPort()));
+  }
+
+  /**
+   * Asynchronous version of {@link #lookupAndGetPath(String, int, PathPolicy)}. The DNS lookup runs
+   * on the executor, see {@link #setAsyncExecutor(Executor)}.
+   *
+   * @param hostName Destination host name
+   * @param port Destination port
+   * @param policy Path policy. 'null' means PathPolicy.DEFAULT.
+   * @return A future with the selected path. The future fails with a ScionException if the DNS/TXT
+   *     lookup did not return a (valid) SCION address or with a TimeoutException if the whole
+   *     lookup takes longer than the deadline, see {@link #setAsyncDeadline(Duration)}.
+   */
+  public CompletableFuture<Path> lookupAndGetPathAsync(
+      String hostName, int port, PathPolicy policy) {
+    PathPolicy pathPolicy = policy == null ? PathPolicy.DEFAULT : policy;
+    return withDeadline(
+        supplyAsync(() -> lookupAddress(hostName))
+            .thenCompose(address -> getPathsAsync(address, port))
+            .thenCompose(paths -> probeIfRequiredAsync(paths, pathPolicy))
+            .thenApply(pathPolicy::filter));
+  }
+
+  /**
+   * Asynchronous version of {@link #lookupAndGetPath(InetSocketAddress, PathPolicy)}.
+   *
+   * @param dstAddr Destination address
+   * @param policy Path policy. 'null' means PathPolicy.DEFAULT.
+   * @return A future with the selected path. The future fails with a ScionException if the DNS/TXT
+   *     lookup did not return a (valid) SCION address.
+   */
+  public CompletableFuture<Path> lookupAndGetPathAsync(
+      InetSocketAddress dstAddr, PathPolicy policy) {
+    return lookupAndGetPathAsync(dstAddr.getHostString(), dstAddr.getPort(), policy);
+  }
+
+  private CompletableFuture<List<Path>> getPathsAsync(ScionAddress dstAddress, int dstPort) {
+    long srcIsdAs = getLocalIsdAs();
+    return getPathListAsync(srcIsdAs, dstAddress.getIsdAs())
+        .thenApply(paths -> toRequestPaths(paths, dstAddress, dstPort));
+  }
+
+  /**
+   * @return A future with the paths. Unlike the public methods, this applies no deadline in CS
+   *     mode, callers should use {@link #withDeadline(CompletableFuture)}.
+   */
+  CompletableFuture<List<Daemon.Path>> getPathListAsync(long srcIsdAs, long dstIsdAs) {
+    if (daemonAsyncStub == null) {
+      return supplyAsync(() -> getPathListCS(srcIsdAs, dstIsdAs));
+    }
+    Daemon.PathsRequest request =
+        Daemon.PathsRequest.newBuilder()
+            .setSourceIsdAs(srcIsdAs)
+            .setDestinationIsdAs(dstIsdAs)
+            .build();
+    CompletableFuture<List<Daemon.Path>> future = new CompletableFuture<>();
+    daemonAsyncStub
+        .withDeadlineAfter(asyncDeadlineMs, TimeUnit.MILLISECONDS)
+        .paths(
+            request,
+            new StreamObserver<Daemon.PathsResponse>() {
+              @Override
+              public void onNext(Daemon.PathsResponse response) {
+                future.complete(response.getPathsList());
+              }
+
+              @Override
+              public void onError(Throwable t) {
+                if (Status.fromThrowable(t).getCode() == Status.Code.DEADLINE_EXCEEDED) {
+                  future.completeExceptionally(new TimeoutException(t.getMessage()));
+                } else {
+                  future.completeExceptionally(new ScionRuntimeException(t));
+                }
+              }
+
+              @Override
+              public void onCompleted() {
+                // Nothing to do
+              }
+            });
+    return future;
+  }
+
+  private <T> CompletableFuture<T> supplyAsync(Callable<T> callable) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    Executor executor = asyncExecutor != null ? asyncExecutor : AsyncExecutorHolder.EXECUTOR;
+    executor.execute(
+        () -> {
+          try {
+            future.complete(callable.call());
+          } catch (Exception e) {
+            future.completeExceptionally(e);
+          }
+        });
+    return future;
+  }
+
+  /**
+   * Fail the future with a TimeoutException if it does not complete within the deadline, see {@link
+   * #setAsyncDeadline(Duration)}. Chained lookups should apply this once to the whole chain.
+   *
+   * @param future a future
+   * @return the same future
+   */
+  <T> CompletableFuture<T> withDeadline(CompletableFuture<T> future) {
+    if (future.isDone()) {
+      return future;
+    }
+    ScheduledFuture<?> timer =
+        SharedScheduler.schedule(
+            () -> future.completeExceptionally(new TimeoutException()),
+            asyncDeadlineMs,
+            TimeUnit.MILLISECONDS);
+    future.whenComplete((result, throwable) -> timer.cancel(false));
+    return future;
+  }
+
+  /**
+   * Measure the round trip time of all paths concurrently with SCMP echo requests. Each path is
+   * probed from a separate SCMP channel on the executor, see {@link #setAsyncExecutor(Executor)}.
+   * The measurements are stored in this service for use by {@link PathPolicy#MEASURED_LATENCY} on
+   * paths returned by this service. Paths that do not respond within the probe timeout are recorded
+   * as timed out. Measurements expire after {@link Constants#PROPERTY_PATH_PROBE_TTL}.
+   *
+   * @param paths Paths to probe, usually all paths to one destination.
+   * @return A future with the paths ordered by measured latency. Paths that did not respond are at
+   *     the end of the list.
+   */
+  public CompletableFuture<List<Path>> probePaths(List<Path> paths) {
+    CompletableFuture<?>[] probes = new CompletableFuture<?>[paths.size()];
+    for (int i = 0; i < paths.size(); i++) {
+      Path path = paths.get(i);
+      probes[i] =
+          supplyAsync(
+              () -> {
+                probePath(path);
+                return null;
+              });
+    }
+    List<Path> sorted = new ArrayList<>(paths);
+    return CompletableFuture.allOf(probes)
+        .handle(
+            (v, t) -> {
+              sorted.sort(PathPolicy.MeasuredLatency.COMPARATOR);
+              return sorted;
+            });
+  }
+
+  private void probePath(Path path) {
+    if (!(path instanceof RequestPath)) {
+      return;
+    }
+    long rttNanos = MeasuredLatencies.TIMED_OUT;
+    // Port 0: Each probe uses its own ephemeral port so that probes can run concurrently.
+    try (ScmpChannel channel = new ScmpChannel(this, 0)) {
+      channel.setTimeOut(pathProbeTimeoutMs);
+      Scmp.EchoMessage result = channel.sendEchoRequest(path, 0, ByteBuffer.allocate(0));
+      if (!result.isTimedOut()) {
+        rttNanos = result.getNanoSeconds();
+      }
+    } catch (IOException e) {
+      LOG.info("Path probe failed: {}", e.getMessage());
+    }
+    measuredLatencies.record(path.getRemoteIsdAs(), path.fingerprint(), rttNanos);
+  }
+
+  private List<Path> probeIfRequired(List<Path> paths, PathPolicy policy) {
+    try {
+      return probeIfRequiredAsync(paths, policy).get(getProbeDeadlineMs(), TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return paths;
+    } catch (ExecutionException | TimeoutException e) {
+      // Probing is best effort
+      return paths;
+    }
+  }
+
+  // Completes with the (unsorted) paths when all probes are done or after the probe deadline,
+  // whichever comes first. Paths that are still being probed are ranked as unknown.
+  private CompletableFuture<List<Path>> probeIfRequiredAsync(List<Path> paths, PathPolicy policy) {
+    if (!(policy instanceof PathPolicy.MeasuredLatency)) {
+      return CompletableFuture.completedFuture(paths);
+    }
+    List<Path> unknown = new ArrayList<>();
+    for (Path path : paths) {
+      if (path.measuredRttNanos() == MeasuredLatencies.UNKNOWN) {
+        unknown.add(path);
+      }
+    }
+    if (unknown.isEmpty()) {
+      return CompletableFuture.completedFuture(paths);
+    }
+    CompletableFuture<List<Path>> result = new CompletableFuture<>();
+    probePaths(unknown).whenComplete((probed, t) -> result.complete(paths));
+    ScheduledFuture<?> timer =
+        SharedScheduler.schedule(
+            () -> result.complete(paths), getProbeDeadlineMs(), TimeUnit.MILLISECONDS);
+    result.whenComplete((r, t) -> timer.cancel(false));
+    return result;
+  }
+
+  // Probes run concurrently on the executor, allow some time for scheduling them.
+  private long getProbeDeadlineMs() {
+    return pathProbeTimeoutMs + PROBE_DEADLINE_MARGIN_MS;
+  }
+
+  MeasuredLatencies getMeasuredLatencies() {
+    return measuredLatencies;
+  }
+
+  /**
+   * Subscribe to path changes for a destination. Instead of polling {@link #getPaths(long,
+   * InetSocketAddress)}, the listener receives incremental updates with paths that were added,
+   * removed or are about to expire. The first update contains all available paths. All watches for
+   * the same destination ISD/AS share a single path lookup.
+   *
+   * <p>The listener is called from a background thread and must not block.
+   *
+   * @param dstIsdAs Destination ISD/AS
+   * @param dstAddress Destination address. Must belong to a SCION enabled end host.
+   * @param listener Listener for path updates
+   * @return A handle for the watch. Call {@link PathWatch#close()} to stop watching.
+   * @see PathWatch
+   */
+  public PathWatch watchPaths(
+      long dstIsdAs, InetSocketAddress dstAddress, Consumer<PathWatch.Update> listener) {
+    synchronized (pathWatches) {
+      PathWatch.Group group =
+          pathWatches.computeIfAbsent(dstIsdAs, isdAs -> new PathWatch.Group(this, isdAs));
+      PathWatch watch =
+          new PathWatch(group, dstAddress.getAddress(), dstAddress.getPort(), listener);
+      group.add(watch);
+      return watch;
+    }
+  }
+
+  void removePathWatch(PathWatch watch) {
+    synchronized (pathWatches) {
+      if (watch.getGroup().remove(watch)) {
+        pathWatches.remove(watch.getDestinationIsdAs(), watch.getGroup());
+      }
+    }
+  }
+
+  /**
+   * Set the time between two path lookups for path watches. The default is 60 seconds, see {@link
+   * Constants#DEFAULT_PATH_WATCH_INTERVAL}. The new interval applies after the next lookup.
+   *
+   * @param interval interval, at least 1 second
+   * @see #watchPaths(long, InetSocketAddress, Consumer)
+   */
+  public void setPathWatchInterval(Duration interval) {
+    this.pathWatchIntervalSeconds = (int) Math.max(1, interval.getSeconds());
+  }
+
+  int getPathWatchIntervalSeconds() {
+    return pathWatchIntervalSeconds;
+  }
+
+  int getPathExpiryMargin() {
+    return ScionUtil.getPropertyOrEnv(
+        Constants.PROPERTY_PATH_EXPIRY_MARGIN,
+        Constants.ENV_PATH_EXPIRY_MARGIN,
+        Constants.DEFAULT_PATH_EXPIRY_MARGIN);
+  }
+
+  /**
+   * Set the timeout for SCMP echo probes, see {@link #probePaths(List)}. The default is given by
+   * {@link Constants#PROPERTY_PATH_PROBE_TIMEOUT}.
+   *
+   * @param timeout Timeout for each probe.
+   */
+  public void setPathProbeTimeout(Duration timeout) {
+    this.pathProbeTimeoutMs = (int) timeout.toMillis();
+  }
+
+  /**
+   * Set the executor for blocking work of asynchronous methods, e.g. DNS lookups or segment
+   * lookups. The default is a shared pool of daemon threads.
+   *
+   * @param executor An executor or 'null' for the default executor.
+   */
+  public void setAsyncExecutor(Executor executor) {
+    this.asyncExecutor = executor;
+  }
+
+  /**
+   * Set the deadline for asynchronous methods. The default is given by {@link
+   * Constants#PROPERTY_ASYNC_DEADLINE}.
+   *
+   * @param deadline Deadline for each asynchronous lookup.
+   */
+  public void setAsyncDeadline(Duration deadline) {
+    this.asyncDeadlineMs = deadline.toMillis();
+  }
+
+  /**
+   * Listener for failures of interfaces of a path, see {@link #indexPath(FailureListener, Path)}.
+   */
+  interface FailureListener {
+    void onFailure();
+  }
+
+  FailedInterfaces getFailedInterfaces() {
+    return failedInterfaces;
+  }
+
+  /**
+   * Register the interfaces of a path. The listener is called when one of the interfaces is
+   * reported as down by any channel of this service. Listeners are held weakly.
+   *
+   * @param listener the listener
+   * @param path the path
+   */
+  void indexPath(FailureListener listener, Path path) {
+    synchronized (interfaceIndex) {
+      interfaceIndex.add(listener, path);
+    }
+  }
+
+  void unindexPath(FailureListener listener, Path path) {
+    synchronized (interfaceIndex) {
+      interfaceIndex.remove(listener, path);
+    }
+  }
+
+  int getIndexedListenerCount(long isdAs, long interfaceId) {
+    synchronized (interfaceIndex) {
+      return interfaceIndex.get(isdAs, interfaceId).size();
+    }
+  }
+
+  /**
+   * Record an interface failure that was reported by an SCMP error. Failures that are already known
+   * are ignored. Otherwise, all listeners of affected paths are called, see {@link
+   * #indexPath(FailureListener, Path)}, and "External Interface Down" errors are forwarded to the
+   * daemon.
+   *
+   * @param msg SCMP message
+   * @return 'true' if the message reported a new interface failure.
+   */
+  boolean reportFailure(Scmp.Message msg) {
+    if (!failedInterfaces.add(msg)) {
+      return false;
+    }
+    List<FailureListener> affected = new ArrayList<>();
+    synchronized (interfaceIndex) {
+      if (msg instanceof Scmp.ExternalInterfaceDownMessage) {
+        Scmp.ExternalInterfaceDownMessage error = (Scmp.ExternalInterfaceDownMessage) msg;
+        affected.addAll(interfaceIndex.get(error.getIsdAs(), error.getInterfaceId()));
+      } else {
+        Scmp.InternalConnectivityDownMessage error = (Scmp.InternalConnectivityDownMessage) msg;
+        affected.addAll(interfaceIndex.get(error.getIsdAs(), error.getIngressId()));
+        affected.addAll(interfaceIndex.get(error.getIsdAs(), error.getEgressId()));
+      }
+    }
+    if (msg instanceof Scmp.ExternalInterfaceDownMessage) {
+      Scmp.ExternalInterfaceDownMessage error = (Scmp.ExternalInterfaceDownMessage) msg;
+      notifyInterfaceDown(error.getIsdAs(), error.getInterfaceId());
+    }
+    for (FailureListener listener : affected) {
+      listener.onFailure();
+    }
+    return true;
+  }
+
+  /**
+   * Notify the daemon that an interface is down, e.g. after receiving an SCMP "External Interface
+   * Down" error. The daemon may then avoid paths that traverse this interface. The notification is
+   * sent asynchronously. This method does nothing if the service does not use a daemon.
+   *
+   * @param isdAs ISD-AS of the AS that owns the interface
+   * @param interfaceId ID of the interface that is down
+   */
+  public void notifyInterfaceDown(long isdAs, long interfaceId) {
+    if (daemonAsyncStub == null) {
+      return;
+    }
+    Daemon.NotifyInterfaceDownRequest request =
+        Daemon.NotifyInterfaceDownRequest.newBuilder().setIsdAs(isdAs).setId(interfaceId).build();
+    daemonAsyncStub
+        .withDeadlineAfter(asyncDeadlineMs, TimeUnit.MILLISECONDS)
+        .notifyInterfaceDown(
+            request,
+            new StreamObserver<Daemon.NotifyInterfaceDownResponse>() {
+              @Override
+              public void onNext(Daemon.NotifyInterfaceDownResponse response) {
+                // Nothing to do
+              }
+
+              @Override
+              public void onError(Throwable t) {
+                LOG.info("Failed to notify daemon about interface down: {}", t.getMessage());
+              }
+
+              @Override
+              public void onCompleted() {
+                // Nothing to do
+              }
+            });
+  }
+
   Map<String, Daemon.ListService> getServices() throws ScionException {
     Daemon.ServicesRequest request = Daemon.ServicesRequest.newBuilder().build();
     Daemon.ServicesResponse response;
@@ -473,6 +985,18 @@ public class ScionService {
     throw new ScionException("No DNS TXT entry \"scion\" found for host: " + hostName);
   }
 
+  /**
+   * Asynchronous version of {@link #getIsdAs(String)}. The lookup runs on the executor, see {@link
+   * #setAsyncExecutor(Executor)}.
+   *
+   * @param hostName hostName of the host to resolve
+   * @return A future with the ISD/AS code for a hostname. The future fails with a ScionException if
+   *     the DNS/TXT lookup did not return a (valid) SCION address.
+   */
+  public CompletableFuture<Long> getIsdAsAsync(String hostName) {
+    return withDeadline(supplyAsync(() -> getIsdAs(hostName)));
+  }
+
   @Deprecated // Please use lookupScionAddress() instead.
   public ScionAddress getScionAddress(String hostName) throws ScionException {
     return lookupAddress(hostName);
@@ -596,7 +1120,7 @@ public class ScionService {
 
   // Do not expose protobuf types on API!
   List<Daemon.Path> getPathListCS(long srcIsdAs, long dstIsdAs) {
-    return Segments.getPaths(segmentStub, localTopology, srcIsdAs, dstIsdAs);
+    return Segments.getPaths(controlService, localTopology, srcIsdAs, dstIsdAs);
   }
 
   /**
@@ -629,4 +1153,14 @@ public class ScionService {
       return localTopology.getBorderRouterAddresses();
     }
   }
+
+  private static class AsyncExecutorHolder {
+    private static final ExecutorService EXECUTOR =
+        Executors.newCachedThreadPool(
+            runnable -> {
+              Thread thread = new Thread(runnable, "ScionService-async");
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
 }
@@ -39,6 +39,17 @@ public final class ScionSocketOptions {
   public static final SocketOption<Boolean> SCION_API_WRITE_TO_USER_BUFFER =
       new SciSocketOption<>("SCION_API_WRITE_TO_USER_BUFFER", Boolean.class);
 
+  /**
+   * If set to 'true', a background thread receives packets and processes SCMP errors immediately,
+   * i.e. the SCMP error listener is called and interfaces that are reported as down are avoided.
+   * Other packets are queued for the next receive() or read(). This is useful for channels that
+   * only send packets and would otherwise never see SCMP errors. Received packets are copied once
+   * more, so this is not recommended for channels that receive a lot of traffic. Once enabled, this
+   * cannot be disabled. Default is 'false'.
+   */
+  public static final SocketOption<Boolean> SCION_API_RECEIVE_SCMP_IN_BACKGROUND =
+      new SciSocketOption<>("SCION_API_RECEIVE_SCMP_IN_BACKGROUND", Boolean.class);
+
   /**
    * Before sending a packet, a new path will be requested if now() + pathExpirationMargin >
    * pathExpirationDate.
@@ -46,6 +57,23 @@ public final class ScionSocketOptions {
   public static final SocketOption<Integer> SCION_PATH_EXPIRY_MARGIN =
       new SciSocketOption<>("SCION_PATH_EXPIRY_MARGIN", Integer.class);
 
+  /**
+   * Pacing rate in bit/s for packets sent by a {@link ScionDatagramChannel}. Packets are paced per
+   * path with a token bucket that permits short bursts. In blocking mode, send() and write() wait
+   * until the packet can be sent. In non-blocking mode, they return 0 and the packet should be sent
+   * again later.
+   *
+   * <p>A value of 0 disables pacing. {@link #PACING_PATH_BANDWIDTH} uses the throughput reported
+   * with {@link ScionDatagramChannel#reportThroughput(Path, long)} or, if no throughput was
+   * reported, the announced bottleneck bandwidth of each path. Paths without either are not paced.
+   * Default is 0.
+   */
+  public static final SocketOption<Long> SCION_PACING_RATE =
+      new SciSocketOption<>("SCION_PACING_RATE", Long.class);
+
+  /** Value for {@link #SCION_PACING_RATE} that derives the rate from the path bandwidth. */
+  public static final long PACING_PATH_BANDWIDTH = -1;
+
   /**
    * Set the traffic class SCION header.
    *
@@ -0,0 +1,1271 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.scion.jpan.internal.CubicCongestionControl;
+import org.scion.jpan.internal.RttEstimator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A reliable, ordered and congestion controlled byte stream on top of a {@link
+ * ScionDatagramChannel}, similar to a TCP socket. Every stream uses its own datagram channel, i.e.
+ * its own local port.
+ *
+ * <p>A client calls {@link #connect(long, InetSocketAddress)}, a server binds a channel and calls
+ * {@link #accept()} which waits for a client to connect. Afterward, both ends can {@link
+ * #read(ByteBuffer)} and {@link #write(ByteBuffer)}. Both methods are blocking. {@link #close()}
+ * waits until all written data has been acknowledged.
+ *
+ * <p>The transport uses:
+ *
+ * <ul>
+ *   <li>selective acknowledgements and time based loss detection, retransmission timeouts with
+ *       exponential backoff,
+ *   <li>RTT estimation from timestamps (RFC 6298, RFC 7323),
+ *   <li>CUBIC congestion control (RFC 9438) with pacing at 1.25x (2x in slow start) of the
+ *       congestion window per RTT,
+ *   <li>flow control with a receive window.
+ * </ul>
+ *
+ * <p>If the channel switches to another path, e.g. because of an SCMP error (see {@link
+ * ScionDatagramChannel}) or because the remote end switched paths, the RTT estimator and the
+ * congestion controller are reset and all unacknowledged data is retransmitted on the new path.
+ *
+ * <p>Every packet starts with a header of 24 bytes: version (1 byte), type (1 byte), flags (1
+ * byte), reserved (1 byte), connection ID (4 bytes), timestamp (8 bytes) and echoed timestamp (8
+ * bytes). Data packets continue with the stream offset (8 bytes), acknowledgements with the
+ * cumulative acknowledgement (8 bytes), the receive window (4 bytes), the number of SACK blocks (1
+ * byte), 3 reserved bytes and up to {@value #MAX_SACK_BLOCKS} SACK blocks (start and end offset, 8
+ * bytes each).
+ *
+ * <p>This class is thread safe.
+ */
+public class ScionStreamChannel implements ByteChannel, Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ScionStreamChannel.class.getName());
+
+  private static final byte VERSION = 1;
+  private static final byte TYPE_SYN = 1;
+  private static final byte TYPE_SYN_ACK = 2;
+  private static final byte TYPE_DATA = 3;
+  private static final byte TYPE_ACK = 4;
+  private static final byte FLAG_FIN = 1;
+  private static final int HEADER_LENGTH = 24;
+  private static final int DATA_HEADER_LENGTH = HEADER_LENGTH + 8;
+  private static final int MAX_SACK_BLOCKS = 8;
+  private static final int MIN_SEGMENT_SIZE = 256;
+  private static final int MAX_SEGMENT_SIZE = 8192;
+  // The send and receive buffers start small and grow on demand up to these sizes.
+  private static final int SEND_BUFFER_SIZE = 4 << 20;
+  private static final int RECEIVE_BUFFER_SIZE = 4 << 20;
+  private static final int INITIAL_BUFFER_SIZE = 64 << 10;
+  // Maximum number of packets that are built before they are sent
+  private static final int MAX_BATCH = 32;
+  private static final long CONNECT_TIMEOUT = TimeUnit.SECONDS.toNanos(10);
+  private static final long CLOSE_TIMEOUT = TimeUnit.SECONDS.toNanos(10);
+  // Time to wait for the FIN of the remote end after close()
+  private static final long LINGER_TIMEOUT = TimeUnit.SECONDS.toNanos(2);
+  // Maximum burst of the pacer
+  private static final long PACING_QUANTUM = TimeUnit.MILLISECONDS.toNanos(1);
+  private static final int DUP_THRESHOLD = 3;
+  private static final long MIN_REORDERING_WINDOW = TimeUnit.MILLISECONDS.toNanos(1);
+  // Acknowledge every second data packet, or after a short delay
+  private static final int ACK_FREQUENCY = 2;
+  private static final long MAX_ACK_DELAY = TimeUnit.MILLISECONDS.toNanos(1);
+  // Give up after this number of consecutive retransmission timeouts without any acknowledgement
+  private static final int MAX_TIMEOUTS = 7;
+
+  private enum State {
+    NEW,
+    LISTEN,
+    SYN_SENT,
+    ESTABLISHED,
+    CLOSED
+  }
+
+  private final ScionDatagramChannel channel;
+  private final Selector selector;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition changed = lock.newCondition();
+  // Fields below are guarded by lock.
+  private State state = State.NEW;
+  private IOException error;
+  private boolean closed = false;
+  private int connectionId;
+  private boolean isClient;
+  // RequestPath for the client, ResponsePath for the server
+  private Path peerPath;
+  private long peerPathFingerprint;
+  private int mss;
+  private CubicCongestionControl cc;
+  private final RttEstimator rtt = new RttEstimator();
+  private long lastControlNanos;
+  private long connectStartNanos;
+  private long closeNanos;
+  private long retransmissions = 0;
+  private int consecutiveTimeouts = 0;
+  private volatile boolean scmpError = false;
+
+  // Send side. All offsets are stream offsets.
+  private final Ring sendRing = new Ring(SEND_BUFFER_SIZE);
+  private long writeOffset = 0;
+  private long sndUna = 0;
+  private long sndNxt = 0;
+  private long peerLimit = RECEIVE_BUFFER_SIZE;
+  private boolean finQueued = false;
+  private boolean finSent = false;
+  private boolean finAcked = false;
+  private final TreeMap<Long, Segment> inFlight = new TreeMap<>();
+  private final ArrayDeque<Segment> lost = new ArrayDeque<>();
+  private long bytesInFlight = 0;
+  private long nextSendNanos;
+  private long rtoStartNanos;
+  private long rackSentNanos;
+  // Highest offset of a segment that has been delivered, for loss detection
+  private long highestDelivered = -1;
+  // Time at which an outstanding segment is declared lost if no acknowledgement arrives
+  private boolean lossTimerArmed = false;
+  private long lossTimerNanos;
+  // Loss recovery with proportional rate reduction (RFC 6937)
+  private boolean inRecovery = false;
+  // Recovery ends when everything up to this offset has been acknowledged
+  private long recoveryPoint;
+  private long recoverFs;
+  private long prrDelivered;
+  private long prrOut;
+  private long sendQuota;
+
+  // Receive side
+  private final Ring receiveRing = new Ring(RECEIVE_BUFFER_SIZE);
+  private long readOffset = 0;
+  private long rcvNxt = 0;
+  private final TreeMap<Long, Long> outOfOrder = new TreeMap<>();
+  private long peerFinOffset = -1;
+  private long advertisedLimit = RECEIVE_BUFFER_SIZE;
+  // Send an acknowledgement immediately
+  private boolean ackPending = false;
+  // Data packets that have not been acknowledged yet
+  private int unackedPackets = 0;
+  private long ackDeadlineNanos;
+  private long lastTimestamp = 0;
+
+  // Used by the worker thread only. Packets are built while holding the lock and sent by
+  // sendOutgoing() after the lock has been released.
+  private ByteBuffer packet;
+  private final ArrayDeque<ByteBuffer> outgoing = new ArrayDeque<>();
+  private final ArrayDeque<ByteBuffer> freePackets = new ArrayDeque<>();
+  private final ByteBuffer receiveBuffer =
+      ByteBuffer.allocate(MAX_SEGMENT_SIZE + DATA_HEADER_LENGTH);
+
+  protected ScionStreamChannel(ScionDatagramChannel channel) throws IOException {
+    this.channel = channel;
+    this.selector = Selector.open();
+    // Avoid losses in the socket when the peer sends a full receive window as a burst.
+    channel.setOption(StandardSocketOptions.SO_RCVBUF, RECEIVE_BUFFER_SIZE);
+    channel.setScmpErrorListener(message -> scmpError = true);
+  }
+
+  public static ScionStreamChannel open() throws IOException {
+    return open(null);
+  }
+
+  public static ScionStreamChannel open(ScionService service) throws IOException {
+    return new ScionStreamChannel(ScionDatagramChannel.open(service));
+  }
+
+  public ScionStreamChannel bind(InetSocketAddress address) throws IOException {
+    channel.bind(address);
+    return this;
+  }
+
+  public InetSocketAddress getLocalAddress() throws IOException {
+    return channel.getLocalAddress();
+  }
+
+  /**
+   * Set the path policy that is used by {@link #connect(long, InetSocketAddress)} and for failover.
+   *
+   * @param pathPolicy the path policy
+   * @throws IOException in case of an IO error
+   */
+  public void setPathPolicy(PathPolicy pathPolicy) throws IOException {
+    channel.setPathPolicy(pathPolicy);
+  }
+
+  /**
+   * Connect to a server that is waiting in {@link #accept()}. The path is selected with the path
+   * policy.
+   *
+   * @param dstIsdAs Destination ISD/AS
+   * @param dstAddress Destination address
+   * @return this channel
+   * @throws IOException if the connection could not be established
+   */
+  public ScionStreamChannel connect(long dstIsdAs, InetSocketAddress dstAddress)
+      throws IOException {
+    Path path =
+        channel.getPathPolicy().filter(channel.getOrCreateService().getPaths(dstIsdAs, dstAddress));
+    return connect(path);
+  }
+
+  /**
+   * Connect to a server that is waiting in {@link #accept()}.
+   *
+   * @param path Path to the server
+   * @return this channel
+   * @throws IOException if the connection could not be established
+   */
+  public ScionStreamChannel connect(Path path) throws IOException {
+    lock.lock();
+    try {
+      checkNew();
+      channel.connect(path);
+      isClient = true;
+      connectionId = ThreadLocalRandom.current().nextInt() | 1;
+      initConnection(path, computeSegmentSize(path));
+      connectStartNanos = System.nanoTime();
+      state = State.SYN_SENT;
+      startWorker();
+      awaitEstablished();
+      return this;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Wait for a client to connect. The channel should be bound to a known port.
+   *
+   * @return this channel
+   * @throws IOException in case of an IO error
+   */
+  public ScionStreamChannel accept() throws IOException {
+    lock.lock();
+    try {
+      checkNew();
+      if (channel.getLocalAddress() == null) {
+        channel.bind(null);
+      }
+      isClient = false;
+      state = State.LISTEN;
+      startWorker();
+      awaitEstablished();
+      return this;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Read data from the stream. This method blocks until at least one byte is available.
+   *
+   * @param dst buffer
+   * @return The number of bytes read or -1 if the remote end has closed the stream and all data has
+   *     been read.
+   * @throws IOException in case of an IO error
+   */
+  @Override
+  public int read(ByteBuffer dst) throws IOException {
+    lock.lock();
+    try {
+      while (rcvNxt == readOffset) {
+        checkReadable();
+        if (peerFinOffset >= 0 && rcvNxt == peerFinOffset) {
+          return -1;
+        }
+        awaitChange();
+      }
+      int n = (int) Math.min(dst.remaining(), rcvNxt - readOffset);
+      receiveRing.get(readOffset, dst, n);
+      readOffset += n;
+      if (readOffset + RECEIVE_BUFFER_SIZE - advertisedLimit >= RECEIVE_BUFFER_SIZE / 4) {
+        // Window update
+        ackPending = true;
+        selector.wakeup();
+      }
+      return n;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Write data to the stream. This method blocks until all data has been copied to the send buffer.
+   *
+   * @param src data
+   * @return The number of bytes written.
+   * @throws IOException in case of an IO error
+   */
+  @Override
+  public int write(ByteBuffer src) throws IOException {
+    int total = 0;
+    lock.lock();
+    try {
+      while (src.hasRemaining()) {
+        checkWritable();
+        int space = (int) (SEND_BUFFER_SIZE - (writeOffset - sndUna));
+        if (space == 0) {
+          awaitChange();
+          continue;
+        }
+        int n = Math.min(space, src.remaining());
+        sendRing.ensureCapacity(sndUna, writeOffset, writeOffset + n);
+        sendRing.put(writeOffset, src, n);
+        writeOffset += n;
+        total += n;
+        selector.wakeup();
+      }
+      return total;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Close the sending direction of the stream. The remote end will read end-of-stream once it has
+   * received all data.
+   *
+   * @throws IOException in case of an IO error
+   */
+  public void shutdownOutput() throws IOException {
+    lock.lock();
+    try {
+      checkWritable();
+      finQueued = true;
+      selector.wakeup();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean isOpen() {
+    lock.lock();
+    try {
+      return !closed;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Close the stream. This method blocks until all data has been acknowledged by the remote end or
+   * until a timeout has passed.
+   *
+   * @throws IOException in case of an IO error
+   */
+  @Override
+  public void close() throws IOException {
+    lock.lock();
+    try {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      closeNanos = System.nanoTime();
+      if (state == State.ESTABLISHED) {
+        finQueued = true;
+        selector.wakeup();
+        long deadline = closeNanos + CLOSE_TIMEOUT;
+        long remaining;
+        while (!finAcked && error == null && (remaining = deadline - System.nanoTime()) > 0) {
+          try {
+            changed.awaitNanos(remaining);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            break;
+          }
+        }
+        if (finAcked && error == null) {
+          // The worker waits for the FIN of the remote end and then closes the channel
+          return;
+        }
+      }
+      boolean hasWorker = state != State.NEW;
+      state = State.CLOSED;
+      changed.signalAll();
+      if (hasWorker) {
+        selector.wakeup();
+        return;
+      }
+    } finally {
+      lock.unlock();
+    }
+    closeChannel();
+  }
+
+  /**
+   * @return The path that is currently used for sending.
+   */
+  public Path getPath() {
+    lock.lock();
+    try {
+      return peerPath;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return The congestion window in bytes.
+   */
+  public long getCongestionWindow() {
+    lock.lock();
+    try {
+      return cc == null ? 0 : cc.getWindow();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return The smoothed RTT in nanoseconds or -1 if unknown.
+   */
+  public long getSmoothedRttNanos() {
+    lock.lock();
+    try {
+      return rtt.getSmoothedRtt();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return The number of retransmitted segments.
+   */
+  public long getRetransmissionCount() {
+    lock.lock();
+    try {
+      return retransmissions;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void checkNew() throws IOException {
+    if (closed) {
+      throw new ClosedChannelException();
+    }
+    if (state != State.NEW) {
+      throw new IllegalStateException("Channel is already connected: " + state);
+    }
+  }
+
+  private void checkReadable() throws IOException {
+    if (error != null) {
+      throw error;
+    }
+    if (closed) {
+      throw new ClosedChannelException();
+    }
+    if (state != State.ESTABLISHED) {
+      throw new IOException("Stream is not connected: " + state);
+    }
+  }
+
+  private void checkWritable() throws IOException {
+    checkReadable();
+    if (finQueued) {
+      throw new IOException("Output has been shut down");
+    }
+  }
+
+  private void awaitChange() throws IOException {
+    try {
+      changed.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted", e);
+    }
+  }
+
+  private void awaitEstablished() throws IOException {
+    while (state != State.ESTABLISHED) {
+      if (error != null) {
+        throw error;
+      }
+      if (state == State.CLOSED) {
+        throw new ClosedChannelException();
+      }
+      awaitChange();
+    }
+  }
+
+  private void startWorker() throws IOException {
+    channel.configureBlocking(false);
+    channel.channel().register(selector, SelectionKey.OP_READ);
+    Thread worker = new Thread(this::run, "jpan-stream-" + channel.getLocalAddress().getPort());
+    worker.setDaemon(true);
+    worker.start();
+  }
+
+  private void initConnection(Path path, int segmentSize) {
+    peerPath = path;
+    peerPathFingerprint = fingerprint(path);
+    mss = segmentSize;
+    cc = new CubicCongestionControl(mss);
+    long now = System.nanoTime();
+    nextSendNanos = now;
+    rtoStartNanos = now;
+    rackSentNanos = now;
+    inRecovery = false;
+  }
+
+  private static int computeSegmentSize(Path path) {
+    int size = ScionDatagramChannel.getMaxPayloadLength(path) - DATA_HEADER_LENGTH;
+    return Math.max(MIN_SEGMENT_SIZE, Math.min(MAX_SEGMENT_SIZE, size));
+  }
+
+  private static long fingerprint(Path path) {
+    if (path.getMetadata() != null) {
+      return path.getMetadata().getFingerprint();
+    }
+    return Arrays.hashCode(path.getRawPath());
+  }
+
+  private void run() {
+    try {
+      while (true) {
+        long timeout;
+        lock.lock();
+        try {
+          if (state == State.CLOSED) {
+            return;
+          }
+          long now = System.nanoTime();
+          timeout = Math.min(onTimer(now), sendPackets(now));
+        } finally {
+          lock.unlock();
+        }
+        sendOutgoing();
+        if (timeout > 0) {
+          selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(timeout)));
+        } else {
+          selector.selectNow();
+        }
+        selector.selectedKeys().clear();
+        receivePackets();
+      }
+    } catch (IOException | RuntimeException e) {
+      lock.lock();
+      try {
+        if (state != State.CLOSED) {
+          LOG.info("Stream failed: {}", e.getMessage());
+          error = e instanceof IOException ? (IOException) e : new IOException(e);
+          state = State.CLOSED;
+        }
+        changed.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    } finally {
+      closeChannel();
+    }
+  }
+
+  private void closeChannel() {
+    try {
+      channel.close();
+      selector.close();
+    } catch (IOException e) {
+      LOG.info("Error while closing stream: {}", e.getMessage());
+    }
+  }
+
+  private void receivePackets() throws IOException {
+    while (true) {
+      receiveBuffer.clear();
+      ScionSocketAddress sender = channel.receive(receiveBuffer);
+      if (sender == null) {
+        break;
+      }
+      receiveBuffer.flip();
+      lock.lock();
+      try {
+        processPacket(receiveBuffer, sender.getPath(), System.nanoTime());
+      } finally {
+        lock.unlock();
+      }
+      if (outgoing.size() >= MAX_BATCH) {
+        sendOutgoing();
+      }
+    }
+    lock.lock();
+    try {
+      long now = System.nanoTime();
+      boolean ackDue = unackedPackets > 0 && now - ackDeadlineNanos >= 0;
+      if ((ackPending || ackDue) && state == State.ESTABLISHED) {
+        sendAck(now);
+      }
+    } finally {
+      lock.unlock();
+    }
+    sendOutgoing();
+  }
+
+  /**
+   * Handle timeouts.
+   *
+   * @return nanoseconds until the next timeout
+   */
+  private long onTimer(long now) throws IOException {
+    if (state == State.SYN_SENT) {
+      if (now - connectStartNanos > CONNECT_TIMEOUT) {
+        error = new IOException("Connection timed out");
+        state = State.CLOSED;
+        changed.signalAll();
+        return 0;
+      }
+      if (now - lastControlNanos >= rtt.getRto()) {
+        newPacket();
+        putHeader(TYPE_SYN, (byte) 0, now, 0);
+        packet.putShort((short) mss);
+        sendPacket();
+        lastControlNanos = now;
+      }
+      return lastControlNanos + rtt.getRto() - now;
+    }
+    if (state != State.ESTABLISHED) {
+      return Long.MAX_VALUE;
+    }
+    if (closed && finAcked) {
+      boolean peerFinReceived = peerFinOffset >= 0 && rcvNxt == peerFinOffset;
+      if (peerFinReceived || now - closeNanos > LINGER_TIMEOUT) {
+        state = State.CLOSED;
+        changed.signalAll();
+        return 0;
+      }
+    }
+    if (scmpError) {
+      // Retransmit everything, the next packet will be sent on a new path if there is one.
+      scmpError = false;
+      markAllLost();
+    }
+    long timeout = Long.MAX_VALUE;
+    if (lossTimerArmed) {
+      if (now - lossTimerNanos >= 0) {
+        detectLosses(now);
+      }
+      if (lossTimerArmed) {
+        timeout = lossTimerNanos - now;
+      }
+    }
+    boolean waitingForAck = bytesInFlight > 0 || (sndNxt >= peerLimit && sndNxt < writeOffset);
+    if (waitingForAck) {
+      long deadline = rtoStartNanos + rtt.getRto();
+      if (now - deadline >= 0) {
+        if (++consecutiveTimeouts > MAX_TIMEOUTS) {
+          throw new IOException("Connection timed out");
+        }
+        if (bytesInFlight > 0) {
+          LOG.debug("Retransmission timeout, RTO={}ms", rtt.getRto() / 1_000_000);
+          markAllLost();
+          cc.onTimeout();
+          inRecovery = false;
+        } else {
+          // Zero window probe
+          sendProbe(now);
+        }
+        rtt.backoff();
+        rtoStartNanos = now;
+        deadline = now + rtt.getRto();
+      }
+      timeout = deadline - now;
+    }
+    if (closed) {
+      timeout = Math.min(timeout, closeNanos + LINGER_TIMEOUT - now);
+    }
+    if (unackedPackets > 0) {
+      if (now - ackDeadlineNanos >= 0) {
+        sendAck(now);
+      } else {
+        timeout = Math.min(timeout, ackDeadlineNanos - now);
+      }
+    }
+    return timeout;
+  }
+
+  /**
+   * Send as many segments as allowed by congestion control, flow control and pacing.
+   *
+   * @return nanoseconds until the next segment may be sent, or Long.MAX_VALUE if the sender has to
+   *     wait for an acknowledgement or for data.
+   */
+  private long sendPackets(long now) {
+    if (state != State.ESTABLISHED) {
+      return Long.MAX_VALUE;
+    }
+    if (nextSendNanos - (now - PACING_QUANTUM) < 0) {
+      nextSendNanos = now - PACING_QUANTUM;
+    }
+    while (true) {
+      if (outgoing.size() >= MAX_BATCH) {
+        return 0;
+      }
+      Segment segment = nextLostSegment();
+      boolean isNew = segment == null;
+      int length;
+      if (isNew) {
+        length = (int) Math.min(mss, Math.min(writeOffset, peerLimit) - sndNxt);
+        boolean fin = finQueued && !finSent && sndNxt == writeOffset;
+        if (length <= 0 && !fin) {
+          return Long.MAX_VALUE;
+        }
+        length = Math.max(0, length);
+        if (isCongestionLimited(Math.max(1, length))) {
+          return Long.MAX_VALUE;
+        }
+        segment = new Segment(sndNxt, length, fin);
+      } else if (isCongestionLimited(segment.size())) {
+        return Long.MAX_VALUE;
+      }
+      if (nextSendNanos - now > PACING_QUANTUM) {
+        return nextSendNanos - now;
+      }
+      if (isNew) {
+        inFlight.put(segment.offset, segment);
+        sndNxt += segment.length;
+        finSent |= segment.fin;
+      } else {
+        lost.poll();
+        segment.retransmitted = true;
+        retransmissions++;
+      }
+      if (inRecovery) {
+        sendQuota -= segment.size();
+        prrOut += segment.size();
+      }
+      sendSegment(segment, now);
+      long srtt = rtt.getSmoothedRtt();
+      if (srtt > 0) {
+        double gain = cc.isSlowStart() ? 2.0 : 1.25;
+        double nanosPerByte = srtt / (gain * cc.getWindow());
+        nextSendNanos += (long) ((segment.length + DATA_HEADER_LENGTH) * nanosPerByte);
+      }
+    }
+  }
+
+  private boolean isCongestionLimited(int size) {
+    if (inRecovery) {
+      return size > sendQuota;
+    }
+    return bytesInFlight + size > cc.getWindow();
+  }
+
+  private Segment nextLostSegment() {
+    while (!lost.isEmpty()) {
+      Segment segment = lost.peek();
+      if (segment.lost && !segment.acked && !segment.sacked) {
+        return segment;
+      }
+      lost.poll();
+    }
+    return null;
+  }
+
+  private void sendSegment(Segment segment, long now) {
+    newPacket();
+    putHeader(TYPE_DATA, segment.fin ? FLAG_FIN : 0, now, lastTimestamp);
+    packet.putLong(segment.offset);
+    sendRing.get(segment.offset, packet, segment.length);
+    if (bytesInFlight == 0) {
+      rtoStartNanos = now;
+    }
+    segment.sentNanos = now;
+    segment.lost = false;
+    segment.inFlight = true;
+    bytesInFlight += segment.size();
+    sendPacket();
+  }
+
+  private void sendProbe(long now) {
+    newPacket();
+    putHeader(TYPE_DATA, (byte) 0, now, lastTimestamp);
+    packet.putLong(sndNxt);
+    sendPacket();
+  }
+
+  private void sendAck(long now) {
+    newPacket();
+    putHeader(TYPE_ACK, (byte) 0, now, lastTimestamp);
+    boolean finReceived = peerFinOffset >= 0 && rcvNxt == peerFinOffset;
+    packet.putLong(rcvNxt + (finReceived ? 1 : 0));
+    advertisedLimit = readOffset + RECEIVE_BUFFER_SIZE;
+    packet.putInt((int) (advertisedLimit - rcvNxt));
+    int nBlocks = Math.min(MAX_SACK_BLOCKS, outOfOrder.size());
+    packet.put((byte) nBlocks);
+    packet.put((byte) 0);
+    packet.putShort((short) 0);
+    // Report the highest blocks, they allow the sender to detect losses.
+    int i = 0;
+    for (Map.Entry<Long, Long> block : outOfOrder.descendingMap().entrySet()) {
+      if (i++ >= nBlocks) {
+        break;
+      }
+      packet.putLong(block.getKey());
+      packet.putLong(block.getValue());
+    }
+    ackPending = false;
+    unackedPackets = 0;
+    sendPacket();
+  }
+
+  private void putHeader(byte type, byte flags, long now, long echo) {
+    packet.put(VERSION);
+    packet.put(type);
+    packet.put(flags);
+    packet.put((byte) 0);
+    packet.putInt(connectionId);
+    packet.putLong(now);
+    packet.putLong(echo);
+  }
+
+  private void newPacket() {
+    packet = freePackets.poll();
+    if (packet == null) {
+      packet = ByteBuffer.allocate(mss + DATA_HEADER_LENGTH);
+    }
+    packet.clear();
+  }
+
+  /** Queue the packet, it is sent by {@link #sendOutgoing()}. */
+  private void sendPacket() {
+    packet.flip();
+    outgoing.add(packet);
+    packet = null;
+  }
+
+  /**
+   * Send the queued packets. Must be called by the worker thread without holding the lock, so that
+   * read() and write() are not blocked by the socket.
+   */
+  private void sendOutgoing() throws IOException {
+    if (outgoing.isEmpty()) {
+      return;
+    }
+    Path destination;
+    lock.lock();
+    try {
+      destination = peerPath;
+    } finally {
+      lock.unlock();
+    }
+    ByteBuffer buffer;
+    while ((buffer = outgoing.poll()) != null) {
+      if (isClient) {
+        channel.write(buffer);
+      } else {
+        channel.send(buffer, destination);
+      }
+      freePackets.add(buffer);
+    }
+    if (isClient) {
+      Path path = channel.getMappedPath(channel.getConnectionPath());
+      lock.lock();
+      try {
+        if (path != null && fingerprint(path) != peerPathFingerprint && state != State.CLOSED) {
+          onPathChange(path, System.nanoTime());
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  private void onPathChange(Path path, long now) {
+    LOG.info("Stream switched to path {}", path);
+    peerPath = path;
+    peerPathFingerprint = fingerprint(path);
+    rtt.reset();
+    cc.reset();
+    markAllLost();
+    rtoStartNanos = now;
+    inRecovery = false;
+    nextSendNanos = now;
+  }
+
+  private void markAllLost() {
+    for (Segment segment : inFlight.values()) {
+      if (segment.inFlight) {
+        markLost(segment);
+      }
+    }
+  }
+
+  private void markLost(Segment segment) {
+    removeFromFlight(segment);
+    segment.lost = true;
+    lost.add(segment);
+  }
+
+  private void removeFromFlight(Segment segment) {
+    if (segment.inFlight) {
+      bytesInFlight -= segment.size();
+      segment.inFlight = false;
+    }
+  }
+
+  private void processPacket(ByteBuffer buf, Path path, long now) {
+    if (buf.remaining() < HEADER_LENGTH || buf.get() != VERSION) {
+      return;
+    }
+    byte type = buf.get();
+    byte flags = buf.get();
+    buf.get();
+    int id = buf.getInt();
+    long timestamp = buf.getLong();
+    long echo = buf.getLong();
+
+    if (state == State.LISTEN) {
+      if (type == TYPE_SYN && buf.remaining() >= 2) {
+        connectionId = id;
+        int peerMss = Short.toUnsignedInt(buf.getShort());
+        initConnection(path, Math.max(MIN_SEGMENT_SIZE, Math.min(MAX_SEGMENT_SIZE, peerMss)));
+        state = State.ESTABLISHED;
+        lastTimestamp = timestamp;
+        sendSynAck(now);
+        changed.signalAll();
+      }
+      return;
+    }
+    if (id != connectionId || state == State.CLOSED) {
+      return;
+    }
+    if (state == State.SYN_SENT) {
+      // Any packet of the server confirms the connection
+      if (echo != 0) {
+        rtt.update(now - echo);
+      }
+      state = State.ESTABLISHED;
+      rtoStartNanos = now;
+      changed.signalAll();
+      if (type == TYPE_SYN_ACK) {
+        return;
+      }
+    }
+    if (type == TYPE_SYN) {
+      if (!isClient) {
+        // Our SYN_ACK was lost
+        lastTimestamp = timestamp;
+        sendSynAck(now);
+      }
+      return;
+    }
+    if (!isClient && !Arrays.equals(path.getRawPath(), peerPath.getRawPath())) {
+      onPathChange(path, now);
+    }
+    lastTimestamp = timestamp;
+    if (type == TYPE_DATA && buf.remaining() >= 8) {
+      processData(buf, (flags & FLAG_FIN) != 0, now);
+    } else if (type == TYPE_ACK && buf.remaining() >= 16) {
+      processAck(buf, echo, now);
+    }
+  }
+
+  private void sendSynAck(long now) {
+    newPacket();
+    putHeader(TYPE_SYN_ACK, (byte) 0, now, lastTimestamp);
+    sendPacket();
+  }
+
+  private void processData(ByteBuffer buf, boolean fin, long now) {
+    long offset = buf.getLong();
+    int length = buf.remaining();
+    long end = offset + length;
+    if (unackedPackets++ == 0) {
+      ackDeadlineNanos = now + MAX_ACK_DELAY;
+    }
+    // Acknowledge immediately if data is missing, duplicate or out of order.
+    boolean inOrder = offset == rcvNxt && length > 0 && outOfOrder.isEmpty();
+    ackPending |= !inOrder || fin || unackedPackets >= ACK_FREQUENCY;
+    if (end > readOffset + RECEIVE_BUFFER_SIZE) {
+      return; // beyond receive window
+    }
+    if (fin) {
+      peerFinOffset = end;
+    }
+    if (end > rcvNxt && length > 0) {
+      long start = Math.max(offset, rcvNxt);
+      buf.position(buf.position() + (int) (start - offset));
+      int n = (int) (end - start);
+      long received = outOfOrder.isEmpty() ? rcvNxt : outOfOrder.lastEntry().getValue();
+      receiveRing.ensureCapacity(readOffset, Math.max(rcvNxt, received), end);
+      receiveRing.put(start, buf, n);
+      if (start == rcvNxt) {
+        rcvNxt = end;
+        while (!outOfOrder.isEmpty() && outOfOrder.firstKey() <= rcvNxt) {
+          rcvNxt = Math.max(rcvNxt, outOfOrder.pollFirstEntry().getValue());
+        }
+      } else {
+        addRange(start, end);
+      }
+    }
+    if (closed) {
+      // Nobody is going to read the data
+      readOffset = rcvNxt;
+    }
+    changed.signalAll();
+  }
+
+  private void addRange(long start, long end) {
+    Map.Entry<Long, Long> floor = outOfOrder.floorEntry(start);
+    if (floor != null && floor.getValue() >= start) {
+      start = floor.getKey();
+      end = Math.max(end, floor.getValue());
+    }
+    Map.Entry<Long, Long> next;
+    while ((next = outOfOrder.ceilingEntry(start)) != null && next.getKey() <= end) {
+      end = Math.max(end, next.getValue());
+      outOfOrder.remove(next.getKey());
+    }
+    outOfOrder.put(start, end);
+  }
+
+  private void processAck(ByteBuffer buf, long echo, long now) {
+    long cumAck = buf.getLong();
+    consecutiveTimeouts = 0;
+    long window = Integer.toUnsignedLong(buf.getInt());
+    int nBlocks = Byte.toUnsignedInt(buf.get());
+    buf.get();
+    buf.getShort();
+
+    long acked = 0;
+    long rackSent = rackSentNanos;
+    // Cumulative acknowledgement
+    while (!inFlight.isEmpty() && inFlight.firstEntry().getValue().end() <= cumAck) {
+      Segment segment = inFlight.pollFirstEntry().getValue();
+      if (!segment.sacked) {
+        acked += segment.length;
+        rackSent = Math.max(rackSent, segment.sentNanos);
+      }
+      segment.acked = true;
+      removeFromFlight(segment);
+      highestDelivered = Math.max(highestDelivered, segment.offset);
+    }
+    boolean progress = acked > 0;
+    if (cumAck > sndUna) {
+      sndUna = Math.min(cumAck, writeOffset);
+      progress = true;
+      if (finSent && cumAck > writeOffset) {
+        finAcked = true;
+      }
+    }
+    peerLimit = Math.max(peerLimit, Math.min(cumAck, writeOffset) + window);
+    // Selective acknowledgements
+    for (int i = 0; i < nBlocks && buf.remaining() >= 16; i++) {
+      long start = buf.getLong();
+      long end = buf.getLong();
+      for (Segment segment : inFlight.subMap(start, true, end, false).values()) {
+        if (!segment.sacked && segment.end() <= end) {
+          segment.sacked = true;
+          acked += segment.length;
+          rackSent = Math.max(rackSent, segment.sentNanos);
+          removeFromFlight(segment);
+          highestDelivered = Math.max(highestDelivered, segment.offset);
+          progress = true;
+        }
+      }
+    }
+    if (progress) {
+      if (echo != 0) {
+        rtt.update(now - echo);
+      }
+      rtoStartNanos = now;
+    }
+    rackSentNanos = rackSent;
+    if (inRecovery && cumAck >= recoveryPoint) {
+      inRecovery = false;
+    }
+    detectLosses(now);
+    if (inRecovery) {
+      updateSendQuota(acked);
+    } else {
+      cc.onAck(acked, now, rtt.getMinRtt());
+    }
+    changed.signalAll();
+  }
+
+  /**
+   * Loss detection: a segment is lost if a segment that was sent sufficiently later has been
+   * delivered, or if a later segment has been delivered and the segment is outstanding for longer
+   * than the RTT plus the reordering window (RACK, RFC 8985). A segment is also lost if at least
+   * DUP_THRESHOLD later segments have been delivered. The latter compares offsets and therefore
+   * does not work for retransmissions.
+   *
+   * <p>The time based check also runs without acknowledgements, see {@link #lossTimerArmed}.
+   */
+  private void detectLosses(long now) {
+    lossTimerArmed = false;
+    if (highestDelivered < 0 || bytesInFlight == 0) {
+      return;
+    }
+    long reorderingWindow = Math.max(MIN_REORDERING_WINDOW, rtt.getMinRtt() / 4);
+    long srtt = Math.max(0, rtt.getSmoothedRtt());
+    boolean newLoss = false;
+    for (Segment segment : inFlight.headMap(highestDelivered, false).values()) {
+      if (!segment.inFlight) {
+        continue;
+      }
+      boolean sentBeforeDelivered = segment.sentNanos - rackSentNanos <= 0;
+      long lossNanos = segment.sentNanos + srtt + reorderingWindow;
+      boolean isLost =
+          rackSentNanos - segment.sentNanos > reorderingWindow
+              || (sentBeforeDelivered && now - lossNanos >= 0)
+              || (!segment.retransmitted
+                  && highestDelivered - segment.offset >= (long) DUP_THRESHOLD * mss);
+      if (isLost) {
+        markLost(segment);
+        // Only one window reduction for losses of data that was sent before the recovery started
+        newLoss |= !inRecovery || segment.offset >= recoveryPoint;
+      } else if (sentBeforeDelivered && (!lossTimerArmed || lossNanos - lossTimerNanos < 0)) {
+        lossTimerArmed = true;
+        lossTimerNanos = lossNanos;
+      }
+    }
+    if (newLoss) {
+      cc.onLoss(now);
+      inRecovery = true;
+      recoveryPoint = sndNxt;
+      recoverFs = Math.max(1, sndNxt - sndUna);
+      prrDelivered = 0;
+      prrOut = 0;
+      // Retransmit the first lost segment immediately
+      sendQuota = mss;
+    }
+  }
+
+  /**
+   * Proportional rate reduction: during recovery, send in proportion to the delivered data instead
+   * of sending a burst as soon as lost segments leave the network.
+   */
+  private void updateSendQuota(long delivered) {
+    prrDelivered += delivered;
+    long ssthresh = cc.getWindow();
+    long quota;
+    if (bytesInFlight > ssthresh) {
+      quota = (prrDelivered * ssthresh + recoverFs - 1) / recoverFs - prrOut;
+    } else {
+      // Slow start reduction bound
+      quota = Math.min(ssthresh - bytesInFlight, Math.max(prrDelivered - prrOut, delivered) + mss);
+    }
+    sendQuota = Math.max(0, quota);
+  }
+
+  /**
+   * Byte buffer that is indexed by stream offset. It starts with {@link #INITIAL_BUFFER_SIZE} bytes
+   * and grows on demand, so that streams that send or receive little data do not allocate the
+   * maximum size.
+   */
+  private static class Ring {
+    private final int maxSize;
+    private byte[] bytes = new byte[0];
+
+    Ring(int maxSize) {
+      this.maxSize = maxSize;
+    }
+
+    /**
+     * Make room for the range start to end, preserving the data from start to dataEnd.
+     *
+     * @param start first offset that is in use
+     * @param dataEnd end of the data that is in use
+     * @param end end of the range, at most start + maxSize
+     */
+    void ensureCapacity(long start, long dataEnd, long end) {
+      if (end - start <= bytes.length) {
+        return;
+      }
+      int size = Math.max(INITIAL_BUFFER_SIZE, bytes.length);
+      while (size < end - start) {
+        size *= 2;
+      }
+      Ring old = new Ring(maxSize);
+      old.bytes = bytes;
+      bytes = new byte[Math.min(size, maxSize)];
+      if (old.bytes.length > 0) {
+        ByteBuffer data = ByteBuffer.allocate((int) (dataEnd - start));
+        old.get(start, data, data.capacity());
+        data.flip();
+        put(start, data, data.capacity());
+      }
+    }
+
+    void put(long offset, ByteBuffer src, int length) {
+      if (length == 0) {
+        return;
+      }
+      int pos = (int) (offset % bytes.length);
+      int n1 = Math.min(length, bytes.length - pos);
+      src.get(bytes, pos, n1);
+      src.get(bytes, 0, length - n1);
+    }
+
+    void get(long offset, ByteBuffer dst, int length) {
+      if (length == 0) {
+        return;
+      }
+      int pos = (int) (offset % bytes.length);
+      int n1 = Math.min(length, bytes.length - pos);
+      dst.put(bytes, pos, n1);
+      dst.put(bytes, 0, length - n1);
+    }
+  }
+
+  private static class Segment {
+    private final long offset;
+    private final int length;
+    private final boolean fin;
+    private long sentNanos;
+    private boolean inFlight = false;
+    private boolean lost = false;
+    private boolean sacked = false;
+    private boolean acked = false;
+    private boolean retransmitted = false;
+
+    Segment(long offset, int length, boolean fin) {
+      this.offset = offset;
+      this.length = length;
+      this.fin = fin;
+    }
+
+    /** The FIN occupies one byte of the sequence space. */
+    long end() {
+      return offset + length + (fin ? 1 : 0);
+    }
+
+    /** Size for congestion control, at least 1 for FIN. */
+    int size() {
+      return Math.max(1, length);
+    }
+  }
+}
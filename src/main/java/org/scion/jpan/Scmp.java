@@ -334,6 +334,97 @@ public class Scmp {
     }
   }
 
+  /** SCMP error message for "External Interface Down" (type 5). */
+  public static class ExternalInterfaceDownMessage extends Message {
+    private long isdAs;
+    private long interfaceId;
+
+    private ExternalInterfaceDownMessage(Path path) {
+      super(TypeCode.TYPE_5, -1, -1, path);
+    }
+
+    public static ExternalInterfaceDownMessage createEmpty(Path path) {
+      return new ExternalInterfaceDownMessage(path);
+    }
+
+    /**
+     * @return ISD-AS of the AS where the interface failed.
+     */
+    public long getIsdAs() {
+      return isdAs;
+    }
+
+    /**
+     * @return ID of the interface that is down.
+     */
+    public long getInterfaceId() {
+      return interfaceId;
+    }
+
+    public void setErrorArgs(long isdAs, long interfaceId) {
+      this.isdAs = isdAs;
+      this.interfaceId = interfaceId;
+    }
+
+    @Override
+    public String toString() {
+      return Type.ERROR_5.getText() + " " + ScionUtil.toStringIA(isdAs) + " IfID=" + interfaceId;
+    }
+  }
+
+  /** SCMP error message for "Internal Connectivity Down" (type 6). */
+  public static class InternalConnectivityDownMessage extends Message {
+    private long isdAs;
+    private long ingressId;
+    private long egressId;
+
+    private InternalConnectivityDownMessage(Path path) {
+      super(TypeCode.TYPE_6, -1, -1, path);
+    }
+
+    public static InternalConnectivityDownMessage createEmpty(Path path) {
+      return new InternalConnectivityDownMessage(path);
+    }
+
+    /**
+     * @return ISD-AS of the AS where the connectivity failed.
+     */
+    public long getIsdAs() {
+      return isdAs;
+    }
+
+    /**
+     * @return ID of the ingress interface.
+     */
+    public long getIngressId() {
+      return ingressId;
+    }
+
+    /**
+     * @return ID of the egress interface.
+     */
+    public long getEgressId() {
+      return egressId;
+    }
+
+    public void setErrorArgs(long isdAs, long ingressId, long egressId) {
+      this.isdAs = isdAs;
+      this.ingressId = ingressId;
+      this.egressId = egressId;
+    }
+
+    @Override
+    public String toString() {
+      return Type.ERROR_6.getText()
+          + " "
+          + ScionUtil.toStringIA(isdAs)
+          + " ingress="
+          + ingressId
+          + " egress="
+          + egressId;
+    }
+  }
+
   static Scmp.Message createMessage(Type type, Path path) {
     switch (type) {
       case INFO_128:
@@ -342,6 +433,10 @@ public class Scmp {
       case INFO_130:
       case INFO_131:
         return Scmp.TracerouteMessage.createEmpty(path);
+      case ERROR_5:
+        return Scmp.ExternalInterfaceDownMessage.createEmpty(path);
+      case ERROR_6:
+        return Scmp.InternalConnectivityDownMessage.createEmpty(path);
       default:
         return new Scmp.Message(null, -1, -1, path);
     }
@@ -0,0 +1,98 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan;
+
+import org.scion.jpan.internal.SendScheduler;
+
+/**
+ * A class of traffic for the send scheduler of a {@link ScionDatagramChannel}, see {@link
+ * ScionDatagramChannel#addSendClass(int, int)}. Packets of a class are sent with the traffic class
+ * of the class in the SCION header.
+ *
+ * <p>This class is thread safe.
+ */
+public class SendClass {
+
+  private final SendScheduler.ClassQueue queue;
+
+  SendClass(SendScheduler.ClassQueue queue) {
+    this.queue = queue;
+  }
+
+  SendScheduler.ClassQueue getQueue() {
+    return queue;
+  }
+
+  public int getTrafficClass() {
+    return queue.getTrafficClass();
+  }
+
+  public int getWeight() {
+    return queue.getWeight();
+  }
+
+  /**
+   * @return Maximum number of queued packets. Senders block (or fail in non-blocking mode) when the
+   *     queue is full.
+   */
+  public int getMaxQueueDepth() {
+    return queue.getMaxQueueDepth();
+  }
+
+  /**
+   * @return Number of packets that are currently queued.
+   */
+  public int getQueueDepth() {
+    return queue.getQueueDepth();
+  }
+
+  /**
+   * @return Number of bytes (including headers) that are currently queued.
+   */
+  public long getQueuedBytes() {
+    return queue.getQueuedBytes();
+  }
+
+  /**
+   * @return The highest number of packets that were queued at the same time.
+   */
+  public int getMaxObservedQueueDepth() {
+    return queue.getMaxObservedQueueDepth();
+  }
+
+  public long getSentPackets() {
+    return queue.getSentPackets();
+  }
+
+  /**
+   * @return Number of bytes (including headers) that were sent.
+   */
+  public long getSentBytes() {
+    return queue.getSentBytes();
+  }
+
+  /**
+   * @return Number of queued packets that could not be sent, e.g. because of an IOException or
+   *     because the channel was closed.
+   */
+  public long getDroppedPackets() {
+    return queue.getDroppedPackets();
+  }
+
+  @Override
+  public String toString() {
+    return "SendClass{trafficClass=" + getTrafficClass() + ", weight=" + getWeight() + "}";
+  }
+}
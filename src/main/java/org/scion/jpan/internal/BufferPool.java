@@ -0,0 +1,117 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.internal;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Pool of heap ByteBuffers with power-of-two capacities. Released buffers are kept for reuse as
+ * long as the pool holds no more than a given number of bytes.
+ *
+ * <p>This class is not thread safe.
+ */
+public class BufferPool {
+
+  private static final int MIN_SHIFT = 10; // 1 KiB
+  private static final int MAX_SHIFT = 30;
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private final ArrayDeque<ByteBuffer>[] pools = new ArrayDeque[MAX_SHIFT + 1];
+
+  private final long maxPooledBytes;
+  private long pooledBytes = 0;
+
+  /**
+   * @param maxPooledBytes maximum total capacity of buffers that are kept for reuse.
+   */
+  public BufferPool(long maxPooledBytes) {
+    this.maxPooledBytes = maxPooledBytes;
+  }
+
+  /**
+   * @param size required size
+   * @return A buffer with position 0 and limit `size`. The capacity may be larger.
+   */
+  public ByteBuffer acquire(int size) {
+    int shift = sizeClass(size);
+    ArrayDeque<ByteBuffer> pool = pools[shift];
+    ByteBuffer buffer = pool != null ? pool.poll() : null;
+    if (buffer == null) {
+      buffer = ByteBuffer.allocate(1 << shift);
+    } else {
+      pooledBytes -= buffer.capacity();
+    }
+    buffer.clear();
+    buffer.limit(size);
+    return buffer;
+  }
+
+  /**
+   * Return a buffer to the pool.
+   *
+   * @param buffer a buffer that was returned by {@link #acquire(int)}
+   */
+  public void release(ByteBuffer buffer) {
+    int capacity = buffer.capacity();
+    if (Integer.bitCount(capacity) != 1 || pooledBytes + capacity > maxPooledBytes) {
+      return;
+    }
+    int shift = Integer.numberOfTrailingZeros(capacity);
+    if (shift < MIN_SHIFT) {
+      return;
+    }
+    if (pools[shift] == null) {
+      pools[shift] = new ArrayDeque<>();
+    }
+    pools[shift].add(buffer);
+    pooledBytes += capacity;
+  }
+
+  /**
+   * Release pooled buffers, the largest first, until the pool holds no more than the given number
+   * of bytes.
+   *
+   * @param maxBytes maximum total capacity of the pooled buffers
+   */
+  public void trim(long maxBytes) {
+    for (int shift = MAX_SHIFT; shift >= MIN_SHIFT && pooledBytes > maxBytes; shift--) {
+      ArrayDeque<ByteBuffer> pool = pools[shift];
+      while (pool != null && !pool.isEmpty() && pooledBytes > maxBytes) {
+        pooledBytes -= pool.poll().capacity();
+      }
+    }
+  }
+
+  public long getPooledBytes() {
+    return pooledBytes;
+  }
+
+  /**
+   * @param size required size
+   * @return The capacity of a buffer that is returned by {@link #acquire(int)} for the size.
+   */
+  public static int capacity(int size) {
+    return 1 << sizeClass(size);
+  }
+
+  private static int sizeClass(int size) {
+    if (size > 1 << MAX_SHIFT) {
+      throw new IllegalArgumentException("Buffer too large: " + size);
+    }
+    int shift = 32 - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1);
+    return Math.max(MIN_SHIFT, shift);
+  }
+}
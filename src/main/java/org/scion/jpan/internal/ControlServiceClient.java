@@ -0,0 +1,237 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.internal;
+
+import io.grpc.*;
+import io.grpc.stub.StreamObserver;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.scion.jpan.Constants;
+import org.scion.jpan.proto.control_plane.Seg;
+import org.scion.jpan.proto.control_plane.SegmentLookupServiceGrpc;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Client for the segment lookup service of one or more control services.
+ *
+ * <p>Requests are distributed round-robin over all control services. If a control service does not
+ * respond within the hedging delay, the same request is sent to the next control service and the
+ * first response wins. If a control service is UNAVAILABLE, the request fails over to the next
+ * control service immediately. Control services that recently were UNAVAILABLE are tried last.
+ * Other errors are only reported once no request is pending anymore. All requests together are
+ * bounded by an overall deadline.
+ */
+public class ControlServiceClient {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ControlServiceClient.class.getName());
+  private static final long FAILURE_PENALTY_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+  private final List<Node> nodes = new ArrayList<>();
+  private final AtomicInteger nextNode = new AtomicInteger();
+  private final long hedgeDelayMs;
+  private final long deadlineMs;
+
+  /**
+   * @param addresses Addresses of the control services.
+   * @param hedgeDelayMs Delay (milliseconds) after which a request is also sent to the next control
+   *     service. This should be roughly the p95 latency of segment requests. A value &lt;= 0
+   *     disables hedging.
+   */
+  public ControlServiceClient(List<String> addresses, long hedgeDelayMs) {
+    this(addresses, hedgeDelayMs, Constants.DEFAULT_CONTROL_SERVICE_DEADLINE);
+  }
+
+  /**
+   * @param addresses Addresses of the control services.
+   * @param hedgeDelayMs Delay (milliseconds) after which a request is also sent to the next control
+   *     service. This should be roughly the p95 latency of segment requests. A value &lt;= 0
+   *     disables hedging.
+   * @param deadlineMs Overall deadline (milliseconds) for a segment request, including all hedged
+   *     and failed-over requests.
+   */
+  public ControlServiceClient(List<String> addresses, long hedgeDelayMs, long deadlineMs) {
+    if (addresses.isEmpty()) {
+      throw new IllegalArgumentException("No control service address found");
+    }
+    for (String address : addresses) {
+      // TODO InsecureChannelCredentials: Implement authentication!
+      ManagedChannel channel =
+          Grpc.newChannelBuilder(address, InsecureChannelCredentials.create()).build();
+      nodes.add(new Node(address, channel));
+    }
+    this.hedgeDelayMs = hedgeDelayMs;
+    this.deadlineMs = deadlineMs;
+  }
+
+  public Seg.SegmentsResponse segments(Seg.SegmentsRequest request) {
+    List<Node> order = getOrder();
+    BlockingQueue<Result> results = new LinkedBlockingQueue<>();
+    Context.CancellableContext context = Context.current().withCancellation();
+    Deadline deadline = Deadline.after(deadlineMs, TimeUnit.MILLISECONDS);
+    long hedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(hedgeDelayMs);
+    StatusRuntimeException lastError = null;
+    StatusRuntimeException firstFailure = null;
+    try {
+      int sent = 0;
+      int pending = 0;
+      send(context, deadline, order.get(sent++), request, results);
+      pending++;
+      while (pending > 0) {
+        long remainingNanos = deadline.timeRemaining(TimeUnit.NANOSECONDS);
+        boolean hedge = sent < order.size() && hedgeDelayMs > 0 && hedgeDelayNanos < remainingNanos;
+        Result result =
+            results.poll(hedge ? hedgeDelayNanos : remainingNanos, TimeUnit.NANOSECONDS);
+        if (result == null) {
+          if (!hedge) {
+            throw Status.DEADLINE_EXCEEDED
+                .withDescription("No response from control services after " + deadlineMs + " ms")
+                .withCause(firstFailure != null ? firstFailure : lastError)
+                .asRuntimeException();
+          }
+          LOG.info("Control service {} is slow, sending hedged request.", order.get(sent - 1));
+          send(context, deadline, order.get(sent++), request, results);
+          pending++;
+          continue;
+        }
+        pending--;
+        if (result.response != null) {
+          return result.response;
+        }
+        lastError = result.error;
+        if (lastError.getStatus().getCode() != Status.Code.UNAVAILABLE) {
+          // Hedged requests may still succeed, report the error only if none is pending.
+          LOG.info("Control service {} failed: {}", result.node, lastError.getMessage());
+          if (firstFailure == null) {
+            firstFailure = lastError;
+          }
+          continue;
+        }
+        result.node.lastFailure.set(System.nanoTime());
+        LOG.info("Control service {} is unavailable: {}", result.node, lastError.getMessage());
+        if (sent < order.size()) {
+          send(context, deadline, order.get(sent++), request, results);
+          pending++;
+        }
+      }
+      throw firstFailure != null ? firstFailure : lastError;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw Status.CANCELLED.withCause(e).asRuntimeException();
+    } finally {
+      // Cancel any outstanding (hedged) requests
+      context.cancel(null);
+    }
+  }
+
+  private List<Node> getOrder() {
+    int start = Math.floorMod(nextNode.getAndIncrement(), nodes.size());
+    long now = System.nanoTime();
+    List<Node> order = new ArrayList<>(nodes.size());
+    List<Node> failed = new ArrayList<>();
+    for (int i = 0; i < nodes.size(); i++) {
+      Node node = nodes.get((start + i) % nodes.size());
+      long lastFailure = node.lastFailure.get();
+      if (lastFailure != 0 && now - lastFailure < FAILURE_PENALTY_NANOS) {
+        failed.add(node);
+      } else {
+        order.add(node);
+      }
+    }
+    order.addAll(failed);
+    return order;
+  }
+
+  private static void send(
+      Context context,
+      Deadline deadline,
+      Node node,
+      Seg.SegmentsRequest request,
+      BlockingQueue<Result> results) {
+    context.run(
+        () ->
+            node.stub
+                .withDeadline(deadline)
+                .segments(
+                    request,
+                    new StreamObserver<Seg.SegmentsResponse>() {
+                      @Override
+                      public void onNext(Seg.SegmentsResponse response) {
+                        results.add(new Result(node, response, null));
+                      }
+
+                      @Override
+                      public void onError(Throwable t) {
+                        StatusRuntimeException e =
+                            t instanceof StatusRuntimeException
+                                ? (StatusRuntimeException) t
+                                : Status.fromThrowable(t).asRuntimeException();
+                        results.add(new Result(node, null, e));
+                      }
+
+                      @Override
+                      public void onCompleted() {
+                        // Nothing to do
+                      }
+                    }));
+  }
+
+  public void close() throws InterruptedException {
+    for (Node node : nodes) {
+      node.channel.shutdown();
+    }
+    for (Node node : nodes) {
+      if (!node.channel.awaitTermination(5, TimeUnit.SECONDS)
+          && !node.channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS)) {
+        LOG.error("Failed to shut down gRPC ManagedChannel to control service {}", node);
+      }
+    }
+  }
+
+  private static class Node {
+    private final String address;
+    private final ManagedChannel channel;
+    private final SegmentLookupServiceGrpc.SegmentLookupServiceStub stub;
+    private final AtomicLong lastFailure = new AtomicLong();
+
+    Node(String address, ManagedChannel channel) {
+      this.address = address;
+      this.channel = channel;
+      this.stub = SegmentLookupServiceGrpc.newStub(channel);
+    }
+
+    @Override
+    public String toString() {
+      return address;
+    }
+  }
+
+  private static class Result {
+    private final Node node;
+    private final Seg.SegmentsResponse response;
+    private final StatusRuntimeException error;
+
+    Result(Node node, Seg.SegmentsResponse response, StatusRuntimeException error) {
+      this.node = node;
+      this.response = response;
+      this.error = error;
+    }
+  }
+}
@@ -0,0 +1,213 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.internal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Corking of messages, see ScionDatagramChannel.setCorking(). Messages are packed into a single
+ * datagram, each message prefixed with its length, see CorkDeframer. The datagram is sent when the
+ * next message does not fit, when {@link #flush()} is called, or when the cork delay has passed
+ * since the first message was corked.
+ *
+ * <p>This class is not thread safe. The channel guards it with its writeLock, the timer calls
+ * {@link Sender#onTimer()} which must take the writeLock before calling {@link #onTimer()}.
+ */
+public class CorkBuffer {
+
+  // Length of the prefix of every message, unsigned 16 bit integer.
+  public static final int LENGTH_PREFIX = 2;
+  public static final int MAX_MESSAGE_LENGTH = 0xFFFF;
+  private static final long DEFAULT_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final Sender sender;
+  private final int initialCapacity;
+  // `null` if corking is disabled.
+  private ByteBuffer buffer = null;
+  private long delayNanos = DEFAULT_DELAY_NANOS;
+  private ScheduledFuture<?> timer = null;
+
+  /**
+   * @param sender sends the datagrams
+   * @param initialCapacity initial size of the buffer, it grows up to the maximum payload length.
+   */
+  public CorkBuffer(Sender sender, int initialCapacity) {
+    this.sender = sender;
+    this.initialCapacity = initialCapacity;
+  }
+
+  public void enable() {
+    if (buffer == null) {
+      buffer = ByteBuffer.allocate(initialCapacity);
+    }
+  }
+
+  /**
+   * Disable corking. Pending messages are sent if the sender can send.
+   *
+   * @throws IOException if pending messages cannot be sent.
+   */
+  public void disable() throws IOException {
+    if (buffer == null) {
+      return;
+    }
+    try {
+      if (sender.canSend()) {
+        flush();
+      }
+    } finally {
+      buffer = null;
+      if (timer != null) {
+        timer.cancel(false);
+        timer = null;
+      }
+    }
+  }
+
+  public boolean isEnabled() {
+    return buffer != null;
+  }
+
+  /**
+   * @return the number of bytes of corked messages that have not been sent yet.
+   */
+  public int getPendingBytes() {
+    return buffer == null ? 0 : buffer.position();
+  }
+
+  /**
+   * @param delayNanos Maximum time that a message is held back.
+   */
+  public void setDelayNanos(long delayNanos) {
+    this.delayNanos = delayNanos;
+  }
+
+  /**
+   * Add a message to the datagram. The datagram is sent first if the message does not fit.
+   *
+   * @param src the message
+   * @return the length of the message or 0 if the datagram could not be sent, i.e. the channel is
+   *     non-blocking and paced.
+   * @throws IOException if the message is too large or sending failed.
+   */
+  public int cork(ByteBuffer src) throws IOException {
+    int len = src.remaining();
+    int recordLen = LENGTH_PREFIX + len;
+    int budget = Math.min(sender.getMaxPayloadLength(), LENGTH_PREFIX + MAX_MESSAGE_LENGTH);
+    if (recordLen > budget) {
+      throw new IOException(
+          "Message too large for corking: " + len + " > " + (budget - LENGTH_PREFIX));
+    }
+    if (buffer.position() + recordLen > budget && !flush()) {
+      return 0; // non-blocking and paced
+    }
+    if (buffer.capacity() < budget) {
+      ByteBuffer larger = ByteBuffer.allocate(budget);
+      buffer.flip();
+      larger.put(buffer);
+      buffer = larger;
+    }
+    buffer.putShort((short) len);
+    buffer.put(src);
+    if (budget - buffer.position() <= LENGTH_PREFIX) {
+      flush(); // full
+    }
+    scheduleFlush();
+    return len;
+  }
+
+  /**
+   * Send the datagram with the corked messages. If it cannot be sent, the messages are kept and
+   * sent after the cork delay.
+   *
+   * @return 'false' if the datagram could not be sent, i.e. the channel is non-blocking and paced.
+   * @throws IOException if sending failed.
+   */
+  public boolean flush() throws IOException {
+    int pending = buffer.position();
+    if (pending == 0) {
+      return true;
+    }
+    buffer.flip();
+    int sent = -1;
+    try {
+      sent = sender.send(buffer);
+    } finally {
+      if (sent == 0) {
+        // Not sent, keep messages
+        buffer.limit(buffer.capacity());
+        buffer.position(pending);
+        scheduleFlush();
+      } else {
+        buffer.clear();
+      }
+    }
+    return sent != 0;
+  }
+
+  /**
+   * Flush the corked messages when the timer has expired. Must be called by {@link
+   * Sender#onTimer()} with the writeLock held.
+   *
+   * @throws IOException if sending failed.
+   */
+  public void onTimer() throws IOException {
+    timer = null;
+    if (buffer != null && sender.canSend()) {
+      flush();
+    }
+  }
+
+  /**
+   * Retry the timer after the cork delay, e.g. because the writeLock was not available. The timer
+   * remains set, so no other timer is scheduled in the meantime.
+   */
+  public void retryTimer() {
+    SharedScheduler.schedule(sender::onTimer, delayNanos, TimeUnit.NANOSECONDS);
+  }
+
+  private void scheduleFlush() {
+    if (timer == null && buffer.position() > 0) {
+      timer = SharedScheduler.schedule(sender::onTimer, delayNanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /** Sends the datagrams of a {@link CorkBuffer}. */
+  public interface Sender {
+
+    /**
+     * @return the maximum length of a datagram.
+     */
+    int getMaxPayloadLength();
+
+    /**
+     * @return 'true' if datagrams can be sent, i.e. the channel is open and connected.
+     */
+    boolean canSend();
+
+    /**
+     * @param datagram the datagram
+     * @return the number of bytes sent or 0 if the channel is non-blocking and paced.
+     * @throws IOException if sending failed.
+     */
+    int send(ByteBuffer datagram) throws IOException;
+
+    /** Called by the timer of the cork delay, see {@link CorkBuffer#onTimer()}. */
+    void onTimer();
+  }
+}
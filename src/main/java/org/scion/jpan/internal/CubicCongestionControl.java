@@ -0,0 +1,120 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.internal;
+
+/**
+ * CUBIC congestion control as described in RFC 9438. The congestion window is maintained in bytes.
+ *
+ * <p>This class is not thread safe.
+ */
+public class CubicCongestionControl {
+
+  private static final double C = 0.4;
+  private static final double BETA = 0.7;
+  private static final int INITIAL_WINDOW_SEGMENTS = 10;
+
+  private final int mss;
+  private long cwnd;
+  private long ssthresh;
+  // Window before the last reduction, in bytes
+  private double wMax;
+  // Reno-friendly window estimate, in bytes
+  private double wEst;
+  // Time to reach wMax, in seconds
+  private double k;
+  private long epochStart;
+
+  /**
+   * @param mss maximum segment size in bytes
+   */
+  public CubicCongestionControl(int mss) {
+    this.mss = mss;
+    reset();
+  }
+
+  /** Restart with the initial window, e.g. after a path change. */
+  public void reset() {
+    cwnd = (long) INITIAL_WINDOW_SEGMENTS * mss;
+    ssthresh = Long.MAX_VALUE;
+    wMax = 0;
+    epochStart = -1;
+  }
+
+  /**
+   * @param ackedBytes number of newly acknowledged bytes
+   * @param nowNanos current time (System.nanoTime())
+   * @param minRttNanos minimum RTT or -1 if unknown
+   */
+  public void onAck(long ackedBytes, long nowNanos, long minRttNanos) {
+    if (ackedBytes <= 0) {
+      return;
+    }
+    if (cwnd < ssthresh) {
+      cwnd += ackedBytes;
+      return;
+    }
+    if (epochStart < 0) {
+      epochStart = nowNanos;
+      if (cwnd < wMax) {
+        k = Math.cbrt((wMax - cwnd) / mss / C);
+      } else {
+        k = 0;
+        wMax = cwnd;
+      }
+      wEst = cwnd;
+    }
+    double t = (nowNanos - epochStart + Math.max(0, minRttNanos)) / 1e9;
+    double target = C * Math.pow(t - k, 3) * mss + wMax;
+    wEst += mss * (3 * (1 - BETA) / (1 + BETA)) * ackedBytes / cwnd;
+    target = Math.max(target, wEst);
+    if (target > cwnd) {
+      // At most 1.5 x cwnd per RTT
+      target = Math.min(target, 1.5 * cwnd);
+      cwnd += (long) Math.max(1, (target - cwnd) * ackedBytes / cwnd);
+    }
+  }
+
+  /**
+   * Reduce the window after a loss that was detected by acknowledgements.
+   *
+   * @param nowNanos current time (System.nanoTime())
+   */
+  public void onLoss(long nowNanos) {
+    epochStart = -1;
+    // Fast convergence
+    wMax = cwnd < wMax ? cwnd * (1 + BETA) / 2 : cwnd;
+    cwnd = Math.max((long) (cwnd * BETA), 2L * mss);
+    ssthresh = cwnd;
+  }
+
+  /** Reduce the window to one segment after a retransmission timeout. */
+  public void onTimeout() {
+    epochStart = -1;
+    wMax = cwnd;
+    ssthresh = Math.max((long) (cwnd * BETA), 2L * mss);
+    cwnd = mss;
+  }
+
+  /**
+   * @return the congestion window in bytes.
+   */
+  public long getWindow() {
+    return cwnd;
+  }
+
+  public boolean isSlowStart() {
+    return cwnd < ssthresh;
+  }
+}
@@ -0,0 +1,172 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.internal;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detects duplicate datagrams by their 32-bit sequence number. For every sender (ISD-AS + IP +
+ * port) it keeps a sliding window bitmap of the most recent {@link #WINDOW_SIZE} sequence numbers.
+ * Sequence numbers may wrap around.
+ *
+ * <p>Sequence numbers that are older than the window are reported as duplicates, they are most
+ * likely late copies that arrived over a slow path. A sender restart is detected separately: the
+ * window restarts if a sequence number is more than {@link #RESTART_DISTANCE} behind the window, or
+ * if the window has not advanced for {@link #RESTART_IDLE_NANOS}, i.e. the previous sequence has
+ * ended.
+ *
+ * <p>This class is not thread safe.
+ */
+public class DuplicateFilter {
+
+  public static final int WINDOW_SIZE = 1024;
+  // Half of the sequence numbers that are "behind" the window, in signed 32 bit arithmetic.
+  static final int RESTART_DISTANCE = 1 << 30;
+  static final long RESTART_IDLE_NANOS = TimeUnit.SECONDS.toNanos(1);
+  private static final int MAX_SENDERS = 1024;
+
+  private final Map<Sender, Window> windows =
+      new LinkedHashMap<Sender, Window>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Sender, Window> eldest) {
+          return size() > MAX_SENDERS;
+        }
+      };
+
+  /**
+   * Record a sequence number.
+   *
+   * @param isdAs ISD-AS of the sender
+   * @param address IP and port of the sender
+   * @param sequence sequence number
+   * @return 'true' if the sequence number has been seen before.
+   */
+  public boolean isDuplicate(long isdAs, InetSocketAddress address, int sequence) {
+    return isDuplicate(isdAs, address, sequence, System.nanoTime());
+  }
+
+  boolean isDuplicate(long isdAs, InetSocketAddress address, int sequence, long nowNanos) {
+    Sender sender = new Sender(isdAs, address);
+    Window window = windows.get(sender);
+    if (window == null) {
+      windows.put(sender, new Window(sequence, nowNanos));
+      return false;
+    }
+    return window.isDuplicate(sequence, nowNanos);
+  }
+
+  public void clear() {
+    windows.clear();
+  }
+
+  private static class Window {
+    private final long[] bits = new long[WINDOW_SIZE / 64];
+    private int highest;
+    private long lastAdvanceNanos;
+
+    Window(int sequence, long nowNanos) {
+      restart(sequence, nowNanos);
+    }
+
+    boolean isDuplicate(int sequence, long nowNanos) {
+      int diff = sequence - highest;
+      if (diff > 0) {
+        advance(sequence, diff);
+        lastAdvanceNanos = nowNanos;
+        return false;
+      }
+      long behind = -(long) diff;
+      if (behind >= WINDOW_SIZE) {
+        if (behind > RESTART_DISTANCE || nowNanos - lastAdvanceNanos > RESTART_IDLE_NANOS) {
+          restart(sequence, nowNanos);
+          return false;
+        }
+        // Too old, most likely a late copy
+        return true;
+      }
+      if (get(sequence)) {
+        return true;
+      }
+      set(sequence);
+      return false;
+    }
+
+    private void restart(int sequence, long nowNanos) {
+      Arrays.fill(bits, 0);
+      highest = sequence;
+      lastAdvanceNanos = nowNanos;
+      set(sequence);
+    }
+
+    private void advance(int sequence, int diff) {
+      if (diff >= WINDOW_SIZE) {
+        Arrays.fill(bits, 0);
+      } else {
+        for (int i = 1; i <= diff; i++) {
+          clear(highest + i);
+        }
+      }
+      highest = sequence;
+      set(sequence);
+    }
+
+    private boolean get(int sequence) {
+      int i = sequence & (WINDOW_SIZE - 1);
+      return (bits[i >>> 6] & (1L << i)) != 0;
+    }
+
+    private void set(int sequence) {
+      int i = sequence & (WINDOW_SIZE - 1);
+      bits[i >>> 6] |= 1L << i;
+    }
+
+    private void clear(int sequence) {
+      int i = sequence & (WINDOW_SIZE - 1);
+      bits[i >>> 6] &= ~(1L << i);
+    }
+  }
+
+  private static class Sender {
+    private final long isdAs;
+    private final InetSocketAddress address;
+
+    Sender(long isdAs, InetSocketAddress address) {
+      this.isdAs = isdAs;
+      this.address = address;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Sender sender = (Sender) o;
+      return isdAs == sender.isdAs && address.equals(sender.address);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(isdAs, address);
+    }
+  }
+}
@@ -0,0 +1,242 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import org.scion.jpan.Path;
+import org.scion.jpan.PathMetadata;
+import org.scion.jpan.RequestPath;
+import org.scion.jpan.Scmp;
+
+/**
+ * Failed interfaces as reported by SCMP "External Interface Down" (type 5) and "Internal
+ * Connectivity Down" (type 6) errors, and paths reported as degraded by a {@link
+ * org.scion.jpan.PathHealthMonitor}. Entries are removed after a timeout, assuming that the failure
+ * has been fixed in the meantime.
+ *
+ * <p>This class is thread safe.
+ */
+public class FailedInterfaces {
+
+  // Limits the memory and work caused by a storm of error messages
+  private static final int MAX_FAILURES = 1024;
+
+  private final long timeoutNanos;
+  // Failure -> time of failure (System.nanoTime())
+  private final Map<Failure, Long> failures = new HashMap<>();
+  // Path fingerprint -> time of failure (System.nanoTime())
+  private final Map<Long, Long> degradedPaths = new HashMap<>();
+
+  /**
+   * @param timeoutSeconds Time (seconds) after which a failure is forgotten.
+   */
+  public FailedInterfaces(int timeoutSeconds) {
+    this.timeoutNanos = TimeUnit.SECONDS.toNanos(timeoutSeconds);
+  }
+
+  /**
+   * Record the failure reported by an SCMP error.
+   *
+   * @param msg SCMP message
+   * @return 'true' if the message reported an interface failure that was not already known.
+   */
+  public boolean add(Scmp.Message msg) {
+    if (msg instanceof Scmp.ExternalInterfaceDownMessage) {
+      Scmp.ExternalInterfaceDownMessage error = (Scmp.ExternalInterfaceDownMessage) msg;
+      return addExternalInterface(error.getIsdAs(), error.getInterfaceId());
+    }
+    if (msg instanceof Scmp.InternalConnectivityDownMessage) {
+      Scmp.InternalConnectivityDownMessage error = (Scmp.InternalConnectivityDownMessage) msg;
+      return addInternalConnection(error.getIsdAs(), error.getIngressId(), error.getEgressId());
+    }
+    return false;
+  }
+
+  /**
+   * @return 'true' if the failure was not already known.
+   */
+  public synchronized boolean addExternalInterface(long isdAs, long interfaceId) {
+    return add(new Failure(isdAs, interfaceId, -1));
+  }
+
+  /**
+   * @return 'true' if the failure was not already known.
+   */
+  public synchronized boolean addInternalConnection(long isdAs, long ingressId, long egressId) {
+    return add(new Failure(isdAs, ingressId, egressId));
+  }
+
+  private boolean add(Failure failure) {
+    long now = System.nanoTime();
+    Long previous = failures.get(failure);
+    if (previous != null && now - previous <= timeoutNanos) {
+      // Known failure, extend the timeout
+      failures.put(failure, now);
+      return false;
+    }
+    if (failures.size() >= MAX_FAILURES) {
+      removeExpired();
+      if (failures.size() >= MAX_FAILURES) {
+        return false;
+      }
+    }
+    failures.put(failure, now);
+    return true;
+  }
+
+  /**
+   * Record a path as degraded, e.g. because of high latency or loss.
+   *
+   * @param path the path
+   */
+  public synchronized void addDegradedPath(Path path) {
+    degradedPaths.put(path.getMetadata().getFingerprint(), System.nanoTime());
+  }
+
+  public synchronized boolean isEmpty() {
+    removeExpired();
+    return failures.isEmpty() && degradedPaths.isEmpty();
+  }
+
+  /**
+   * @param path A path
+   * @return 'true' if the path traverses any of the failed interfaces or is degraded.
+   */
+  public synchronized boolean isAffected(Path path) {
+    removeExpired();
+    if ((failures.isEmpty() && degradedPaths.isEmpty()) || !(path instanceof RequestPath)) {
+      return false;
+    }
+    PathMetadata meta = path.getMetadata();
+    if (!degradedPaths.isEmpty() && degradedPaths.containsKey(meta.getFingerprint())) {
+      return true;
+    }
+    for (Failure failure : failures.keySet()) {
+      if (failure.isAffected(meta)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param paths paths
+   * @return 'true' if any of the paths is affected, see {@link #isAffected(Path)}.
+   */
+  public boolean isAnyAffected(List<? extends Path> paths) {
+    for (Path p : paths) {
+      if (isAffected(p)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param paths paths
+   * @return the paths that are not affected, see {@link #isAffected(Path)}.
+   */
+  public List<Path> removeAffected(List<Path> paths) {
+    if (isEmpty()) {
+      return paths;
+    }
+    List<Path> result = new ArrayList<>(paths.size());
+    for (Path p : paths) {
+      if (!isAffected(p)) {
+        result.add(p);
+      }
+    }
+    return result;
+  }
+
+  private void removeExpired() {
+    long now = System.nanoTime();
+    removeExpired(failures.values().iterator(), now);
+    removeExpired(degradedPaths.values().iterator(), now);
+  }
+
+  private void removeExpired(Iterator<Long> iter, long now) {
+    while (iter.hasNext()) {
+      if (now - iter.next() > timeoutNanos) {
+        iter.remove();
+      }
+    }
+  }
+
+  private static class Failure {
+    private final long isdAs;
+    private final long id1;
+    // -1 for external interfaces
+    private final long id2;
+
+    Failure(long isdAs, long id1, long id2) {
+      this.isdAs = isdAs;
+      this.id1 = id1;
+      this.id2 = id2;
+    }
+
+    boolean isAffected(PathMetadata meta) {
+      if (id2 == -1) {
+        for (int i = 0; i < meta.getInterfaceCount(); i++) {
+          if (meta.getInterfaceIsdAs(i) == isdAs && meta.getInterfaceId(i) == id1) {
+            return true;
+          }
+        }
+        return false;
+      }
+      // The interface list contains the egress interface of the first AS, then ingress/egress
+      // pairs of all transit ASes and finally the ingress interface of the last AS.
+      int n = meta.getInterfaceCount();
+      if (n == 0) {
+        return false;
+      }
+      for (int i = 0; i <= n; i += 2) {
+        long asIsdAs = meta.getInterfaceIsdAs(i < n ? i : i - 1);
+        if (asIsdAs != isdAs) {
+          continue;
+        }
+        long ingress = i > 0 ? meta.getInterfaceId(i - 1) : 0;
+        long egress = i < n ? meta.getInterfaceId(i) : 0;
+        if ((ingress == id1 && egress == id2) || (ingress == id2 && egress == id1)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Failure failure = (Failure) o;
+      return isdAs == failure.isdAs && id1 == failure.id1 && id2 == failure.id2;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(isdAs, id1, id2);
+    }
+  }
+}
@@ -0,0 +1,156 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.internal;
+
+import java.nio.channels.NotYetConnectedException;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.scion.jpan.FlowPathScheduler;
+import org.scion.jpan.Path;
+import org.scion.jpan.RequestPath;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The paths for flows to the connected destination of a channel, see
+ * ScionDatagramChannel.getFlowPath(). Flows are assigned to paths with a {@link FlowPathScheduler}.
+ * The paths are all paths to the connected destination that do not traverse interfaces that were
+ * reported as down. They are refreshed in the background before they expire or when a path has
+ * failed.
+ *
+ * <p>This class is not thread safe. The channel guards it with its stateLock.
+ */
+public class FlowPaths {
+
+  private static final Logger LOG = LoggerFactory.getLogger(FlowPaths.class.getName());
+  // The FlowID field of the SCION header has 20 bit.
+  private static final int MAX_FLOW_ID = (1 << 20) - 1;
+  // Minimum time between two lookups of paths for flows if a path has failed.
+  private static final long RETRY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final PathContext context;
+  private final FlowPathScheduler scheduler = new FlowPathScheduler();
+  // The connection path that the paths belong to, `null` before the first lookup.
+  private Path destination = null;
+  private long expiration;
+  private long nextLookup = System.nanoTime();
+  private boolean lookupRunning = false;
+
+  public FlowPaths(PathContext context) {
+    this.context = context;
+  }
+
+  public static void checkFlowId(int flowId) {
+    if (flowId < 0 || flowId > MAX_FLOW_ID) {
+      throw new IllegalArgumentException("flowId must be in range 0 -- " + MAX_FLOW_ID);
+    }
+  }
+
+  /**
+   * @param connectionPath the connection path
+   * @return 'true' if paths for the destination of the connection path have been looked up.
+   */
+  public boolean hasPaths(Path connectionPath) {
+    return destination != null && PathContext.isSameDestination(destination, connectionPath);
+  }
+
+  /**
+   * Select the path for a flow without blocking. Until the paths for the connected destination have
+   * been looked up, the connection path is used.
+   *
+   * @param flowId The flow ID, 0 to 2^20-1.
+   * @return The path for the flow.
+   * @throws NotYetConnectedException If the channel is not connected.
+   */
+  public Path getPath(int flowId) {
+    Path connectionPath = context.getConnectionPath();
+    if (connectionPath == null) {
+      throw new NotYetConnectedException();
+    }
+    if (!(connectionPath instanceof RequestPath)) {
+      return connectionPath;
+    }
+    RequestPath requestPath = (RequestPath) connectionPath;
+    if (!hasPaths(requestPath)) {
+      // Reconnected in the meantime, use the connection path until the lookup has completed.
+      startLookup(requestPath);
+      return context.getCurrentPath(requestPath);
+    }
+    long now = System.nanoTime();
+    FailedInterfaces failedInterfaces = context.getFailedInterfaces();
+    boolean expired = Instant.now().getEpochSecond() > expiration;
+    if (expired
+        || (now - nextLookup >= 0 && failedInterfaces.isAnyAffected(scheduler.getPaths()))) {
+      // Move the flows of failed paths right away, the lookup may take a while.
+      List<Path> working = failedInterfaces.removeAffected(scheduler.getPaths());
+      if (!working.isEmpty() && working.size() < scheduler.getPaths().size()) {
+        scheduler.setPaths(working);
+      }
+      startLookup(requestPath);
+    }
+    return scheduler.getPath(flowId);
+  }
+
+  /**
+   * Start an asynchronous lookup of the paths for flows.
+   *
+   * @param connectionPath the connection path
+   */
+  private void startLookup(RequestPath connectionPath) {
+    long now = System.nanoTime();
+    if (lookupRunning || now - nextLookup < 0) {
+      return;
+    }
+    lookupRunning = true;
+    nextLookup = now + RETRY_NANOS;
+    context.lookupPaths(
+        connectionPath,
+        (paths, t) -> {
+          lookupRunning = false;
+          if (t != null) {
+            LOG.info("Path lookup for flows failed: {}", t.getMessage());
+          } else {
+            setPaths(connectionPath, paths);
+          }
+        });
+  }
+
+  /**
+   * Set the paths for flows. The paths are ignored if the channel is no longer connected to the
+   * destination of the connection path.
+   *
+   * @param connectionPath the connection path that was used for the lookup
+   * @param allPaths all paths to the destination
+   */
+  public void setPaths(RequestPath connectionPath, List<Path> allPaths) {
+    Path current = context.getConnectionPath();
+    if (current == null || !PathContext.isSameDestination(current, connectionPath)) {
+      return;
+    }
+    List<Path> paths = context.getFailedInterfaces().removeAffected(allPaths);
+    if (paths.isEmpty()) {
+      paths = Collections.singletonList(context.getCurrentPath(connectionPath));
+    }
+    long minExpiration = Long.MAX_VALUE;
+    for (Path p : paths) {
+      minExpiration = Math.min(minExpiration, p.getMetadata().getExpiration());
+    }
+    scheduler.setPaths(paths);
+    destination = connectionPath;
+    expiration = minExpiration - context.getExpirationSafetyMargin();
+  }
+}
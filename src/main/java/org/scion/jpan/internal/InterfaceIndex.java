@@ -0,0 +1,107 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import org.scion.jpan.Path;
+import org.scion.jpan.PathMetadata;
+
+/**
+ * Index from interfaces (ISD-AS + interface ID) to the keys of paths that traverse the interface.
+ * This allows finding all paths that are affected by a failing interface without looking at every
+ * path. Keys are held weakly, i.e. they disappear from the index once they are garbage collected.
+ *
+ * <p>This class is not thread safe.
+ *
+ * @param <K> Key type. Keys are compared by equals()/hashCode().
+ */
+public class InterfaceIndex<K> {
+
+  // ISD-AS -> interface ID -> keys
+  private final Map<Long, Map<Long, Set<K>>> index = new HashMap<>();
+
+  /**
+   * Add all interfaces of the path to the index.
+   *
+   * @param key the key that is returned by {@link #get(long, long)}
+   * @param path the path
+   */
+  public void add(K key, Path path) {
+    PathMetadata meta = path.getMetadata();
+    for (int i = 0; i < meta.getInterfaceCount(); i++) {
+      Map<Long, Set<K>> interfaces =
+          index.computeIfAbsent(meta.getInterfaceIsdAs(i), k -> new HashMap<>());
+      interfaces
+          .computeIfAbsent(
+              meta.getInterfaceId(i), k -> Collections.newSetFromMap(new WeakHashMap<>()))
+          .add(key);
+    }
+  }
+
+  /**
+   * Remove all interfaces of the path from the index.
+   *
+   * @param key the key that was used in {@link #add(Object, Path)}
+   * @param path the path
+   */
+  public void remove(K key, Path path) {
+    PathMetadata meta = path.getMetadata();
+    for (int i = 0; i < meta.getInterfaceCount(); i++) {
+      long isdAs = meta.getInterfaceIsdAs(i);
+      long id = meta.getInterfaceId(i);
+      Map<Long, Set<K>> interfaces = index.get(isdAs);
+      if (interfaces == null) {
+        continue;
+      }
+      Set<K> keys = interfaces.get(id);
+      if (keys != null) {
+        keys.remove(key);
+        if (keys.isEmpty()) {
+          interfaces.remove(id);
+        }
+      }
+      if (interfaces.isEmpty()) {
+        index.remove(isdAs);
+      }
+    }
+  }
+
+  /**
+   * @param isdAs ISD-AS
+   * @param interfaceId interface ID
+   * @return Keys of all paths that traverse the given interface.
+   */
+  public List<K> get(long isdAs, long interfaceId) {
+    Map<Long, Set<K>> interfaces = index.get(isdAs);
+    if (interfaces == null) {
+      return Collections.emptyList();
+    }
+    Set<K> keys = interfaces.get(interfaceId);
+    if (keys == null) {
+      return Collections.emptyList();
+    }
+    return new ArrayList<>(keys);
+  }
+
+  public void clear() {
+    index.clear();
+  }
+}
@@ -51,6 +51,14 @@ public class LocalTopology {
     return controlServices.get(0).ipString;
   }
 
+  public List<String> getControlServerAddresses() {
+    List<String> addresses = new ArrayList<>(controlServices.size());
+    for (ServiceNode sn : controlServices) {
+      addresses.add(sn.ipString);
+    }
+    return addresses;
+  }
+
   public boolean isLocalAsCore() {
     return isCoreAs;
   }
@@ -0,0 +1,98 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.internal;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.scion.jpan.Constants;
+import org.scion.jpan.ScionUtil;
+
+/**
+ * Round trip times measured with SCMP echo probes. Each ScionService has its own instance.
+ * Measurements are stored per destination ISD/AS and path fingerprint and expire after a TTL, see
+ * {@link Constants#PROPERTY_PATH_PROBE_TTL}.
+ *
+ * <p>This class is thread safe.
+ */
+public class MeasuredLatencies {
+
+  /** No (valid) measurement available. */
+  public static final long UNKNOWN = -1;
+
+  /** The last probe did not receive a reply. */
+  public static final long TIMED_OUT = Long.MAX_VALUE;
+
+  private static final int PURGE_THRESHOLD = 1_000;
+
+  private final ConcurrentHashMap<PathFingerprint.Key, Measurement> measurements =
+      new ConcurrentHashMap<>();
+  private volatile long ttlNanos =
+      TimeUnit.SECONDS.toNanos(
+          ScionUtil.getPropertyOrEnv(
+              Constants.PROPERTY_PATH_PROBE_TTL,
+              Constants.ENV_PATH_PROBE_TTL,
+              Constants.DEFAULT_PATH_PROBE_TTL));
+
+  /**
+   * @param dstIsdAs Destination ISD/AS of the path
+   * @param fingerprint Fingerprint of the path
+   * @param rttNanos The measured round trip time or {@link #TIMED_OUT}.
+   */
+  public void record(long dstIsdAs, long fingerprint, long rttNanos) {
+    if (measurements.size() > PURGE_THRESHOLD) {
+      long now = System.nanoTime();
+      measurements.values().removeIf(m -> now - m.timestamp > ttlNanos);
+    }
+    measurements.put(
+        new PathFingerprint.Key(dstIsdAs, fingerprint),
+        new Measurement(rttNanos, System.nanoTime()));
+  }
+
+  /**
+   * @param dstIsdAs Destination ISD/AS of the path
+   * @param fingerprint Fingerprint of the path
+   * @return The measured round trip time in nanoseconds, {@link #TIMED_OUT} if the last probe
+   *     failed or {@link #UNKNOWN} if there is no measurement or if it has expired.
+   */
+  public long getRttNanos(long dstIsdAs, long fingerprint) {
+    Measurement m = measurements.get(new PathFingerprint.Key(dstIsdAs, fingerprint));
+    if (m == null || System.nanoTime() - m.timestamp > ttlNanos) {
+      return UNKNOWN;
+    }
+    return m.rttNanos;
+  }
+
+  /**
+   * @param ttl Time after which measurements expire.
+   * @param unit Time unit
+   */
+  public void setTtl(long ttl, TimeUnit unit) {
+    this.ttlNanos = unit.toNanos(ttl);
+  }
+
+  public void clear() {
+    measurements.clear();
+  }
+
+  private static class Measurement {
+    private final long rttNanos;
+    private final long timestamp;
+
+    Measurement(long rttNanos, long timestamp) {
+      this.rttNanos = rttNanos;
+      this.timestamp = timestamp;
+    }
+  }
+}
@@ -0,0 +1,108 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.internal;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Splits messages into fragments, see ScionDatagramChannel.writeMessage(). Every fragment starts
+ * with the header that is described in {@link MessageReassembler}. Fragments are sized with the
+ * current maximum payload length, i.e. fragmentation adapts when the path changes while a message
+ * is sent.
+ *
+ * <p>This class is not thread safe. The channel guards it with its writeLock.
+ */
+public class MessageFragmenter {
+
+  // Delay before retrying to send a fragment if the socket buffer was full.
+  private static final long SEND_RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private int nextMessageId = 0;
+  private ByteBuffer fragmentBuffer = null;
+
+  /**
+   * Send a message in fragments.
+   *
+   * @param src The message
+   * @param sender sends the fragments
+   * @return The number of bytes sent. This is 0 if the first fragment could not be sent, i.e. the
+   *     channel is non-blocking and paced or the socket buffer is full. Once the first fragment is
+   *     sent, this waits until the remaining fragments are sent.
+   * @throws IOException If sending failed.
+   */
+  public int send(ByteBuffer src, Sender sender) throws IOException {
+    int total = src.remaining();
+    if (total == 0) {
+      throw new IllegalArgumentException("Message must not be empty");
+    }
+    int messageId = nextMessageId++;
+    int offset = 0;
+    while (offset < total) {
+      int maxLength = sender.getMaxPayloadLength() - MessageReassembler.HEADER_LENGTH;
+      int length = Math.min(total - offset, Math.max(1, maxLength));
+      int fragmentLength = MessageReassembler.HEADER_LENGTH + length;
+      if (fragmentBuffer == null || fragmentBuffer.capacity() < fragmentLength) {
+        fragmentBuffer = ByteBuffer.allocate(fragmentLength);
+      }
+      fragmentBuffer.clear();
+      MessageReassembler.writeHeader(fragmentBuffer, messageId, total, offset);
+      ByteBuffer slice = src.duplicate();
+      slice.limit(slice.position() + length);
+      fragmentBuffer.put(slice);
+      fragmentBuffer.flip();
+      // All fragments after the first must be sent
+      boolean mustComplete = offset > 0;
+      int sent = sender.send(fragmentBuffer, mustComplete);
+      while (sent == 0 && mustComplete) {
+        // Non-blocking and the socket buffer is full; the message must be completed
+        LockSupport.parkNanos(SEND_RETRY_NANOS);
+        if (Thread.currentThread().isInterrupted()) {
+          throw new InterruptedIOException("Interrupted while sending message");
+        }
+        fragmentBuffer.position(0);
+        sent = sender.send(fragmentBuffer, true);
+      }
+      if (sent == 0) {
+        return 0; // non-blocking, first fragment
+      }
+      src.position(src.position() + length);
+      offset += length;
+    }
+    return total;
+  }
+
+  /** Sends the fragments of a message. */
+  public interface Sender {
+
+    /**
+     * @return the maximum payload length of a datagram on the current path.
+     */
+    int getMaxPayloadLength();
+
+    /**
+     * @param fragment the fragment
+     * @param mustComplete 'true' if the sender must wait for the pacer also if the channel is
+     *     non-blocking, because previous fragments of the message have been sent.
+     * @return the number of bytes sent or 0 if the channel is non-blocking and the fragment could
+     *     not be sent.
+     * @throws IOException If sending failed.
+     */
+    int send(ByteBuffer fragment, boolean mustComplete) throws IOException;
+  }
+}
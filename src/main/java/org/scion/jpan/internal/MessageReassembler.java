@@ -0,0 +1,327 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.internal;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Reassembles messages from fragments. Every fragment starts with a header:
+ *
+ * <pre>
+ * 0      2     3     4          8              12        16
+ * | 'JF' | ver | rsv | message ID | total length | offset |
+ * </pre>
+ *
+ * Fragments are identified by their offset, so the fragments of a message may have different sizes,
+ * e.g. when the path MTU changes while a message is being sent. Duplicate fragments are ignored,
+ * fragments that partially overlap a received fragment are dropped.
+ *
+ * <p>Memory is bounded: messages larger than `maxMessageSize` are dropped. Buffers are pooled, and
+ * the buffers of incomplete messages and the pooled buffers together may not occupy more than
+ * `maxBufferedBytes` (by capacity). If a new message would exceed this, pooled buffers are released
+ * first, then the oldest incomplete messages are dropped. Incomplete messages are also dropped
+ * after a timeout.
+ *
+ * <p>This class is not thread safe.
+ */
+public class MessageReassembler {
+
+  public static final int HEADER_LENGTH = 16;
+  private static final short MAGIC = 0x4a46; // "JF"
+  private static final byte VERSION = 1;
+
+  private final int maxMessageSize;
+  private final int maxBufferedBytes;
+  private final long timeoutNanos;
+  private final BufferPool pool;
+  // Incomplete messages, oldest first
+  private final LinkedHashMap<Key, Partial> partials = new LinkedHashMap<>();
+  private long bufferedBytes = 0;
+  private long completedMessages = 0;
+  private long droppedMessages = 0;
+  private long droppedFragments = 0;
+
+  /**
+   * @param maxMessageSize maximum size of a message
+   * @param maxBufferedBytes maximum memory for incomplete messages
+   * @param timeoutNanos time after which incomplete messages are dropped
+   */
+  public MessageReassembler(int maxMessageSize, int maxBufferedBytes, long timeoutNanos) {
+    this.maxMessageSize = maxMessageSize;
+    this.maxBufferedBytes = maxBufferedBytes;
+    this.timeoutNanos = timeoutNanos;
+    this.pool = new BufferPool(maxBufferedBytes);
+  }
+
+  /**
+   * Write a fragment header.
+   *
+   * @param buffer destination
+   * @param messageId message ID
+   * @param totalLength length of the message
+   * @param offset offset of the fragment in the message
+   */
+  public static void writeHeader(ByteBuffer buffer, int messageId, int totalLength, int offset) {
+    buffer.putShort(MAGIC);
+    buffer.put(VERSION);
+    buffer.put((byte) 0);
+    buffer.putInt(messageId);
+    buffer.putInt(totalLength);
+    buffer.putInt(offset);
+  }
+
+  /**
+   * @param buffer a datagram payload
+   * @return 'true' if the payload starts with a fragment header.
+   */
+  public static boolean isFragment(ByteBuffer buffer) {
+    int pos = buffer.position();
+    return buffer.remaining() >= HEADER_LENGTH
+        && buffer.getShort(pos) == MAGIC
+        && buffer.get(pos + 2) == VERSION;
+  }
+
+  /**
+   * Add a fragment.
+   *
+   * @param isdAs ISD/AS of the sender
+   * @param sender address of the sender
+   * @param fragment a fragment, see {@link #isFragment(ByteBuffer)}
+   * @param now current time (System.nanoTime())
+   * @return The complete message or `null`. The message must be returned with {@link
+   *     #release(ByteBuffer)}.
+   */
+  public ByteBuffer add(long isdAs, InetSocketAddress sender, ByteBuffer fragment, long now) {
+    removeExpired(now);
+    int pos = fragment.position();
+    int messageId = fragment.getInt(pos + 4);
+    int totalLength = fragment.getInt(pos + 8);
+    int offset = fragment.getInt(pos + 12);
+    int length = fragment.remaining() - HEADER_LENGTH;
+    if (totalLength <= 0
+        || totalLength > maxMessageSize
+        || totalLength > maxBufferedBytes
+        || offset < 0
+        || length <= 0
+        || length > totalLength - offset) {
+      droppedFragments++;
+      return null;
+    }
+
+    Key key = new Key(isdAs, sender, messageId);
+    Partial partial = partials.get(key);
+    if (partial == null) {
+      // Buffers that do not fit into the budget after rounding up are not pooled
+      ByteBuffer buffer =
+          BufferPool.capacity(totalLength) <= maxBufferedBytes
+              ? pool.acquire(totalLength)
+              : ByteBuffer.allocate(totalLength);
+      bufferedBytes += buffer.capacity();
+      while (bufferedBytes + pool.getPooledBytes() > maxBufferedBytes) {
+        if (pool.getPooledBytes() > 0) {
+          pool.trim(maxBufferedBytes - bufferedBytes);
+        } else {
+          dropOldest();
+        }
+      }
+      partial = new Partial(buffer, now);
+      partials.put(key, partial);
+    } else if (partial.buffer.limit() != totalLength) {
+      droppedFragments++;
+      return null;
+    }
+
+    int result = partial.addRange(offset, offset + length);
+    if (result == Partial.DUPLICATE) {
+      return null;
+    }
+    if (result == Partial.OVERLAP) {
+      droppedFragments++;
+      return null;
+    }
+    ByteBuffer src = fragment.duplicate();
+    src.position(pos + HEADER_LENGTH);
+    partial.buffer.position(offset);
+    partial.buffer.put(src);
+    partial.received += length;
+    if (partial.received < totalLength) {
+      return null;
+    }
+    partials.remove(key);
+    bufferedBytes -= partial.buffer.capacity();
+    completedMessages++;
+    partial.buffer.position(0);
+    partial.buffer.limit(totalLength);
+    return partial.buffer;
+  }
+
+  /**
+   * @param message a message that was returned by {@link #add(long, InetSocketAddress, ByteBuffer,
+   *     long)}
+   */
+  public void release(ByteBuffer message) {
+    recycle(message);
+  }
+
+  public long getCompletedMessages() {
+    return completedMessages;
+  }
+
+  /**
+   * @return Number of incomplete messages that were dropped because of timeouts or memory limits.
+   */
+  public long getDroppedMessages() {
+    return droppedMessages;
+  }
+
+  /**
+   * @return Number of invalid fragments, e.g. of messages that exceed the size limit or fragments
+   *     that overlap a received fragment.
+   */
+  public long getDroppedFragments() {
+    return droppedFragments;
+  }
+
+  /**
+   * @return Capacity of the buffers of incomplete messages.
+   */
+  public long getBufferedBytes() {
+    return bufferedBytes;
+  }
+
+  /**
+   * @return Capacity of the pooled buffers.
+   */
+  public long getPooledBytes() {
+    return pool.getPooledBytes();
+  }
+
+  public int getIncompleteMessageCount() {
+    return partials.size();
+  }
+
+  private void removeExpired(long now) {
+    Iterator<Partial> iter = partials.values().iterator();
+    while (iter.hasNext()) {
+      Partial partial = iter.next();
+      if (now - partial.startNanos <= timeoutNanos) {
+        break; // oldest first
+      }
+      iter.remove();
+      discard(partial);
+    }
+  }
+
+  private void dropOldest() {
+    Iterator<Map.Entry<Key, Partial>> iter = partials.entrySet().iterator();
+    Partial partial = iter.next().getValue();
+    iter.remove();
+    discard(partial);
+  }
+
+  private void discard(Partial partial) {
+    bufferedBytes -= partial.buffer.capacity();
+    droppedMessages++;
+    recycle(partial.buffer);
+  }
+
+  private void recycle(ByteBuffer buffer) {
+    if (bufferedBytes + pool.getPooledBytes() + buffer.capacity() <= maxBufferedBytes) {
+      pool.release(buffer);
+    }
+  }
+
+  private static class Partial {
+    static final int ADDED = 0;
+    static final int DUPLICATE = 1;
+    static final int OVERLAP = 2;
+
+    private final ByteBuffer buffer;
+    private final long startNanos;
+    private int received = 0;
+    // Received fragments as sorted, disjoint ranges [starts[i], ends[i])
+    private int[] starts = new int[8];
+    private int[] ends = new int[8];
+    private int rangeCount = 0;
+
+    Partial(ByteBuffer buffer, long startNanos) {
+      this.buffer = buffer;
+      this.startNanos = startNanos;
+    }
+
+    /**
+     * @param start offset of the fragment
+     * @param end offset of the end of the fragment (exclusive)
+     * @return ADDED, DUPLICATE if exactly this range was already received, or OVERLAP if the range
+     *     overlaps a received range. Only added ranges count as received.
+     */
+    int addRange(int start, int end) {
+      int i = Arrays.binarySearch(starts, 0, rangeCount, start);
+      if (i >= 0) {
+        return ends[i] == end ? DUPLICATE : OVERLAP;
+      }
+      int insert = -i - 1;
+      if ((insert > 0 && ends[insert - 1] > start)
+          || (insert < rangeCount && starts[insert] < end)) {
+        return OVERLAP;
+      }
+      if (rangeCount == starts.length) {
+        starts = Arrays.copyOf(starts, starts.length * 2);
+        ends = Arrays.copyOf(ends, ends.length * 2);
+      }
+      System.arraycopy(starts, insert, starts, insert + 1, rangeCount - insert);
+      System.arraycopy(ends, insert, ends, insert + 1, rangeCount - insert);
+      starts[insert] = start;
+      ends[insert] = end;
+      rangeCount++;
+      return ADDED;
+    }
+  }
+
+  private static class Key {
+    private final long isdAs;
+    private final InetSocketAddress sender;
+    private final int messageId;
+
+    Key(long isdAs, InetSocketAddress sender, int messageId) {
+      this.isdAs = isdAs;
+      this.sender = sender;
+      this.messageId = messageId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Key key = (Key) o;
+      return isdAs == key.isdAs && messageId == key.messageId && sender.equals(key.sender);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(isdAs, sender, messageId);
+    }
+  }
+}
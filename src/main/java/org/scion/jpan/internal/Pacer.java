@@ -0,0 +1,138 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.internal;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.scion.jpan.Path;
+import org.scion.jpan.ScionSocketOptions;
+
+/**
+ * Pacing of packets per path, see {@link ScionSocketOptions#SCION_PACING_RATE}. Every path has its
+ * own {@link TokenBucket}. Paths are identified by their fingerprint or, if they have no metadata,
+ * by their remote address.
+ *
+ * <p>This class is not thread safe. The channel guards it with its stateLock.
+ */
+public class Pacer {
+
+  // Bursts of at least this many bytes or of BURST_NANOS at the pacing rate.
+  private static final int MIN_BURST_BYTES = 3000;
+  private static final long BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+  // Number of token buckets above which idle buckets are removed.
+  private static final int MAX_BUCKETS = 1024;
+
+  // Path fingerprint (RequestPath) or remote address (ResponsePath) -> token bucket
+  private final Map<Object, TokenBucket> buckets = new HashMap<>();
+  // Path fingerprint -> measured throughput
+  private final Map<Long, Long> measuredThroughput = new HashMap<>();
+  private long rate = 0;
+
+  /**
+   * @param rate the configured pacing rate, see {@link ScionSocketOptions#SCION_PACING_RATE}.
+   */
+  public void setRate(long rate) {
+    this.rate = rate;
+    buckets.clear();
+  }
+
+  /**
+   * Report the throughput that was measured on a path. With {@link
+   * ScionSocketOptions#PACING_PATH_BANDWIDTH}, it is used as pacing rate for the path.
+   *
+   * @param path a path
+   * @param bitsPerSecond measured throughput, must be greater than 0.
+   */
+  public void reportThroughput(Path path, long bitsPerSecond) {
+    if (path.getMetadata() == null) {
+      return;
+    }
+    long fingerprint = path.getMetadata().getFingerprint();
+    measuredThroughput.put(fingerprint, bitsPerSecond);
+    TokenBucket bucket = buckets.get(fingerprint);
+    if (bucket != null && rate == ScionSocketOptions.PACING_PATH_BANDWIDTH) {
+      bucket.setRate(bitsPerSecond);
+    }
+  }
+
+  /**
+   * @param path a path
+   * @return The rate (bit/s) at which packets on the path are paced, or 0 if they are not paced.
+   */
+  public long getRate(Path path) {
+    long pathRate = getPathRate(path);
+    return pathRate > 0 ? pathRate : 0;
+  }
+
+  private long getPathRate(Path path) {
+    if (rate != ScionSocketOptions.PACING_PATH_BANDWIDTH) {
+      return rate;
+    }
+    if (path.getMetadata() == null) {
+      return 0;
+    }
+    Long measured = measuredThroughput.get(path.getMetadata().getFingerprint());
+    if (measured != null) {
+      return measured;
+    }
+    return path.getMetadata().getBottleneckBandwidth() * 1000; // Kbit/s
+  }
+
+  /**
+   * Take tokens for a packet if the pacer of the path permits sending it now.
+   *
+   * @param path the path
+   * @param bytes packet size
+   * @return 0 if the packet can be sent now, otherwise the time (ns) until it can be sent.
+   */
+  public long tryPace(Path path, int bytes) {
+    TokenBucket bucket = getBucket(path);
+    if (bucket == null) {
+      return 0;
+    }
+    long now = System.nanoTime();
+    long delay = bucket.getDelayNanos(now);
+    if (delay == 0) {
+      bucket.consume(bytes, now);
+    }
+    return delay;
+  }
+
+  private TokenBucket getBucket(Path path) {
+    if (rate == 0) {
+      return null;
+    }
+    Object key =
+        path.getMetadata() != null
+            ? path.getMetadata().getFingerprint()
+            : path.getRemoteSocketAddress();
+    TokenBucket bucket = buckets.get(key);
+    if (bucket == null) {
+      long pathRate = getPathRate(path);
+      if (pathRate <= 0) {
+        return null;
+      }
+      if (buckets.size() >= MAX_BUCKETS) {
+        long now = System.nanoTime();
+        buckets.values().removeIf(b -> b.isIdle(now));
+      }
+      int burst = (int) Math.max(MIN_BURST_BYTES, pathRate / 8 * BURST_NANOS / 1_000_000_000L);
+      bucket = new TokenBucket(pathRate, burst);
+      buckets.put(key, bucket);
+    }
+    return bucket;
+  }
+}
@@ -0,0 +1,61 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.internal;
+
+import java.util.List;
+import java.util.function.BiConsumer;
+import org.scion.jpan.Path;
+import org.scion.jpan.RequestPath;
+
+/**
+ * The path lookups and path state of a channel that are used by the components of the channel that
+ * maintain their own paths to a destination, see {@link Redundancy} and {@link FlowPaths}.
+ */
+public interface PathContext {
+
+  /**
+   * Look up all paths to the destination of a path without blocking. The callback is called while
+   * holding the lock that guards the components of the channel, and only if the channel is still
+   * open.
+   *
+   * @param path a path to the destination
+   * @param callback receives the paths or the error of the lookup
+   */
+  void lookupPaths(RequestPath path, BiConsumer<List<Path>, Throwable> callback);
+
+  FailedInterfaces getFailedInterfaces();
+
+  /**
+   * @return the connection path of the channel or `null` if the channel is not connected.
+   */
+  Path getConnectionPath();
+
+  /**
+   * @param path a path
+   * @return the refreshed version of the path, or the path itself if it has not been refreshed.
+   */
+  RequestPath getCurrentPath(RequestPath path);
+
+  /**
+   * @return Time (in seconds) before expiration at which a path is considered expired.
+   */
+  int getExpirationSafetyMargin();
+
+  static boolean isSameDestination(Path p1, Path p2) {
+    return p1.getRemoteIsdAs() == p2.getRemoteIsdAs()
+        && p1.getRemotePort() == p2.getRemotePort()
+        && p1.getRemoteAddress().equals(p2.getRemoteAddress());
+  }
+}
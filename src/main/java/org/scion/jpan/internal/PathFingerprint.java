@@ -0,0 +1,100 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.internal;
+
+import org.scion.jpan.proto.daemon.Daemon;
+
+/**
+ * Fingerprint of the interface sequence of a path. Two paths that traverse the same interfaces in
+ * the same order have the same fingerprint. The fingerprint is a 64-bit FNV-1a hash over the ISD-AS
+ * and interface ID of every interface, so it is stable across JVMs and can be used as cache key.
+ * Different interface sequences may (very rarely) have the same fingerprint, callers that require
+ * certainty need to compare the interfaces.
+ */
+public class PathFingerprint {
+
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private PathFingerprint() {}
+
+  /**
+   * @param isdAs ISD-AS of each interface
+   * @param ids ID of each interface
+   * @return the fingerprint of the interface sequence
+   */
+  public static long compute(long[] isdAs, long[] ids) {
+    long hash = FNV_OFFSET_BASIS;
+    for (int i = 0; i < ids.length; i++) {
+      hash = hash(hash, isdAs[i]);
+      hash = hash(hash, ids[i]);
+    }
+    return hash;
+  }
+
+  /**
+   * @param path A path
+   * @return the fingerprint of the interface sequence
+   */
+  public static long compute(Daemon.Path path) {
+    long hash = FNV_OFFSET_BASIS;
+    for (int i = 0; i < path.getInterfacesCount(); i++) {
+      Daemon.PathInterface pathInterface = path.getInterfaces(i);
+      hash = hash(hash, pathInterface.getIsdAs());
+      hash = hash(hash, pathInterface.getId());
+    }
+    return hash;
+  }
+
+  /**
+   * Identifies a path by destination ISD/AS and fingerprint. The fingerprint alone does not
+   * identify the destination, e.g. all paths within the local AS have the same (empty) interface
+   * sequence.
+   */
+  public static final class Key {
+    private final long dstIsdAs;
+    private final long fingerprint;
+
+    public Key(long dstIsdAs, long fingerprint) {
+      this.dstIsdAs = dstIsdAs;
+      this.fingerprint = fingerprint;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) o;
+      return dstIsdAs == key.dstIsdAs && fingerprint == key.fingerprint;
+    }
+
+    @Override
+    public int hashCode() {
+      return Long.hashCode(dstIsdAs * 31 + fingerprint);
+    }
+  }
+
+  private static long hash(long hash, long value) {
+    for (int shift = 56; shift >= 0; shift -= 8) {
+      hash ^= (value >>> shift) & 0xFF;
+      hash *= FNV_PRIME;
+    }
+    return hash;
+  }
+}
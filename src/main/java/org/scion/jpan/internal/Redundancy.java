@@ -0,0 +1,217 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.internal;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.scion.jpan.DisjointPaths;
+import org.scion.jpan.Path;
+import org.scion.jpan.RequestPath;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Redundant sending of datagrams over link-disjoint paths, see
+ * ScionDatagramChannel.setRedundancy(). With more than one copy, every datagram is prefixed with a
+ * header that carries a sequence number, so that the receiver can drop duplicates with a {@link
+ * DuplicateFilter}.
+ *
+ * <p>The alternative paths for the copies are looked up in the background, see {@link
+ * #getPaths(RequestPath)}.
+ *
+ * <p>This class is not thread safe. The channel guards the number of copies and the sequence number
+ * with its writeLock and the alternative paths with its stateLock.
+ */
+public class Redundancy {
+
+  private static final Logger LOG = LoggerFactory.getLogger(Redundancy.class.getName());
+  // Header of redundant datagrams: magic (u16), version (u8), copy index (u8), sequence (u32).
+  public static final int HEADER_LENGTH = 8;
+  private static final short MAGIC = 0x4a52;
+  private static final byte VERSION = 1;
+  // Minimum time between two lookups of alternative paths if an alternative path has failed.
+  private static final long RETRY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final PathContext context;
+  private int copies = 1;
+  private int sequence = 0;
+  // Alternative paths for copies of pathsFor, in order of DisjointPaths selection.
+  private List<RequestPath> paths = null;
+  private RequestPath pathsFor;
+  private long pathsExpiration;
+  private long nextLookup = System.nanoTime();
+  private boolean lookupRunning = false;
+
+  public Redundancy(PathContext context) {
+    this.context = context;
+  }
+
+  public int getCopies() {
+    return copies;
+  }
+
+  /**
+   * @param copies number of copies per datagram, 1 disables redundant sending.
+   */
+  public void setCopies(int copies) {
+    if (copies < 1) {
+      throw new IllegalArgumentException("copies must be at least 1: " + copies);
+    }
+    this.copies = copies;
+  }
+
+  /**
+   * @return the length of the header of every datagram, 0 if redundant sending is disabled.
+   */
+  public int getHeaderLength() {
+    return copies > 1 ? HEADER_LENGTH : 0;
+  }
+
+  /**
+   * Write the header for the current sequence number if redundant sending is enabled.
+   *
+   * @param buffer the datagram
+   * @param copy index of the copy, 0 for the first copy
+   */
+  public void putHeader(ByteBuffer buffer, int copy) {
+    if (copies > 1) {
+      buffer.putShort(MAGIC);
+      buffer.put(VERSION);
+      buffer.put((byte) copy);
+      buffer.putInt(sequence);
+    }
+  }
+
+  /** Advance the sequence number after all copies of a datagram have been sent. */
+  public void nextSequence() {
+    sequence++;
+  }
+
+  /**
+   * @param buffer a received datagram
+   * @param start start of the payload
+   * @return 'true' if the payload starts with a valid header.
+   */
+  public static boolean hasHeader(ByteBuffer buffer, int start) {
+    return buffer.limit() - start >= HEADER_LENGTH
+        && buffer.getShort(start) == MAGIC
+        && buffer.get(start + 2) == VERSION;
+  }
+
+  /**
+   * @param buffer a received datagram with a valid header, see {@link #hasHeader(ByteBuffer, int)}
+   * @param start start of the payload
+   * @return the sequence number of the datagram
+   */
+  public static int getSequence(ByteBuffer buffer, int start) {
+    return buffer.getInt(start + 4);
+  }
+
+  /**
+   * The alternative paths are looked up in the background, this method never blocks. Until the
+   * first lookup for the destination has completed, no alternative paths are returned.
+   *
+   * @param path the path of the first copy
+   * @return up to copies-1 paths to the same destination that are maximally link-disjoint with the
+   *     path.
+   */
+  public List<RequestPath> getPaths(RequestPath path) {
+    int max = copies - 1;
+    FailedInterfaces failedInterfaces = context.getFailedInterfaces();
+    long fingerprint = path.getMetadata().getFingerprint();
+    boolean current = paths != null && pathsFor.getMetadata().getFingerprint() == fingerprint;
+    long nowSeconds = Instant.now().getEpochSecond();
+    boolean expired = nowSeconds > pathsExpiration;
+    boolean failed = paths != null && failedInterfaces.isAnyAffected(paths);
+    if (!current || expired || failed) {
+      startLookup(path, current);
+    }
+    if (paths == null || !PathContext.isSameDestination(pathsFor, path)) {
+      return Collections.emptyList();
+    }
+    if (current && !expired && !failed) {
+      return paths.size() <= max ? paths : paths.subList(0, max);
+    }
+    // Use what is still usable until the lookup has completed.
+    List<RequestPath> result = new ArrayList<>(max);
+    for (RequestPath p : paths) {
+      if (result.size() < max
+          && p.getMetadata().getFingerprint() != fingerprint
+          && nowSeconds <= p.getMetadata().getExpiration()
+          && !failedInterfaces.isAffected(p)) {
+        result.add(p);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Start an asynchronous lookup of alternative paths.
+   *
+   * @param path the path of the first copy
+   * @param current 'true' if the current alternative paths belong to the path. Lookups for the same
+   *     path are rate limited.
+   */
+  private void startLookup(RequestPath path, boolean current) {
+    long now = System.nanoTime();
+    if (lookupRunning || (current && now - nextLookup < 0)) {
+      return;
+    }
+    lookupRunning = true;
+    nextLookup = now + RETRY_NANOS;
+    context.lookupPaths(
+        path,
+        (allPaths, t) -> {
+          lookupRunning = false;
+          if (t != null) {
+            LOG.info("Path lookup for redundant copies failed: {}", t.getMessage());
+          } else {
+            setPaths(path, allPaths);
+          }
+        });
+  }
+
+  /**
+   * Order the alternative paths with {@link DisjointPaths#select(List, int)}. The selection is
+   * greedy, so the first n paths are the best choice for any n.
+   *
+   * @param path the path of the first copy
+   * @param allPaths all paths to the destination
+   */
+  public void setPaths(RequestPath path, List<Path> allPaths) {
+    long fingerprint = path.getMetadata().getFingerprint();
+    List<Path> candidates = new ArrayList<>();
+    candidates.add(path);
+    for (Path p : context.getFailedInterfaces().removeAffected(allPaths)) {
+      if (p.getMetadata().getFingerprint() != fingerprint) {
+        candidates.add(p);
+      }
+    }
+    List<Path> selected = DisjointPaths.select(candidates, candidates.size());
+    List<RequestPath> result = new ArrayList<>(selected.size());
+    long expiration = path.getMetadata().getExpiration();
+    for (Path p : selected.subList(1, selected.size())) {
+      result.add((RequestPath) p);
+      expiration = Math.min(expiration, p.getMetadata().getExpiration());
+    }
+    paths = result;
+    pathsFor = path;
+    pathsExpiration = expiration - context.getExpirationSafetyMargin();
+  }
+}
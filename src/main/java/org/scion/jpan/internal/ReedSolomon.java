@@ -0,0 +1,218 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.internal;
+
+import java.util.Arrays;
+
+/**
+ * Systematic Reed-Solomon erasure code over GF(2^8). Blocks consist of k data shards and m parity
+ * shards of equal size. Any k of the k+m shards are sufficient to reconstruct the data shards.
+ *
+ * <p>The parity shards are computed with a Cauchy matrix. Every square sub-matrix of a Cauchy
+ * matrix is invertible, so the data can be reconstructed from any combination of k shards.
+ *
+ * <p>Encoding and decoding do not allocate any objects. This class is not thread safe.
+ */
+public class ReedSolomon {
+
+  // Primitive polynomial x^8 + x^4 + x^3 + x^2 + 1
+  private static final int POLYNOMIAL = 0x11d;
+  private static final byte[] EXP = new byte[512];
+  private static final int[] LOG = new int[256];
+  // MUL[a][b] = a * b
+  private static final byte[][] MUL = new byte[256][256];
+
+  static {
+    int x = 1;
+    for (int i = 0; i < 255; i++) {
+      EXP[i] = (byte) x;
+      EXP[i + 255] = (byte) x;
+      LOG[x] = i;
+      x <<= 1;
+      if (x >= 256) {
+        x ^= POLYNOMIAL;
+      }
+    }
+    for (int a = 1; a < 256; a++) {
+      for (int b = 1; b < 256; b++) {
+        MUL[a][b] = EXP[LOG[a] + LOG[b]];
+      }
+    }
+  }
+
+  private final int dataShards;
+  private final int parityShards;
+  // parity row j, data column i
+  private final byte[][] matrix;
+  // Scratch space for decoding
+  private final byte[][] decodeMatrix;
+  private final byte[][] inverse;
+  private final int[] rows;
+
+  /**
+   * @param dataShards number of data shards (k)
+   * @param parityShards number of parity shards (m)
+   */
+  public ReedSolomon(int dataShards, int parityShards) {
+    if (dataShards < 1 || parityShards < 0 || dataShards + parityShards > 256) {
+      throw new IllegalArgumentException(
+          "Invalid number of shards: k=" + dataShards + " m=" + parityShards);
+    }
+    this.dataShards = dataShards;
+    this.parityShards = parityShards;
+    this.matrix = new byte[parityShards][dataShards];
+    for (int j = 0; j < parityShards; j++) {
+      for (int i = 0; i < dataShards; i++) {
+        // x_j = k + j and y_i = i are all distinct, so x_j + y_i is never 0
+        matrix[j][i] = inverse((dataShards + j) ^ i);
+      }
+    }
+    this.decodeMatrix = new byte[dataShards][dataShards];
+    this.inverse = new byte[dataShards][dataShards];
+    this.rows = new int[dataShards];
+  }
+
+  public int getDataShards() {
+    return dataShards;
+  }
+
+  public int getParityShards() {
+    return parityShards;
+  }
+
+  /**
+   * Compute the parity shards.
+   *
+   * @param shards k data shards followed by m parity shards, each at least `shardSize` long.
+   * @param shardSize number of bytes per shard
+   */
+  public void encode(byte[][] shards, int shardSize) {
+    for (int j = 0; j < parityShards; j++) {
+      byte[] parity = shards[dataShards + j];
+      Arrays.fill(parity, 0, shardSize, (byte) 0);
+      for (int i = 0; i < dataShards; i++) {
+        multiplyAdd(matrix[j][i], shards[i], parity, shardSize);
+      }
+    }
+  }
+
+  /**
+   * Reconstruct missing data shards. Missing parity shards are not reconstructed.
+   *
+   * @param shards k data shards followed by m parity shards, each at least `shardSize` long. The
+   *     content of missing shards is ignored and overwritten (for data shards).
+   * @param present indicates which shards are present
+   * @param shardSize number of bytes per shard
+   * @return 'false' if fewer than k shards are present.
+   */
+  public boolean decode(byte[][] shards, boolean[] present, int shardSize) {
+    int nRows = 0;
+    boolean complete = true;
+    for (int i = 0; i < dataShards; i++) {
+      if (present[i]) {
+        rows[nRows++] = i;
+      } else {
+        complete = false;
+      }
+    }
+    if (complete) {
+      return true;
+    }
+    for (int j = 0; j < parityShards && nRows < dataShards; j++) {
+      if (present[dataShards + j]) {
+        rows[nRows++] = dataShards + j;
+      }
+    }
+    if (nRows < dataShards) {
+      return false;
+    }
+
+    for (int r = 0; r < dataShards; r++) {
+      byte[] row = decodeMatrix[r];
+      if (rows[r] < dataShards) {
+        Arrays.fill(row, (byte) 0);
+        row[rows[r]] = 1;
+      } else {
+        System.arraycopy(matrix[rows[r] - dataShards], 0, row, 0, dataShards);
+      }
+    }
+    invert();
+
+    for (int i = 0; i < dataShards; i++) {
+      if (present[i]) {
+        continue;
+      }
+      byte[] out = shards[i];
+      Arrays.fill(out, 0, shardSize, (byte) 0);
+      for (int r = 0; r < dataShards; r++) {
+        multiplyAdd(inverse[i][r], shards[rows[r]], out, shardSize);
+      }
+    }
+    return true;
+  }
+
+  /** Gauss-Jordan elimination of decodeMatrix into inverse. decodeMatrix is destroyed. */
+  private void invert() {
+    int n = dataShards;
+    for (int r = 0; r < n; r++) {
+      Arrays.fill(inverse[r], (byte) 0);
+      inverse[r][r] = 1;
+    }
+    for (int c = 0; c < n; c++) {
+      int pivot = c;
+      while (decodeMatrix[pivot][c] == 0) {
+        pivot++; // Cauchy sub-matrices are invertible, so there is always a pivot
+      }
+      swap(decodeMatrix, c, pivot);
+      swap(inverse, c, pivot);
+      byte[] scale = MUL[inverse(decodeMatrix[c][c] & 0xff) & 0xff];
+      for (int i = 0; i < n; i++) {
+        decodeMatrix[c][i] = scale[decodeMatrix[c][i] & 0xff];
+        inverse[c][i] = scale[inverse[c][i] & 0xff];
+      }
+      for (int r = 0; r < n; r++) {
+        int factor = decodeMatrix[r][c] & 0xff;
+        if (r == c || factor == 0) {
+          continue;
+        }
+        byte[] mul = MUL[factor];
+        for (int i = 0; i < n; i++) {
+          decodeMatrix[r][i] ^= mul[decodeMatrix[c][i] & 0xff];
+          inverse[r][i] ^= mul[inverse[c][i] & 0xff];
+        }
+      }
+    }
+  }
+
+  private static void swap(byte[][] m, int r1, int r2) {
+    byte[] tmp = m[r1];
+    m[r1] = m[r2];
+    m[r2] = tmp;
+  }
+
+  private static void multiplyAdd(byte factor, byte[] in, byte[] out, int len) {
+    if (factor == 0) {
+      return;
+    }
+    byte[] mul = MUL[factor & 0xff];
+    for (int b = 0; b < len; b++) {
+      out[b] ^= mul[in[b] & 0xff];
+    }
+  }
+
+  private static byte inverse(int a) {
+    return EXP[255 - LOG[a]];
+  }
+}
@@ -0,0 +1,93 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.internal;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trip time estimator and retransmission timeout (RTO) calculation as described in RFC 6298.
+ * The minimum RTO is 200ms instead of 1s, which is common practice for modern transports.
+ *
+ * <p>This class is not thread safe.
+ */
+public class RttEstimator {
+
+  private static final long INITIAL_RTO = TimeUnit.SECONDS.toNanos(1);
+  private static final long MIN_RTO = TimeUnit.MILLISECONDS.toNanos(200);
+  private static final long MAX_RTO = TimeUnit.SECONDS.toNanos(60);
+  // Clock granularity
+  private static final long G = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private long srtt;
+  private long rttVar;
+  private long minRtt;
+  private long rto;
+
+  public RttEstimator() {
+    reset();
+  }
+
+  /** Forget all samples, e.g. after a path change. */
+  public void reset() {
+    srtt = -1;
+    rttVar = 0;
+    minRtt = Long.MAX_VALUE;
+    rto = INITIAL_RTO;
+  }
+
+  /**
+   * @param sampleNanos RTT sample in nanoseconds
+   */
+  public void update(long sampleNanos) {
+    if (sampleNanos < 0) {
+      return;
+    }
+    if (srtt < 0) {
+      srtt = sampleNanos;
+      rttVar = sampleNanos / 2;
+    } else {
+      rttVar = (3 * rttVar + Math.abs(srtt - sampleNanos)) / 4;
+      srtt = (7 * srtt + sampleNanos) / 8;
+    }
+    minRtt = Math.min(minRtt, sampleNanos);
+    rto = Math.min(MAX_RTO, Math.max(MIN_RTO, srtt + Math.max(G, 4 * rttVar)));
+  }
+
+  /** Double the RTO after a timeout. */
+  public void backoff() {
+    rto = Math.min(MAX_RTO, rto * 2);
+  }
+
+  /**
+   * @return the smoothed RTT in nanoseconds or -1 if there are no samples.
+   */
+  public long getSmoothedRtt() {
+    return srtt;
+  }
+
+  /**
+   * @return the minimum RTT in nanoseconds or -1 if there are no samples.
+   */
+  public long getMinRtt() {
+    return srtt < 0 ? -1 : minRtt;
+  }
+
+  /**
+   * @return the retransmission timeout in nanoseconds.
+   */
+  public long getRto() {
+    return rto;
+  }
+}
@@ -32,12 +32,18 @@ public class ScionHeaderParser {
    * @param userBuffer Buffer in which to write the user payload.
    */
   public static void extractUserPayload(ByteBuffer data, ByteBuffer userBuffer) {
-    int i1 = data.getInt(4);
-    int hdrLen = ByteUtil.readInt(i1, 8, 8);
-    int hdrLenBytes = hdrLen * 4;
+    extractUserPayload(data, userBuffer, 0);
+  }
 
-    int udpHeaderLength = 8;
-    int payLoadStart = hdrLenBytes + udpHeaderLength;
+  /**
+   * Extract the user payload data without changing the buffer's position.
+   *
+   * @param data The datagram to read from.
+   * @param userBuffer Buffer in which to write the user payload.
+   * @param skip Number of bytes at the start of the user payload that should be skipped.
+   */
+  public static void extractUserPayload(ByteBuffer data, ByteBuffer userBuffer, int skip) {
+    int payLoadStart = getUserPayloadStart(data) + skip;
     int pos = data.position();
     data.position(payLoadStart);
     int maxUserLen = userBuffer.remaining();
@@ -52,6 +58,19 @@ public class ScionHeaderParser {
     data.position(pos);
   }
 
+  /**
+   * @param data The datagram to read from.
+   * @return The offset of the user payload, i.e. the position after the SCION and UDP headers.
+   */
+  public static int getUserPayloadStart(ByteBuffer data) {
+    int i1 = data.getInt(4);
+    int hdrLen = ByteUtil.readInt(i1, 8, 8);
+    int hdrLenBytes = hdrLen * 4;
+
+    int udpHeaderLength = 8;
+    return hdrLenBytes + udpHeaderLength;
+  }
+
   /**
    * Extract the remote socket address and path without changing the buffer's position.
    *
@@ -382,7 +401,8 @@ public class ScionHeaderParser {
       long dstIsdAs,
       byte[] dstAddress,
       InternalConstants.HdrTypes hdrType,
-      int trafficClass) {
+      int trafficClass,
+      int flowId) {
     int sl = srcAddress.length / 4 - 1;
     int dl = dstAddress.length / 4 - 1;
 
@@ -391,7 +411,7 @@ public class ScionHeaderParser {
     int i2 = 0;
     i0 = ByteUtil.writeInt(i0, 0, 4, 0); // version = 0
     i0 = ByteUtil.writeInt(i0, 4, 8, trafficClass); // TrafficClass = 0
-    i0 = ByteUtil.writeInt(i0, 12, 20, 1); // FlowID = 1
+    i0 = ByteUtil.writeInt(i0, 12, 20, flowId); // FlowID
     data.putInt(i0);
     i1 = ByteUtil.writeInt(i1, 0, 8, hdrType.code); // NextHdr = 17 is for UDP OverlayHeader
     int newHdrLen = (calcLen(pathHeaderLength, sl, dl) - 1) / 4 + 1;
@@ -101,6 +101,19 @@ public class ScmpParser {
         Scmp.TracerouteMessage trace = (Scmp.TracerouteMessage) holder;
         trace.setTracerouteArgs(isdAs, ifID);
         break;
+      case ERROR_5:
+        // Type 5 and 6 have no identifier/sequence number, the ISD-AS follows the checksum
+        data.position(data.position() - 4);
+        Scmp.ExternalInterfaceDownMessage error5 = (Scmp.ExternalInterfaceDownMessage) holder;
+        error5.setMessageArgs(sc, -1, -1);
+        error5.setErrorArgs(data.getLong(), data.getLong());
+        break;
+      case ERROR_6:
+        data.position(data.position() - 4);
+        Scmp.InternalConnectivityDownMessage error6 = (Scmp.InternalConnectivityDownMessage) holder;
+        error6.setMessageArgs(sc, -1, -1);
+        error6.setErrorArgs(data.getLong(), data.getLong(), data.getLong());
+        break;
       default:
         break;
     }
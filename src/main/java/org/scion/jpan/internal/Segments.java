@@ -25,7 +25,6 @@ import java.util.*;
 import org.scion.jpan.ScionRuntimeException;
 import org.scion.jpan.ScionUtil;
 import org.scion.jpan.proto.control_plane.Seg;
-import org.scion.jpan.proto.control_plane.SegmentLookupServiceGrpc;
 import org.scion.jpan.proto.crypto.Signed;
 import org.scion.jpan.proto.daemon.Daemon;
 import org.slf4j.Logger;
@@ -51,14 +50,18 @@ import org.slf4j.LoggerFactory;
  */
 public class Segments {
   private static final Logger LOG = LoggerFactory.getLogger(Segments.class.getName());
+  // Lifetime of paths inside the local AS.
+  private static final long LOCAL_PATH_LIFETIME_SECONDS = 24 * 3600L;
 
   private Segments() {}
 
   public static List<Daemon.Path> getPaths(
-      SegmentLookupServiceGrpc.SegmentLookupServiceBlockingStub segmentStub,
-      LocalTopology brLookup,
-      long srcIsdAs,
-      long dstIsdAs) {
+      ControlServiceClient controlService, LocalTopology brLookup, long srcIsdAs, long dstIsdAs) {
+    return removeDuplicates(findPaths(controlService, brLookup, srcIsdAs, dstIsdAs));
+  }
+
+  private static List<Daemon.Path> findPaths(
+      ControlServiceClient controlService, LocalTopology brLookup, long srcIsdAs, long dstIsdAs) {
     // Cases:
     // A: src==dst
     // B: srcISD==dstISD; dst==core
@@ -77,7 +80,9 @@ public class Segments {
       // case A: same AS, return empty path
       Daemon.Path.Builder path = Daemon.Path.newBuilder();
       path.setMtu(brLookup.getLocalMtu());
-      path.setExpiration(Timestamp.newBuilder().setSeconds(Instant.now().getEpochSecond()).build());
+      // There are no hop fields that could expire, so we just use a long expiry time.
+      long expiry = Instant.now().getEpochSecond() + LOCAL_PATH_LIFETIME_SECONDS;
+      path.setExpiration(Timestamp.newBuilder().setSeconds(expiry).build());
       return Collections.singletonList(path.build());
     }
 
@@ -88,12 +93,12 @@ public class Segments {
 
     long from = srcIsdAs;
     long to = dstIsdAs;
-    List<List<Seg.PathSegment>> segments = new ArrayList<>();
+    List<List<ParsedSegment>> segments = new ArrayList<>();
     // First, if necessary, try to get UP segments
     if (!brLookup.isLocalAsCore()) {
       // get UP segments
       // TODO find out if dstIsAs is core and directly ask for it.
-      List<Seg.PathSegment> segmentsUp = getSegments(segmentStub, srcIsdAs, srcWildcard);
+      List<ParsedSegment> segmentsUp = getSegments(controlService, srcIsdAs, srcWildcard);
       boolean[] containsIsdAs = containsIsdAs(segmentsUp, srcIsdAs, dstIsdAs);
       if (containsIsdAs[1]) {
         // case B: DST is core
@@ -110,7 +115,7 @@ public class Segments {
     if (srcISD == dstISD) {
       // cases C, D, E
       // TODO this is an expensive way to find out whether DST is CORE
-      List<Seg.PathSegment> segmentsCoreOrDown = getSegments(segmentStub, from, dstIsdAs);
+      List<ParsedSegment> segmentsCoreOrDown = getSegments(controlService, from, dstIsdAs);
       if (!segmentsCoreOrDown.isEmpty()) {
         // Okay, we found a direct route from src(Wildcard) to DST
         segments.add(segmentsCoreOrDown);
@@ -121,13 +126,13 @@ public class Segments {
         // okay, we need CORE!
         // TODO this is horrible.
         segments.remove(segments.size() - 1);
-        List<Seg.PathSegment> segmentsCore = getSegments(segmentStub, from, dstWildcard);
+        List<ParsedSegment> segmentsCore = getSegments(controlService, from, dstWildcard);
         segments.add(segmentsCore);
         segments.add(segmentsCoreOrDown);
         return combineSegments(segments, srcIsdAs, dstIsdAs, brLookup);
       }
       // Try again with wildcard (DST is neither core nor a child of FROM)
-      List<Seg.PathSegment> segmentsCore = getSegments(segmentStub, from, dstWildcard);
+      List<ParsedSegment> segmentsCore = getSegments(controlService, from, dstWildcard);
       boolean[] coreHasIA = containsIsdAs(segmentsCore, from, dstIsdAs);
       segments.add(segmentsCore);
       if (coreHasIA[1]) {
@@ -138,13 +143,13 @@ public class Segments {
         from = dstWildcard;
         // case C: DST is not core
         // We have to query down segments because SRC may not have a segment connected to DST
-        List<Seg.PathSegment> segmentsDown = getSegments(segmentStub, from, dstIsdAs);
+        List<ParsedSegment> segmentsDown = getSegments(controlService, from, dstIsdAs);
         segments.add(segmentsDown);
         return Segments.combineSegments(segments, srcIsdAs, dstIsdAs, brLookup);
       }
     }
     // remaining cases: F, G, H
-    List<Seg.PathSegment> segmentsCore = getSegments(segmentStub, from, dstWildcard);
+    List<ParsedSegment> segmentsCore = getSegments(controlService, from, dstWildcard);
     if (segmentsCore.isEmpty()) {
       return Collections.emptyList();
     }
@@ -154,15 +159,13 @@ public class Segments {
       return Segments.combineSegments(segments, srcIsdAs, dstIsdAs, brLookup);
     }
 
-    List<Seg.PathSegment> segmentsDown = getSegments(segmentStub, dstWildcard, dstIsdAs);
+    List<ParsedSegment> segmentsDown = getSegments(controlService, dstWildcard, dstIsdAs);
     segments.add(segmentsDown);
     return Segments.combineSegments(segments, srcIsdAs, dstIsdAs, brLookup);
   }
 
-  private static List<Seg.PathSegment> getSegments(
-      SegmentLookupServiceGrpc.SegmentLookupServiceBlockingStub segmentStub,
-      long srcIsdAs,
-      long dstIsdAs) {
+  private static List<ParsedSegment> getSegments(
+      ControlServiceClient controlService, long srcIsdAs, long dstIsdAs) {
     if (LOG.isInfoEnabled()) {
       LOG.info(
           "Requesting segments: {} {}",
@@ -173,7 +176,7 @@ public class Segments {
         Seg.SegmentsRequest.newBuilder().setSrcIsdAs(srcIsdAs).setDstIsdAs(dstIsdAs).build();
     try {
       long t0 = System.nanoTime();
-      Seg.SegmentsResponse response = segmentStub.segments(request);
+      Seg.SegmentsResponse response = controlService.segments(request);
       long t1 = System.nanoTime();
       LOG.info(
           "CS request took {} ms. Segments found: {}",
@@ -209,17 +212,51 @@ public class Segments {
     }
   }
 
-  private static List<Seg.PathSegment> getPathSegments(Seg.SegmentsResponse response) {
-    List<Seg.PathSegment> pathSegments = new ArrayList<>();
+  private static List<ParsedSegment> getPathSegments(Seg.SegmentsResponse response) {
+    List<ParsedSegment> pathSegments = new ArrayList<>();
     for (Map.Entry<Integer, Seg.SegmentsResponse.Segments> seg :
         response.getSegmentsMap().entrySet()) {
-      pathSegments.addAll(seg.getValue().getSegmentsList());
+      Seg.SegmentType type = Seg.SegmentType.forNumber(seg.getKey());
+      for (Seg.PathSegment pathSegment : seg.getValue().getSegmentsList()) {
+        pathSegments.add(new ParsedSegment(type, pathSegment));
+      }
     }
     return pathSegments;
   }
 
+  /**
+   * Different segment combinations may result in paths that traverse the same interfaces. Of these
+   * paths, we keep only the one that expires last.
+   *
+   * @param paths paths
+   * @return paths with distinct interface sequences, in the original order.
+   */
+  private static List<Daemon.Path> removeDuplicates(List<Daemon.Path> paths) {
+    if (paths.size() < 2) {
+      return paths;
+    }
+    List<Daemon.Path> result = new ArrayList<>(paths.size());
+    // fingerprint -> index in result
+    Map<Long, Integer> fingerprints = new HashMap<>();
+    for (Daemon.Path path : paths) {
+      Integer index = fingerprints.putIfAbsent(PathFingerprint.compute(path), result.size());
+      if (index == null) {
+        result.add(path);
+        continue;
+      }
+      Daemon.Path existing = result.get(index);
+      if (!existing.getInterfacesList().equals(path.getInterfacesList())) {
+        // Fingerprint collision
+        result.add(path);
+      } else if (existing.getExpiration().getSeconds() < path.getExpiration().getSeconds()) {
+        result.set(index, path);
+      }
+    }
+    return result;
+  }
+
   private static List<Daemon.Path> combineSegments(
-      List<List<Seg.PathSegment>> segments, long srcIsdAs, long dstIsdAs, LocalTopology brLookup) {
+      List<List<ParsedSegment>> segments, long srcIsdAs, long dstIsdAs, LocalTopology brLookup) {
     if (segments.size() == 1) {
       return combineSegment(segments.get(0), brLookup);
     } else if (segments.size() == 2) {
@@ -230,9 +267,9 @@ public class Segments {
   }
 
   private static List<Daemon.Path> combineSegment(
-      List<Seg.PathSegment> segments, LocalTopology brLookup) {
+      List<ParsedSegment> segments, LocalTopology brLookup) {
     List<Daemon.Path> paths = new ArrayList<>();
-    for (Seg.PathSegment pathSegment : segments) {
+    for (ParsedSegment pathSegment : segments) {
       paths.add(buildPath(brLookup, pathSegment));
     }
     return paths;
@@ -249,18 +286,23 @@ public class Segments {
    * @return Paths
    */
   private static List<Daemon.Path> combineTwoSegments(
-      List<Seg.PathSegment> segments0,
-      List<Seg.PathSegment> segments1,
+      List<ParsedSegment> segments0,
+      List<ParsedSegment> segments1,
       long srcIsdAs,
       long dstIsdAs,
       LocalTopology brLookup) {
+    if (isType(segments0, Seg.SegmentType.SEGMENT_TYPE_UP)
+        && isType(segments1, Seg.SegmentType.SEGMENT_TYPE_DOWN)) {
+      return combineUpDown(segments0, segments1, brLookup);
+    }
+
     // Map IsdAs to pathSegment
-    MultiMap<Long, Seg.PathSegment> segmentsMap1 = createSegmentsMap(segments1, dstIsdAs);
+    MultiMap<Long, ParsedSegment> segmentsMap1 = createSegmentsMap(segments1, dstIsdAs);
 
     List<Daemon.Path> paths = new ArrayList<>();
-    for (Seg.PathSegment pathSegment0 : segments0) {
+    for (ParsedSegment pathSegment0 : segments0) {
       long middleIsdAs = getOtherIsdAs(srcIsdAs, pathSegment0);
-      for (Seg.PathSegment pathSegment1 : segmentsMap1.get(middleIsdAs)) {
+      for (ParsedSegment pathSegment1 : segmentsMap1.get(middleIsdAs)) {
         paths.add(buildPath(brLookup, pathSegment0, pathSegment1));
       }
     }
@@ -268,73 +310,197 @@ public class Segments {
   }
 
   private static List<Daemon.Path> combineThreeSegments(
-      List<Seg.PathSegment> segmentsUp,
-      List<Seg.PathSegment> segmentsCore,
-      List<Seg.PathSegment> segmentsDown,
+      List<ParsedSegment> segmentsUp,
+      List<ParsedSegment> segmentsCore,
+      List<ParsedSegment> segmentsDown,
       long srcIsdAs,
       long dstIsdAs,
       LocalTopology brLookup) {
     // Map IsdAs to pathSegment
-    MultiMap<Long, Seg.PathSegment> upSegments = createSegmentsMap(segmentsUp, srcIsdAs);
-    MultiMap<Long, Seg.PathSegment> downSegments = createSegmentsMap(segmentsDown, dstIsdAs);
+    MultiMap<Long, ParsedSegment> upSegments = createSegmentsMap(segmentsUp, srcIsdAs);
+    MultiMap<Long, ParsedSegment> downSegments = createSegmentsMap(segmentsDown, dstIsdAs);
 
     List<Daemon.Path> paths = new ArrayList<>();
-    for (Seg.PathSegment pathSeg : segmentsCore) {
-      long[] endIAs = getEndingIAs(pathSeg);
+    for (ParsedSegment pathSeg : segmentsCore) {
+      long[] endIAs = pathSeg.getEndingIAs();
       if (upSegments.contains(endIAs[0]) && downSegments.contains(endIAs[1])) {
         buildPath(paths, upSegments.get(endIAs[0]), pathSeg, downSegments.get(endIAs[1]), brLookup);
       } else if (upSegments.contains(endIAs[1]) && downSegments.contains(endIAs[0])) {
         buildPath(paths, upSegments.get(endIAs[1]), pathSeg, downSegments.get(endIAs[0]), brLookup);
       }
     }
+    // Peering links may bypass the core entirely, even between different ISDs.
+    addPeeringPaths(paths, segmentsUp, segmentsDown, brLookup);
+    return paths;
+  }
+
+  /**
+   * Combines UP and DOWN segments. This considers the "graph" of all ASes on all segments, not just
+   * the ending (core) ASes. For every pair of UP/DOWN segments we use the crossover AS that is
+   * closest to the source, see book sec 5.5, pp105 ff. Cases:<br>
+   * - The crossover AS is the core AS of both segments: a regular UP+DOWN path.<br>
+   * - The crossover AS is a non-core AS: a shortcut path. The regular path would contain a loop so
+   * it is not returned.<br>
+   * - The source AS is on the DOWN segment or the destination AS is on the UP segment: an "on-path"
+   * path that consists of a single (partial) segment.<br>
+   * Additionally, paths that use peering links between the segments are returned.
+   *
+   * <p>The ASes of all DOWN segments are indexed, so the complexity is linear in the number of AS
+   * entries plus the number of returned paths.
+   *
+   * @param segmentsUp UP segments, the last AS entry is the source AS.
+   * @param segmentsDown DOWN segments, the last AS entry is the destination AS.
+   * @param brLookup border router lookup resource
+   * @return Paths
+   */
+  private static List<Daemon.Path> combineUpDown(
+      List<ParsedSegment> segmentsUp, List<ParsedSegment> segmentsDown, LocalTopology brLookup) {
+    MultiMap<Long, SegmentPosition> downIndex = new MultiMap<>();
+    for (ParsedSegment segDown : segmentsDown) {
+      for (int pos = 0; pos < segDown.size(); pos++) {
+        downIndex.put(segDown.getIsdAs(pos), new SegmentPosition(segDown, pos));
+      }
+    }
+
+    List<Daemon.Path> paths = new ArrayList<>();
+    Set<ParsedSegment> connected = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (ParsedSegment segUp : segmentsUp) {
+      connected.clear();
+      // Walk from the source towards the core.
+      for (int pos = segUp.size() - 1; pos >= 0; pos--) {
+        for (SegmentPosition down : downIndex.get(segUp.getIsdAs(pos))) {
+          if (connected.add(down.segment)) {
+            paths.add(buildCrossoverPath(brLookup, segUp, pos, down.segment, down.pos));
+          }
+        }
+      }
+    }
+    addPeeringPaths(paths, segmentsUp, segmentsDown, brLookup);
     return paths;
   }
 
+  private static Daemon.Path buildCrossoverPath(
+      LocalTopology brLookup, ParsedSegment segUp, int posUp, ParsedSegment segDown, int posDown) {
+    int lastUp = segUp.size() - 1;
+    int lastDown = segDown.size() - 1;
+    if (posUp == lastUp) {
+      // on-path: source AS is on the DOWN segment
+      return buildPath(brLookup, new Traversal(segDown, posDown, lastDown));
+    }
+    if (posDown == lastDown) {
+      // on-path: destination AS is on the UP segment
+      return buildPath(brLookup, new Traversal(segUp, lastUp, posUp));
+    }
+    return buildPath(
+        brLookup, new Traversal(segUp, lastUp, posUp), new Traversal(segDown, posDown, lastDown));
+  }
+
+  /**
+   * Find peering links between any AS on an UP segment and any AS on a DOWN segment. A peering link
+   * exists if both ASes announce a peer entry that refers to the other AS and interface.
+   */
+  private static void addPeeringPaths(
+      List<Daemon.Path> paths,
+      List<ParsedSegment> segmentsUp,
+      List<ParsedSegment> segmentsDown,
+      LocalTopology brLookup) {
+    MultiMap<Long, SegmentPosition> downPeers = new MultiMap<>();
+    for (ParsedSegment segDown : segmentsDown) {
+      for (int pos = 0; pos < segDown.size(); pos++) {
+        if (segDown.getBody(pos).getPeerEntriesCount() > 0) {
+          downPeers.put(segDown.getIsdAs(pos), new SegmentPosition(segDown, pos));
+        }
+      }
+    }
+    if (downPeers.isEmpty()) {
+      return;
+    }
+
+    for (ParsedSegment segUp : segmentsUp) {
+      for (int posUp = segUp.size() - 1; posUp >= 0; posUp--) {
+        long isdAsUp = segUp.getIsdAs(posUp);
+        for (Seg.PeerEntry peerUp : segUp.getBody(posUp).getPeerEntriesList()) {
+          for (SegmentPosition down : downPeers.get(peerUp.getPeerIsdAs())) {
+            for (Seg.PeerEntry peerDown : down.segment.getBody(down.pos).getPeerEntriesList()) {
+              if (isPeeringLink(isdAsUp, peerUp, peerDown)
+                  && !hasLoop(segUp, posUp, down.segment, down.pos)) {
+                Traversal up = new Traversal(segUp, segUp.size() - 1, posUp, peerUp);
+                Traversal dn =
+                    new Traversal(down.segment, down.pos, down.segment.size() - 1, peerDown);
+                paths.add(buildPath(brLookup, up, dn));
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private static boolean isPeeringLink(long isdAsUp, Seg.PeerEntry peerUp, Seg.PeerEntry peerDown) {
+    // The ingress of a peer hop field is the local peering interface.
+    return peerDown.getPeerIsdAs() == isdAsUp
+        && peerDown.getPeerInterface() == peerUp.getHopField().getIngress()
+        && peerUp.getPeerInterface() == peerDown.getHopField().getIngress();
+  }
+
+  private static boolean hasLoop(
+      ParsedSegment segUp, int posUp, ParsedSegment segDown, int posDown) {
+    Set<Long> isdAsSet = new HashSet<>();
+    for (int i = posUp; i < segUp.size(); i++) {
+      isdAsSet.add(segUp.getIsdAs(i));
+    }
+    for (int i = posDown; i < segDown.size(); i++) {
+      if (isdAsSet.contains(segDown.getIsdAs(i))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   private static void buildPath(
       List<Daemon.Path> paths,
-      List<Seg.PathSegment> segmentsUp,
-      Seg.PathSegment segCore,
-      List<Seg.PathSegment> segmentsDown,
+      List<ParsedSegment> segmentsUp,
+      ParsedSegment segCore,
+      List<ParsedSegment> segmentsDown,
       LocalTopology brLookup) {
-    for (Seg.PathSegment segUp : segmentsUp) {
-      for (Seg.PathSegment segDown : segmentsDown) {
+    for (ParsedSegment segUp : segmentsUp) {
+      for (ParsedSegment segDown : segmentsDown) {
         paths.add(buildPath(brLookup, segUp, segCore, segDown));
       }
     }
   }
 
-  private static Daemon.Path buildPath(LocalTopology brLookup, Seg.PathSegment... segments) {
-    Daemon.Path.Builder path = Daemon.Path.newBuilder();
-    ByteBuffer raw = ByteBuffer.allocate(1000);
-
-    Seg.SegmentInformation[] infos = new Seg.SegmentInformation[segments.length];
+  private static Daemon.Path buildPath(LocalTopology brLookup, ParsedSegment... segments) {
+    Traversal[] traversals = new Traversal[segments.length];
+    long startIA = brLookup.getLocalIsdAs();
     for (int i = 0; i < segments.length; i++) {
-      infos[i] = getInfo(segments[i]);
+      traversals[i] = Traversal.create(segments[i], startIA);
+      startIA = segments[i].getIsdAs(traversals[i].to);
     }
+    return buildPath(brLookup, traversals);
+  }
+
+  private static Daemon.Path buildPath(LocalTopology brLookup, Traversal... segments) {
+    Daemon.Path.Builder path = Daemon.Path.newBuilder();
+    ByteBuffer raw = ByteBuffer.allocate(1000);
 
     // path meta header
     int pathMetaHeader = 0;
     for (int i = 0; i < segments.length; i++) {
-      int hopCount = segments[i].getAsEntriesCount();
+      int hopCount = segments[i].hopCount();
       pathMetaHeader |= hopCount << (6 * (2 - i));
     }
     raw.putInt(pathMetaHeader);
 
     // info fields
-    boolean[] reversed = new boolean[segments.length];
-    long startIA = brLookup.getLocalIsdAs();
-    final ByteUtil.MutLong endingIA = new ByteUtil.MutLong(-1);
-    for (int i = 0; i < infos.length; i++) {
-      reversed[i] = isReversed(segments[i], startIA, endingIA);
-      writeInfoField(raw, infos[i], reversed[i]);
-      startIA = endingIA.get();
+    for (Traversal segment : segments) {
+      writeInfoField(raw, segment);
     }
 
     // hop fields
     path.setMtu(brLookup.getLocalMtu());
-    for (int i = 0; i < segments.length; i++) {
-      // bytePosSegID: 6 = 4 bytes path head + 2 byte flag in first info field
-      writeHopFields(path, raw, 6 + i * 8, segments[i], reversed[i], infos[i]);
+    for (Traversal segment : segments) {
+      writeHopFields(path, raw, segment);
     }
 
     raw.flip();
@@ -354,46 +520,36 @@ public class Segments {
     return path.build();
   }
 
-  private static boolean isReversed(
-      Seg.PathSegment pathSegment, long startIA, ByteUtil.MutLong endIA) {
-    Seg.ASEntrySignedBody body0 = getBody(pathSegment.getAsEntriesList().get(0));
-    Seg.ASEntry asEntryN = pathSegment.getAsEntriesList().get(pathSegment.getAsEntriesCount() - 1);
-    Seg.ASEntrySignedBody bodyN = getBody(asEntryN);
-    if (body0.getIsdAs() == startIA) {
-      endIA.set(bodyN.getIsdAs());
-      return false;
-    } else if (bodyN.getIsdAs() == startIA) {
-      endIA.set(body0.getIsdAs());
-      return true;
-    }
-    // TODO support short-cut and on-path IAs
-    throw new UnsupportedOperationException("Relevant IA is not an ending IA!");
-  }
-
   private static long calcExpTime(long baseTime, int deltaTime) {
     return baseTime + (long) (1 + deltaTime) * 24 * 60 * 60 / 256;
   }
 
-  private static void writeInfoField(
-      ByteBuffer raw, Seg.SegmentInformation info, boolean reversed) {
-    int inf0 = ((reversed ? 0 : 1) << 24) | info.getSegmentId();
-    raw.putInt(inf0);
+  private static void writeInfoField(ByteBuffer raw, Traversal segment) {
+    Seg.SegmentInformation info = segment.seg.info;
+    // The SegID must be the accumulator value (beta) of the first hop field on the path. Peer hop
+    // fields are authenticated with the beta of the following hop field.
+    int betaPos = segment.from;
+    if (!segment.isReversed() && segment.peerPos == segment.from) {
+      betaPos++;
+    }
+    int segId = info.getSegmentId();
+    for (int i = 0; i < betaPos; i++) {
+      ByteString mac = segment.seg.getHopField(i).getMac();
+      segId ^= (ByteUtil.toUnsigned(mac.byteAt(0)) << 8) | ByteUtil.toUnsigned(mac.byteAt(1));
+    }
+    int flags = (segment.isReversed() ? 0 : 1) | (segment.isPeering() ? 2 : 0);
+    raw.putInt((flags << 24) | segId);
     raw.putInt(ByteUtil.toInt(info.getTimestamp()));
   }
 
-  private static void writeHopFields(
-      Daemon.Path.Builder path,
-      ByteBuffer raw,
-      int bytePosSegID,
-      Seg.PathSegment pathSegment,
-      boolean reversed,
-      Seg.SegmentInformation info) {
-    final int n = pathSegment.getAsEntriesCount();
+  private static void writeHopFields(Daemon.Path.Builder path, ByteBuffer raw, Traversal segment) {
+    ParsedSegment pathSegment = segment.seg;
+    boolean reversed = segment.isReversed();
     int minExpiry = Integer.MAX_VALUE;
-    for (int i = 0; i < n; i++) {
-      int pos = reversed ? (n - i - 1) : i;
-      Seg.ASEntrySignedBody body = getBody(pathSegment.getAsEntriesList().get(pos));
-      Seg.HopField hopField = body.getHopEntry().getHopField();
+    for (int pos = segment.from; ; pos += reversed ? -1 : 1) {
+      Seg.ASEntrySignedBody body = pathSegment.getBody(pos);
+      boolean isPeer = pos == segment.peerPos;
+      Seg.HopField hopField = isPeer ? segment.peer.getHopField() : pathSegment.getHopField(pos);
 
       raw.put((byte) 0);
       raw.put(ByteUtil.toByte(hopField.getExpTime()));
@@ -403,39 +559,43 @@ public class Segments {
       for (int j = 0; j < 6; j++) {
         raw.put(mac.byteAt(j));
       }
-      if (reversed && i > 0) {
-        raw.put(bytePosSegID, ByteUtil.toByte(raw.get(bytePosSegID) ^ mac.byteAt(0)));
-        raw.put(bytePosSegID + 1, ByteUtil.toByte(raw.get(bytePosSegID + 1) ^ mac.byteAt(1)));
-      }
       minExpiry = Math.min(minExpiry, hopField.getExpTime());
       path.setMtu(Math.min(path.getMtu(), body.getMtu()));
+      if (isPeer && segment.peer.getPeerMtu() > 0) {
+        path.setMtu(Math.min(path.getMtu(), segment.peer.getPeerMtu()));
+      }
+
+      // Interfaces in direction of travel. A 0-ID indicates the end of a segment.
+      // At a shortcut the AS is not traversed completely, so we skip the unused interface.
+      long ingress = reversed ? hopField.getEgress() : hopField.getIngress();
+      long egress = reversed ? hopField.getIngress() : hopField.getEgress();
+      if (ingress != 0 && (pos != segment.from || isPeer)) {
+        addInterface(path, body.getIsdAs(), ingress);
+      }
+      if (egress != 0 && (pos != segment.to || isPeer)) {
+        addInterface(path, body.getIsdAs(), egress);
+      }
 
-      boolean addInterfaces = (reversed && pos > 0) || (!reversed && pos < n - 1);
-      if (addInterfaces) {
-        Daemon.PathInterface.Builder pib = Daemon.PathInterface.newBuilder();
-        pib.setId(reversed ? hopField.getIngress() : hopField.getEgress());
-        path.addInterfaces(pib.setIsdAs(body.getIsdAs()).build());
-
-        Daemon.PathInterface.Builder pib2 = Daemon.PathInterface.newBuilder();
-        int pos2 = reversed ? pos - 1 : pos + 1;
-        Seg.ASEntrySignedBody body2 = getBody(pathSegment.getAsEntriesList().get(pos2));
-        Seg.HopField hopField2 = body2.getHopEntry().getHopField();
-        pib2.setId(reversed ? hopField2.getEgress() : hopField2.getIngress());
-        path.addInterfaces(pib2.setIsdAs(body2.getIsdAs()).build());
+      if (pos == segment.to) {
+        break;
       }
     }
 
     // expiration
-    long time = calcExpTime(info.getTimestamp(), minExpiry);
-    if (time < path.getExpiration().getSeconds()) {
-      path.setExpiration(Timestamp.newBuilder().setSeconds(minExpiry).build());
+    long time = calcExpTime(pathSegment.info.getTimestamp(), minExpiry);
+    if (!path.hasExpiration() || time < path.getExpiration().getSeconds()) {
+      path.setExpiration(Timestamp.newBuilder().setSeconds(time).build());
     }
   }
 
-  private static MultiMap<Long, Seg.PathSegment> createSegmentsMap(
-      List<Seg.PathSegment> pathSegments, long knownIsdAs) {
-    MultiMap<Long, Seg.PathSegment> map = new MultiMap<>();
-    for (Seg.PathSegment pathSeg : pathSegments) {
+  private static void addInterface(Daemon.Path.Builder path, long isdAs, long id) {
+    path.addInterfaces(Daemon.PathInterface.newBuilder().setIsdAs(isdAs).setId(id).build());
+  }
+
+  private static MultiMap<Long, ParsedSegment> createSegmentsMap(
+      List<ParsedSegment> pathSegments, long knownIsdAs) {
+    MultiMap<Long, ParsedSegment> map = new MultiMap<>();
+    for (ParsedSegment pathSeg : pathSegments) {
       long unknownIsdAs = getOtherIsdAs(knownIsdAs, pathSeg);
       if (unknownIsdAs != -1) {
         map.put(unknownIsdAs, pathSeg);
@@ -444,8 +604,8 @@ public class Segments {
     return map;
   }
 
-  private static long getOtherIsdAs(long isdAs, Seg.PathSegment seg) {
-    long[] endings = getEndingIAs(seg);
+  private static long getOtherIsdAs(long isdAs, ParsedSegment seg) {
+    long[] endings = seg.getEndingIAs();
     if (endings[0] == isdAs) {
       return endings[1];
     } else if (endings[1] == isdAs) {
@@ -454,21 +614,6 @@ public class Segments {
     return -1;
   }
 
-  /**
-   * @param seg path segment
-   * @return first and last ISD/AS of the path segment
-   */
-  static long[] getEndingIAs(Seg.PathSegment seg) {
-    Seg.ASEntry asEntryFirst = seg.getAsEntries(0);
-    Seg.ASEntry asEntryLast = seg.getAsEntries(seg.getAsEntriesCount() - 1);
-    if (!asEntryFirst.hasSigned() || !asEntryLast.hasSigned()) {
-      throw new UnsupportedOperationException("Unsigned entries not (yet) supported"); // TODO
-    }
-    Seg.ASEntrySignedBody bodyFirst = getBody(asEntryFirst.getSigned());
-    Seg.ASEntrySignedBody bodyLast = getBody(asEntryLast.getSigned());
-    return new long[] {bodyFirst.getIsdAs(), bodyLast.getIsdAs()};
-  }
-
   private static Seg.ASEntrySignedBody getBody(Signed.SignedMessage sm) {
     try {
       Signed.HeaderAndBodyInternal habi =
@@ -479,12 +624,6 @@ public class Segments {
     }
   }
 
-  private static Seg.ASEntrySignedBody getBody(Seg.ASEntry asEntry) {
-    // Let's assumed they are all signed
-    Signed.SignedMessage sm = asEntry.getSigned();
-    return getBody(sm);
-  }
-
   private static Seg.SegmentInformation getInfo(Seg.PathSegment pathSegment) {
     try {
       return Seg.SegmentInformation.parseFrom(pathSegment.getSegmentInfo());
@@ -493,20 +632,18 @@ public class Segments {
     }
   }
 
+  private static boolean isType(List<ParsedSegment> segments, Seg.SegmentType type) {
+    return !segments.isEmpty() && segments.get(0).type == type;
+  }
+
   private static boolean[] containsIsdAs(
-      List<Seg.PathSegment> segments, long srcIsdAs, long dstIsdAs) {
+      List<ParsedSegment> segments, long srcIsdAs, long dstIsdAs) {
     boolean[] found = new boolean[] {false, false};
-    for (Seg.PathSegment seg : segments) {
-      Seg.ASEntry asEntryFirst = seg.getAsEntries(0);
-      Seg.ASEntry asEntryLast = seg.getAsEntries(seg.getAsEntriesCount() - 1);
-      if (!asEntryFirst.hasSigned() || !asEntryLast.hasSigned()) {
-        throw new UnsupportedOperationException("Unsigned entries are not supported");
-      }
+    for (ParsedSegment seg : segments) {
       // TODO for shortcut/on-path add ALL instead of just ends
-      long iaFirst = getBody(asEntryFirst.getSigned()).getIsdAs();
-      long iaLast = getBody(asEntryLast.getSigned()).getIsdAs();
-      found[0] |= (iaFirst == srcIsdAs) || (iaLast == srcIsdAs);
-      found[1] |= (iaFirst == dstIsdAs) || (iaLast == dstIsdAs);
+      long[] endings = seg.getEndingIAs();
+      found[0] |= (endings[0] == srcIsdAs) || (endings[1] == srcIsdAs);
+      found[1] |= (endings[0] == dstIsdAs) || (endings[1] == dstIsdAs);
     }
     return found;
   }
@@ -514,4 +651,114 @@ public class Segments {
   private static long toWildcard(long isdAs) {
     return (isdAs >>> 48) << 48;
   }
+
+  /**
+   * A path segment with parsed AS entries. Parsing the signed AS entries is comparatively
+   * expensive, so we do it only once per segment instead of once per combination.
+   */
+  private static class ParsedSegment {
+    private final Seg.SegmentType type;
+    private final Seg.SegmentInformation info;
+    private final Seg.ASEntrySignedBody[] bodies;
+
+    ParsedSegment(Seg.SegmentType type, Seg.PathSegment segment) {
+      this.type = type;
+      this.info = getInfo(segment);
+      this.bodies = new Seg.ASEntrySignedBody[segment.getAsEntriesCount()];
+      for (int i = 0; i < bodies.length; i++) {
+        Seg.ASEntry asEntry = segment.getAsEntries(i);
+        if (!asEntry.hasSigned()) {
+          throw new UnsupportedOperationException("Unsigned entries are not supported");
+        }
+        bodies[i] = Segments.getBody(asEntry.getSigned());
+      }
+    }
+
+    int size() {
+      return bodies.length;
+    }
+
+    Seg.ASEntrySignedBody getBody(int pos) {
+      return bodies[pos];
+    }
+
+    long getIsdAs(int pos) {
+      return bodies[pos].getIsdAs();
+    }
+
+    Seg.HopField getHopField(int pos) {
+      return bodies[pos].getHopEntry().getHopField();
+    }
+
+    /**
+     * @return first and last ISD/AS of the path segment
+     */
+    long[] getEndingIAs() {
+      return new long[] {getIsdAs(0), getIsdAs(bodies.length - 1)};
+    }
+  }
+
+  /** An AS entry in a path segment. */
+  private static class SegmentPosition {
+    private final ParsedSegment segment;
+    private final int pos;
+
+    SegmentPosition(ParsedSegment segment, int pos) {
+      this.segment = segment;
+      this.pos = pos;
+    }
+  }
+
+  /**
+   * The part of a segment that is used by a path. The AS entries are traversed from `from` to `to`
+   * (both inclusive). If `from` > `to` then the segment is traversed against construction
+   * direction.
+   */
+  private static class Traversal {
+    private final ParsedSegment seg;
+    private final int from;
+    private final int to;
+    // AS entry whose peer entry is used instead of the hop entry, or -1.
+    private final int peerPos;
+    private final Seg.PeerEntry peer;
+
+    Traversal(ParsedSegment seg, int from, int to) {
+      this(seg, from, to, -1, null);
+    }
+
+    /** Peering traversal. The peering link is at the "inner" end of the traversal. */
+    Traversal(ParsedSegment seg, int from, int to, Seg.PeerEntry peer) {
+      this(seg, from, to, from > to ? to : from, peer);
+    }
+
+    private Traversal(ParsedSegment seg, int from, int to, int peerPos, Seg.PeerEntry peer) {
+      this.seg = seg;
+      this.from = from;
+      this.to = to;
+      this.peerPos = peerPos;
+      this.peer = peer;
+    }
+
+    static Traversal create(ParsedSegment seg, long startIA) {
+      int last = seg.size() - 1;
+      if (seg.getIsdAs(0) == startIA) {
+        return new Traversal(seg, 0, last);
+      } else if (seg.getIsdAs(last) == startIA) {
+        return new Traversal(seg, last, 0);
+      }
+      throw new UnsupportedOperationException("Relevant IA is not an ending IA!");
+    }
+
+    boolean isReversed() {
+      return from > to;
+    }
+
+    boolean isPeering() {
+      return peer != null;
+    }
+
+    int hopCount() {
+      return Math.abs(to - from) + 1;
+    }
+  }
 }
@@ -0,0 +1,506 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.internal;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.scion.jpan.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Deficit round robin (DRR) scheduler for the send queues of a ScionDatagramChannel. Every class
+ * receives a quantum of `weight * QUANTUM_BYTES` per round, i.e. classes share the link in
+ * proportion to their weights, and a small packet of a class never waits for more than one round of
+ * the other classes.
+ *
+ * <p>Packets are queued by the sending threads and sent by one draining thread at a time, see
+ * {@link #drain(PacketSender)}. If all queues are empty, a sending thread sends its packet
+ * directly, see {@link #send(ClassQueue, ByteBuffer, Path, boolean, PacketSender)}.
+ *
+ * <p>This class is thread safe.
+ */
+public class SendScheduler {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SendScheduler.class.getName());
+  static final int QUANTUM_BYTES = 1500;
+  // Delay before retrying to send a queued packet if the socket buffer was full.
+  private static final long SEND_RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final Object lock = new Object();
+  // Guarded by lock
+  private final List<ClassQueue> classes = new ArrayList<>();
+  private int queuedPackets = 0;
+  private int current = 0;
+  private boolean quantumGranted = false;
+  private boolean draining = false;
+
+  public ClassQueue addClass(int trafficClass, int weight, int maxQueueDepth) {
+    if (trafficClass < 0 || trafficClass > 255) {
+      throw new IllegalArgumentException("trafficClass is not in range 0 -- 255");
+    }
+    if (weight < 1) {
+      throw new IllegalArgumentException("weight must be at least 1: " + weight);
+    }
+    if (maxQueueDepth < 1) {
+      throw new IllegalArgumentException("maxQueueDepth must be at least 1: " + maxQueueDepth);
+    }
+    synchronized (lock) {
+      ClassQueue sendClass = new ClassQueue(trafficClass, weight, maxQueueDepth);
+      classes.add(sendClass);
+      return sendClass;
+    }
+  }
+
+  public List<ClassQueue> getClasses() {
+    synchronized (lock) {
+      return Collections.unmodifiableList(new ArrayList<>(classes));
+    }
+  }
+
+  /**
+   * Reserve a queue slot for a packet.
+   *
+   * @param sendClass the class
+   * @param blocking whether to wait for a free slot
+   * @return 'false' if the queue is full and `blocking` is 'false'.
+   * @throws InterruptedIOException if the thread was interrupted while waiting.
+   */
+  public boolean reserve(ClassQueue sendClass, boolean blocking) throws InterruptedIOException {
+    checkClass(sendClass);
+    synchronized (lock) {
+      while (sendClass.queue.size() + sendClass.reserved >= sendClass.maxQueueDepth) {
+        if (!blocking) {
+          return false;
+        }
+        try {
+          lock.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while waiting for send queue");
+        }
+      }
+      sendClass.reserved++;
+      return true;
+    }
+  }
+
+  public void cancelReservation(ClassQueue sendClass) {
+    synchronized (lock) {
+      sendClass.reserved--;
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * Queue a packet.
+   *
+   * @param sendClass the class
+   * @param packet the packet, it is copied
+   * @param path the path
+   * @param reserved whether a slot was reserved with {@link #reserve(ClassQueue, boolean)}.
+   *     Otherwise, the packet is queued even if the queue is full.
+   */
+  void enqueue(ClassQueue sendClass, ByteBuffer packet, Path path, boolean reserved) {
+    enqueue(sendClass, packet, path, reserved, false);
+  }
+
+  /**
+   * Queue a packet.
+   *
+   * @param sendClass the class
+   * @param packet the packet, it is copied
+   * @param path the path
+   * @param reserved whether a slot was reserved with {@link #reserve(ClassQueue, boolean)}.
+   *     Otherwise, the packet is queued even if the queue is full.
+   * @param paced whether the pacer already accounted for the packet.
+   */
+  void enqueue(
+      ClassQueue sendClass, ByteBuffer packet, Path path, boolean reserved, boolean paced) {
+    ByteBuffer copy = ByteBuffer.allocate(packet.remaining());
+    copy.put(packet).flip();
+    synchronized (lock) {
+      if (reserved) {
+        sendClass.reserved--;
+      }
+      sendClass.queue.add(new QueuedPacket(copy, path, paced));
+      sendClass.queuedBytes += copy.remaining();
+      sendClass.maxObservedQueueDepth =
+          Math.max(sendClass.maxObservedQueueDepth, sendClass.queue.size());
+      queuedPackets++;
+    }
+  }
+
+  /**
+   * Send a packet of a class. If all queues are empty and the pacer permits it, the packet is sent
+   * directly. Otherwise, it is copied into the queue of the class and sent by {@link
+   * #drain(PacketSender)}.
+   *
+   * @param sendClass the class
+   * @param packet the packet
+   * @param path the path
+   * @param reserved whether a slot was reserved with {@link #reserve(ClassQueue, boolean)}.
+   * @param sender sends the packet
+   * @throws IOException if sending the packet directly failed
+   */
+  public void send(
+      ClassQueue sendClass, ByteBuffer packet, Path path, boolean reserved, PacketSender sender)
+      throws IOException {
+    int size = packet.remaining();
+    boolean paced = false;
+    if (startDirectSend()) {
+      // Nothing is queued: send without copying the packet
+      boolean sent = false;
+      try {
+        paced = sender.tryPace(path, size) == 0;
+        sent = paced && sender.send(packet, path) > 0;
+      } finally {
+        if (sent) {
+          finishDirectSend(sendClass, size, reserved);
+        } else {
+          stopDrain();
+        }
+      }
+      if (sent) {
+        return;
+      }
+    }
+    enqueue(sendClass, packet, path, reserved, paced);
+  }
+
+  /**
+   * Send queued packets until the queues are empty or the pacer delays the next packet. Only one
+   * thread drains at a time, the call returns immediately if another thread is draining. Packets
+   * that cannot be sent because of an error are dropped.
+   *
+   * @param sender sends the packets
+   * @return 0 if the queues are empty or another thread is draining them, otherwise the time (ns)
+   *     after which this method should be called again.
+   */
+  public long drain(PacketSender sender) {
+    if (!startDrain()) {
+      return 0;
+    }
+    ClassQueue queue;
+    while ((queue = next()) != null) {
+      QueuedPacket packet = peek(queue);
+      if (!packet.isPaced()) {
+        long delay = sender.tryPace(packet.getPath(), packet.getSize());
+        if (delay > 0) {
+          stopDrain();
+          return delay;
+        }
+        packet.setPaced(true);
+      }
+      boolean sent = false;
+      try {
+        if (sender.send(packet.getBuffer(), packet.getPath()) == 0) {
+          // Non-blocking and the socket buffer is full: keep the packet and retry later
+          stopDrain();
+          return SEND_RETRY_NANOS;
+        }
+        sent = true;
+      } catch (IOException e) {
+        LOG.info("Failed to send queued packet: {}", e.getMessage());
+      }
+      remove(queue, sent);
+    }
+    return 0;
+  }
+
+  /**
+   * Start sending a packet directly, without copying it into a queue. This is only possible if all
+   * queues are empty and no other thread is draining them. If the caller does not send the packet,
+   * it must call {@link #stopDrain()} and queue the packet instead.
+   *
+   * @return 'true' if the calling thread may send the packet now.
+   */
+  boolean startDirectSend() {
+    synchronized (lock) {
+      if (draining || queuedPackets > 0) {
+        return false;
+      }
+      draining = true;
+      return true;
+    }
+  }
+
+  /**
+   * Account for a packet that was sent after {@link #startDirectSend()} and stop draining.
+   *
+   * @param sendClass the class
+   * @param size packet size
+   * @param reserved whether a slot was reserved with {@link #reserve(ClassQueue, boolean)}.
+   */
+  void finishDirectSend(ClassQueue sendClass, int size, boolean reserved) {
+    synchronized (lock) {
+      if (reserved) {
+        sendClass.reserved--;
+      }
+      sendClass.sentPackets++;
+      sendClass.sentBytes += size;
+      draining = false;
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * Start draining the queues. Only one thread drains at a time.
+   *
+   * @return 'true' if the calling thread should drain the queues with {@link #next()}.
+   */
+  boolean startDrain() {
+    synchronized (lock) {
+      if (draining || queuedPackets == 0) {
+        return false;
+      }
+      draining = true;
+      return true;
+    }
+  }
+
+  /** Stop draining, e.g. because the pacer does not permit sending. */
+  void stopDrain() {
+    synchronized (lock) {
+      draining = false;
+    }
+  }
+
+  /**
+   * Select the class whose head packet should be sent next. The packet must be removed with {@link
+   * #remove(ClassQueue, boolean)} once it has been sent. If all queues are empty, draining stops.
+   *
+   * @return the class or `null` if all queues are empty.
+   */
+  ClassQueue next() {
+    synchronized (lock) {
+      if (queuedPackets == 0) {
+        draining = false;
+        return null;
+      }
+      while (true) {
+        ClassQueue sendClass = classes.get(current);
+        if (!sendClass.queue.isEmpty()) {
+          if (!quantumGranted) {
+            sendClass.deficit += (long) sendClass.weight * QUANTUM_BYTES;
+            quantumGranted = true;
+          }
+          if (sendClass.queue.peek().size <= sendClass.deficit) {
+            return sendClass;
+          }
+        } else {
+          sendClass.deficit = 0;
+        }
+        current = (current + 1) % classes.size();
+        quantumGranted = false;
+      }
+    }
+  }
+
+  QueuedPacket peek(ClassQueue sendClass) {
+    synchronized (lock) {
+      return sendClass.queue.peek();
+    }
+  }
+
+  /**
+   * Remove the head packet of the class.
+   *
+   * @param sendClass the class returned by {@link #next()}
+   * @param sent 'true' if the packet was sent, 'false' if it was dropped.
+   */
+  void remove(ClassQueue sendClass, boolean sent) {
+    synchronized (lock) {
+      QueuedPacket packet = sendClass.queue.poll();
+      int size = packet.size;
+      sendClass.deficit -= size;
+      sendClass.queuedBytes -= size;
+      if (sent) {
+        sendClass.sentPackets++;
+        sendClass.sentBytes += size;
+      } else {
+        sendClass.droppedPackets++;
+      }
+      queuedPackets--;
+      lock.notifyAll();
+    }
+  }
+
+  /** Drop all queued packets. */
+  public void clear() {
+    synchronized (lock) {
+      for (ClassQueue sendClass : classes) {
+        sendClass.droppedPackets += sendClass.queue.size();
+        sendClass.queue.clear();
+        sendClass.queuedBytes = 0;
+        sendClass.deficit = 0;
+      }
+      queuedPackets = 0;
+      lock.notifyAll();
+    }
+  }
+
+  private void checkClass(ClassQueue sendClass) {
+    synchronized (lock) {
+      if (!classes.contains(sendClass)) {
+        throw new IllegalArgumentException("Unknown send class: " + sendClass);
+      }
+    }
+  }
+
+  /** Sends packets for the scheduler, see {@link #drain(PacketSender)}. */
+  public interface PacketSender {
+
+    /**
+     * Take tokens for a packet if the pacer of the path permits sending it now.
+     *
+     * @param path the path
+     * @param bytes packet size
+     * @return 0 if the packet can be sent now, otherwise the time (ns) until it can be sent.
+     */
+    long tryPace(Path path, int bytes);
+
+    /**
+     * Send a packet without waiting for the pacer.
+     *
+     * @param packet the packet
+     * @param path the path
+     * @return the number of bytes sent, 0 if the channel is non-blocking and the socket buffer is
+     *     full.
+     * @throws IOException if sending failed
+     */
+    int send(ByteBuffer packet, Path path) throws IOException;
+  }
+
+  /**
+   * The queue and statistics of one class of traffic, see {@link #addClass(int, int, int)}.
+   *
+   * <p>This class is thread safe.
+   */
+  public class ClassQueue {
+
+    private final int trafficClass;
+    private final int weight;
+    private final int maxQueueDepth;
+
+    // Guarded by lock
+    private final ArrayDeque<QueuedPacket> queue = new ArrayDeque<>();
+    // Queue slots that are reserved for packets that are currently being built.
+    private int reserved;
+    // DRR deficit counter (bytes)
+    private long deficit;
+    private long queuedBytes;
+    private int maxObservedQueueDepth;
+    private long sentPackets;
+    private long sentBytes;
+    private long droppedPackets;
+
+    private ClassQueue(int trafficClass, int weight, int maxQueueDepth) {
+      this.trafficClass = trafficClass;
+      this.weight = weight;
+      this.maxQueueDepth = maxQueueDepth;
+    }
+
+    public int getTrafficClass() {
+      return trafficClass;
+    }
+
+    public int getWeight() {
+      return weight;
+    }
+
+    public int getMaxQueueDepth() {
+      return maxQueueDepth;
+    }
+
+    public int getQueueDepth() {
+      synchronized (lock) {
+        return queue.size();
+      }
+    }
+
+    public long getQueuedBytes() {
+      synchronized (lock) {
+        return queuedBytes;
+      }
+    }
+
+    public int getMaxObservedQueueDepth() {
+      synchronized (lock) {
+        return maxObservedQueueDepth;
+      }
+    }
+
+    public long getSentPackets() {
+      synchronized (lock) {
+        return sentPackets;
+      }
+    }
+
+    public long getSentBytes() {
+      synchronized (lock) {
+        return sentBytes;
+      }
+    }
+
+    public long getDroppedPackets() {
+      synchronized (lock) {
+        return droppedPackets;
+      }
+    }
+  }
+
+  /** A queued packet, see {@link #peek(ClassQueue)}. */
+  static class QueuedPacket {
+    private final ByteBuffer buffer;
+    private final Path path;
+    private final int size;
+    // Whether the pacer already accounted for the packet. Only accessed by the draining thread.
+    private boolean paced;
+
+    QueuedPacket(ByteBuffer buffer, Path path, boolean paced) {
+      this.buffer = buffer;
+      this.path = path;
+      this.size = buffer.remaining();
+      this.paced = paced;
+    }
+
+    public ByteBuffer getBuffer() {
+      return buffer;
+    }
+
+    public Path getPath() {
+      return path;
+    }
+
+    public int getSize() {
+      return size;
+    }
+
+    public boolean isPaced() {
+      return paced;
+    }
+
+    public void setPaced(boolean paced) {
+      this.paced = paced;
+    }
+  }
+}
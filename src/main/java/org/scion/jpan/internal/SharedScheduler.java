@@ -0,0 +1,53 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.internal;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A scheduler for background tasks that is shared by all channels, e.g. for refreshing paths. It
+ * uses a single daemon thread, so tasks must not block. Blocking work, such as path lookups, should
+ * be delegated, e.g. to the asynchronous methods of ScionService.
+ */
+public class SharedScheduler {
+
+  private static final ScheduledThreadPoolExecutor EXECUTOR = createExecutor();
+
+  private SharedScheduler() {}
+
+  private static ScheduledThreadPoolExecutor createExecutor() {
+    ScheduledThreadPoolExecutor executor =
+        new ScheduledThreadPoolExecutor(
+            1,
+            runnable -> {
+              Thread thread = new Thread(runnable, "jpan-scheduler");
+              thread.setDaemon(true);
+              return thread;
+            });
+    executor.setRemoveOnCancelPolicy(true);
+    return executor;
+  }
+
+  public static ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+    return EXECUTOR.schedule(task, delay, unit);
+  }
+
+  public static ScheduledFuture<?> scheduleAtFixedRate(
+      Runnable task, long initialDelay, long period, TimeUnit unit) {
+    return EXECUTOR.scheduleAtFixedRate(task, initialDelay, period, unit);
+  }
+}
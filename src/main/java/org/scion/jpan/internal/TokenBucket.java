@@ -0,0 +1,88 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.internal;
+
+/**
+ * Token bucket for pacing packets, implemented as a virtual scheduling algorithm (GCRA). Instead of
+ * refilling tokens periodically, the bucket tracks the theoretical time at which all bytes sent so
+ * far would have been transmitted at the configured rate. A packet may be sent if this time is not
+ * more than the burst tolerance ahead of the current time. This requires no timer thread and only
+ * constant work per packet.
+ *
+ * <p>This class is not thread safe.
+ */
+public class TokenBucket {
+
+  private long rate;
+  private final int burstBytes;
+  private long burstNanos;
+  // Theoretical time (System.nanoTime()) at which all bytes sent so far are transmitted.
+  private long tat;
+
+  /**
+   * @param bitsPerSecond rate
+   * @param burstBytes number of bytes that can be sent at once after the bucket has been idle.
+   */
+  public TokenBucket(long bitsPerSecond, int burstBytes) {
+    this.burstBytes = burstBytes;
+    this.tat = System.nanoTime();
+    setRate(bitsPerSecond);
+  }
+
+  public long getRate() {
+    return rate;
+  }
+
+  /**
+   * @param bitsPerSecond new rate, must be greater than 0.
+   */
+  public void setRate(long bitsPerSecond) {
+    if (bitsPerSecond <= 0) {
+      throw new IllegalArgumentException("Rate must be positive: " + bitsPerSecond);
+    }
+    this.rate = bitsPerSecond;
+    this.burstNanos = transmissionNanos(burstBytes);
+  }
+
+  /**
+   * @param now current time (System.nanoTime())
+   * @return Time in nanoseconds until a packet can be sent, or 0 if it can be sent now.
+   */
+  public long getDelayNanos(long now) {
+    return Math.max(0, tat - now - burstNanos);
+  }
+
+  /**
+   * Take tokens for a packet that is sent now.
+   *
+   * @param bytes packet size
+   * @param now current time (System.nanoTime())
+   */
+  public void consume(int bytes, long now) {
+    tat = Math.max(tat, now) + transmissionNanos(bytes);
+  }
+
+  /**
+   * @param now current time (System.nanoTime())
+   * @return 'true' if the bucket is full, i.e. it is in the same state as a new bucket.
+   */
+  public boolean isIdle(long now) {
+    return tat - now <= 0;
+  }
+
+  private long transmissionNanos(long bytes) {
+    return (long) (bytes * 8 * 1e9 / rate);
+  }
+}
@@ -22,7 +22,9 @@ import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.time.Instant;
 import java.util.List;
+import java.util.function.Consumer;
 import org.scion.jpan.internal.InternalConstants;
+import org.scion.jpan.internal.MeasuredLatencies;
 import org.scion.jpan.internal.ScionHeaderParser;
 import org.scion.jpan.proto.daemon.Daemon;
 import org.scion.jpan.testutil.ExamplePacket;
@@ -113,6 +115,32 @@ public class PackageVisibilityHelper {
     }
   }
 
+  public static PathWatch createPathWatch(
+      long dstIsdAs, InetAddress dstAddress, int dstPort, Consumer<PathWatch.Update> listener) {
+    PathWatch.Group group = new PathWatch.Group(null, dstIsdAs);
+    return new PathWatch(group, dstAddress, dstPort, listener);
+  }
+
+  public static void updatePathWatch(PathWatch watch, List<Daemon.Path> paths, int expiryMargin) {
+    watch.update(paths, expiryMargin);
+  }
+
+  public static MeasuredLatencies getMeasuredLatencies(ScionService service) {
+    return service.getMeasuredLatencies();
+  }
+
+  public static int getTrackedPathCount(ScionDatagramChannel channel) {
+    return channel.getTrackedPathCount();
+  }
+
+  public static int getIndexedListenerCount(ScionService service, long isdAs, long interfaceId) {
+    return service.getIndexedListenerCount(isdAs, interfaceId);
+  }
+
+  public static boolean isDecoded(RequestPath path) {
+    return path.isDecoded();
+  }
+
   public static RequestPath createRequestPath110_110(
       Daemon.Path.Builder builder, long isdAs, InetAddress dstHost, int dstPort) {
     Daemon.Path path = builder.build();
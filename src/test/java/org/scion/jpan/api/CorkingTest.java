@@ -0,0 +1,181 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.api;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.scion.jpan.*;
+import org.scion.jpan.testutil.ExamplePacket;
+import org.scion.jpan.testutil.MockNetwork;
+
+class CorkingTest {
+
+  @AfterAll
+  public static void afterAll() {
+    // Defensive clean up
+    ScionService.closeDefault();
+  }
+
+  @BeforeEach
+  public void beforeEach() {
+    MockNetwork.startTiny();
+    MockNetwork.getAndResetForwardCount();
+  }
+
+  @AfterEach
+  public void afterEach() {
+    MockNetwork.stopTiny();
+    MockNetwork.getAndResetForwardCount();
+  }
+
+  private static void connect(ScionDatagramChannel sender, ScionDatagramChannel receiver)
+      throws IOException {
+    receiver.bind(new InetSocketAddress("127.0.0.1", 0));
+    InetSocketAddress dst = (InetSocketAddress) receiver.getLocalAddress();
+    sender.connect(Scion.defaultService().getPaths(ExamplePacket.DST_IA, dst).get(0));
+  }
+
+  private static ByteBuffer message(int i) {
+    ByteBuffer buffer = ByteBuffer.allocate(4);
+    buffer.putInt(i).flip();
+    return buffer;
+  }
+
+  @Test
+  void coalesce() throws IOException {
+    int n = 200;
+    try (ScionDatagramChannel receiver = ScionDatagramChannel.open();
+        ScionDatagramChannel sender = ScionDatagramChannel.open()) {
+      connect(sender, receiver);
+      sender.setCorking(true);
+      assertTrue(sender.isCorking());
+      // Don't flush on timer
+      sender.setCorkDelay(Duration.ofSeconds(10));
+      for (int i = 0; i < n; i++) {
+        assertEquals(4, sender.write(message(i)));
+      }
+      sender.flush();
+
+      int next = 0;
+      int datagrams = 0;
+      ByteBuffer buffer = ByteBuffer.allocate(2000);
+      while (next < n) {
+        buffer.clear();
+        assertNotNull(receiver.receive(buffer));
+        buffer.flip();
+        // Datagrams do not exceed the default MTU of 1280
+        assertTrue(buffer.remaining() < 1280);
+        for (ByteBuffer msg : CorkDeframer.split(buffer)) {
+          assertEquals(4, msg.remaining());
+          assertEquals(next++, msg.getInt());
+        }
+        datagrams++;
+      }
+      // 6 bytes per message, ~1100 bytes per datagram
+      assertTrue(datagrams <= 2, "datagrams=" + datagrams);
+      assertEquals(datagrams, MockNetwork.getForwardCount(0));
+    }
+  }
+
+  @Test
+  void timer() throws IOException {
+    try (ScionDatagramChannel receiver = ScionDatagramChannel.open();
+        ScionDatagramChannel sender = ScionDatagramChannel.open()) {
+      connect(sender, receiver);
+      sender.setCorking(true);
+      sender.write(message(1));
+      sender.write(message(2));
+
+      // Sent after the cork delay
+      ByteBuffer buffer = ByteBuffer.allocate(2000);
+      assertNotNull(receiver.receive(buffer));
+      buffer.flip();
+      List<ByteBuffer> messages = CorkDeframer.split(buffer);
+      assertEquals(2, messages.size());
+      assertEquals(1, messages.get(0).getInt());
+      assertEquals(2, messages.get(1).getInt());
+    }
+  }
+
+  @Test
+  void disableAndLargeMessage() throws IOException {
+    try (ScionDatagramChannel receiver = ScionDatagramChannel.open();
+        ScionDatagramChannel sender = ScionDatagramChannel.open()) {
+      connect(sender, receiver);
+      sender.setCorkDelay(Duration.ofSeconds(10));
+      sender.setCorking(true);
+      sender.write(message(1));
+      // Larger than the MTU: rejected, the pending message remains corked
+      ByteBuffer large = ByteBuffer.allocate(1500);
+      assertThrows(IOException.class, () -> sender.write(large));
+      assertEquals(0, large.position());
+      assertEquals(0, MockNetwork.getForwardCount(0));
+
+      // Disabling flushes
+      sender.write(message(2));
+      sender.setCorking(false);
+      assertFalse(sender.isCorking());
+      ByteBuffer buffer = ByteBuffer.allocate(2000);
+      assertNotNull(receiver.receive(buffer));
+      buffer.flip();
+      assertEquals(1, CorkDeframer.next(buffer).getInt());
+      assertEquals(2, CorkDeframer.next(buffer).getInt());
+      assertNull(CorkDeframer.next(buffer));
+
+      // Not corked
+      sender.write(message(3));
+      buffer.clear();
+      assertNotNull(receiver.receive(buffer));
+      assertEquals(4, buffer.position());
+    }
+  }
+
+  @Test
+  void closeFlushes() throws IOException {
+    try (ScionDatagramChannel receiver = ScionDatagramChannel.open()) {
+      ScionDatagramChannel sender = ScionDatagramChannel.open();
+      connect(sender, receiver);
+      sender.configureBlocking(false);
+      sender.setCorkDelay(Duration.ofSeconds(10));
+      sender.setCorking(true);
+      sender.write(message(1));
+      sender.close();
+
+      ByteBuffer buffer = ByteBuffer.allocate(2000);
+      assertNotNull(receiver.receive(buffer));
+      buffer.flip();
+      assertEquals(1, CorkDeframer.next(buffer).getInt());
+    }
+  }
+
+  @Test
+  void malformed() {
+    ByteBuffer buffer = ByteBuffer.allocate(5);
+    buffer.putShort((short) 4).put((byte) 1).flip();
+    assertThrows(ScionException.class, () -> CorkDeframer.next(buffer));
+    assertEquals(0, buffer.position());
+    buffer.limit(1);
+    assertThrows(ScionException.class, () -> CorkDeframer.split(buffer));
+  }
+}
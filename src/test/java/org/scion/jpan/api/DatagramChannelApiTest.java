@@ -456,6 +456,27 @@ class DatagramChannelApiTest {
     }
   }
 
+  @Test
+  void receiveScmpInBackground() throws IOException {
+    // Expected behavior: UDP packets are still delivered to receive().
+    MockDaemon.closeDefault(); // We don't need the daemon here
+    PingPongChannelHelper.Server serverFn = PingPongChannelHelper::defaultServer;
+    PingPongChannelHelper.Client clientFn =
+        (channel, basePath, id) -> {
+          channel.setOption(ScionSocketOptions.SCION_API_RECEIVE_SCMP_IN_BACKGROUND, true);
+          assertTrue(channel.getOption(ScionSocketOptions.SCION_API_RECEIVE_SCMP_IN_BACKGROUND));
+          assertTrue(channel.isBlocking());
+          PingPongChannelHelper.defaultClient(channel, basePath, id);
+          assertThrows(
+              UnsupportedOperationException.class,
+              () ->
+                  channel.setOption(
+                      ScionSocketOptions.SCION_API_RECEIVE_SCMP_IN_BACKGROUND, false));
+        };
+    PingPongChannelHelper pph = new PingPongChannelHelper(1, 2, 10);
+    pph.runPingPong(serverFn, clientFn);
+  }
+
   @Test
   void send_disconnected_expiredRequestPath() throws IOException {
     // Expected behavior: expired paths should be replaced transparently.
@@ -519,6 +540,78 @@ class DatagramChannelApiTest {
         true);
   }
 
+  @Test
+  void send_connected_expiringRequestPath_backgroundRefresh() throws IOException {
+    // Expected behavior: paths that are about to expire are replaced in the background.
+    MockDaemon.closeDefault(); // We don't need the daemon here
+    PingPongChannelHelper.Server serverFn = PingPongChannelHelper::defaultServer;
+    PingPongChannelHelper.Client clientFn =
+        (channel, basePath, id) -> {
+          long now = Instant.now().getEpochSecond();
+          Path expiringPath = createPath(basePath, now + Constants.DEFAULT_PATH_EXPIRY_MARGIN + 2);
+          long oldExpiration = expiringPath.getMetadata().getExpiration();
+          ByteBuffer sendBuf = ByteBuffer.wrap(PingPongChannelHelper.MSG.getBytes());
+          // The path is not expired, so it is used without waiting for a new path
+          channel.send(sendBuf, expiringPath);
+          ByteBuffer response = ByteBuffer.allocate(100);
+          channel.receive(response);
+          response.flip();
+          assertEquals(
+              PingPongChannelHelper.MSG, Charset.defaultCharset().decode(response).toString());
+
+          // Wait for the background refresh
+          long deadline = System.currentTimeMillis() + 5_000;
+          while (channel.getMappedPath(expiringPath) == expiringPath
+              && System.currentTimeMillis() < deadline) {
+            try {
+              Thread.sleep(20);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              throw new IllegalStateException(e);
+            }
+          }
+          // Path is unmodifiable
+          assertEquals(oldExpiration, expiringPath.getMetadata().getExpiration());
+          long newExpiration = channel.getMappedPath(expiringPath).getMetadata().getExpiration();
+          assertTrue(newExpiration > oldExpiration);
+        };
+    PingPongChannelHelper pph = new PingPongChannelHelper(1, 1, 1, true);
+    pph.runPingPong(serverFn, clientFn);
+  }
+
+  @Test
+  void write_connectionChanged_noBackgroundRefresh() throws IOException {
+    // Expected behavior: paths that are no longer connected are not refreshed in the background.
+    MockDaemon.closeDefault(); // We don't need the daemon here
+    PingPongChannelHelper.Server serverFn = PingPongChannelHelper::defaultServer;
+    PingPongChannelHelper.Client clientFn =
+        (channel, basePath, id) -> {
+          long now = Instant.now().getEpochSecond();
+          // Refresh is due in 2 seconds
+          long expiration = now + 2L * Constants.DEFAULT_PATH_EXPIRY_MARGIN + 2;
+          Path expiringPath = createPath(basePath, expiration);
+          channel.disconnect();
+          channel.connect(expiringPath);
+          ByteBuffer sendBuf = ByteBuffer.wrap(PingPongChannelHelper.MSG.getBytes());
+          channel.write(sendBuf);
+          ByteBuffer response = ByteBuffer.allocate(100);
+          channel.receive(response);
+
+          // Replace the connection
+          channel.disconnect();
+          channel.connect(basePath);
+          try {
+            Thread.sleep(3_000);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+          }
+          assertSame(expiringPath, channel.getMappedPath(expiringPath));
+        };
+    PingPongChannelHelper pph = new PingPongChannelHelper(1, 1, 1, true);
+    pph.runPingPong(serverFn, clientFn);
+  }
+
   private void testExpired(BiConsumer<ScionDatagramChannel, Path> sendMethod, boolean connect)
       throws IOException {
     MockDaemon.closeDefault(); // We don't need the daemon here
@@ -542,19 +635,23 @@ class DatagramChannelApiTest {
 
   private Path createExpiredPath(Path basePath) throws UnknownHostException {
     long now = Instant.now().getEpochSecond();
-    Daemon.Path.Builder builder =
-        Daemon.Path.newBuilder().setExpiration(Timestamp.newBuilder().setSeconds(now - 10).build());
-    Path expiredPath =
-        PackageVisibilityHelper.createRequestPath110_112(
-            builder,
-            basePath.getRemoteIsdAs(),
-            basePath.getRemoteAddress(),
-            basePath.getRemotePort(),
-            basePath.getFirstHopAddress());
+    Path expiredPath = createPath(basePath, now - 10);
     assertTrue(Instant.now().getEpochSecond() > expiredPath.getMetadata().getExpiration());
     return expiredPath;
   }
 
+  private Path createPath(Path basePath, long expiration) throws UnknownHostException {
+    Daemon.Path.Builder builder =
+        Daemon.Path.newBuilder()
+            .setExpiration(Timestamp.newBuilder().setSeconds(expiration).build());
+    return PackageVisibilityHelper.createRequestPath110_112(
+        builder,
+        basePath.getRemoteIsdAs(),
+        basePath.getRemoteAddress(),
+        basePath.getRemotePort(),
+        basePath.getFirstHopAddress());
+  }
+
   @Test
   void getConnectionPath() throws IOException {
     Path addr = ExamplePacket.PATH;
@@ -16,17 +16,21 @@ package org.scion.jpan.api;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import com.google.protobuf.Timestamp;
 import java.io.IOException;
 import java.net.*;
 import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.jupiter.api.AfterAll;
-import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.scion.jpan.*;
+import org.scion.jpan.proto.daemon.Daemon;
 import org.scion.jpan.testutil.ExamplePacket;
-import org.scion.jpan.testutil.MockDatagramChannel;
+import org.scion.jpan.testutil.MockDaemon;
 import org.scion.jpan.testutil.MockNetwork;
 
 /** Test path switching on DatagramChannel in case of network problems. */
@@ -38,37 +42,213 @@ class DatagramChannelErrorHandlingTest {
     ScionService.closeDefault();
   }
 
-  @Disabled
+  @AfterEach
+  public void afterEach() {
+    MockNetwork.stopTiny();
+    // Failed interfaces are recorded per service
+    ScionService.closeDefault();
+  }
+
   @Test
   void testErrorHandling() throws IOException {
-    MockDatagramChannel mock = MockDatagramChannel.open();
+    testErrorHandling(false);
+  }
+
+  @Test
+  void testErrorHandling_backgroundReceiver() throws IOException {
+    testErrorHandling(true);
+  }
+
+  @Test
+  void failureIsSharedByChannels() throws IOException {
+    MockNetwork.startTiny();
+    MockDaemon.getAndResetInterfaceDownNotifications();
+    InetSocketAddress dstAddr = new InetSocketAddress("127.0.0.1", 12345);
+    try (ScionDatagramChannel channel1 = Scion.defaultService().openChannel();
+        ScionDatagramChannel channel2 = Scion.defaultService().openChannel()) {
+      List<Path> paths = Scion.defaultService().getPaths(ExamplePacket.DST_IA, dstAddr);
+      Path path0 = paths.get(0);
+      channel1.connect(path0);
+      channel2.connect(path0);
+      channel1.write(ByteBuffer.allocate(0));
+      channel2.write(ByteBuffer.allocate(0));
+
+      // Only channel 1 receives the SCMP error, but channel 2 also avoids the interface.
+      MockNetwork.returnScmpErrorOnNextPacket(Scmp.TypeCode.TYPE_5);
+      channel1.write(ByteBuffer.allocate(0));
+      MockNetwork.returnScmpErrorOnNextPacket(Scmp.TypeCode.TYPE_5);
+      channel1.write(ByteBuffer.allocate(0));
+      channel1.configureBlocking(false);
+      long deadline = System.currentTimeMillis() + 1_000;
+      while (channel2.getMappedPath(path0) == path0 && System.currentTimeMillis() < deadline) {
+        assertNull(channel1.receive(ByteBuffer.allocate(100)));
+      }
+      assertNotSame(path0, channel2.getMappedPath(path0));
+      assertFalse(
+          channel2.getMappedPath(path0).getMetadata().hasSameInterfaces(path0.getMetadata()));
+
+      // Repeated errors are reported to the daemon only once
+      long deadline2 = System.currentTimeMillis() + 200;
+      List<Daemon.NotifyInterfaceDownRequest> notifications = new ArrayList<>();
+      while (System.currentTimeMillis() < deadline2) {
+        notifications.addAll(MockDaemon.getAndResetInterfaceDownNotifications());
+        Thread.yield();
+      }
+      assertEquals(1, notifications.size());
+    } finally {
+      MockNetwork.returnScmpErrorOnNextPacket(null);
+    }
+  }
+
+  @Test
+  void trackedPathsAreGarbageCollected() throws IOException {
     MockNetwork.startTiny();
     InetSocketAddress dstAddr = new InetSocketAddress("127.0.0.1", 12345);
+    ScionService service = Scion.defaultService();
+    try (ScionDatagramChannel channel = service.openChannel()) {
+      Path basePath = service.getPaths(ExamplePacket.DST_IA, dstAddr).get(0);
+      Path path = createPath(basePath);
+      channel.send(ByteBuffer.allocate(0), path);
+      assertEquals(1, PackageVisibilityHelper.getTrackedPathCount(channel));
+      assertEquals(
+          1, PackageVisibilityHelper.getIndexedListenerCount(service, ExamplePacket.SRC_IA, 2));
+
+      // Drop the last reference to the path
+      path = null;
+      long deadline = System.currentTimeMillis() + 5_000;
+      while ((PackageVisibilityHelper.getTrackedPathCount(channel) > 0
+              || PackageVisibilityHelper.getIndexedListenerCount(service, ExamplePacket.SRC_IA, 2)
+                  > 0)
+          && System.currentTimeMillis() < deadline) {
+        System.gc();
+        Thread.yield();
+      }
+      assertEquals(0, PackageVisibilityHelper.getTrackedPathCount(channel));
+      assertEquals(
+          0, PackageVisibilityHelper.getIndexedListenerCount(service, ExamplePacket.SRC_IA, 2));
+    }
+  }
+
+  private static Path createPath(Path basePath) throws UnknownHostException {
+    long expiration = Instant.now().getEpochSecond() + 3600;
+    Daemon.Path.Builder builder =
+        Daemon.Path.newBuilder().setExpiration(Timestamp.newBuilder().setSeconds(expiration));
+    return PackageVisibilityHelper.createRequestPath110_112(
+        builder,
+        basePath.getRemoteIsdAs(),
+        basePath.getRemoteAddress(),
+        basePath.getRemotePort(),
+        basePath.getFirstHopAddress());
+  }
+
+  @Test
+  void backgroundReceiver_throwingListener() throws IOException {
+    MockNetwork.startTiny();
+    try (ScionDatagramChannel server = ScionDatagramChannel.open();
+        ScionDatagramChannel client = ScionDatagramChannel.open()) {
+      server.bind(new InetSocketAddress("127.0.0.1", 0));
+      InetSocketAddress serverAddr = (InetSocketAddress) server.getLocalAddress();
+      client.connect(Scion.defaultService().getPaths(ExamplePacket.DST_IA, serverAddr).get(0));
+      client.setOption(ScionSocketOptions.SCION_API_RECEIVE_SCMP_IN_BACKGROUND, true);
+      AtomicInteger scmpReceived = new AtomicInteger();
+      client.setScmpErrorListener(
+          message -> {
+            scmpReceived.incrementAndGet();
+            throw new IllegalStateException("Listener failed");
+          });
+
+      MockNetwork.returnScmpErrorOnNextPacket(Scmp.TypeCode.TYPE_5);
+      client.write(ByteBuffer.allocate(0));
+      long deadline = System.currentTimeMillis() + 1_000;
+      while (scmpReceived.get() == 0 && System.currentTimeMillis() < deadline) {
+        Thread.yield();
+      }
+      assertEquals(1, scmpReceived.get());
+
+      // The background receiver is still running
+      client.write(ByteBuffer.wrap(new byte[] {1, 2, 3}));
+      ByteBuffer buffer = ByteBuffer.allocate(100);
+      ScionSocketAddress clientAddr = server.receive(buffer);
+      buffer.flip();
+      server.send(buffer, clientAddr);
+      buffer.clear();
+      assertNotNull(client.receive(buffer));
+      assertEquals(3, buffer.position());
+    }
+  }
+
+  private void testErrorHandling(boolean receiveInBackground) throws IOException {
+    MockNetwork.startTiny();
+    MockDaemon.getAndResetInterfaceDownNotifications();
+    InetSocketAddress dstAddr = new InetSocketAddress("127.0.0.1", 12345);
     try (ScionDatagramChannel channel = Scion.defaultService().openChannel()) {
       AtomicInteger scmpReceived = new AtomicInteger();
       channel.setScmpErrorListener(
           message -> {
+            assertEquals(Scmp.TypeCode.TYPE_5, message.getTypeCode());
             scmpReceived.incrementAndGet();
-            System.out.println("msg: " + message.getTypeCode());
-            throw new IllegalArgumentException();
           });
       List<Path> paths = Scion.defaultService().getPaths(ExamplePacket.DST_IA, dstAddr);
       assertEquals(2, paths.size());
       Path path0 = paths.get(0);
-      Path path1 = paths.get(0);
+      Path path1 = paths.get(1);
       channel.connect(path0);
+      if (receiveInBackground) {
+        channel.setOption(ScionSocketOptions.SCION_API_RECEIVE_SCMP_IN_BACKGROUND, true);
+      }
+      MockNetwork.getAndResetForwardCount();
       channel.write(ByteBuffer.allocate(0));
       assertEquals(path0, channel.getConnectionPath());
+      waitForForwardCount(0, 1);
 
-      // TODO Use mock instead of daemon?
       MockNetwork.returnScmpErrorOnNextPacket(Scmp.TypeCode.TYPE_5);
       channel.write(ByteBuffer.allocate(0));
       assertEquals(path0, channel.getConnectionPath());
+
+      // Consume the SCMP error. With a background receiver we do not need to call receive().
+      channel.configureBlocking(false);
+      long deadline = System.currentTimeMillis() + 1_000;
+      while (scmpReceived.get() == 0 && System.currentTimeMillis() < deadline) {
+        if (receiveInBackground) {
+          Thread.yield();
+        } else {
+          assertNull(channel.receive(ByteBuffer.allocate(100)));
+        }
+      }
       assertEquals(1, scmpReceived.get());
-      // mock.setSendCallback((byteBuffer,path) -> {});
 
-    } finally {
-      mock.close();
+      // The daemon should have been notified
+      long deadline2 = System.currentTimeMillis() + 1_000;
+      List<Daemon.NotifyInterfaceDownRequest> notifications = new ArrayList<>();
+      while (notifications.isEmpty() && System.currentTimeMillis() < deadline2) {
+        notifications.addAll(MockDaemon.getAndResetInterfaceDownNotifications());
+        Thread.yield();
+      }
+      assertEquals(1, notifications.size());
+      assertEquals(ExamplePacket.SRC_IA, notifications.get(0).getIsdAs());
+      assertEquals(MockNetwork.getBorderRouterInterfaceId(0), notifications.get(0).getId());
+
+      // The next packet should avoid the failed interface. The lookup for a new path is
+      // asynchronous.
+      long deadline3 = System.currentTimeMillis() + 1_000;
+      while (channel.getMappedPath(path0) == path0 && System.currentTimeMillis() < deadline3) {
+        Thread.yield();
+      }
+      MockNetwork.getAndResetForwardCount();
+      channel.write(ByteBuffer.allocate(0));
+      assertEquals(path0, channel.getConnectionPath());
+      assertEquals(path1.getFirstHopAddress(), channel.getMappedPath(path0).getFirstHopAddress());
+      waitForForwardCount(1, 1);
+      assertEquals(0, MockNetwork.getForwardCount(0));
+    }
+  }
+
+  private static void waitForForwardCount(int routerId, int expected) {
+    long deadline = System.currentTimeMillis() + 1_000;
+    while (MockNetwork.getForwardCount(routerId) < expected
+        && System.currentTimeMillis() < deadline) {
+      Thread.yield();
     }
+    assertEquals(expected, MockNetwork.getForwardCount(routerId));
   }
 }
@@ -0,0 +1,58 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.api;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.scion.jpan.DisjointPaths;
+import org.scion.jpan.Path;
+import org.scion.jpan.ScionUtil;
+import org.scion.jpan.testutil.TestPaths;
+
+class DisjointPathsTest {
+
+  private static final long AS_110 = ScionUtil.parseIA("1-ff00:0:110");
+  private static final long AS_111 = ScionUtil.parseIA("1-ff00:0:111");
+  private static final long AS_112 = ScionUtil.parseIA("1-ff00:0:112");
+  private static final long AS_113 = ScionUtil.parseIA("1-ff00:0:113");
+
+  /** Path 110 (egress id1) -> transit (ingress id2, egress id3) -> 112 (ingress id4) */
+  private static Path createPath(long transit, int id1, int id2, int id3, int id4) {
+    return TestPaths.create(AS_110, id1, transit, id2, transit, id3, AS_112, id4);
+  }
+
+  @Test
+  void select() {
+    Path p1 = createPath(AS_111, 1, 2, 3, 4);
+    Path p1b = createPath(AS_111, 1, 2, 3, 4);
+    Path p2 = createPath(AS_111, 1, 2, 5, 6); // shares first link with p1
+    Path p3 = createPath(AS_113, 7, 8, 9, 10); // disjoint
+    Path p4 = createPath(AS_113, 7, 8, 11, 12); // shares first link with p3
+
+    assertEquals(2, DisjointPaths.sharedLinks(p1, p1b));
+    assertEquals(1, DisjointPaths.sharedLinks(p1, p2));
+    assertEquals(0, DisjointPaths.sharedLinks(p1, p3));
+
+    List<Path> paths = Arrays.asList(p1, p1b, p2, p4, p3);
+    assertEquals(Arrays.asList(p1, p4), DisjointPaths.select(paths, 2));
+    List<Path> selected = DisjointPaths.select(paths, 10);
+    assertEquals(4, selected.size());
+    assertEquals(Arrays.asList(p1, p4, p2, p3), selected);
+    assertTrue(DisjointPaths.select(paths, 0).isEmpty());
+  }
+}
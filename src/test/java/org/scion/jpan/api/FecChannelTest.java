@@ -0,0 +1,160 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.api;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.scion.jpan.*;
+import org.scion.jpan.testutil.ExamplePacket;
+import org.scion.jpan.testutil.MockNetwork;
+
+class FecChannelTest {
+
+  @AfterAll
+  public static void afterAll() {
+    // Defensive clean up
+    ScionService.closeDefault();
+  }
+
+  @BeforeEach
+  public void beforeEach() {
+    MockNetwork.startTiny();
+    MockNetwork.getAndResetForwardCount();
+  }
+
+  @AfterEach
+  public void afterEach() {
+    MockNetwork.stopTiny();
+  }
+
+  private static void send(FecChannel sender, int n) throws IOException {
+    for (int i = 0; i < n; i++) {
+      // Different lengths to test padding
+      ByteBuffer buffer = ByteBuffer.allocate(4 + i);
+      buffer.putInt(i).position(buffer.limit()).flip();
+      assertEquals(4 + i, sender.write(buffer));
+    }
+  }
+
+  private static Set<Integer> receive(FecChannel receiver, int n) throws IOException {
+    Set<Integer> received = new HashSet<>();
+    ByteBuffer buffer = ByteBuffer.allocate(100);
+    for (int i = 0; i < n; i++) {
+      buffer.clear();
+      long seq = receiver.receive(buffer);
+      assertTrue(seq >= 0);
+      buffer.flip();
+      int value = buffer.getInt();
+      assertEquals(4 + value, buffer.limit());
+      assertTrue(received.add(value));
+    }
+    return received;
+  }
+
+  @Test
+  void spreadOverPaths() throws IOException {
+    try (FecChannel receiver = FecChannel.open();
+        FecChannel sender = FecChannel.open()) {
+      receiver.bind(new InetSocketAddress("127.0.0.1", 0));
+      sender.connect(ExamplePacket.DST_IA, receiver.getLocalAddress());
+      assertEquals(2, sender.getPaths().size());
+      sender.setCoding(4, 2);
+      assertEquals(4, sender.getDataShards());
+      assertEquals(2, sender.getParityShards());
+      send(sender, 8);
+
+      // Packets may be reordered between paths, so some datagrams may be recovered before their
+      // data shard arrives
+      assertEquals(8, receive(receiver, 8).size());
+      // 12 shards, spread over both paths
+      long deadline = System.currentTimeMillis() + 1000;
+      while (MockNetwork.getForwardCount(0) + MockNetwork.getForwardCount(1) < 12
+          && System.currentTimeMillis() < deadline) {
+        Thread.yield();
+      }
+      assertEquals(6, MockNetwork.getForwardCount(0));
+      assertEquals(6, MockNetwork.getForwardCount(1));
+    }
+  }
+
+  @Test
+  void recoverLoss() throws IOException {
+    try (FecChannel receiver = FecChannel.open();
+        FecChannel sender = FecChannel.open()) {
+      receiver.bind(new InetSocketAddress("127.0.0.1", 0));
+      // Use only one border router, so that exactly the first packets are dropped
+      sender.setMaxPaths(1);
+      sender.connect(ExamplePacket.DST_IA, receiver.getLocalAddress());
+      sender.setCoding(4, 2);
+
+      // Drop two data shards of the first block
+      MockNetwork.dropNextPackets(2);
+      send(sender, 8);
+
+      assertEquals(8, receive(receiver, 8).size());
+      assertEquals(2, receiver.getDatagramsRecovered());
+    }
+  }
+
+  @Test
+  void partialBlock() throws IOException {
+    try (FecChannel receiver = FecChannel.open();
+        FecChannel sender = FecChannel.open()) {
+      receiver.bind(new InetSocketAddress("127.0.0.1", 0));
+      sender.setMaxPaths(1);
+      sender.connect(ExamplePacket.DST_IA, receiver.getLocalAddress());
+      sender.setCoding(8, 1);
+
+      MockNetwork.dropNextPackets(1);
+      send(sender, 3);
+      sender.flush();
+
+      assertEquals(3, receive(receiver, 3).size());
+      assertEquals(1, receiver.getDatagramsRecovered());
+    }
+  }
+
+  @Test
+  void tooManyLosses() throws IOException {
+    try (FecChannel receiver = FecChannel.open();
+        FecChannel sender = FecChannel.open()) {
+      receiver.bind(new InetSocketAddress("127.0.0.1", 0));
+      sender.setMaxPaths(1);
+      sender.connect(ExamplePacket.DST_IA, receiver.getLocalAddress());
+      sender.setCoding(4, 1);
+
+      MockNetwork.dropNextPackets(2);
+      send(sender, 8);
+
+      // Two datagrams of the first block are lost, the second block is complete
+      Set<Integer> received = receive(receiver, 6);
+      assertFalse(received.contains(0));
+      assertFalse(received.contains(1));
+      assertEquals(0, receiver.getDatagramsRecovered());
+      assertThrows(IllegalArgumentException.class, () -> sender.setCoding(0, 1));
+      ByteBuffer tooLarge = ByteBuffer.allocate(FecChannel.MAX_PAYLOAD_LENGTH + 1);
+      assertThrows(IllegalArgumentException.class, () -> sender.write(tooLarge));
+    }
+  }
+}
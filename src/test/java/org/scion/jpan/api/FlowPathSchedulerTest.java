@@ -0,0 +1,126 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.api;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import org.junit.jupiter.api.Test;
+import org.scion.jpan.FlowPathScheduler;
+import org.scion.jpan.Path;
+import org.scion.jpan.ScionUtil;
+import org.scion.jpan.proto.daemon.Daemon;
+import org.scion.jpan.testutil.TestPaths;
+
+class FlowPathSchedulerTest {
+
+  private static final long AS_110 = ScionUtil.parseIA("1-ff00:0:110");
+  private static final long AS_111 = ScionUtil.parseIA("1-ff00:0:111");
+  private static final long AS_112 = ScionUtil.parseIA("1-ff00:0:112");
+  private static final int N_FLOWS = 10_000;
+
+  /** Path 110 (egress id) -> 111 -> 112 with bandwidth (Kbit/s) on both links, 0 = unknown */
+  private static Path createPath(int id, long bandwidth) {
+    Daemon.Path.Builder builder =
+        TestPaths.builder(AS_110, id, AS_111, id + 1, AS_111, id + 2, AS_112, id + 3);
+    if (bandwidth > 0) {
+      builder.addBandwidth(bandwidth).addBandwidth(bandwidth * 10);
+    }
+    return TestPaths.create(builder);
+  }
+
+  private static Map<Long, Integer> countFlows(FlowPathScheduler scheduler) {
+    Map<Long, Integer> counts = new HashMap<>();
+    for (int flow = 0; flow < N_FLOWS; flow++) {
+      counts.merge(scheduler.getPath(flow).getMetadata().getFingerprint(), 1, Integer::sum);
+    }
+    return counts;
+  }
+
+  private static List<Long> assignments(FlowPathScheduler scheduler) {
+    List<Long> result = new ArrayList<>();
+    for (int flow = 0; flow < N_FLOWS; flow++) {
+      result.add(scheduler.getPath(flow).getMetadata().getFingerprint());
+    }
+    return result;
+  }
+
+  @Test
+  void weights() {
+    Path p1 = createPath(1, 1000);
+    Path p2 = createPath(11, 3000);
+    Path p3 = createPath(21, 0); // unknown -> average = 2000
+    assertEquals(1000, p1.getMetadata().getBottleneckBandwidth());
+    assertEquals(0, p3.getMetadata().getBottleneckBandwidth());
+
+    Map<Long, Integer> counts = countFlows(new FlowPathScheduler(Arrays.asList(p1, p2, p3)));
+    assertEquals(N_FLOWS / 6.0, counts.get(p1.getMetadata().getFingerprint()), N_FLOWS * 0.02);
+    assertEquals(N_FLOWS / 2.0, counts.get(p2.getMetadata().getFingerprint()), N_FLOWS * 0.02);
+    assertEquals(N_FLOWS / 3.0, counts.get(p3.getMetadata().getFingerprint()), N_FLOWS * 0.02);
+  }
+
+  @Test
+  void removeAndAddPath() {
+    Path p1 = createPath(1, 1000);
+    Path p2 = createPath(11, 2000);
+    Path p3 = createPath(21, 3000);
+    FlowPathScheduler scheduler = new FlowPathScheduler(Arrays.asList(p1, p2, p3));
+    List<Long> before = assignments(scheduler);
+
+    // Only flows of the removed path move
+    scheduler.setPaths(Arrays.asList(p3, p1));
+    List<Long> after = assignments(scheduler);
+    long fp2 = p2.getMetadata().getFingerprint();
+    int moved = 0;
+    for (int flow = 0; flow < N_FLOWS; flow++) {
+      if (before.get(flow) == fp2) {
+        assertNotEquals(fp2, after.get(flow));
+        moved++;
+      } else {
+        assertEquals(before.get(flow), after.get(flow));
+      }
+    }
+    assertTrue(moved > 0);
+
+    // Adding the path again restores the original assignment
+    scheduler.setPaths(Arrays.asList(p1, p2, p3));
+    assertEquals(before, assignments(scheduler));
+  }
+
+  @Test
+  void fingerprint() {
+    // A refreshed path with the same fingerprint keeps its flows
+    FlowPathScheduler scheduler =
+        new FlowPathScheduler(Arrays.asList(createPath(1, 1000), createPath(11, 1000)));
+    List<Long> before = assignments(scheduler);
+    scheduler.setPaths(Arrays.asList(createPath(11, 1000), createPath(1, 1000)));
+    assertEquals(before, assignments(scheduler));
+  }
+
+  @Test
+  void empty() {
+    FlowPathScheduler scheduler = new FlowPathScheduler();
+    assertTrue(scheduler.getPaths().isEmpty());
+    assertThrows(NoSuchElementException.class, () -> scheduler.getPath(1));
+    scheduler.setPaths(Collections.singletonList(createPath(1, 0)));
+    assertEquals(1, scheduler.getPaths().size());
+  }
+}
@@ -0,0 +1,135 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.api;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.scion.jpan.*;
+import org.scion.jpan.demo.inspector.ScionPacketInspector;
+import org.scion.jpan.testutil.ExamplePacket;
+import org.scion.jpan.testutil.MockDatagramChannel;
+import org.scion.jpan.testutil.MockNetwork;
+
+class FlowSchedulingTest {
+
+  private static final int N_FLOWS = 100;
+
+  @AfterAll
+  public static void afterAll() {
+    // Defensive clean up
+    ScionService.closeDefault();
+  }
+
+  @BeforeEach
+  public void beforeEach() {
+    MockNetwork.startTiny();
+    MockNetwork.getAndResetForwardCount();
+  }
+
+  @AfterEach
+  public void afterEach() {
+    MockNetwork.stopTiny();
+    MockNetwork.getAndResetForwardCount();
+  }
+
+  @Test
+  void flowIdInHeader() throws IOException {
+    List<Integer> flowIds = new ArrayList<>();
+    List<SocketAddress> firstHops = new ArrayList<>();
+    try (MockDatagramChannel mock = MockDatagramChannel.open();
+        ScionDatagramChannel channel = ScionDatagramChannel.open(Scion.defaultService(), mock)) {
+      mock.setSendCallback(
+          (buffer, address) -> {
+            int len = buffer.remaining();
+            flowIds.add(ScionPacketInspector.readPacket(buffer).getScionHeader().getFlowId());
+            firstHops.add(address);
+            return len;
+          });
+      InetSocketAddress dst = new InetSocketAddress("127.0.0.1", 12345);
+      channel.connect(Scion.defaultService().getPaths(ExamplePacket.DST_IA, dst).get(0));
+
+      // Default FlowID
+      channel.write(ByteBuffer.wrap("Hello".getBytes()));
+      assertEquals(1, flowIds.get(0));
+
+      Set<SocketAddress> allFirstHops = new HashSet<>();
+      for (int flow = 0; flow < N_FLOWS; flow++) {
+        flowIds.clear();
+        firstHops.clear();
+        channel.write(ByteBuffer.wrap("Hello".getBytes()), flow);
+        channel.write(ByteBuffer.wrap("Hello".getBytes()), flow);
+        assertEquals(flow, flowIds.get(0));
+        assertEquals(flow, flowIds.get(1));
+        // All datagrams of a flow use the same path
+        assertEquals(firstHops.get(0), firstHops.get(1));
+        assertEquals(
+            channel.getFlowPath(flow).getFirstHopAddress(), (InetSocketAddress) firstHops.get(0));
+        allFirstHops.add(firstHops.get(0));
+      }
+      // Flows are distributed over both paths
+      assertEquals(2, allFirstHops.size());
+
+      assertThrows(IllegalArgumentException.class, () -> channel.getFlowPath(-1));
+      assertThrows(
+          IllegalArgumentException.class,
+          () -> channel.write(ByteBuffer.wrap("Hello".getBytes()), 1 << 20));
+    }
+  }
+
+  @Test
+  void flows() throws IOException {
+    try (ScionDatagramChannel receiver = ScionDatagramChannel.open();
+        ScionDatagramChannel sender = ScionDatagramChannel.open()) {
+      receiver.bind(new InetSocketAddress("127.0.0.1", 0));
+      InetSocketAddress dst = (InetSocketAddress) receiver.getLocalAddress();
+      sender.connect(Scion.defaultService().getPaths(ExamplePacket.DST_IA, dst).get(0));
+      assertThrows(IllegalArgumentException.class, () -> sender.getFlowPath(1 << 20));
+
+      for (int flow = 0; flow < N_FLOWS; flow++) {
+        ByteBuffer buffer = ByteBuffer.allocate(4);
+        buffer.putInt(flow).flip();
+        assertEquals(4, sender.write(buffer, flow));
+      }
+      ByteBuffer buffer = ByteBuffer.allocate(100);
+      for (int i = 0; i < N_FLOWS; i++) {
+        buffer.clear();
+        assertNotNull(receiver.receive(buffer));
+        assertEquals(4, buffer.position());
+      }
+      // Both paths are used
+      assertTrue(MockNetwork.getForwardCount(0) > 0);
+      assertTrue(MockNetwork.getForwardCount(1) > 0);
+    }
+  }
+
+  @Test
+  void notConnected() throws IOException {
+    try (ScionDatagramChannel channel = ScionDatagramChannel.open()) {
+      assertThrows(java.nio.channels.NotYetConnectedException.class, () -> channel.getFlowPath(1));
+    }
+  }
+}
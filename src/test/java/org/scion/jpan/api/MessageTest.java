@@ -0,0 +1,168 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.api;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.scion.jpan.*;
+import org.scion.jpan.testutil.ExamplePacket;
+import org.scion.jpan.testutil.MockNetwork;
+
+class MessageTest {
+
+  @AfterAll
+  public static void afterAll() {
+    // Defensive clean up
+    ScionService.closeDefault();
+  }
+
+  @BeforeEach
+  public void beforeEach() {
+    MockNetwork.startTiny();
+    MockNetwork.getAndResetForwardCount();
+  }
+
+  @AfterEach
+  public void afterEach() {
+    MockNetwork.stopTiny();
+    MockNetwork.getAndResetForwardCount();
+  }
+
+  private static Path connect(ScionDatagramChannel sender, ScionDatagramChannel receiver)
+      throws IOException {
+    receiver.bind(new InetSocketAddress("127.0.0.1", 0));
+    InetSocketAddress dst = (InetSocketAddress) receiver.getLocalAddress();
+    Path path = Scion.defaultService().getPaths(ExamplePacket.DST_IA, dst).get(0);
+    sender.connect(path);
+    sender.setMessageFraming(true);
+    receiver.setMessageFraming(true);
+    return path;
+  }
+
+  private static ByteBuffer message(int length, int seed) {
+    ByteBuffer message = ByteBuffer.allocate(length);
+    for (int i = 0; i < length; i++) {
+      message.put((byte) (i * 31 + seed));
+    }
+    message.flip();
+    return message;
+  }
+
+  @Test
+  void largeMessages() throws IOException {
+    int size = 64 * 1024;
+    try (ScionDatagramChannel receiver = ScionDatagramChannel.open();
+        ScionDatagramChannel sender = ScionDatagramChannel.open()) {
+      Path path = connect(sender, receiver);
+      ByteBuffer message1 = message(size, 1);
+      ByteBuffer message2 = message(size + 1000, 2);
+      // One message at a time, the socket buffers of the mock network are small
+      assertEquals(size, sender.writeMessage(message1.duplicate()));
+      ByteBuffer dst = ByteBuffer.allocate(2 * size);
+      ScionSocketAddress src = receiver.receiveMessage(dst);
+      assertNotNull(src);
+      assertEquals(sender.getLocalAddress(), src);
+      dst.flip();
+      assertEquals(message1, dst);
+      // All fragments fit into the default MTU of 1280 bytes
+      int fragments = MockNetwork.getForwardCount(0);
+      assertTrue(fragments >= size / 1280, "fragments=" + fragments);
+
+      assertEquals(size + 1000, sender.sendMessage(message2.duplicate(), path));
+      dst.clear();
+      assertNotNull(receiver.receiveMessage(dst));
+      dst.flip();
+      assertEquals(message2, dst);
+      assertEquals(0, receiver.getDroppedMessageCount());
+    }
+  }
+
+  @Test
+  void fragmentSize() throws IOException {
+    try (ScionDatagramChannel receiver = ScionDatagramChannel.open();
+        ScionDatagramChannel sender = ScionDatagramChannel.open()) {
+      connect(sender, receiver);
+      assertEquals(5000, sender.writeMessage(message(5000, 0)));
+      ByteBuffer buffer = ByteBuffer.allocate(5000);
+      int total = 0;
+      while (total < 5000) {
+        buffer.clear();
+        assertNotNull(receiver.receive(buffer));
+        // Datagrams do not exceed the default MTU of 1280
+        assertTrue(buffer.position() < 1280);
+        total += buffer.position() - 16;
+      }
+      assertEquals(5000, total);
+    }
+  }
+
+  @Test
+  void plainDatagramsAndTruncation() throws IOException {
+    try (ScionDatagramChannel receiver = ScionDatagramChannel.open();
+        ScionDatagramChannel sender = ScionDatagramChannel.open()) {
+      connect(sender, receiver);
+      receiver.configureMessageReassembly(10_000, 100_000, Duration.ofSeconds(1));
+      // Not a fragment, dropped
+      sender.write(message(100, 0));
+      sender.writeMessage(message(200, 0));
+      ByteBuffer dst = ByteBuffer.allocate(1000);
+      assertNotNull(receiver.receiveMessage(dst));
+      dst.flip();
+      assertEquals(message(200, 0), dst);
+
+      // Truncated
+      sender.writeMessage(message(3000, 3));
+      dst.clear();
+      assertNotNull(receiver.receiveMessage(dst));
+      dst.flip();
+      ByteBuffer expected = message(3000, 3);
+      expected.limit(1000);
+      assertEquals(expected, dst);
+
+      // Too large, dropped; the next message is received
+      sender.writeMessage(message(20_000, 0));
+      sender.writeMessage(message(10, 0));
+      dst.clear();
+      assertNotNull(receiver.receiveMessage(dst));
+      assertEquals(10, dst.position());
+    }
+  }
+
+  @Test
+  void framingDisabled() throws IOException {
+    try (ScionDatagramChannel receiver = ScionDatagramChannel.open();
+        ScionDatagramChannel sender = ScionDatagramChannel.open()) {
+      Path path = connect(sender, receiver);
+      sender.setMessageFraming(false);
+      receiver.setMessageFraming(false);
+      assertFalse(sender.isMessageFraming());
+      ByteBuffer message = message(100, 0);
+      assertThrows(IllegalStateException.class, () -> sender.writeMessage(message));
+      assertThrows(IllegalStateException.class, () -> sender.sendMessage(message, path));
+      assertThrows(
+          IllegalStateException.class, () -> receiver.receiveMessage(ByteBuffer.allocate(100)));
+      assertEquals(0, message.position());
+      assertEquals(0, MockNetwork.getForwardCount(0));
+    }
+  }
+}
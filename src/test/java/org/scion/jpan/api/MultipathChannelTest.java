@@ -0,0 +1,140 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.api;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.scion.jpan.*;
+import org.scion.jpan.testutil.ExamplePacket;
+import org.scion.jpan.testutil.MockNetwork;
+
+class MultipathChannelTest {
+
+  private static final int N = 100;
+
+  @AfterAll
+  public static void afterAll() {
+    // Defensive clean up
+    ScionService.closeDefault();
+  }
+
+  @BeforeEach
+  public void beforeEach() {
+    MockNetwork.startTiny();
+    MockNetwork.getAndResetForwardCount();
+  }
+
+  @AfterEach
+  public void afterEach() {
+    MockNetwork.stopTiny();
+  }
+
+  @Test
+  void striping() throws IOException {
+    try (MultipathChannel receiver = MultipathChannel.open();
+        MultipathChannel sender = MultipathChannel.open()) {
+      receiver.bind(new InetSocketAddress("127.0.0.1", 0));
+      sender.connect(ExamplePacket.DST_IA, receiver.getLocalAddress());
+      List<Path> paths = sender.getPaths();
+      assertEquals(2, paths.size());
+
+      for (int i = 0; i < N; i++) {
+        ByteBuffer buffer = ByteBuffer.allocate(4);
+        buffer.putInt(i).flip();
+        assertEquals(4, sender.write(buffer));
+      }
+      assertEquals(N / 2, sender.getDatagramsSent(paths.get(0)));
+      assertEquals(N / 2, sender.getDatagramsSent(paths.get(1)));
+
+      Set<Long> sequenceNumbers = new HashSet<>();
+      long[] nextPathSequenceNumber = new long[2];
+      ByteBuffer buffer = ByteBuffer.allocate(100);
+      for (int i = 0; i < N; i++) {
+        buffer.clear();
+        long seq = receiver.receive(buffer);
+        buffer.flip();
+        assertEquals(4, buffer.remaining());
+        assertEquals(seq, buffer.getInt());
+        assertTrue(sequenceNumbers.add(seq));
+        int pathId = receiver.getLastPathId();
+        assertEquals(nextPathSequenceNumber[pathId]++, receiver.getLastPathSequenceNumber());
+      }
+      assertEquals(N / 2, nextPathSequenceNumber[0]);
+      assertEquals(N / 2, nextPathSequenceNumber[1]);
+      assertEquals(N / 2, MockNetwork.getForwardCount(0));
+      assertEquals(N / 2, MockNetwork.getForwardCount(1));
+    }
+  }
+
+  @Test
+  void weightedByThroughput() throws IOException {
+    try (MultipathChannel receiver = MultipathChannel.open();
+        MultipathChannel sender = MultipathChannel.open()) {
+      receiver.bind(new InetSocketAddress("127.0.0.1", 0));
+      sender.connect(ExamplePacket.DST_IA, receiver.getLocalAddress());
+      List<Path> paths = sender.getPaths();
+      sender.reportThroughput(paths.get(0), 3_000_000);
+      sender.reportThroughput(paths.get(1), 1_000_000);
+      for (int i = 0; i < N; i++) {
+        sender.write(ByteBuffer.allocate(10));
+      }
+      assertEquals(3 * N / 4, sender.getDatagramsSent(paths.get(0)), 1);
+      assertEquals(N / 4, sender.getDatagramsSent(paths.get(1)), 1);
+    }
+  }
+
+  @Test
+  void receiveIntoPartiallyFilledBuffer() throws IOException {
+    try (MultipathChannel receiver = MultipathChannel.open();
+        MultipathChannel sender = MultipathChannel.open()) {
+      receiver.bind(new InetSocketAddress("127.0.0.1", 0));
+      sender.connect(ExamplePacket.DST_IA, receiver.getLocalAddress());
+      sender.write(ByteBuffer.allocate(80));
+      sender.write(ByteBuffer.allocate(80));
+
+      // Only 50 bytes are left in the buffer, the rest of the datagram is discarded.
+      ByteBuffer buffer = ByteBuffer.allocate(100);
+      buffer.position(50);
+      receiver.receive(buffer);
+      assertEquals(100, buffer.position());
+
+      buffer.clear();
+      receiver.receive(buffer);
+      assertEquals(80, buffer.position());
+    }
+  }
+
+  @Test
+  void maxPaths() throws IOException {
+    try (MultipathChannel sender = MultipathChannel.open()) {
+      sender.setMaxPaths(1);
+      sender.setPathPolicy(PathPolicy.FIRST);
+      InetSocketAddress dst = new InetSocketAddress("127.0.0.1", 12345);
+      sender.connect(ExamplePacket.DST_IA, dst);
+      assertEquals(1, sender.getPaths().size());
+      assertThrows(IllegalArgumentException.class, () -> sender.setMaxPaths(0));
+    }
+  }
+}
@@ -0,0 +1,140 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.api;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.scion.jpan.*;
+import org.scion.jpan.testutil.ExamplePacket;
+import org.scion.jpan.testutil.MockNetwork;
+
+class PacingTest {
+
+  private static final int SIZE = 1000;
+  // 8 Mbit/s = 1000 bytes per ms
+  private static final long RATE = 8_000_000;
+
+  @AfterAll
+  public static void afterAll() {
+    // Defensive clean up
+    ScionService.closeDefault();
+  }
+
+  @BeforeEach
+  public void beforeEach() {
+    MockNetwork.startTiny();
+  }
+
+  @AfterEach
+  public void afterEach() {
+    MockNetwork.stopTiny();
+    MockNetwork.getAndResetForwardCount();
+  }
+
+  private static Path connect(ScionDatagramChannel sender, ScionDatagramChannel receiver)
+      throws IOException {
+    receiver.bind(new InetSocketAddress("127.0.0.1", 0));
+    InetSocketAddress dst = (InetSocketAddress) receiver.getLocalAddress();
+    Path path = Scion.defaultService().getPaths(ExamplePacket.DST_IA, dst).get(0);
+    sender.connect(path);
+    return path;
+  }
+
+  @Test
+  void blocking() throws IOException {
+    int n = 50;
+    try (ScionDatagramChannel receiver = ScionDatagramChannel.open();
+        ScionDatagramChannel sender = ScionDatagramChannel.open()) {
+      Path path = connect(sender, receiver);
+      sender.setOption(ScionSocketOptions.SCION_PACING_RATE, RATE);
+      assertEquals(RATE, sender.getOption(ScionSocketOptions.SCION_PACING_RATE));
+      assertEquals(RATE, sender.getPacingRate(path));
+
+      long start = System.nanoTime();
+      for (int i = 0; i < n; i++) {
+        assertEquals(SIZE, sender.write(ByteBuffer.allocate(SIZE)));
+      }
+      long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+      // Packets are > 1000 bytes including headers, the burst is 3000 bytes
+      assertTrue(elapsedMs >= n - 3, "Pacing too fast: " + elapsedMs + "ms");
+
+      ByteBuffer buffer = ByteBuffer.allocate(2 * SIZE);
+      for (int i = 0; i < n; i++) {
+        buffer.clear();
+        assertNotNull(receiver.receive(buffer));
+        assertEquals(SIZE, buffer.position());
+      }
+    }
+  }
+
+  @Test
+  void nonBlocking() throws IOException, InterruptedException {
+    try (ScionDatagramChannel receiver = ScionDatagramChannel.open();
+        ScionDatagramChannel sender = ScionDatagramChannel.open()) {
+      Path path = connect(sender, receiver);
+      // 100 bytes per ms
+      sender.setOption(ScionSocketOptions.SCION_PACING_RATE, RATE / 10);
+      sender.configureBlocking(false);
+
+      // The burst allows a few packets (more if sending is slow), then the pacer stops sending
+      int sent = 0;
+      ByteBuffer src = ByteBuffer.allocate(SIZE);
+      while (sender.write(src) > 0) {
+        assertFalse(src.hasRemaining());
+        src.clear();
+        sent++;
+      }
+      assertTrue(sent >= 3 && sent < 20, "sent=" + sent);
+      // The payload is not consumed when the packet is not sent
+      assertEquals(SIZE, src.remaining());
+      assertEquals(0, sender.send(src, path));
+      assertEquals(SIZE, src.remaining());
+
+      Thread.sleep(30);
+      assertEquals(SIZE, sender.write(src));
+    }
+  }
+
+  @Test
+  void pathBandwidth() throws IOException {
+    try (ScionDatagramChannel receiver = ScionDatagramChannel.open();
+        ScionDatagramChannel sender = ScionDatagramChannel.open()) {
+      Path path = connect(sender, receiver);
+      assertEquals(0L, sender.getOption(ScionSocketOptions.SCION_PACING_RATE));
+      assertEquals(0, sender.getPacingRate(path));
+
+      // The mock paths have no bandwidth information
+      sender.setOption(
+          ScionSocketOptions.SCION_PACING_RATE, ScionSocketOptions.PACING_PATH_BANDWIDTH);
+      assertEquals(0, sender.getPacingRate(path));
+      sender.reportThroughput(path, RATE);
+      assertEquals(RATE, sender.getPacingRate(path));
+      assertEquals(SIZE, sender.write(ByteBuffer.allocate(SIZE)));
+
+      sender.setOption(ScionSocketOptions.SCION_PACING_RATE, 0L);
+      assertEquals(0, sender.getPacingRate(path));
+      assertThrows(
+          IllegalArgumentException.class,
+          () -> sender.setOption(ScionSocketOptions.SCION_PACING_RATE, -2L));
+    }
+  }
+}
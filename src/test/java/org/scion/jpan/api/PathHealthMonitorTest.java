@@ -0,0 +1,171 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.api;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.scion.jpan.*;
+import org.scion.jpan.testutil.ExamplePacket;
+import org.scion.jpan.testutil.MockNetwork;
+
+class PathHealthMonitorTest {
+
+  private final InetSocketAddress dstAddr = new InetSocketAddress("127.0.0.1", 12345);
+
+  @AfterAll
+  public static void afterAll() {
+    // Defensive clean up
+    ScionService.closeDefault();
+  }
+
+  @BeforeEach
+  public void beforeEach() {
+    MockNetwork.startTiny();
+  }
+
+  @AfterEach
+  public void afterEach() {
+    MockNetwork.stopTiny();
+  }
+
+  @Test
+  void rttAndLoss() throws Exception {
+    List<Path> paths = Scion.defaultService().getPaths(ExamplePacket.DST_IA, dstAddr);
+    RequestPath path = (RequestPath) paths.get(0);
+    try (PathHealthMonitor monitor = PathHealthMonitor.open()) {
+      monitor.setProbeInterval(Duration.ofMillis(20));
+      monitor.setProbeTimeout(Duration.ofMillis(500));
+      monitor.setThresholds(Duration.ofSeconds(1), 0.2);
+      CountDownLatch degraded = new CountDownLatch(1);
+      monitor.setDegradationListener(health -> degraded.countDown());
+
+      MockNetwork.answerNextScmpEchos(1000);
+      PathHealth health = monitor.addPath(path);
+      assertSame(health, monitor.getHealth(path));
+      waitFor(() -> health.getSampleCount() >= 5);
+      assertTrue(health.getRttNanos() > 0);
+      assertTrue(health.getRttPercentileNanos(50) > 0);
+      assertTrue(health.getRttPercentileNanos(100) >= health.getRttPercentileNanos(0));
+      assertEquals(0, health.getLossCount());
+      assertEquals(0.0, health.getLossRate());
+      assertEquals(1, degraded.getCount());
+
+      // Lose all probes
+      MockNetwork.dropNextPackets(1000);
+      assertTrue(degraded.await(5, TimeUnit.SECONDS));
+      assertTrue(health.getLossCount() > 0);
+      assertTrue(health.getLossRate() > 0.2);
+
+      monitor.removePath(path);
+      assertNull(monitor.getHealth(path));
+    } finally {
+      MockNetwork.dropNextPackets(0);
+    }
+  }
+
+  @Test
+  void lossIsRecordedWhenTimeoutExpires() throws Exception {
+    List<Path> paths = Scion.defaultService().getPaths(ExamplePacket.DST_IA, dstAddr);
+    RequestPath path = (RequestPath) paths.get(0);
+    try (PathHealthMonitor monitor = PathHealthMonitor.open()) {
+      // The next probe is due long after the test ends
+      monitor.setProbeInterval(Duration.ofSeconds(60));
+      monitor.setProbeTimeout(Duration.ofMillis(50));
+      MockNetwork.dropNextPackets(1);
+      PathHealth health = monitor.addPath(path);
+      waitFor(() -> health.getLossCount() == 1);
+      assertEquals(1, health.getSampleCount());
+    } finally {
+      MockNetwork.dropNextPackets(0);
+    }
+  }
+
+  @Test
+  void throwingListener() throws Exception {
+    List<Path> paths = Scion.defaultService().getPaths(ExamplePacket.DST_IA, dstAddr);
+    try (PathHealthMonitor monitor = PathHealthMonitor.open()) {
+      monitor.setProbeInterval(Duration.ofMillis(20));
+      // Every path is too slow
+      monitor.setThresholds(Duration.ZERO, 1.0);
+      CountDownLatch degraded = new CountDownLatch(2);
+      monitor.setDegradationListener(
+          health -> {
+            degraded.countDown();
+            throw new IllegalStateException("Listener failed");
+          });
+      MockNetwork.answerNextScmpEchos(1000);
+      PathHealth health0 = monitor.addPath((RequestPath) paths.get(0));
+      waitFor(() -> degraded.getCount() == 1);
+
+      // The monitor keeps probing
+      long samples = health0.getSampleCount();
+      waitFor(() -> health0.getSampleCount() > samples + 2);
+      monitor.addPath((RequestPath) paths.get(1));
+      assertTrue(degraded.await(5, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  void channelSwitchesPath() throws Exception {
+    List<Path> paths = Scion.defaultService().getPaths(ExamplePacket.DST_IA, dstAddr);
+    assertEquals(2, paths.size());
+    Path path0 = paths.get(0);
+    try (ScionDatagramChannel channel = Scion.defaultService().openChannel();
+        PathHealthMonitor monitor = PathHealthMonitor.open()) {
+      channel.connect(path0);
+      channel.write(ByteBuffer.allocate(0));
+      assertSame(path0, channel.getMappedPath(path0));
+
+      monitor.setProbeInterval(Duration.ofMillis(20));
+      // Every path is too slow
+      monitor.setThresholds(Duration.ZERO, 1.0);
+      CountDownLatch degraded = new CountDownLatch(1);
+      monitor.setDegradationListener(health -> degraded.countDown());
+      MockNetwork.answerNextScmpEchos(1000);
+      monitor.register(channel);
+      assertTrue(degraded.await(5, TimeUnit.SECONDS));
+      assertNotNull(monitor.getHealth(path0));
+
+      // The lookup for a new path is asynchronous
+      waitFor(() -> channel.getMappedPath(path0) != path0);
+      channel.write(ByteBuffer.allocate(0));
+      Path current = channel.getMappedPath(path0);
+      assertNotSame(path0, current);
+      assertFalse(current.getMetadata().hasSameInterfaces(path0.getMetadata()));
+      monitor.unregister(channel);
+    }
+  }
+
+  private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5_000;
+    while (!condition.getAsBoolean()) {
+      if (System.currentTimeMillis() > deadline) {
+        fail("Timed out");
+      }
+      Thread.sleep(10);
+    }
+  }
+}
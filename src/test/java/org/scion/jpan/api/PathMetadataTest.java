@@ -0,0 +1,224 @@
+// Copyright 2023 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.api;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Duration;
+import com.google.protobuf.Timestamp;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.scion.jpan.CompiledPathPolicy;
+import org.scion.jpan.PackageVisibilityHelper;
+import org.scion.jpan.PathMetadata;
+import org.scion.jpan.PathPolicy;
+import org.scion.jpan.PathPolicyBuilder;
+import org.scion.jpan.RequestPath;
+import org.scion.jpan.ScionUtil;
+import org.scion.jpan.proto.daemon.Daemon;
+import org.scion.jpan.testutil.TestPaths;
+
+class PathMetadataTest {
+
+  private static final long AS_110 = ScionUtil.parseIA("1-ff00:0:110");
+  private static final long AS_111 = ScionUtil.parseIA("1-ff00:0:111");
+  private static final long AS_112 = ScionUtil.parseIA("2-ff00:0:112");
+
+  private static Daemon.Path.Builder createPathBuilder(int latency2, long bandwidth2) {
+    Daemon.Path.Builder builder = TestPaths.builder(AS_110, 1, AS_111, 2, AS_111, 3, AS_112, 4);
+    builder.setInterface(
+        Daemon.Interface.newBuilder()
+            .setAddress(Daemon.Underlay.newBuilder().setAddress("127.0.0.10:31004")));
+    builder.setMtu(1280);
+    builder.setExpiration(Timestamp.newBuilder().setSeconds(1_700_000_000L));
+    builder.addLatency(Duration.newBuilder().setNanos(5_000_000));
+    builder.addLatency(Duration.newBuilder().setSeconds(1).setNanos(2_000_000));
+    builder.addLatency(Duration.newBuilder().setNanos(latency2 * 1_000_000));
+    builder.addBandwidth(1_000);
+    builder.addBandwidth(2_000);
+    builder.addBandwidth(bandwidth2);
+    builder.addGeo(Daemon.GeoCoordinates.newBuilder().setLatitude(1.5f).setAddress("Zurich"));
+    builder.addLinkType(Daemon.LinkType.LINK_TYPE_DIRECT);
+    builder.addLinkType(Daemon.LinkType.LINK_TYPE_OPEN_NET);
+    builder.addInternalHops(7);
+    builder.addNotes("Hello");
+    builder.setEpicAuths(
+        Daemon.EpicAuths.newBuilder().setAuthPhvf(ByteString.copyFrom(new byte[] {1, 2})));
+    return builder;
+  }
+
+  private static RequestPath createPath(int latency2, long bandwidth2) {
+    return TestPaths.create(createPathBuilder(latency2, bandwidth2));
+  }
+
+  @Test
+  void decode() {
+    PathMetadata meta = createPath(3, 500).getMetadata();
+    assertEquals("127.0.0.10:31004", meta.getInterface().getAddress());
+    assertEquals(1280, meta.getMtu());
+    assertEquals(1_700_000_000L, meta.getExpiration());
+
+    assertEquals(4, meta.getInterfaceCount());
+    List<PathMetadata.PathInterface> interfaces = meta.getInterfacesList();
+    assertEquals(4, interfaces.size());
+    assertEquals(AS_111, interfaces.get(2).getIsdAs());
+    assertEquals(3, interfaces.get(2).getId());
+    assertEquals(AS_111, meta.getInterfaceIsdAs(2));
+    assertEquals(3, meta.getInterfaceId(2));
+
+    assertEquals(Arrays.asList(5, 1002, 3), meta.getLatencyList());
+    assertEquals(1002, meta.getLatency(1));
+    assertEquals(Arrays.asList(1_000L, 2_000L, 500L), meta.getBandwidthList());
+    assertEquals(500, meta.getBandwidth(2));
+    assertEquals(500, meta.getBottleneckBandwidth());
+
+    assertEquals(1, meta.getGeoList().size());
+    assertEquals(1.5f, meta.getGeoList().get(0).getLatitude());
+    assertEquals("Zurich", meta.getGeoList().get(0).getAddress());
+    assertEquals(
+        Arrays.asList(
+            PathMetadata.LinkType.LINK_TYPE_DIRECT, PathMetadata.LinkType.LINK_TYPE_OPEN_NET),
+        meta.getLinkTypeList());
+    assertEquals(Arrays.asList(7), meta.getInternalHopsList());
+    assertEquals(1, meta.getInternalHopsCount());
+    assertEquals(Arrays.asList("Hello"), meta.getNotesList());
+    assertArrayEquals(new byte[] {1, 2}, meta.getEpicAuths().getAuthPhvf());
+    assertEquals(0, meta.getEpicAuths().getAuthLhvf().length);
+
+    assertThrows(UnsupportedOperationException.class, () -> meta.getLatencyList().add(1));
+    assertThrows(IndexOutOfBoundsException.class, () -> meta.getInterfacesList().get(4));
+  }
+
+  @Test
+  void lazyRawPathAndFirstHop() throws UnknownHostException {
+    Daemon.Path.Builder builder = createPathBuilder(3, 500);
+    builder.setRaw(ByteString.copyFrom(new byte[] {1, 2, 3, 4}));
+    RequestPath path = TestPaths.create(builder);
+    assertArrayEquals(new byte[] {1, 2, 3, 4}, path.getRawPath());
+    assertSame(path.getRawPath(), path.getMetadata().getRawPath());
+    assertEquals(new InetSocketAddress("127.0.0.10", 31004), path.getFirstHopAddress());
+
+    // Local AS: the first hop is the destination
+    RequestPath local = createPath(3, 500);
+    assertEquals(0, local.getRawPath().length);
+    assertEquals(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), TestPaths.DST_PORT),
+        local.getFirstHopAddress());
+  }
+
+  @Test
+  void fingerprint() {
+    PathMetadata meta1 = createPath(3, 500).getMetadata();
+    PathMetadata meta2 = createPath(30, 1_500).getMetadata();
+    assertEquals(meta1.getFingerprint(), meta2.getFingerprint());
+    assertTrue(meta1.hasSameInterfaces(meta2));
+
+    Daemon.Path.Builder builder = createPathBuilder(3, 500);
+    builder.setInterfaces(2, Daemon.PathInterface.newBuilder().setIsdAs(AS_111).setId(5));
+    PathMetadata meta3 = TestPaths.create(builder).getMetadata();
+    assertNotEquals(meta1.getFingerprint(), meta3.getFingerprint());
+    assertFalse(meta1.hasSameInterfaces(meta3));
+  }
+
+  @Test
+  void policies() {
+    RequestPath fast = createPath(3, 500);
+    RequestPath wide = createPath(30, 1_500);
+    Daemon.Path.Builder builder = createPathBuilder(0, 0).clearBandwidth();
+    RequestPath unknown = TestPaths.create(builder);
+    List<org.scion.jpan.Path> paths = Arrays.asList(unknown, wide, fast);
+    assertEquals(fast, PathPolicy.MIN_LATENCY.filter(paths));
+    assertEquals(wide, PathPolicy.MAX_BANDWIDTH.filter(paths));
+  }
+
+  @Test
+  void policies_doNotDecodeDiscardedPaths() {
+    RequestPath fast = createPath(3, 500);
+    RequestPath wide = createPath(30, 1_500);
+    List<org.scion.jpan.Path> paths = Arrays.asList(wide, fast);
+    assertEquals(fast, PathPolicy.MIN_LATENCY.filter(paths));
+    assertNotNull(PathPolicy.MIN_HOPS.filter(paths));
+    assertEquals(wide, PathPolicy.MAX_BANDWIDTH.filter(paths));
+    CompiledPathPolicy ordered =
+        new PathPolicyBuilder()
+            .orderBy(
+                PathPolicyBuilder.Order.MIN_HOPS,
+                PathPolicyBuilder.Order.MAX_MTU,
+                PathPolicyBuilder.Order.MAX_EXPIRATION,
+                PathPolicyBuilder.Order.MIN_LATENCY)
+            .build();
+    assertEquals(fast, ordered.filter(paths));
+    assertFalse(PackageVisibilityHelper.isDecoded(fast));
+    assertFalse(PackageVisibilityHelper.isDecoded(wide));
+
+    // Filters on interfaces need to decode the path
+    CompiledPathPolicy acl = new PathPolicyBuilder().acl("+").build();
+    assertEquals(wide, acl.filter(paths));
+    assertTrue(PackageVisibilityHelper.isDecoded(wide));
+  }
+
+  @Test
+  void policies_noBandwidthInformation() {
+    Daemon.Path.Builder builder = createPathBuilder(3, 500).clearBandwidth();
+    RequestPath noInfo = TestPaths.create(builder);
+    assertEquals(0, noInfo.getMetadata().getBottleneckBandwidth());
+
+    // Hops without bandwidth information are ignored
+    RequestPath partial = createPath(3, 0);
+    assertEquals(1_000, partial.getMetadata().getBottleneckBandwidth());
+
+    RequestPath narrow = createPath(3, 500);
+    List<org.scion.jpan.Path> paths = Arrays.asList(noInfo, narrow);
+    assertEquals(narrow, PathPolicy.MAX_BANDWIDTH.filter(paths));
+  }
+
+  @Test
+  void policies_pathWithoutMetadata() {
+    org.scion.jpan.Path response =
+        PackageVisibilityHelper.createDummyResponsePath(
+            new byte[0],
+            AS_112,
+            new byte[] {127, 0, 0, 2},
+            12345,
+            AS_110,
+            new byte[] {127, 0, 0, 1},
+            54321,
+            new InetSocketAddress("127.0.0.1", 31004));
+    assertNull(response.getMetadata());
+    RequestPath path = createPath(3, 500);
+    // Paths without metadata rank last
+    List<org.scion.jpan.Path> paths = Arrays.asList(response, path);
+    assertEquals(path, PathPolicy.MIN_LATENCY.filter(paths));
+    assertEquals(path, PathPolicy.MAX_BANDWIDTH.filter(paths));
+    assertEquals(path, PathPolicy.MIN_HOPS.filter(paths));
+    assertEquals(path, PathPolicy.MEASURED_LATENCY.filter(paths));
+    CompiledPathPolicy ordered =
+        new PathPolicyBuilder()
+            .orderBy(
+                PathPolicyBuilder.Order.MIN_LATENCY,
+                PathPolicyBuilder.Order.MAX_BANDWIDTH,
+                PathPolicyBuilder.Order.MIN_HOPS,
+                PathPolicyBuilder.Order.MAX_MTU,
+                PathPolicyBuilder.Order.MAX_EXPIRATION)
+            .build();
+    assertEquals(path, ordered.filter(paths));
+    assertEquals(response, PathPolicy.FIRST.filter(paths));
+  }
+}
@@ -0,0 +1,151 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.api;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.google.protobuf.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import org.junit.jupiter.api.Test;
+import org.scion.jpan.CompiledPathPolicy;
+import org.scion.jpan.Path;
+import org.scion.jpan.PathPolicyBuilder;
+import org.scion.jpan.ScionUtil;
+import org.scion.jpan.proto.daemon.Daemon;
+import org.scion.jpan.testutil.TestPaths;
+
+class PathPolicyBuilderTest {
+
+  private static final long AS_110 = ScionUtil.parseIA("1-ff00:0:110");
+  private static final long AS_111 = ScionUtil.parseIA("1-ff00:0:111");
+  private static final long AS_112 = ScionUtil.parseIA("1-ff00:0:112");
+  private static final long AS_210 = ScionUtil.parseIA("2-ff00:0:210");
+
+  // 110#1 -> 111#2,3 -> 112#4, 10ms per hop
+  private static final Path PATH_111 =
+      createPath(1280, 10, new long[] {AS_110, 1, AS_111, 2, AS_111, 3, AS_112, 4});
+  // 110#5 -> 210#6,7 -> 112#8, 5ms per hop
+  private static final Path PATH_210 =
+      createPath(1400, 5, new long[] {AS_110, 5, AS_210, 6, AS_210, 7, AS_112, 8});
+  // 110#9 -> 112#10, latency unknown
+  private static final Path PATH_DIRECT = createPath(1280, 0, new long[] {AS_110, 9, AS_112, 10});
+  private static final List<Path> PATHS = Arrays.asList(PATH_111, PATH_210, PATH_DIRECT);
+
+  private static Path createPath(int mtu, int latencyMs, long[] interfaces) {
+    Daemon.Path.Builder builder = TestPaths.builder(interfaces).setMtu(mtu);
+    for (int i = 1; i < builder.getInterfacesCount(); i++) {
+      builder.addLatency(Duration.newBuilder().setNanos(latencyMs * 1_000_000));
+    }
+    return TestPaths.create(builder);
+  }
+
+  @Test
+  void acl() {
+    CompiledPathPolicy policy = new PathPolicyBuilder().acl("- 2", "+").build();
+    assertEquals(Arrays.asList(PATH_111, PATH_DIRECT), policy.filterAll(PATHS));
+
+    policy = new PathPolicyBuilder().acl("- 1-ff00:0:111#3", "+ 0").build();
+    assertEquals(Arrays.asList(PATH_210, PATH_DIRECT), policy.filterAll(PATHS));
+
+    // Interfaces that match no entry are denied
+    policy = new PathPolicyBuilder().acl("+ 1-ff00:0:110", "+ 1-ff00:0:112").build();
+    assertEquals(Arrays.asList(PATH_DIRECT), policy.filterAll(PATHS));
+
+    assertThrows(IllegalArgumentException.class, () -> new PathPolicyBuilder().acl().build());
+    assertThrows(
+        IllegalArgumentException.class, () -> new PathPolicyBuilder().acl("1-ff00:0:110").build());
+    assertThrows(
+        IllegalArgumentException.class, () -> new PathPolicyBuilder().acl("+ 1#2,3").build());
+  }
+
+  @Test
+  void sequence() {
+    CompiledPathPolicy policy =
+        new PathPolicyBuilder().sequence("1-ff00:0:110 0* 1-ff00:0:112").build();
+    assertEquals(PATHS, policy.filterAll(PATHS));
+
+    policy = new PathPolicyBuilder().sequence("0 0 0").build();
+    assertEquals(Arrays.asList(PATH_111, PATH_210), policy.filterAll(PATHS));
+
+    policy = new PathPolicyBuilder().sequence("1-ff00:0:110 1+ 0").build();
+    assertEquals(Arrays.asList(PATH_111), policy.filterAll(PATHS));
+
+    policy = new PathPolicyBuilder().sequence("0 2-ff00:0:210#6,7? 0").build();
+    assertEquals(Arrays.asList(PATH_210, PATH_DIRECT), policy.filterAll(PATHS));
+
+    // Single interface matches ingress or egress
+    policy = new PathPolicyBuilder().sequence("0 0#7 0").build();
+    assertEquals(Arrays.asList(PATH_210), policy.filterAll(PATHS));
+    policy = new PathPolicyBuilder().sequence("0#9 0#10").build();
+    assertEquals(Arrays.asList(PATH_DIRECT), policy.filterAll(PATHS));
+
+    assertThrows(
+        IllegalArgumentException.class, () -> new PathPolicyBuilder().sequence("1-x").build());
+  }
+
+  @Test
+  void sequence_manyWildcards() {
+    // 40 interfaces, i.e. 21 hops: 110 -> 111 ... 111 -> 112
+    long[] interfaces = new long[40 * 2];
+    for (int i = 0; i < 40; i++) {
+      interfaces[2 * i] = i == 0 ? AS_110 : (i == 39 ? AS_112 : AS_111);
+      interfaces[2 * i + 1] = i + 1;
+    }
+    List<Path> paths = Arrays.asList(createPath(1280, 1, interfaces));
+    StringBuilder wildcards = new StringBuilder();
+    for (int i = 0; i < 12; i++) {
+      wildcards.append("0* ");
+    }
+    // Backtracking would take exponential time to reject this sequence
+    CompiledPathPolicy noMatch =
+        new PathPolicyBuilder().sequence(wildcards + "1-ff00:0:999").build();
+    CompiledPathPolicy match = new PathPolicyBuilder().sequence(wildcards + "1-ff00:0:112").build();
+    assertTimeoutPreemptively(
+        java.time.Duration.ofSeconds(2),
+        () -> {
+          assertTrue(noMatch.filterAll(paths).isEmpty());
+          assertEquals(paths, match.filterAll(paths));
+        });
+  }
+
+  @Test
+  void orderBy() {
+    CompiledPathPolicy policy =
+        new PathPolicyBuilder().orderBy(PathPolicyBuilder.Order.MIN_LATENCY).build();
+    assertEquals(PATH_210, policy.filter(PATHS));
+    assertEquals(Arrays.asList(PATH_210, PATH_111, PATH_DIRECT), policy.filterAll(PATHS));
+
+    policy =
+        new PathPolicyBuilder()
+            .orderBy(PathPolicyBuilder.Order.MIN_HOPS, PathPolicyBuilder.Order.MAX_MTU)
+            .build();
+    assertEquals(Arrays.asList(PATH_DIRECT, PATH_210, PATH_111), policy.filterAll(PATHS));
+
+    // No order: first matching path
+    policy = new PathPolicyBuilder().acl("- 1-ff00:0:111", "+").build();
+    assertEquals(PATH_210, policy.filter(PATHS));
+  }
+
+  @Test
+  void noPath() {
+    CompiledPathPolicy policy = new PathPolicyBuilder().acl("-").build();
+    assertThrows(NoSuchElementException.class, () -> policy.filter(PATHS));
+    assertTrue(policy.filterAll(PATHS).isEmpty());
+    assertThrows(NoSuchElementException.class, () -> policy.filter(new ArrayList<>()));
+  }
+}
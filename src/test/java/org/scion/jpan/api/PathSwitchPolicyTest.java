@@ -0,0 +1,143 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.api;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.List;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.scion.jpan.*;
+import org.scion.jpan.testutil.ExamplePacket;
+import org.scion.jpan.testutil.MockNetwork;
+
+class PathSwitchPolicyTest {
+
+  private static final long MS = 1_000_000;
+  private List<Path> paths;
+
+  @AfterAll
+  public static void afterAll() {
+    // Defensive clean up
+    ScionService.closeDefault();
+  }
+
+  @BeforeEach
+  public void beforeEach() {
+    MockNetwork.startTiny();
+    InetSocketAddress dstAddr = new InetSocketAddress("127.0.0.1", 12345);
+    paths = Scion.defaultService().getPaths(ExamplePacket.DST_IA, dstAddr);
+    assertEquals(2, paths.size());
+  }
+
+  @AfterEach
+  public void afterEach() {
+    MockNetwork.stopTiny();
+  }
+
+  @Test
+  void switchWithHysteresis() throws IOException {
+    Path path0 = paths.get(0);
+    Path path1 = paths.get(1);
+    try (ScionDatagramChannel channel = Scion.defaultService().openChannel()) {
+      channel.connect(path0);
+      channel.setPathSwitchPolicy(new PathSwitchPolicy(0.2, 3, Duration.ofSeconds(60)));
+      for (int i = 0; i < 3; i++) {
+        channel.reportPathSample(path0, 10 * MS, false);
+      }
+      channel.reportPathSample(path1, MS, false);
+      channel.reportPathSample(path1, MS, false);
+      // Not enough samples
+      assertSame(path0, channel.getConnectionPath());
+
+      channel.reportPathSample(path1, MS, false);
+      assertSame(path1, channel.getConnectionPath());
+      assertEquals(3, channel.getPathHealth(path1).getSampleCount());
+
+      // Hold time prevents switching back
+      for (int i = 0; i < 50; i++) {
+        channel.reportPathSample(path1, MS, true);
+        channel.reportPathSample(path0, MS / 10, false);
+      }
+      assertSame(path1, channel.getConnectionPath());
+    }
+  }
+
+  @Test
+  void noSwitchWithoutPolicyOrImprovement() throws IOException {
+    Path path0 = paths.get(0);
+    Path path1 = paths.get(1);
+    try (ScionDatagramChannel channel = Scion.defaultService().openChannel()) {
+      channel.connect(path0);
+      // Improvement is below 20%
+      channel.setPathSwitchPolicy(PathSwitchPolicy.DEFAULT);
+      for (int i = 0; i < 50; i++) {
+        channel.reportPathSample(path0, 10 * MS, false);
+        channel.reportPathSample(path1, 9 * MS, false);
+      }
+      assertSame(path0, channel.getConnectionPath());
+
+      channel.setPathSwitchPolicy(null);
+      assertNull(channel.getPathSwitchPolicy());
+      for (int i = 0; i < 50; i++) {
+        channel.reportPathSample(path0, 10 * MS, false);
+        channel.reportPathSample(path1, MS, false);
+      }
+      assertSame(path0, channel.getConnectionPath());
+    }
+  }
+
+  @Test
+  void lossIsWorseThanLatency() throws IOException {
+    Path path0 = paths.get(0);
+    Path path1 = paths.get(1);
+    try (ScionDatagramChannel channel = Scion.defaultService().openChannel()) {
+      channel.connect(path0);
+      channel.setPathSwitchPolicy(PathSwitchPolicy.DEFAULT);
+      for (int i = 0; i < 20; i++) {
+        channel.reportPathSample(path0, MS, i % 2 == 0);
+        channel.reportPathSample(path1, 6 * MS / 5, false);
+      }
+      assertSame(path1, channel.getConnectionPath());
+      assertTrue(channel.getPathHealth(path0).getLossRate() > 0.3);
+      assertEquals(10, channel.getPathHealth(path0).getLossCount());
+    }
+  }
+
+  @Test
+  void samplesArePerDestination() throws IOException {
+    // Paths without interfaces have the same fingerprint
+    InetSocketAddress firstHop = new InetSocketAddress("127.0.0.1", 31004);
+    byte[] dstHost = {127, 0, 0, 1};
+    Path path110 =
+        PackageVisibilityHelper.createDummyPath(
+            ScionUtil.parseIA("1-ff00:0:110"), dstHost, 12345, new byte[0], firstHop);
+    Path path112 =
+        PackageVisibilityHelper.createDummyPath(
+            ScionUtil.parseIA("1-ff00:0:112"), dstHost, 12345, new byte[0], firstHop);
+    assertEquals(path110.getMetadata().getFingerprint(), path112.getMetadata().getFingerprint());
+    try (ScionDatagramChannel channel = Scion.defaultService().openChannel()) {
+      channel.reportPathSample(path110, MS, false);
+      channel.reportPathSample(path110, MS, true);
+      assertEquals(2, channel.getPathHealth(path110).getSampleCount());
+      assertNull(channel.getPathHealth(path112));
+    }
+  }
+}
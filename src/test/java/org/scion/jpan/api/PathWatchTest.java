@@ -0,0 +1,115 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.api;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.google.protobuf.Timestamp;
+import java.net.InetAddress;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.scion.jpan.*;
+import org.scion.jpan.proto.daemon.Daemon;
+import org.scion.jpan.testutil.TestPaths;
+
+class PathWatchTest {
+
+  private static final long AS_110 = ScionUtil.parseIA("1-ff00:0:110");
+  private static final long AS_112 = ScionUtil.parseIA("1-ff00:0:112");
+  private static final int MARGIN = 10;
+
+  private static Daemon.Path createPath(int interfaceId, long expiration) {
+    return TestPaths.builder(AS_110, interfaceId, AS_112, 1)
+        .setExpiration(Timestamp.newBuilder().setSeconds(expiration).build())
+        .build();
+  }
+
+  private static PathWatch createWatch(List<PathWatch.Update> updates) {
+    InetAddress dst = InetAddress.getLoopbackAddress();
+    return PackageVisibilityHelper.createPathWatch(AS_112, dst, 12345, updates::add);
+  }
+
+  @Test
+  void diff() {
+    long now = Instant.now().getEpochSecond();
+    List<PathWatch.Update> updates = new ArrayList<>();
+    PathWatch watch = createWatch(updates);
+
+    Daemon.Path p1 = createPath(1, now + 3600);
+    Daemon.Path p2 = createPath(2, now + 3600);
+    PackageVisibilityHelper.updatePathWatch(watch, Arrays.asList(p1, p2), MARGIN);
+    assertEquals(1, updates.size());
+    assertEquals(2, updates.get(0).getAdded().size());
+    assertEquals(2, updates.get(0).getPaths().size());
+    assertTrue(updates.get(0).getRemoved().isEmpty());
+    assertTrue(updates.get(0).getExpiringSoon().isEmpty());
+    Path path1 = updates.get(0).getAdded().get(0);
+    assertEquals(12345, path1.getRemotePort());
+
+    // No change -> no update, instances are kept
+    PackageVisibilityHelper.updatePathWatch(watch, Arrays.asList(p1, p2), MARGIN);
+    assertEquals(1, updates.size());
+    assertSame(path1, watch.getPaths().get(0));
+
+    // p2 removed, p3 added
+    Daemon.Path p3 = createPath(3, now + 3600);
+    PackageVisibilityHelper.updatePathWatch(watch, Arrays.asList(p1, p3), MARGIN);
+    assertEquals(2, updates.size());
+    PathWatch.Update update = updates.get(1);
+    assertEquals(1, update.getAdded().size());
+    assertEquals(3, update.getAdded().get(0).getMetadata().getInterfaceId(0));
+    assertEquals(1, update.getRemoved().size());
+    assertEquals(2, update.getRemoved().get(0).getMetadata().getInterfaceId(0));
+    assertEquals(2, update.getPaths().size());
+  }
+
+  @Test
+  void expiringAndRefreshed() {
+    long now = Instant.now().getEpochSecond();
+    List<PathWatch.Update> updates = new ArrayList<>();
+    PathWatch watch = createWatch(updates);
+
+    Daemon.Path expiring = createPath(1, now + MARGIN / 2);
+    Daemon.Path expired = createPath(2, now - 1);
+    PackageVisibilityHelper.updatePathWatch(watch, Arrays.asList(expiring, expired), MARGIN);
+    assertEquals(1, updates.size());
+    assertEquals(1, updates.get(0).getAdded().size());
+    assertEquals(1, updates.get(0).getExpiringSoon().size());
+
+    // Expiring paths are reported only once
+    PackageVisibilityHelper.updatePathWatch(watch, Collections.singletonList(expiring), MARGIN);
+    assertEquals(1, updates.size());
+
+    // Refreshed path is reported as added, not as removed
+    Daemon.Path refreshed = createPath(1, now + 3600);
+    PackageVisibilityHelper.updatePathWatch(watch, Arrays.asList(expiring, refreshed), MARGIN);
+    assertEquals(2, updates.size());
+    assertEquals(1, updates.get(1).getAdded().size());
+    assertEquals(now + 3600, updates.get(1).getAdded().get(0).getMetadata().getExpiration());
+    assertTrue(updates.get(1).getRemoved().isEmpty());
+    assertTrue(updates.get(1).getExpiringSoon().isEmpty());
+    assertEquals(1, watch.getPaths().size());
+
+    // Gone
+    PackageVisibilityHelper.updatePathWatch(watch, Collections.emptyList(), MARGIN);
+    assertEquals(3, updates.size());
+    assertEquals(1, updates.get(2).getRemoved().size());
+    assertTrue(watch.getPaths().isEmpty());
+  }
+}
@@ -0,0 +1,191 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.api;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.scion.jpan.*;
+import org.scion.jpan.testutil.ExamplePacket;
+import org.scion.jpan.testutil.MockNetwork;
+
+class RedundantSendTest {
+
+  private static final int N = 20;
+
+  @AfterAll
+  public static void afterAll() {
+    // Defensive clean up
+    ScionService.closeDefault();
+  }
+
+  @BeforeEach
+  public void beforeEach() {
+    MockNetwork.startTiny();
+    MockNetwork.getAndResetForwardCount();
+  }
+
+  @AfterEach
+  public void afterEach() {
+    MockNetwork.stopTiny();
+  }
+
+  private static Path connect(ScionDatagramChannel sender, ScionDatagramChannel receiver)
+      throws IOException {
+    receiver.bind(new InetSocketAddress("127.0.0.1", 0));
+    InetSocketAddress dst = (InetSocketAddress) receiver.getLocalAddress();
+    Path path = Scion.defaultService().getPaths(ExamplePacket.DST_IA, dst).get(0);
+    sender.connect(path);
+    return path;
+  }
+
+  private static void send(ScionDatagramChannel sender, int n) throws IOException {
+    for (int i = 0; i < n; i++) {
+      ByteBuffer buffer = ByteBuffer.allocate(4);
+      buffer.putInt(i).flip();
+      assertEquals(4, sender.write(buffer));
+    }
+  }
+
+  private static void waitForForwardCount(int n) {
+    long deadline = System.currentTimeMillis() + 1000;
+    while (MockNetwork.getForwardCount(0) + MockNetwork.getForwardCount(1) < n
+        && System.currentTimeMillis() < deadline) {
+      Thread.yield();
+    }
+  }
+
+  private static void assertNoMoreDatagrams(ScionDatagramChannel receiver) throws IOException {
+    receiver.configureBlocking(false);
+    assertNull(receiver.receive(ByteBuffer.allocate(100)));
+  }
+
+  @Test
+  void redundantSend() throws IOException {
+    try (ScionDatagramChannel receiver = ScionDatagramChannel.open();
+        ScionDatagramChannel sender = ScionDatagramChannel.open()) {
+      receiver.setDuplicateSuppression(true);
+      assertTrue(receiver.isDuplicateSuppression());
+      connect(sender, receiver);
+      sender.setRedundancy(3);
+      assertEquals(3, sender.getRedundancy());
+      send(sender, N);
+
+      Set<Integer> received = new HashSet<>();
+      ByteBuffer buffer = ByteBuffer.allocate(100);
+      for (int i = 0; i < N; i++) {
+        buffer.clear();
+        assertNotNull(receiver.receive(buffer));
+        buffer.flip();
+        assertEquals(4, buffer.remaining());
+        assertTrue(received.add(buffer.getInt()));
+      }
+      // Only two different paths are available
+      waitForForwardCount(2 * N);
+      assertEquals(N, MockNetwork.getForwardCount(0));
+      assertEquals(N, MockNetwork.getForwardCount(1));
+      assertNoMoreDatagrams(receiver);
+    }
+  }
+
+  @Test
+  void lostCopy() throws IOException {
+    try (ScionDatagramChannel receiver = ScionDatagramChannel.open();
+        ScionDatagramChannel sender = ScionDatagramChannel.open()) {
+      receiver.setDuplicateSuppression(true);
+      connect(sender, receiver);
+      sender.setRedundancy(2);
+      MockNetwork.dropNextPackets(1);
+      send(sender, 1);
+
+      ByteBuffer buffer = ByteBuffer.allocate(100);
+      assertNotNull(receiver.receive(buffer));
+      buffer.flip();
+      assertEquals(0, buffer.getInt());
+      assertNoMoreDatagrams(receiver);
+    }
+  }
+
+  @Test
+  void noSuppression() throws IOException {
+    try (ScionDatagramChannel receiver = ScionDatagramChannel.open();
+        ScionDatagramChannel sender = ScionDatagramChannel.open()) {
+      connect(sender, receiver);
+      sender.setRedundancy(2);
+      send(sender, 1);
+
+      // Both copies are delivered, including the redundancy header
+      ByteBuffer buffer = ByteBuffer.allocate(100);
+      for (int i = 0; i < 2; i++) {
+        buffer.clear();
+        assertNotNull(receiver.receive(buffer));
+        assertEquals(12, buffer.position());
+      }
+      assertThrows(IllegalArgumentException.class, () -> sender.setRedundancy(0));
+    }
+  }
+
+  @Test
+  void noRedundancy() throws IOException {
+    try (ScionDatagramChannel receiver = ScionDatagramChannel.open();
+        ScionDatagramChannel sender = ScionDatagramChannel.open()) {
+      receiver.setDuplicateSuppression(true);
+      connect(sender, receiver);
+      send(sender, 2);
+
+      // Datagrams without redundancy header are dropped
+      waitForForwardCount(2);
+      assertEquals(2, MockNetwork.getAndResetForwardCount());
+      assertNoMoreDatagrams(receiver);
+    }
+  }
+
+  @Test
+  void alternativePathsAreLookedUpInBackground() throws IOException {
+    try (ScionDatagramChannel receiver = ScionDatagramChannel.open();
+        ScionDatagramChannel sender = ScionDatagramChannel.open()) {
+      receiver.setDuplicateSuppression(true);
+      receiver.bind(new InetSocketAddress("127.0.0.1", 0));
+      InetSocketAddress dst = (InetSocketAddress) receiver.getLocalAddress();
+      Path path = Scion.defaultService().getPaths(ExamplePacket.DST_IA, dst).get(0);
+      sender.setRedundancy(2);
+
+      // Not connected: the first datagrams may be sent without copies
+      long deadline = System.currentTimeMillis() + 1000;
+      int sent = 0;
+      while (MockNetwork.getForwardCount(0) == 0 || MockNetwork.getForwardCount(1) == 0) {
+        assertTrue(System.currentTimeMillis() < deadline, "No redundant copy was sent");
+        sender.send(ByteBuffer.allocate(4), path);
+        sent++;
+        waitForForwardCount(sent);
+      }
+
+      ByteBuffer buffer = ByteBuffer.allocate(100);
+      for (int i = 0; i < sent; i++) {
+        buffer.clear();
+        assertNotNull(receiver.receive(buffer));
+      }
+      assertNoMoreDatagrams(receiver);
+    }
+  }
+}
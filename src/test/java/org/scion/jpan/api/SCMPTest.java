@@ -19,9 +19,12 @@ import static org.junit.jupiter.api.Assertions.*;
 import java.io.IOException;
 import java.net.*;
 import java.nio.ByteBuffer;
+import java.time.Duration;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
@@ -30,6 +33,7 @@ import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.Test;
 import org.scion.jpan.*;
 import org.scion.jpan.demo.inspector.ScionPacketInspector;
+import org.scion.jpan.internal.MeasuredLatencies;
 import org.scion.jpan.internal.ScionHeaderParser;
 import org.scion.jpan.testutil.MockNetwork;
 import org.scion.jpan.testutil.MockScmpHandler;
@@ -167,6 +171,102 @@ public class SCMPTest {
     }
   }
 
+  @Test
+  void probePaths() throws Exception {
+    MockNetwork.startTiny();
+    ScionService service = Scion.defaultService();
+    MeasuredLatencies latencies = PackageVisibilityHelper.getMeasuredLatencies(service);
+    try {
+      service.setPathProbeTimeout(Duration.ofMillis(100));
+      InetAddress zero = InetAddress.getByAddress(new byte[] {0, 0, 0, 0});
+      long dstIA = ScionUtil.parseIA("1-ff00:0:112");
+      List<Path> paths = service.getPaths(dstIA, zero, Constants.SCMP_PORT);
+      assertEquals(2, paths.size());
+      Path path0 = paths.get(0);
+      Path path1 = paths.get(1);
+      assertEquals(MeasuredLatencies.UNKNOWN, rtt(latencies, path0));
+
+      MockNetwork.answerNextScmpEchos(1);
+      assertEquals(
+          Collections.singletonList(path1),
+          service.probePaths(Collections.singletonList(path1)).get());
+      long rtt = rtt(latencies, path1);
+      assertTrue(rtt > 0 && rtt < 100_000_000, "rtt=" + rtt);
+      assertEquals(path1, PathPolicy.MEASURED_LATENCY.filter(paths));
+
+      MockNetwork.dropNextPackets(1);
+      service.probePaths(Collections.singletonList(path0)).get();
+      assertEquals(MeasuredLatencies.TIMED_OUT, rtt(latencies, path0));
+      assertEquals(path1, PathPolicy.MEASURED_LATENCY.filter(paths));
+
+      // Timed out paths are ranked after paths without measurement
+      latencies.clear();
+      MockNetwork.dropNextPackets(1);
+      service.probePaths(Collections.singletonList(path1)).get();
+      assertEquals(path0, PathPolicy.MEASURED_LATENCY.filter(paths));
+
+      // Expired measurements are ignored
+      latencies.setTtl(0, TimeUnit.NANOSECONDS);
+      assertEquals(MeasuredLatencies.UNKNOWN, rtt(latencies, path1));
+      // Measurements are per destination ISD/AS
+      latencies.setTtl(Constants.DEFAULT_PATH_PROBE_TTL, TimeUnit.SECONDS);
+      long fingerprint = path1.getMetadata().getFingerprint();
+      assertNotEquals(MeasuredLatencies.UNKNOWN, latencies.getRttNanos(dstIA, fingerprint));
+      long otherIA = ScionUtil.parseIA("1-ff00:0:111");
+      assertEquals(MeasuredLatencies.UNKNOWN, latencies.getRttNanos(otherIA, fingerprint));
+    } finally {
+      ScionService.closeDefault();
+      MockNetwork.stopTiny();
+    }
+  }
+
+  @Test
+  void lookupAndGetPath_measuredLatency() throws Exception {
+    System.setProperty(
+        PackageVisibilityHelper.DEBUG_PROPERTY_DNS_MOCK,
+        "as112.test=\"scion=1-ff00:0:112,127.0.0.1\"");
+    MockNetwork.startTiny();
+    try {
+      ScionService service = Scion.defaultService();
+      MeasuredLatencies latencies = PackageVisibilityHelper.getMeasuredLatencies(service);
+      service.setPathProbeTimeout(Duration.ofMillis(100));
+
+      // All paths are probed before the policy is applied
+      MockNetwork.answerNextScmpEchos(2);
+      Path path = service.lookupAndGetPath("as112.test", 12345, PathPolicy.MEASURED_LATENCY);
+      List<Path> paths = service.getPaths(path.getRemoteIsdAs(), path.getRemoteAddress(), 12345);
+      assertEquals(2, paths.size());
+      for (Path p : paths) {
+        long rtt = rtt(latencies, p);
+        assertTrue(rtt > 0 && rtt < 100_000_000, "rtt=" + rtt);
+      }
+
+      // Recent measurements are not probed again
+      MockNetwork.getAndResetForwardCount();
+      assertNotNull(service.lookupAndGetPath("as112.test", 12345, PathPolicy.MEASURED_LATENCY));
+      assertEquals(0, MockNetwork.getAndResetForwardCount());
+
+      // Probes without answer do not block the lookup beyond the probe deadline
+      latencies.clear();
+      MockNetwork.dropNextPackets(2);
+      long start = System.nanoTime();
+      assertNotNull(service.lookupAndGetPath("as112.test", 12345, PathPolicy.MEASURED_LATENCY));
+      long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      assertTrue(elapsedMs < 1_000, "elapsed=" + elapsedMs);
+      for (Path p : paths) {
+        assertEquals(MeasuredLatencies.TIMED_OUT, rtt(latencies, p));
+      }
+    } finally {
+      System.clearProperty(PackageVisibilityHelper.DEBUG_PROPERTY_DNS_MOCK);
+      ScionService.closeDefault();
+      MockNetwork.stopTiny();
+    }
+  }
+
+  private static long rtt(MeasuredLatencies latencies, Path path) {
+    return latencies.getRttNanos(path.getRemoteIsdAs(), path.getMetadata().getFingerprint());
+  }
+
   @Test
   void echo_IOException() throws IOException {
     MockNetwork.startTiny();
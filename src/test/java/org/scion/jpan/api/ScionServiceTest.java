@@ -21,11 +21,23 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.net.*;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
 import org.scion.jpan.*;
 import org.scion.jpan.internal.DNSHelper;
 import org.scion.jpan.testutil.DNSUtil;
@@ -98,6 +110,33 @@ public class ScionServiceTest {
     }
   }
 
+  @Test
+  @EnabledOnOs(OS.LINUX)
+  void testDaemonCreationUnixDomainSocket(@TempDir java.nio.file.Path tempDir) throws IOException {
+    java.nio.file.Path socketFile = tempDir.resolve("sciond.sock");
+    MockDaemon daemon = MockDaemon.createForUnixSocket(socketFile).start();
+    long dstIA = ScionUtil.parseIA("1-ff00:0:112");
+    InetSocketAddress dstAddress = new InetSocketAddress("::1", 12345);
+    try (Scion.CloseableService client = Scion.newServiceWithDaemon("unix://" + socketFile)) {
+      Path path = client.getPaths(dstIA, dstAddress).get(0);
+      assertNotNull(path);
+      assertEquals(dstIA, path.getRemoteIsdAs());
+      // local AS + path
+      assertEquals(2, MockDaemon.getAndResetCallCount());
+    } finally {
+      daemon.close();
+    }
+  }
+
+  @Test
+  @EnabledOnOs(OS.LINUX)
+  void testWrongDaemonUnixDomainSocket(@TempDir java.nio.file.Path tempDir) {
+    String daemonAddr = "unix://" + tempDir.resolve("missing.sock");
+    ScionRuntimeException thrown =
+        assertThrows(ScionRuntimeException.class, () -> Scion.newServiceWithDaemon(daemonAddr));
+    assertTrue(thrown.getMessage().startsWith("Could not connect"), thrown.getMessage());
+  }
+
   @Test
   void getPath() throws IOException {
     InetSocketAddress dstAddress = new InetSocketAddress("::1", 12345);
@@ -170,6 +209,114 @@ public class ScionServiceTest {
     }
   }
 
+  @Test
+  void getPathsAsync() throws Exception {
+    InetSocketAddress dstAddress = new InetSocketAddress("::1", 12345);
+    MockDaemon.createAndStartDefault();
+    try {
+      long dstIA = ScionUtil.parseIA("1-ff00:0:112");
+      try (Scion.CloseableService client =
+          Scion.newServiceWithDaemon(MockDaemon.DEFAULT_ADDRESS_STR)) {
+        List<Path> paths = client.getPathsAsync(dstIA, dstAddress).get(5, TimeUnit.SECONDS);
+        assertEquals(1, paths.size());
+        assertEquals("/127.0.0.10:31004", paths.get(0).getFirstHopAddress().toString());
+        assertEquals(dstIA, paths.get(0).getRemoteIsdAs());
+      }
+      // get local AS, get PATH
+      assertEquals(2, MockDaemon.getAndResetCallCount());
+    } finally {
+      MockDaemon.closeDefault();
+    }
+  }
+
+  @Test
+  void getPathsAsync_timeout() throws Exception {
+    InetSocketAddress dstAddress = new InetSocketAddress("::1", 12345);
+    MockDaemon.createAndStartDefault();
+    try {
+      long dstIA = ScionUtil.parseIA("1-ff00:0:112");
+      try (Scion.CloseableService client =
+          Scion.newServiceWithDaemon(MockDaemon.DEFAULT_ADDRESS_STR)) {
+        client.setAsyncDeadline(Duration.ofMillis(50));
+        MockDaemon.setPathsDelay(500);
+        CompletableFuture<List<Path>> future = client.getPathsAsync(dstIA, dstAddress);
+        ExecutionException e =
+            assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(TimeoutException.class, e.getCause());
+      }
+    } finally {
+      MockDaemon.setPathsDelay(0);
+      MockDaemon.closeDefault();
+      MockDaemon.getAndResetCallCount();
+    }
+  }
+
+  @Test
+  void watchPaths() throws Exception {
+    InetSocketAddress dstAddress = new InetSocketAddress("::1", 12345);
+    MockDaemon.createAndStartDefault();
+    try {
+      long dstIA = ScionUtil.parseIA("1-ff00:0:112");
+      try (Scion.CloseableService client =
+          Scion.newServiceWithDaemon(MockDaemon.DEFAULT_ADDRESS_STR)) {
+        BlockingQueue<PathWatch.Update> updates1 = new LinkedBlockingQueue<>();
+        BlockingQueue<PathWatch.Update> updates2 = new LinkedBlockingQueue<>();
+        PathWatch watch1 = client.watchPaths(dstIA, dstAddress, updates1::add);
+        PathWatch.Update update = updates1.poll(5, TimeUnit.SECONDS);
+        assertNotNull(update);
+        assertEquals(1, update.getAdded().size());
+        assertEquals(dstIA, update.getAdded().get(0).getRemoteIsdAs());
+        assertEquals(update.getPaths(), watch1.getPaths());
+
+        // A second watch for the same ISD/AS does not trigger another lookup
+        InetSocketAddress dstAddress2 = new InetSocketAddress("::1", 23456);
+        PathWatch watch2 = client.watchPaths(dstIA, dstAddress2, updates2::add);
+        update = updates2.poll(5, TimeUnit.SECONDS);
+        assertNotNull(update);
+        assertEquals(23456, update.getAdded().get(0).getRemotePort());
+        watch1.close();
+        watch2.close();
+      }
+      // get local AS, get PATH
+      assertEquals(2, MockDaemon.getAndResetCallCount());
+    } finally {
+      MockDaemon.closeDefault();
+    }
+  }
+
+  @Test
+  void lookupAndGetPathAsync() throws Exception {
+    System.setProperty(
+        PackageVisibilityHelper.DEBUG_PROPERTY_DNS_MOCK, SCION_HOST + "=" + SCION_TXT);
+    MockNetwork.startTiny(MockNetwork.Mode.NAPTR);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      ScionService pathService = Scion.defaultService();
+      pathService.setAsyncExecutor(executor);
+      CompletableFuture<Path> future =
+          pathService.lookupAndGetPathAsync(SCION_HOST, SCION_HOST_PORT, null);
+      Path path = future.get(5, TimeUnit.SECONDS);
+      ScionSocketAddress sAddr = path.getRemoteSocketAddress();
+      assertEquals("1-ff00:0:110", ScionUtil.toStringIA(sAddr.getIsdAs()));
+      assertEquals(SCION_HOST_PORT, sAddr.getPort());
+
+      assertEquals(
+          ScionUtil.parseIA("1-ff00:0:110"),
+          pathService.getIsdAsAsync(SCION_HOST).get(5, TimeUnit.SECONDS));
+
+      // Unknown host
+      CompletableFuture<Long> failed = pathService.getIsdAsAsync("hello.there.com");
+      ExecutionException e =
+          assertThrows(ExecutionException.class, () -> failed.get(5, TimeUnit.SECONDS));
+      assertInstanceOf(ScionException.class, e.getCause());
+    } finally {
+      executor.shutdown();
+      System.clearProperty(PackageVisibilityHelper.DEBUG_PROPERTY_DNS_MOCK);
+      ScionService.closeDefault();
+      MockNetwork.stopTiny();
+    }
+  }
+
   @Test
   void getPaths_localAS() throws IOException {
     InetSocketAddress dstAddress = new InetSocketAddress("::1", 12345);
@@ -0,0 +1,161 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.api;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.scion.jpan.*;
+import org.scion.jpan.testutil.ExamplePacket;
+import org.scion.jpan.testutil.MockNetwork;
+
+class ScionStreamChannelTest {
+
+  @AfterAll
+  public static void afterAll() {
+    // Defensive clean up
+    ScionService.closeDefault();
+  }
+
+  @BeforeEach
+  public void beforeEach() {
+    MockNetwork.startTiny();
+    MockNetwork.getAndResetForwardCount();
+  }
+
+  @AfterEach
+  public void afterEach() {
+    MockNetwork.stopTiny();
+    // Other tests expect the counter to start at 0
+    MockNetwork.getAndResetForwardCount();
+  }
+
+  private static byte[] createData(int length) {
+    byte[] data = new byte[length];
+    new Random(42).nextBytes(data);
+    return data;
+  }
+
+  private static CompletableFuture<byte[]> startServer(ScionStreamChannel server, int length) {
+    return CompletableFuture.supplyAsync(
+        () -> {
+          try {
+            server.accept();
+            byte[] data = readFully(server, length);
+            // Expect end-of-stream
+            assertEquals(-1, server.read(ByteBuffer.allocate(10)));
+            return data;
+          } catch (IOException e) {
+            throw new IllegalStateException(e);
+          }
+        });
+  }
+
+  private static byte[] readFully(ScionStreamChannel channel, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining()) {
+      assertTrue(channel.read(buffer) > 0);
+    }
+    return buffer.array();
+  }
+
+  private static void transfer(byte[] data, boolean dropPackets)
+      throws IOException, ExecutionException, InterruptedException, TimeoutException {
+    try (ScionStreamChannel server = ScionStreamChannel.open()) {
+      server.bind(new InetSocketAddress("127.0.0.1", 0));
+      CompletableFuture<byte[]> received = startServer(server, data.length);
+      try (ScionStreamChannel client = ScionStreamChannel.open()) {
+        client.connect(ExamplePacket.DST_IA, server.getLocalAddress());
+        if (dropPackets) {
+          MockNetwork.dropNextPackets(5);
+        }
+        ByteBuffer src = ByteBuffer.wrap(data);
+        // Write in several chunks
+        while (src.hasRemaining()) {
+          ByteBuffer chunk = src.slice();
+          chunk.limit(Math.min(chunk.remaining(), 100_000));
+          src.position(src.position() + client.write(chunk));
+        }
+        client.shutdownOutput();
+        assertArrayEquals(data, received.get(10, TimeUnit.SECONDS));
+        if (dropPackets) {
+          assertTrue(client.getRetransmissionCount() > 0);
+        }
+        assertTrue(client.getSmoothedRttNanos() > 0);
+        assertTrue(client.getCongestionWindow() > 0);
+      }
+    }
+  }
+
+  @Test
+  void transfer() throws Exception {
+    transfer(createData(1_000_000), false);
+  }
+
+  @Test
+  void transfer_withLoss() throws Exception {
+    transfer(createData(300_000), true);
+  }
+
+  @Test
+  void bidirectional() throws Exception {
+    byte[] request = createData(50_000);
+    byte[] response = createData(200_000);
+    try (ScionStreamChannel server = ScionStreamChannel.open()) {
+      server.bind(new InetSocketAddress("127.0.0.1", 0));
+      CompletableFuture<Void> serverResult =
+          CompletableFuture.runAsync(
+              () -> {
+                try {
+                  server.accept();
+                  assertArrayEquals(request, readFully(server, request.length));
+                  assertEquals(response.length, server.write(ByteBuffer.wrap(response)));
+                  server.close();
+                } catch (IOException e) {
+                  throw new IllegalStateException(e);
+                }
+              });
+      try (ScionStreamChannel client = ScionStreamChannel.open()) {
+        client.connect(ExamplePacket.DST_IA, server.getLocalAddress());
+        assertNotNull(client.getPath());
+        assertEquals(request.length, client.write(ByteBuffer.wrap(request)));
+        assertArrayEquals(response, readFully(client, response.length));
+        assertEquals(-1, client.read(ByteBuffer.allocate(10)));
+      }
+      serverResult.get(10, TimeUnit.SECONDS);
+    }
+  }
+
+  @Test
+  void closed() throws IOException {
+    ScionStreamChannel channel = ScionStreamChannel.open();
+    assertTrue(channel.isOpen());
+    channel.close();
+    assertFalse(channel.isOpen());
+    assertThrows(IOException.class, () -> channel.write(ByteBuffer.allocate(10)));
+    assertThrows(IOException.class, () -> channel.read(ByteBuffer.allocate(10)));
+  }
+}
@@ -0,0 +1,138 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.api;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.scion.jpan.*;
+import org.scion.jpan.demo.inspector.ScionPacketInspector;
+import org.scion.jpan.testutil.ExamplePacket;
+import org.scion.jpan.testutil.MockDatagramChannel;
+import org.scion.jpan.testutil.MockNetwork;
+
+class SendClassTest {
+
+  private static final int BULK = 8;
+  private static final int INTERACTIVE = 46;
+
+  @AfterAll
+  public static void afterAll() {
+    // Defensive clean up
+    ScionService.closeDefault();
+  }
+
+  @BeforeEach
+  public void beforeEach() {
+    MockNetwork.startTiny();
+  }
+
+  @AfterEach
+  public void afterEach() {
+    MockNetwork.stopTiny();
+    MockNetwork.getAndResetForwardCount();
+  }
+
+  private static Path getPath() throws IOException {
+    InetSocketAddress dst = new InetSocketAddress("127.0.0.1", 12345);
+    return Scion.defaultService().getPaths(ExamplePacket.DST_IA, dst).get(0);
+  }
+
+  @Test
+  void interactiveAheadOfBulk() throws IOException, InterruptedException {
+    List<Integer> sent = Collections.synchronizedList(new ArrayList<>());
+    try (MockDatagramChannel mock = MockDatagramChannel.open();
+        ScionDatagramChannel channel = ScionDatagramChannel.open(Scion.defaultService(), mock)) {
+      mock.setSendCallback(
+          (buffer, address) -> {
+            int len = buffer.remaining();
+            sent.add(ScionPacketInspector.readPacket(buffer).getScionHeader().getTrafficClass());
+            return len;
+          });
+      Path path = getPath();
+      channel.connect(path);
+      // 100 bytes per ms
+      channel.setOption(ScionSocketOptions.SCION_PACING_RATE, 800_000L);
+      SendClass bulk = channel.addSendClass(BULK, 1);
+      SendClass interactive = channel.addSendClass(INTERACTIVE, 1);
+      assertEquals(2, channel.getSendClasses().size());
+
+      // Packets are queued by the pacer
+      for (int i = 0; i < 20; i++) {
+        assertEquals(1000, channel.write(ByteBuffer.allocate(1000), bulk));
+      }
+      assertTrue(bulk.getQueueDepth() > 10);
+      int sentBefore = sent.size();
+      assertEquals(10, channel.send(ByteBuffer.allocate(10), path, interactive));
+
+      long deadline = System.currentTimeMillis() + 5_000;
+      while (sent.size() < 21 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals(21, sent.size());
+      int position = sent.indexOf(INTERACTIVE);
+      // The interactive packet does not wait for the bulk queue. At most one bulk packet is sent
+      // first (DRR round), plus one that may be in flight while the interactive packet is queued.
+      assertTrue(position >= sentBefore && position <= sentBefore + 2, "position=" + position);
+      assertEquals(20, bulk.getSentPackets());
+      assertEquals(0, bulk.getQueueDepth());
+      assertTrue(bulk.getMaxObservedQueueDepth() > 10);
+      assertEquals(1, interactive.getSentPackets());
+
+      // Packets without class use the traffic class of the channel
+      sent.clear();
+      channel.write(ByteBuffer.allocate(10));
+      deadline = System.currentTimeMillis() + 1_000;
+      while (sent.isEmpty() && System.currentTimeMillis() < deadline) {
+        Thread.sleep(1);
+      }
+      assertEquals(0, sent.get(0));
+    }
+  }
+
+  @Test
+  void nonBlocking() throws IOException {
+    try (ScionDatagramChannel receiver = ScionDatagramChannel.open();
+        ScionDatagramChannel sender = ScionDatagramChannel.open()) {
+      receiver.bind(new InetSocketAddress("127.0.0.1", 0));
+      InetSocketAddress dst = (InetSocketAddress) receiver.getLocalAddress();
+      sender.connect(Scion.defaultService().getPaths(ExamplePacket.DST_IA, dst).get(0));
+      sender.setOption(ScionSocketOptions.SCION_PACING_RATE, 80_000L);
+      sender.configureBlocking(false);
+      SendClass bulk = sender.addSendClass(BULK, 1);
+
+      // Queue limit is reached, the pacer permits only a few packets
+      int queued = 0;
+      while (sender.write(ByteBuffer.allocate(100), bulk) > 0) {
+        queued++;
+      }
+      assertTrue(queued > bulk.getMaxQueueDepth(), "queued=" + queued);
+      assertEquals(bulk.getMaxQueueDepth(), bulk.getQueueDepth());
+
+      ByteBuffer buffer = ByteBuffer.allocate(200);
+      receiver.receive(buffer);
+      assertEquals(100, buffer.position());
+    }
+  }
+}
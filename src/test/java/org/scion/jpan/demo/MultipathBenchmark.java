@@ -0,0 +1,103 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.demo;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.scion.jpan.*;
+import org.scion.jpan.testutil.ExamplePacket;
+import org.scion.jpan.testutil.MockNetwork;
+
+/**
+ * Measures the throughput of a {@link MultipathChannel} on the mock network. Each of the two border
+ * routers of the mock network is limited to the same bandwidth, so striping over both paths should
+ * roughly double the throughput.
+ */
+public class MultipathBenchmark {
+
+  public static boolean PRINT = true;
+  private static final int PAYLOAD = 1000;
+  // Per border router
+  private static final long ROUTER_BANDWIDTH = 1_000_000;
+  // Offered load, must exceed the capacity of both routers together
+  private static final long SEND_RATE = 3 * ROUTER_BANDWIDTH;
+
+  public static void main(String[] args) throws IOException {
+    MockNetwork.startTiny();
+    try {
+      double single = run(1, 1000);
+      double multi = run(2, 1000);
+      println(String.format("1 path: %.0f KB/s, 2 paths: %.0f KB/s", single, multi));
+    } finally {
+      MockNetwork.stopTiny();
+    }
+  }
+
+  /**
+   * Send at a rate that exceeds the capacity of all paths and measure the receive rate. Requires a
+   * running mock network.
+   *
+   * @param nPaths number of paths
+   * @param durationMs duration of the measurement
+   * @return The receive throughput in KB/s.
+   */
+  public static double run(int nPaths, int durationMs) throws IOException {
+    MockNetwork.setRouterBandwidth(ROUTER_BANDWIDTH);
+    ScionService service = Scion.defaultService();
+    try (MultipathChannel receiver = MultipathChannel.open(service);
+        MultipathChannel sender = MultipathChannel.open(service)) {
+      receiver.bind(new InetSocketAddress("127.0.0.1", 0));
+      receiver.configureBlocking(false);
+      sender.setMaxPaths(nPaths);
+      sender.connect(ExamplePacket.DST_IA, receiver.getLocalAddress());
+
+      ByteBuffer sendBuffer = ByteBuffer.allocate(PAYLOAD);
+      ByteBuffer receiveBuffer = ByteBuffer.allocate(PAYLOAD);
+      long intervalNanos = TimeUnit.SECONDS.toNanos(1) * PAYLOAD / SEND_RATE;
+      long start = System.nanoTime();
+      long end = start + TimeUnit.MILLISECONDS.toNanos(durationMs);
+      long nextSend = start;
+      long received = 0;
+      long now;
+      while ((now = System.nanoTime()) - end < 0) {
+        if (now - nextSend >= 0) {
+          sendBuffer.clear();
+          sender.write(sendBuffer);
+          nextSend += intervalNanos;
+        }
+        receiveBuffer.clear();
+        while (receiver.receive(receiveBuffer) >= 0) {
+          received += receiveBuffer.position();
+          receiveBuffer.clear();
+        }
+        LockSupport.parkNanos(Math.min(intervalNanos, Math.max(0, nextSend - now)));
+      }
+      double kbPerSecond = received / 1000.0 / (durationMs / 1000.0);
+      println(String.format("%d path(s): received %.0f KB/s", nPaths, kbPerSecond));
+      return kbPerSecond;
+    } finally {
+      MockNetwork.setRouterBandwidth(0);
+    }
+  }
+
+  private static void println(String msg) {
+    if (PRINT) {
+      System.out.println(msg);
+    }
+  }
+}
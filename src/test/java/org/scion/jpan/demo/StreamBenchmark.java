@@ -0,0 +1,134 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.demo;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.scion.jpan.*;
+import org.scion.jpan.testutil.ExamplePacket;
+import org.scion.jpan.testutil.MockNetwork;
+
+/**
+ * Measures the throughput of a {@link ScionStreamChannel} on the mock network. The border routers
+ * of the mock network are limited to a given bandwidth and the benchmark reports how much of it the
+ * stream can use.
+ */
+public class StreamBenchmark {
+
+  public static boolean PRINT = true;
+  private static final int CHUNK = 64 * 1024;
+  // Ignore slow start
+  private static final int WARMUP_MS = 200;
+
+  public static void main(String[] args) throws IOException {
+    MockNetwork.startTiny();
+    try {
+      run(0, 2000);
+      run(125_000_000, 2000); // 1 Gbit/s
+      run(1_250_000_000, 2000); // 10 Gbit/s
+    } finally {
+      MockNetwork.stopTiny();
+    }
+  }
+
+  /**
+   * Transfer data over a stream and measure the receive rate. Requires a running mock network.
+   *
+   * @param routerBandwidth bandwidth limit of the border routers in bytes per second, 0 for no
+   *     limit
+   * @param durationMs duration of the measurement
+   * @return The receive throughput in bytes per second.
+   */
+  public static double run(long routerBandwidth, int durationMs) throws IOException {
+    MockNetwork.setRouterBandwidth(routerBandwidth);
+    ScionService service = Scion.defaultService();
+    try (ScionStreamChannel server = ScionStreamChannel.open(service)) {
+      server.bind(new InetSocketAddress("127.0.0.1", 0));
+      CompletableFuture<Double> result = CompletableFuture.supplyAsync(() -> receive(server));
+      try (ScionStreamChannel client = ScionStreamChannel.open(service)) {
+        client.connect(ExamplePacket.DST_IA, server.getLocalAddress());
+        ByteBuffer buffer = ByteBuffer.allocate(CHUNK);
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WARMUP_MS + durationMs);
+        while (System.nanoTime() - end < 0) {
+          buffer.clear();
+          client.write(buffer);
+        }
+        client.shutdownOutput();
+        double bytesPerSecond = result.get();
+        print(routerBandwidth, bytesPerSecond, client);
+        return bytesPerSecond;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      throw new IOException(e);
+    } finally {
+      MockNetwork.setRouterBandwidth(0);
+    }
+  }
+
+  private static double receive(ScionStreamChannel server) {
+    try {
+      server.accept();
+      ByteBuffer buffer = ByteBuffer.allocate(CHUNK);
+      long start = System.nanoTime();
+      long warmupEnd = start + TimeUnit.MILLISECONDS.toNanos(WARMUP_MS);
+      long bytes = 0;
+      long t0 = 0;
+      long t1 = 0;
+      int n;
+      while ((n = server.read(buffer)) >= 0) {
+        buffer.clear();
+        long now = System.nanoTime();
+        if (now - warmupEnd >= 0) {
+          if (t0 == 0) {
+            t0 = now;
+          } else {
+            bytes += n;
+            t1 = now;
+          }
+        }
+      }
+      return t1 == t0 ? 0 : bytes * 1e9 / (t1 - t0);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void print(long routerBandwidth, double bytesPerSecond, ScionStreamChannel s) {
+    if (!PRINT) {
+      return;
+    }
+    String limit = routerBandwidth == 0 ? "none" : String.format("%.2f", routerBandwidth * 8e-9);
+    String utilization =
+        routerBandwidth == 0
+            ? ""
+            : String.format(", %.0f%%", 100 * bytesPerSecond / routerBandwidth);
+    System.out.println(
+        String.format(
+            "Limit: %s Gbit/s -> %.2f Gbit/s%s, cwnd=%d KB, srtt=%.2f ms, retransmissions=%d",
+            limit,
+            bytesPerSecond * 8e-9,
+            utilization,
+            s.getCongestionWindow() / 1024,
+            s.getSmoothedRttNanos() / 1e6,
+            s.getRetransmissionCount()));
+  }
+}
@@ -252,6 +252,10 @@ public class ScionHeader {
     return dt;
   }
 
+  public int getFlowId() {
+    return flowId;
+  }
+
   public void setSrcIA(long srcIsdAs) {
     this.srcIsdAs = srcIsdAs;
   }
@@ -200,7 +200,7 @@ public class ScionPacketInspector {
     } else if (errors.contains(type)) {
       scionHeader.write(
           newData,
-          8,
+          scmpHeader.getErrorLength(),
           pathHeaderScion.length(),
           Constants.PathTypes.SCION,
           InternalConstants.HdrTypes.SCMP);
@@ -29,6 +29,9 @@ public class ScmpHeader {
   private byte[] echoUserData;
   private long traceIsdAs;
   private long traceIfID;
+  private long errorIsdAs;
+  private long errorIfID1;
+  private long errorIfID2;
 
   public void read(ByteBuffer data) {
     int i0 = data.getInt();
@@ -50,6 +53,17 @@ public class ScmpHeader {
         traceIsdAs = data.getLong();
         traceIfID = data.getLong();
         break;
+      case ERROR_5:
+        data.position(data.position() - 4);
+        errorIsdAs = data.getLong();
+        errorIfID1 = data.getLong();
+        break;
+      case ERROR_6:
+        data.position(data.position() - 4);
+        errorIsdAs = data.getLong();
+        errorIfID1 = data.getLong();
+        errorIfID2 = data.getLong();
+        break;
       default:
         // SCMP error
     }
@@ -98,8 +112,26 @@ public class ScmpHeader {
     buffer.put(org.scion.jpan.internal.ByteUtil.toByte(type));
     buffer.put(org.scion.jpan.internal.ByteUtil.toByte(code));
     buffer.putShort((short) 0); // TODO checksum
-    buffer.putShort((short) short1); // unsigned identifier
-    buffer.putShort((short) short2); // unsigned sequenceNumber
+    if (getType() == Scmp.Type.ERROR_5) {
+      buffer.putLong(errorIsdAs);
+      buffer.putLong(errorIfID1);
+    } else if (getType() == Scmp.Type.ERROR_6) {
+      buffer.putLong(errorIsdAs);
+      buffer.putLong(errorIfID1);
+      buffer.putLong(errorIfID2);
+    } else {
+      buffer.putShort((short) short1); // unsigned identifier
+      buffer.putShort((short) short2); // unsigned sequenceNumber
+    }
+  }
+
+  public int getErrorLength() {
+    if (getType() == Scmp.Type.ERROR_5) {
+      return 4 + 16;
+    } else if (getType() == Scmp.Type.ERROR_6) {
+      return 4 + 24;
+    }
+    return 8;
   }
 
   @Override
@@ -124,6 +156,19 @@ public class ScmpHeader {
     return echoUserData;
   }
 
+  /**
+   * Set the data for SCMP errors of type 5 and 6.
+   *
+   * @param isdAs ISD-AS where the failure occurred
+   * @param ifID1 Interface ID (type 5) or ingress interface ID (type 6)
+   * @param ifID2 Egress interface ID (type 6)
+   */
+  public void setErrorData(long isdAs, long ifID1, long ifID2) {
+    this.errorIsdAs = isdAs;
+    this.errorIfID1 = ifID1;
+    this.errorIfID2 = ifID2;
+  }
+
   public void setTraceData(long isdAs, int ifID) {
     this.traceIsdAs = isdAs;
     this.traceIfID = ifID;
@@ -0,0 +1,48 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.demo.test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.scion.jpan.ScionService;
+import org.scion.jpan.demo.MultipathBenchmark;
+import org.scion.jpan.testutil.MockNetwork;
+
+public class MultipathBenchmarkTest {
+
+  @AfterAll
+  public static void afterAll() {
+    ScionService.closeDefault();
+  }
+
+  @Test
+  void test() throws IOException {
+    MultipathBenchmark.PRINT = false;
+    MockNetwork.startTiny();
+    try {
+      double single = MultipathBenchmark.run(1, 1000);
+      double multi = MultipathBenchmark.run(2, 1000);
+      // Ideally, two paths double the throughput. Only check for a gain, timing on CI is
+      // unreliable.
+      assertTrue(single > 0, "single=" + single);
+      assertTrue(multi > single, "single=" + single + " multi=" + multi);
+    } finally {
+      MockNetwork.stopTiny();
+    }
+  }
+}
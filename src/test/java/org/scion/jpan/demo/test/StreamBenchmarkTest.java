@@ -0,0 +1,47 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.demo.test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.scion.jpan.ScionService;
+import org.scion.jpan.demo.StreamBenchmark;
+import org.scion.jpan.testutil.MockNetwork;
+
+public class StreamBenchmarkTest {
+
+  @AfterAll
+  public static void afterAll() {
+    ScionService.closeDefault();
+  }
+
+  @Test
+  void test() throws IOException {
+    StreamBenchmark.PRINT = false;
+    MockNetwork.startTiny();
+    try {
+      long bandwidth = 5_000_000;
+      double throughput = StreamBenchmark.run(bandwidth, 1000);
+      assertTrue(throughput > 0.4 * bandwidth, "throughput=" + throughput);
+      assertTrue(throughput < 1.1 * bandwidth, "throughput=" + throughput);
+    } finally {
+      MockNetwork.stopTiny();
+      MockNetwork.getAndResetForwardCount();
+    }
+  }
+}
@@ -74,6 +74,16 @@ public abstract class AbstractSegmentsMinimalTest {
   /** ISD 2 - non-core AS */
   protected static final long AS_211 = ScionUtil.parseIA("2-ff00:0:211");
 
+  // First two bytes of the hop field MACs of addResponsesWithPeering()
+  protected static final int MAC_110_UP = 0x1100;
+  protected static final int MAC_111 = 0x2200;
+  protected static final int MAC_111_PEER = 0x2300;
+  protected static final int MAC_1111 = 0x4400;
+  protected static final int MAC_110_DOWN = 0x5500;
+  protected static final int MAC_112 = 0x6600;
+  protected static final int MAC_112_PEER = 0x6700;
+  protected static final int MAC_1121 = 0x8800;
+
   protected static MockControlServer controlServer;
 
   protected static void checkMetaHeader(
@@ -152,7 +162,15 @@ public abstract class AbstractSegmentsMinimalTest {
   }
 
   private static Seg.HopField buildHopField(int expiry, int ingress, int egress) {
-    ByteString mac = ByteString.copyFrom(new byte[] {1, 2, 3, 4, 5, 6});
+    return buildHopField(expiry, ingress, egress, 0x0102);
+  }
+
+  /**
+   * @param macPrefix The first two bytes of the MAC, they are XORed into the SegID.
+   */
+  private static Seg.HopField buildHopField(int expiry, int ingress, int egress, int macPrefix) {
+    ByteString mac =
+        ByteString.copyFrom(new byte[] {(byte) (macPrefix >>> 8), (byte) macPrefix, 3, 4, 5, 6});
     return Seg.HopField.newBuilder()
         .setExpTime(expiry)
         .setIngress(ingress)
@@ -165,7 +183,17 @@ public abstract class AbstractSegmentsMinimalTest {
     return Seg.HopEntry.newBuilder().setIngressMtu(mtu).setHopField(hf).build();
   }
 
-  private static Seg.ASEntry buildASEntry(long isdAs, long nextIA, int mtu, Seg.HopEntry he) {
+  private static Seg.PeerEntry buildPeerEntry(long peerIA, int peerIf, Seg.HopField hf) {
+    return Seg.PeerEntry.newBuilder()
+        .setPeerIsdAs(peerIA)
+        .setPeerInterface(peerIf)
+        .setPeerMtu(1472)
+        .setHopField(hf)
+        .build();
+  }
+
+  private static Seg.ASEntry buildASEntry(
+      long isdAs, long nextIA, int mtu, Seg.HopEntry he, Seg.PeerEntry... peers) {
     Signed.Header header =
         Signed.Header.newBuilder()
             .setSignatureAlgorithm(Signed.SignatureAlgorithm.SIGNATURE_ALGORITHM_ECDSA_WITH_SHA256)
@@ -177,6 +205,7 @@ public abstract class AbstractSegmentsMinimalTest {
             .setNextIsdAs(nextIA)
             .setMtu(mtu)
             .setHopEntry(he)
+            .addAllPeerEntries(Arrays.asList(peers))
             .build();
     Signed.HeaderAndBodyInternal habi =
         Signed.HeaderAndBodyInternal.newBuilder()
@@ -232,6 +261,35 @@ public abstract class AbstractSegmentsMinimalTest {
     addResponse210_211();
   }
 
+  /**
+   * Same as the segments 110->111->1111 and 110->112->1121 from addResponses(), but with a peering
+   * link between 111 (interface 5) and 112 (interface 4). Every hop field has a distinct MAC, see
+   * the MAC_* constants, so that the SegIDs of the info fields can be verified.
+   */
+  protected void addResponsesWithPeering() {
+    Seg.HopEntry he00 = buildHopEntry(0, buildHopField(63, 0, 2, MAC_110_UP));
+    Seg.ASEntry ase00 = buildASEntry(AS_110, AS_111, 1472, he00);
+    Seg.HopEntry he01 = buildHopEntry(1472, buildHopField(63, 111, 1111, MAC_111));
+    Seg.PeerEntry pe01 = buildPeerEntry(AS_112, 4, buildHopField(63, 5, 1111, MAC_111_PEER));
+    Seg.ASEntry ase01 = buildASEntry(AS_111, AS_1111, 1472, he01, pe01);
+    Seg.HopEntry he02 = buildHopEntry(1472, buildHopField(63, 123, 0, MAC_1111));
+    Seg.ASEntry ase02 = buildASEntry(AS_1111, ZERO, 1472, he02);
+    Seg.PathSegment path0 = buildPath(10619, ase00, ase01, ase02);
+    controlServer.addResponse(
+        AS_1111, false, AS_110, true, buildResponse(Seg.SegmentType.SEGMENT_TYPE_UP, path0));
+
+    Seg.HopEntry he10 = buildHopEntry(0, buildHopField(63, 0, 3, MAC_110_DOWN));
+    Seg.ASEntry ase10 = buildASEntry(AS_110, AS_112, 1472, he10);
+    Seg.HopEntry he11 = buildHopEntry(1472, buildHopField(63, 453, 1121, MAC_112));
+    Seg.PeerEntry pe11 = buildPeerEntry(AS_111, 5, buildHopField(63, 4, 1121, MAC_112_PEER));
+    Seg.ASEntry ase11 = buildASEntry(AS_112, AS_1121, 1450, he11, pe11);
+    Seg.HopEntry he12 = buildHopEntry(1472, buildHopField(63, 345, 0, MAC_1121));
+    Seg.ASEntry ase12 = buildASEntry(AS_1121, ZERO, 1472, he12);
+    Seg.PathSegment path1 = buildPath(2700, ase10, ase11, ase12);
+    controlServer.addResponse(
+        AS_110, true, AS_1121, false, buildResponse(Seg.SegmentType.SEGMENT_TYPE_DOWN, path1));
+  }
+
   private void addResponse110_111() {
     //    Requesting segments: 1-ff00:0:111 -> 1-0:0:0
     //    SEG: key=SEGMENT_TYPE_UP -> n=1
@@ -0,0 +1,159 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.scion.jpan.ScionUtil;
+import org.scion.jpan.proto.control_plane.Seg;
+import org.scion.jpan.testutil.MockControlServer;
+
+class ControlServiceClientTest {
+
+  private static final int PORT_1 = 31091;
+  private static final int PORT_2 = 31092;
+  private static final int PORT_DEAD = 31093;
+  private static final String CS_1 = "127.0.0.1:" + PORT_1;
+  private static final String CS_2 = "127.0.0.1:" + PORT_2;
+  private static final String CS_DEAD = "127.0.0.1:" + PORT_DEAD;
+
+  private MockControlServer cs1;
+  private MockControlServer cs2;
+
+  @BeforeEach
+  void beforeEach() {
+    cs1 = MockControlServer.start(PORT_1);
+    cs2 = MockControlServer.start(PORT_2);
+  }
+
+  @AfterEach
+  void afterEach() {
+    cs1.close();
+    cs2.close();
+  }
+
+  private static Seg.SegmentsRequest request() {
+    long src = ScionUtil.parseIA("1-ff00:0:110");
+    long dst = ScionUtil.parseIA("1-ff00:0:112");
+    return Seg.SegmentsRequest.newBuilder().setSrcIsdAs(src).setDstIsdAs(dst).build();
+  }
+
+  @Test
+  void roundRobin() throws InterruptedException {
+    ControlServiceClient client = new ControlServiceClient(Arrays.asList(CS_1, CS_2), 5_000);
+    try {
+      for (int i = 0; i < 4; i++) {
+        assertNotNull(client.segments(request()));
+      }
+      assertEquals(2, cs1.getAndResetCallCount());
+      assertEquals(2, cs2.getAndResetCallCount());
+    } finally {
+      client.close();
+    }
+  }
+
+  @Test
+  void failoverOnUnavailable() throws InterruptedException {
+    ControlServiceClient client = new ControlServiceClient(Arrays.asList(CS_DEAD, CS_1), 5_000);
+    try {
+      for (int i = 0; i < 4; i++) {
+        assertNotNull(client.segments(request()));
+      }
+      assertEquals(4, cs1.getAndResetCallCount());
+    } finally {
+      client.close();
+    }
+  }
+
+  @Test
+  void allUnavailable() throws InterruptedException {
+    ControlServiceClient client = new ControlServiceClient(Collections.singletonList(CS_DEAD), 10);
+    try {
+      StatusRuntimeException e =
+          assertThrows(StatusRuntimeException.class, () -> client.segments(request()));
+      assertEquals(Status.Code.UNAVAILABLE, e.getStatus().getCode());
+    } finally {
+      client.close();
+    }
+  }
+
+  @Test
+  void hedging() throws InterruptedException {
+    cs1.setResponseDelayMs(3_000);
+    ControlServiceClient client = new ControlServiceClient(Arrays.asList(CS_1, CS_2), 50);
+    try {
+      long t0 = System.nanoTime();
+      assertNotNull(client.segments(request()));
+      long t1 = System.nanoTime();
+      assertTrue((t1 - t0) / 1_000_000 < 2_000, "Hedged request was not used");
+      assertEquals(1, cs1.getAndResetCallCount());
+      assertEquals(1, cs2.getAndResetCallCount());
+    } finally {
+      client.close();
+    }
+  }
+
+  @Test
+  void hedgingIgnoresFailureWhilePending() throws InterruptedException {
+    cs1.setResponseDelayMs(500);
+    cs2.setErrorStatus(Status.INTERNAL);
+    ControlServiceClient client = new ControlServiceClient(Arrays.asList(CS_1, CS_2), 50);
+    try {
+      // cs1 is slow, the hedged request to cs2 fails, but cs1 still answers.
+      assertNotNull(client.segments(request()));
+      assertEquals(1, cs1.getAndResetCallCount());
+      assertEquals(1, cs2.getAndResetCallCount());
+    } finally {
+      client.close();
+    }
+  }
+
+  @Test
+  void failureIsReportedWhenNothingIsPending() throws InterruptedException {
+    cs1.setErrorStatus(Status.INTERNAL);
+    ControlServiceClient client = new ControlServiceClient(Arrays.asList(CS_1, CS_2), 5_000);
+    try {
+      StatusRuntimeException e =
+          assertThrows(StatusRuntimeException.class, () -> client.segments(request()));
+      assertEquals(Status.Code.INTERNAL, e.getStatus().getCode());
+    } finally {
+      client.close();
+    }
+  }
+
+  @Test
+  void deadline() throws InterruptedException {
+    cs1.setResponseDelayMs(3_000);
+    cs2.setResponseDelayMs(3_000);
+    ControlServiceClient client = new ControlServiceClient(Arrays.asList(CS_1, CS_2), 50, 200);
+    try {
+      long t0 = System.nanoTime();
+      StatusRuntimeException e =
+          assertThrows(StatusRuntimeException.class, () -> client.segments(request()));
+      long t1 = System.nanoTime();
+      assertEquals(Status.Code.DEADLINE_EXCEEDED, e.getStatus().getCode());
+      assertTrue((t1 - t0) / 1_000_000 < 2_000, "Deadline was not enforced");
+    } finally {
+      client.close();
+    }
+  }
+}
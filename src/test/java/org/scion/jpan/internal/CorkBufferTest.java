@@ -0,0 +1,103 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class CorkBufferTest {
+
+  @Test
+  void corkAndFlush() throws IOException {
+    TestSender sender = new TestSender();
+    CorkBuffer cork = new CorkBuffer(sender, 100);
+    assertFalse(cork.isEnabled());
+    cork.enable();
+    assertEquals(10, cork.cork(ByteBuffer.allocate(10)));
+    assertEquals(20, cork.cork(ByteBuffer.allocate(20)));
+    assertEquals(2 * CorkBuffer.LENGTH_PREFIX + 30, cork.getPendingBytes());
+    assertTrue(sender.datagrams.isEmpty());
+
+    assertTrue(cork.flush());
+    assertEquals(1, sender.datagrams.size());
+    assertEquals(2 * CorkBuffer.LENGTH_PREFIX + 30, sender.datagrams.get(0));
+    assertEquals(0, cork.getPendingBytes());
+  }
+
+  @Test
+  void fullDatagramIsSent() throws IOException {
+    TestSender sender = new TestSender();
+    sender.maxPayloadLength = 50;
+    CorkBuffer cork = new CorkBuffer(sender, 10);
+    cork.enable();
+    cork.cork(ByteBuffer.allocate(30));
+    // Does not fit, the first message is sent
+    cork.cork(ByteBuffer.allocate(30));
+    assertEquals(1, sender.datagrams.size());
+    assertEquals(CorkBuffer.LENGTH_PREFIX + 30, cork.getPendingBytes());
+    assertThrows(IOException.class, () -> cork.cork(ByteBuffer.allocate(49)));
+  }
+
+  @Test
+  void messagesAreKeptIfPaced() throws IOException {
+    TestSender sender = new TestSender();
+    CorkBuffer cork = new CorkBuffer(sender, 100);
+    cork.enable();
+    cork.cork(ByteBuffer.allocate(10));
+    sender.paced = true;
+    assertFalse(cork.flush());
+    assertEquals(CorkBuffer.LENGTH_PREFIX + 10, cork.getPendingBytes());
+
+    sender.paced = false;
+    cork.disable();
+    assertFalse(cork.isEnabled());
+    assertEquals(1, sender.datagrams.size());
+  }
+
+  private static class TestSender implements CorkBuffer.Sender {
+    final List<Integer> datagrams = new ArrayList<>();
+    int maxPayloadLength = 1000;
+    boolean paced = false;
+
+    @Override
+    public int getMaxPayloadLength() {
+      return maxPayloadLength;
+    }
+
+    @Override
+    public boolean canSend() {
+      return true;
+    }
+
+    @Override
+    public int send(ByteBuffer datagram) {
+      if (paced) {
+        return 0;
+      }
+      datagrams.add(datagram.remaining());
+      return datagram.remaining();
+    }
+
+    @Override
+    public void onTimer() {
+      // The tests flush explicitly
+    }
+  }
+}
@@ -0,0 +1,110 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class CubicCongestionControlTest {
+
+  private static final int MSS = 1000;
+  private static final long RTT = 10_000_000;
+
+  @Test
+  void slowStart() {
+    CubicCongestionControl cc = new CubicCongestionControl(MSS);
+    assertEquals(10 * MSS, cc.getWindow());
+    assertTrue(cc.isSlowStart());
+    cc.onAck(10 * MSS, 0, RTT);
+    assertEquals(20 * MSS, cc.getWindow());
+  }
+
+  @Test
+  void lossAndRecovery() {
+    CubicCongestionControl cc = new CubicCongestionControl(MSS);
+    cc.onAck(90 * MSS, 0, RTT);
+    assertEquals(100 * MSS, cc.getWindow());
+
+    cc.onLoss(0);
+    assertEquals(70 * MSS, cc.getWindow());
+    assertFalse(cc.isSlowStart());
+
+    // Concave growth back to the previous maximum
+    long now = 0;
+    long previous = cc.getWindow();
+    for (int i = 0; i < 100; i++) {
+      now += RTT;
+      cc.onAck(cc.getWindow(), now, RTT);
+      assertTrue(cc.getWindow() >= previous);
+      // At most 1.5x per RTT
+      assertTrue(cc.getWindow() <= previous * 3 / 2 + 1);
+      previous = cc.getWindow();
+    }
+    assertTrue(cc.getWindow() > 100 * MSS, "cwnd=" + cc.getWindow());
+
+    // Multiplicative decrease down to 2 segments
+    CubicCongestionControl cc2 = new CubicCongestionControl(MSS);
+    cc2.onLoss(0);
+    cc2.onLoss(0);
+    assertEquals(4900, cc2.getWindow());
+    for (int i = 0; i < 10; i++) {
+      cc2.onLoss(0);
+    }
+    assertEquals(2 * MSS, cc2.getWindow());
+  }
+
+  @Test
+  void timeout() {
+    CubicCongestionControl cc = new CubicCongestionControl(MSS);
+    cc.onAck(90 * MSS, 0, RTT);
+    cc.onTimeout();
+    assertEquals(MSS, cc.getWindow());
+    // Slow start up to 70% of the previous window
+    assertTrue(cc.isSlowStart());
+    cc.onAck(69 * MSS, 0, RTT);
+    assertFalse(cc.isSlowStart());
+
+    cc.reset();
+    assertEquals(10 * MSS, cc.getWindow());
+    assertTrue(cc.isSlowStart());
+  }
+
+  @Test
+  void rttEstimator() {
+    RttEstimator rtt = new RttEstimator();
+    assertEquals(-1, rtt.getSmoothedRtt());
+    assertEquals(-1, rtt.getMinRtt());
+    assertEquals(1_000_000_000L, rtt.getRto());
+
+    rtt.update(100_000_000);
+    assertEquals(100_000_000, rtt.getSmoothedRtt());
+    assertEquals(300_000_000, rtt.getRto());
+    rtt.update(20_000_000);
+    assertEquals(90_000_000, rtt.getSmoothedRtt());
+    assertEquals(20_000_000, rtt.getMinRtt());
+
+    // Minimum RTO
+    for (int i = 0; i < 50; i++) {
+      rtt.update(1_000_000);
+    }
+    assertEquals(200_000_000, rtt.getRto());
+    rtt.backoff();
+    assertEquals(400_000_000, rtt.getRto());
+
+    rtt.reset();
+    assertEquals(-1, rtt.getSmoothedRtt());
+  }
+}
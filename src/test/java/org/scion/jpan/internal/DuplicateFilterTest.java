@@ -0,0 +1,111 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.InetSocketAddress;
+import org.junit.jupiter.api.Test;
+
+class DuplicateFilterTest {
+
+  private static final InetSocketAddress SENDER_1 = new InetSocketAddress("127.0.0.1", 12345);
+  private static final InetSocketAddress SENDER_2 = new InetSocketAddress("127.0.0.1", 12346);
+
+  @Test
+  void duplicates() {
+    DuplicateFilter filter = new DuplicateFilter();
+    assertFalse(filter.isDuplicate(1, SENDER_1, 10));
+    assertTrue(filter.isDuplicate(1, SENDER_1, 10));
+    // Different sender
+    assertFalse(filter.isDuplicate(1, SENDER_2, 10));
+    assertFalse(filter.isDuplicate(2, SENDER_1, 10));
+    // Out of order
+    assertFalse(filter.isDuplicate(1, SENDER_1, 12));
+    assertFalse(filter.isDuplicate(1, SENDER_1, 11));
+    assertTrue(filter.isDuplicate(1, SENDER_1, 11));
+    assertTrue(filter.isDuplicate(1, SENDER_1, 12));
+    // Within window
+    assertFalse(filter.isDuplicate(1, SENDER_1, 12 + DuplicateFilter.WINDOW_SIZE - 1));
+    assertTrue(filter.isDuplicate(1, SENDER_1, 12));
+    assertFalse(filter.isDuplicate(1, SENDER_1, 13));
+
+    filter.clear();
+    assertFalse(filter.isDuplicate(1, SENDER_1, 10));
+  }
+
+  @Test
+  void slidingWindow() {
+    DuplicateFilter filter = new DuplicateFilter();
+    for (int i = 0; i < 3 * DuplicateFilter.WINDOW_SIZE; i++) {
+      assertFalse(filter.isDuplicate(1, SENDER_1, i));
+      assertTrue(filter.isDuplicate(1, SENDER_1, i));
+      if (i >= 10) {
+        assertTrue(filter.isDuplicate(1, SENDER_1, i - 10));
+      }
+    }
+  }
+
+  @Test
+  void wrapAround() {
+    DuplicateFilter filter = new DuplicateFilter();
+    assertFalse(filter.isDuplicate(1, SENDER_1, -2));
+    assertFalse(filter.isDuplicate(1, SENDER_1, 0));
+    assertFalse(filter.isDuplicate(1, SENDER_1, -1));
+    assertFalse(filter.isDuplicate(1, SENDER_1, 1));
+    assertTrue(filter.isDuplicate(1, SENDER_1, -2));
+    assertTrue(filter.isDuplicate(1, SENDER_1, -1));
+    assertTrue(filter.isDuplicate(1, SENDER_1, 0));
+
+    assertFalse(filter.isDuplicate(1, SENDER_2, Integer.MAX_VALUE));
+    assertFalse(filter.isDuplicate(1, SENDER_2, Integer.MIN_VALUE));
+    assertTrue(filter.isDuplicate(1, SENDER_2, Integer.MAX_VALUE));
+  }
+
+  @Test
+  void lateCopiesAreDropped() {
+    DuplicateFilter filter = new DuplicateFilter();
+    int lag = DuplicateFilter.WINDOW_SIZE + 10;
+    for (int i = 0; i < 3 * DuplicateFilter.WINDOW_SIZE; i++) {
+      assertFalse(filter.isDuplicate(1, SENDER_1, i));
+      if (i >= lag) {
+        // Copy from a slow path, older than the window
+        assertTrue(filter.isDuplicate(1, SENDER_1, i - lag));
+      }
+      // The window of the fast stream is not affected by the late copies
+      if (i >= 5) {
+        assertTrue(filter.isDuplicate(1, SENDER_1, i - 5));
+      }
+    }
+  }
+
+  @Test
+  void senderRestart() {
+    DuplicateFilter filter = new DuplicateFilter();
+    long now = 0;
+    assertFalse(filter.isDuplicate(1, SENDER_1, 100_000, now));
+    // Older than the window, but the sequence is still active
+    assertTrue(filter.isDuplicate(1, SENDER_1, 0, now));
+    // Far behind the window: restart
+    assertFalse(filter.isDuplicate(1, SENDER_1, 100_000 - (1 << 30) - 1, now));
+    assertFalse(filter.isDuplicate(1, SENDER_1, 100_000, now));
+
+    // The previous sequence has ended: restart
+    now += DuplicateFilter.RESTART_IDLE_NANOS + 1;
+    assertFalse(filter.isDuplicate(1, SENDER_1, 0, now));
+    assertTrue(filter.isDuplicate(1, SENDER_1, 0, now));
+    assertFalse(filter.isDuplicate(1, SENDER_1, 1, now));
+  }
+}
@@ -0,0 +1,93 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+import org.scion.jpan.Path;
+import org.scion.jpan.ScionUtil;
+import org.scion.jpan.testutil.TestPaths;
+
+class FailedInterfacesTest {
+
+  private static final long AS_110 = ScionUtil.parseIA("1-ff00:0:110");
+  private static final long AS_111 = ScionUtil.parseIA("1-ff00:0:111");
+  private static final long AS_112 = ScionUtil.parseIA("1-ff00:0:112");
+
+  /** Path 110 (egress 1) -> 111 (ingress 2, egress 3) -> 112 (ingress 4) */
+  private static final Path PATH = TestPaths.create(AS_110, 1, AS_111, 2, AS_111, 3, AS_112, 4);
+
+  @Test
+  void externalInterface() {
+    FailedInterfaces failed = new FailedInterfaces(10);
+    assertTrue(failed.isEmpty());
+    assertFalse(failed.isAffected(PATH));
+
+    failed.addExternalInterface(AS_111, 4);
+    assertFalse(failed.isEmpty());
+    assertFalse(failed.isAffected(PATH));
+
+    failed.addExternalInterface(AS_111, 3);
+    assertTrue(failed.isAffected(PATH));
+  }
+
+  @Test
+  void internalConnection() {
+    FailedInterfaces failed = new FailedInterfaces(10);
+    failed.addInternalConnection(AS_111, 2, 4);
+    failed.addInternalConnection(AS_110, 2, 3);
+    assertFalse(failed.isAffected(PATH));
+
+    failed.addInternalConnection(AS_111, 3, 2);
+    assertTrue(failed.isAffected(PATH));
+
+    // First AS has no ingress interface
+    FailedInterfaces failed2 = new FailedInterfaces(10);
+    failed2.addInternalConnection(AS_110, 0, 1);
+    assertTrue(failed2.isAffected(PATH));
+  }
+
+  @Test
+  void duplicates() {
+    FailedInterfaces failed = new FailedInterfaces(10);
+    assertTrue(failed.addExternalInterface(AS_111, 3));
+    assertFalse(failed.addExternalInterface(AS_111, 3));
+    assertTrue(failed.addExternalInterface(AS_111, 4));
+    assertTrue(failed.addInternalConnection(AS_111, 2, 3));
+    assertFalse(failed.addInternalConnection(AS_111, 2, 3));
+
+    // Expired failures are new again
+    FailedInterfaces failed2 = new FailedInterfaces(0);
+    assertTrue(failed2.addExternalInterface(AS_111, 3));
+    long start = System.nanoTime();
+    while (System.nanoTime() == start) {
+      Thread.yield();
+    }
+    assertTrue(failed2.addExternalInterface(AS_111, 3));
+  }
+
+  @Test
+  void timeout() {
+    FailedInterfaces failed = new FailedInterfaces(0);
+    failed.addExternalInterface(AS_111, 3);
+    long start = System.nanoTime();
+    while (System.nanoTime() == start) {
+      Thread.yield();
+    }
+    assertFalse(failed.isAffected(PATH));
+    assertTrue(failed.isEmpty());
+  }
+}
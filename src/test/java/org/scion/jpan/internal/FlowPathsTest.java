@@ -0,0 +1,71 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.channels.NotYetConnectedException;
+import java.util.Collections;
+import org.junit.jupiter.api.Test;
+import org.scion.jpan.PackageVisibilityHelper;
+import org.scion.jpan.RequestPath;
+
+class FlowPathsTest {
+
+  @Test
+  void checkFlowId() {
+    FlowPaths.checkFlowId(0);
+    FlowPaths.checkFlowId((1 << 20) - 1);
+    assertThrows(IllegalArgumentException.class, () -> FlowPaths.checkFlowId(-1));
+    assertThrows(IllegalArgumentException.class, () -> FlowPaths.checkFlowId(1 << 20));
+  }
+
+  @Test
+  void notConnected() {
+    FlowPaths flowPaths = new FlowPaths(new TestPathContext());
+    assertThrows(NotYetConnectedException.class, () -> flowPaths.getPath(1));
+  }
+
+  @Test
+  void pathsAreLookedUpInBackground() {
+    TestPathContext context = new TestPathContext();
+    FlowPaths flowPaths = new FlowPaths(context);
+    RequestPath path = PackageVisibilityHelper.createDummyPath();
+    context.connectionPath = path;
+    // The connection path is used until the lookup has completed
+    assertSame(path, flowPaths.getPath(1));
+    assertFalse(flowPaths.hasPaths(path));
+    assertEquals(1, context.lookups.size());
+    // Only one lookup at a time
+    assertSame(path, flowPaths.getPath(2));
+    assertEquals(1, context.lookups.size());
+
+    context.lookups.get(0).accept(Collections.singletonList(path), null);
+    assertTrue(flowPaths.hasPaths(path));
+    assertSame(path, flowPaths.getPath(3));
+  }
+
+  @Test
+  void pathsAreIgnoredAfterDisconnect() {
+    TestPathContext context = new TestPathContext();
+    FlowPaths flowPaths = new FlowPaths(context);
+    RequestPath path = PackageVisibilityHelper.createDummyPath();
+    context.connectionPath = path;
+    flowPaths.getPath(1);
+    context.connectionPath = null;
+    context.lookups.get(0).accept(Collections.singletonList(path), null);
+    assertFalse(flowPaths.hasPaths(path));
+  }
+}
@@ -93,7 +93,8 @@ public class HeaderComposeTest {
         dstIA,
         dstAddress,
         InternalConstants.HdrTypes.UDP,
-        0);
+        0,
+        1);
     ScionHeaderParser.writePath(p, path);
 
     // Overlay header
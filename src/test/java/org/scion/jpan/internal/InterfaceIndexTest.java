@@ -0,0 +1,63 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Collections;
+import org.junit.jupiter.api.Test;
+import org.scion.jpan.Path;
+import org.scion.jpan.ScionUtil;
+import org.scion.jpan.testutil.TestPaths;
+
+class InterfaceIndexTest {
+
+  private static final long AS_110 = ScionUtil.parseIA("1-ff00:0:110");
+  private static final long AS_111 = ScionUtil.parseIA("1-ff00:0:111");
+  private static final long AS_112 = ScionUtil.parseIA("1-ff00:0:112");
+
+  @Test
+  void addGetRemove() {
+    Path path1 = TestPaths.create(AS_110, 1, AS_112, 2);
+    Path path2 = TestPaths.create(AS_110, 3, AS_111, 4, AS_111, 5, AS_112, 2);
+    InterfaceIndex<Path> index = new InterfaceIndex<>();
+    index.add(path1, path1);
+    index.add(path2, path2);
+
+    assertEquals(Collections.singletonList(path1), index.get(AS_110, 1));
+    assertEquals(Collections.singletonList(path2), index.get(AS_111, 5));
+    assertEquals(2, index.get(AS_112, 2).size());
+    assertTrue(index.get(AS_111, 1).isEmpty());
+    assertTrue(index.get(AS_112, 1).isEmpty());
+
+    index.remove(path1, path1);
+    assertTrue(index.get(AS_110, 1).isEmpty());
+    assertEquals(Collections.singletonList(path2), index.get(AS_112, 2));
+
+    index.clear();
+    assertTrue(index.get(AS_112, 2).isEmpty());
+  }
+
+  @Test
+  void differentKey() {
+    // Keys and paths are independent, e.g. user path -> refreshed path
+    Path key = TestPaths.create(AS_110, 1, AS_112, 2);
+    Path path = TestPaths.create(AS_110, 3, AS_112, 4);
+    InterfaceIndex<Path> index = new InterfaceIndex<>();
+    index.add(key, path);
+    assertTrue(index.get(AS_110, 1).isEmpty());
+    assertEquals(Collections.singletonList(key), index.get(AS_110, 3));
+  }
+}
@@ -0,0 +1,118 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class MessageFragmenterTest {
+
+  private static final InetSocketAddress SENDER = new InetSocketAddress("127.0.0.1", 12345);
+
+  private static ByteBuffer message(int length) {
+    ByteBuffer message = ByteBuffer.allocate(length);
+    for (int i = 0; i < length; i++) {
+      message.put((byte) i);
+    }
+    message.flip();
+    return message;
+  }
+
+  @Test
+  void fragmentsAreReassembled() throws IOException {
+    MessageFragmenter fragmenter = new MessageFragmenter();
+    TestSender sender = new TestSender();
+    ByteBuffer src = message(1000);
+    assertEquals(1000, fragmenter.send(src, sender));
+    assertFalse(src.hasRemaining());
+    assertEquals(10, sender.fragments.size());
+    assertEquals(Boolean.FALSE, sender.mustComplete.get(0));
+    assertEquals(Boolean.TRUE, sender.mustComplete.get(1));
+
+    MessageReassembler reassembler = new MessageReassembler(10_000, 100_000, 1_000_000_000L);
+    ByteBuffer result = null;
+    for (ByteBuffer fragment : sender.fragments) {
+      assertTrue(MessageReassembler.isFragment(fragment));
+      result = reassembler.add(1, SENDER, fragment, System.nanoTime());
+    }
+    assertNotNull(result);
+    assertEquals(message(1000), result);
+  }
+
+  @Test
+  void firstFragmentNotSent() throws IOException {
+    MessageFragmenter fragmenter = new MessageFragmenter();
+    TestSender sender = new TestSender();
+    sender.blocked = 1;
+    ByteBuffer src = message(1000);
+    assertEquals(0, fragmenter.send(src, sender));
+    assertEquals(1000, src.remaining());
+    assertTrue(sender.fragments.isEmpty());
+  }
+
+  @Test
+  void laterFragmentsAreRetried() throws IOException {
+    MessageFragmenter fragmenter = new MessageFragmenter();
+    TestSender sender = new TestSender();
+    fragmenter.send(message(150), sender);
+    sender.fragments.clear();
+    sender.blockAfter = 1;
+    sender.blocked = 2;
+    assertEquals(150, fragmenter.send(message(150), sender));
+    assertEquals(2, sender.fragments.size());
+  }
+
+  @Test
+  void emptyMessage() {
+    MessageFragmenter fragmenter = new MessageFragmenter();
+    TestSender sender = new TestSender();
+    ByteBuffer empty = ByteBuffer.allocate(0);
+    assertThrows(IllegalArgumentException.class, () -> fragmenter.send(empty, sender));
+  }
+
+  private static class TestSender implements MessageFragmenter.Sender {
+    final List<ByteBuffer> fragments = new ArrayList<>();
+    final List<Boolean> mustComplete = new ArrayList<>();
+    // Number of fragments to send before sending is blocked
+    int blockAfter = 0;
+    // Number of attempts that fail while sending is blocked
+    int blocked = 0;
+
+    @Override
+    public int getMaxPayloadLength() {
+      return MessageReassembler.HEADER_LENGTH + 100;
+    }
+
+    @Override
+    public int send(ByteBuffer fragment, boolean mustComplete) {
+      if (fragments.size() >= blockAfter && blocked > 0) {
+        blocked--;
+        return 0;
+      }
+      ByteBuffer copy = ByteBuffer.allocate(fragment.remaining());
+      copy.put(fragment);
+      copy.flip();
+      fragments.add(copy);
+      this.mustComplete.add(mustComplete);
+      return copy.remaining();
+    }
+  }
+}
@@ -0,0 +1,214 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class MessageReassemblerTest {
+
+  private static final long IA = 42;
+  private static final InetSocketAddress SENDER = new InetSocketAddress("127.0.0.1", 12345);
+  private static final long TIMEOUT = 1_000_000_000L;
+
+  private static ByteBuffer message(int length) {
+    ByteBuffer message = ByteBuffer.allocate(length);
+    for (int i = 0; i < length; i++) {
+      message.put((byte) i);
+    }
+    message.flip();
+    return message;
+  }
+
+  private static ByteBuffer fragment(int id, ByteBuffer message, int offset, int length) {
+    ByteBuffer buffer = ByteBuffer.allocate(MessageReassembler.HEADER_LENGTH + length);
+    MessageReassembler.writeHeader(buffer, id, message.limit(), offset);
+    ByteBuffer src = message.duplicate();
+    src.position(offset).limit(offset + length);
+    buffer.put(src).flip();
+    return buffer;
+  }
+
+  @Test
+  void outOfOrderWithDuplicatesAndMtuChange() {
+    ByteBuffer message = message(5000);
+    // MTU changes after the second fragment
+    List<ByteBuffer> fragments = new ArrayList<>();
+    fragments.add(fragment(7, message, 0, 1200));
+    fragments.add(fragment(7, message, 1200, 1200));
+    fragments.add(fragment(7, message, 2400, 800));
+    fragments.add(fragment(7, message, 3200, 800));
+    fragments.add(fragment(7, message, 4000, 800));
+    fragments.add(fragment(7, message, 4800, 200));
+    Collections.reverse(fragments);
+    fragments.add(2, fragments.get(4).duplicate());
+    assertTrue(MessageReassembler.isFragment(fragments.get(0)));
+
+    MessageReassembler reassembler = new MessageReassembler(10_000, 20_000, TIMEOUT);
+    ByteBuffer result = null;
+    for (ByteBuffer fragment : fragments) {
+      assertNull(result);
+      result = reassembler.add(IA, SENDER, fragment, 0);
+    }
+    assertEquals(message, result);
+    assertEquals(1, reassembler.getCompletedMessages());
+    assertEquals(0, reassembler.getBufferedBytes());
+    assertEquals(0, reassembler.getIncompleteMessageCount());
+    reassembler.release(result);
+  }
+
+  @Test
+  void interleaved() {
+    ByteBuffer message1 = message(2000);
+    ByteBuffer message2 = message(3000);
+    InetSocketAddress sender2 = new InetSocketAddress("127.0.0.1", 12346);
+    MessageReassembler reassembler = new MessageReassembler(10_000, 20_000, TIMEOUT);
+    // Same message ID, different sender
+    assertNull(reassembler.add(IA, SENDER, fragment(1, message1, 0, 1000), 0));
+    assertNull(reassembler.add(IA, sender2, fragment(1, message2, 0, 1000), 0));
+    assertNull(reassembler.add(IA, sender2, fragment(1, message2, 1000, 1000), 0));
+    assertEquals(message1, reassembler.add(IA, SENDER, fragment(1, message1, 1000, 1000), 0));
+    assertEquals(message2, reassembler.add(IA, sender2, fragment(1, message2, 2000, 1000), 0));
+  }
+
+  @Test
+  void timeout() {
+    ByteBuffer message = message(2000);
+    MessageReassembler reassembler = new MessageReassembler(10_000, 20_000, TIMEOUT);
+    assertNull(reassembler.add(IA, SENDER, fragment(1, message, 0, 1000), 0));
+    assertEquals(1, reassembler.getIncompleteMessageCount());
+    // Buffer capacity
+    assertEquals(2048, reassembler.getBufferedBytes());
+    // Expired, the second fragment starts a new message
+    assertNull(reassembler.add(IA, SENDER, fragment(1, message, 1000, 1000), TIMEOUT + 1));
+    assertEquals(1, reassembler.getDroppedMessages());
+    assertEquals(1, reassembler.getIncompleteMessageCount());
+  }
+
+  @Test
+  void memoryLimit() {
+    ByteBuffer message = message(4000);
+    MessageReassembler reassembler = new MessageReassembler(5_000, 10_000, TIMEOUT);
+    assertNull(reassembler.add(IA, SENDER, fragment(1, message, 0, 1000), 0));
+    assertNull(reassembler.add(IA, SENDER, fragment(2, message, 0, 1000), 1));
+    // Evicts message 1
+    assertNull(reassembler.add(IA, SENDER, fragment(3, message, 0, 1000), 2));
+    assertEquals(1, reassembler.getDroppedMessages());
+    assertEquals(8192, reassembler.getBufferedBytes());
+    assertEquals(2, reassembler.getIncompleteMessageCount());
+
+    // Too large
+    ByteBuffer large = message(6000);
+    assertNull(reassembler.add(IA, SENDER, fragment(4, large, 0, 1000), 3));
+    assertEquals(1, reassembler.getDroppedFragments());
+    assertEquals(2, reassembler.getIncompleteMessageCount());
+  }
+
+  @Test
+  void pooledBuffersCountTowardsLimit() {
+    MessageReassembler reassembler = new MessageReassembler(5_000, 10_000, TIMEOUT);
+    ByteBuffer message = message(4000);
+    reassembler.release(reassembler.add(IA, SENDER, fragment(1, message, 0, 4000), 0));
+    assertEquals(4096, reassembler.getPooledBytes());
+    assertEquals(0, reassembler.getBufferedBytes());
+    // Reuses the pooled buffer
+    assertNull(reassembler.add(IA, SENDER, fragment(2, message, 0, 1000), 0));
+    assertEquals(0, reassembler.getPooledBytes());
+    assertEquals(4096, reassembler.getBufferedBytes());
+    // Completes message 3, its buffer fits into the pool
+    reassembler.release(reassembler.add(IA, SENDER, fragment(3, message(2000), 0, 2000), 0));
+    assertEquals(2048, reassembler.getPooledBytes());
+    // The pooled buffer is released to make room for message 4
+    assertNull(reassembler.add(IA, SENDER, fragment(4, message, 0, 1000), 0));
+    assertEquals(8192, reassembler.getBufferedBytes());
+    assertEquals(0, reassembler.getPooledBytes());
+    assertEquals(0, reassembler.getDroppedMessages());
+    // Message 5 evicts message 2, whose buffer is not pooled
+    assertNull(reassembler.add(IA, SENDER, fragment(5, message(3000), 0, 1000), 0));
+    assertEquals(1, reassembler.getDroppedMessages());
+    assertEquals(8192, reassembler.getBufferedBytes());
+    assertEquals(0, reassembler.getPooledBytes());
+  }
+
+  @Test
+  void overlappingFragments() {
+    ByteBuffer message = message(3000);
+    MessageReassembler reassembler = new MessageReassembler(10_000, 20_000, TIMEOUT);
+    assertNull(reassembler.add(IA, SENDER, fragment(1, message, 0, 1000), 0));
+    assertNull(reassembler.add(IA, SENDER, fragment(1, message, 2000, 1000), 0));
+    // Overlaps the first or the second fragment: dropped, would otherwise complete the message
+    assertNull(reassembler.add(IA, SENDER, fragment(1, message, 500, 1000), 0));
+    assertNull(reassembler.add(IA, SENDER, fragment(1, message, 1500, 1000), 0));
+    assertNull(reassembler.add(IA, SENDER, fragment(1, message, 0, 500), 0));
+    assertEquals(3, reassembler.getDroppedFragments());
+    assertEquals(1, reassembler.getIncompleteMessageCount());
+    // Duplicate: ignored
+    assertNull(reassembler.add(IA, SENDER, fragment(1, message, 2000, 1000), 0));
+    assertEquals(3, reassembler.getDroppedFragments());
+    assertEquals(message, reassembler.add(IA, SENDER, fragment(1, message, 1000, 1000), 0));
+  }
+
+  @Test
+  void invalidFragment() {
+    ByteBuffer message = message(2000);
+    MessageReassembler reassembler = new MessageReassembler(10_000, 20_000, TIMEOUT);
+    assertNull(reassembler.add(IA, SENDER, fragment(1, message, 1000, 1000), 0));
+    // Exceeds total length
+    ByteBuffer bad = fragment(1, message, 1500, 500);
+    bad.putInt(12, 1600);
+    assertNull(reassembler.add(IA, SENDER, bad, 0));
+    assertEquals(1, reassembler.getDroppedFragments());
+    // Inconsistent total length
+    ByteBuffer other = fragment(1, message(3000), 0, 1000);
+    assertNull(reassembler.add(IA, SENDER, other, 0));
+    assertEquals(2, reassembler.getDroppedFragments());
+
+    assertFalse(MessageReassembler.isFragment(ByteBuffer.allocate(100)));
+    assertFalse(MessageReassembler.isFragment(ByteBuffer.allocate(4)));
+  }
+
+  @Test
+  void bufferPool() {
+    BufferPool pool = new BufferPool(10_000);
+    ByteBuffer buffer = pool.acquire(3000);
+    assertEquals(3000, buffer.limit());
+    assertEquals(4096, buffer.capacity());
+    pool.release(buffer);
+    assertEquals(4096, pool.getPooledBytes());
+    assertSame(buffer, pool.acquire(2500));
+    assertEquals(2500, buffer.limit());
+    assertEquals(0, pool.getPooledBytes());
+
+    // Bounded
+    pool.release(pool.acquire(8000));
+    pool.release(buffer);
+    assertEquals(8192, pool.getPooledBytes());
+    assertEquals(4096, BufferPool.capacity(3000));
+
+    pool.release(pool.acquire(1000));
+    assertEquals(9216, pool.getPooledBytes());
+    // Largest first
+    pool.trim(2000);
+    assertEquals(1024, pool.getPooledBytes());
+    pool.trim(0);
+    assertEquals(0, pool.getPooledBytes());
+  }
+}
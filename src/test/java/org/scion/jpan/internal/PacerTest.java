@@ -0,0 +1,65 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+import org.scion.jpan.PackageVisibilityHelper;
+import org.scion.jpan.Path;
+import org.scion.jpan.ScionSocketOptions;
+
+class PacerTest {
+
+  @Test
+  void notPaced() {
+    Pacer pacer = new Pacer();
+    Path path = PackageVisibilityHelper.createDummyPath();
+    assertEquals(0, pacer.getRate(path));
+    for (int i = 0; i < 10; i++) {
+      assertEquals(0, pacer.tryPace(path, 100_000));
+    }
+  }
+
+  @Test
+  void fixedRate() {
+    Pacer pacer = new Pacer();
+    Path path = PackageVisibilityHelper.createDummyPath();
+    // 8 Mbit/s = 1000 bytes per ms
+    pacer.setRate(8_000_000);
+    assertEquals(8_000_000, pacer.getRate(path));
+    assertEquals(0, pacer.tryPace(path, 30_000));
+    assertTrue(pacer.tryPace(path, 1000) > 0);
+
+    // Changing the rate resets the pacers
+    pacer.setRate(8_000_000);
+    assertEquals(0, pacer.tryPace(path, 1000));
+  }
+
+  @Test
+  void pathBandwidth() {
+    Pacer pacer = new Pacer();
+    Path path = PackageVisibilityHelper.createDummyPath();
+    pacer.setRate(ScionSocketOptions.PACING_PATH_BANDWIDTH);
+    // The dummy path announces no bandwidth
+    assertEquals(0, pacer.getRate(path));
+    assertEquals(0, pacer.tryPace(path, 30_000));
+
+    pacer.reportThroughput(path, 8_000_000);
+    assertEquals(8_000_000, pacer.getRate(path));
+    assertEquals(0, pacer.tryPace(path, 30_000));
+    assertTrue(pacer.tryPace(path, 1000) > 0);
+  }
+}
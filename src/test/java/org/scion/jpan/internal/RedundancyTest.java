@@ -0,0 +1,65 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import org.junit.jupiter.api.Test;
+import org.scion.jpan.PackageVisibilityHelper;
+import org.scion.jpan.RequestPath;
+
+class RedundancyTest {
+
+  @Test
+  void header() {
+    Redundancy redundancy = new Redundancy(new TestPathContext());
+    ByteBuffer buffer = ByteBuffer.allocate(100);
+    redundancy.putHeader(buffer, 0);
+    assertEquals(0, buffer.position());
+    assertEquals(0, redundancy.getHeaderLength());
+
+    redundancy.setCopies(3);
+    assertEquals(Redundancy.HEADER_LENGTH, redundancy.getHeaderLength());
+    redundancy.nextSequence();
+    redundancy.putHeader(buffer, 2);
+    buffer.flip();
+    assertTrue(Redundancy.hasHeader(buffer, 0));
+    assertEquals(1, Redundancy.getSequence(buffer, 0));
+    assertFalse(Redundancy.hasHeader(buffer, 1));
+
+    assertThrows(IllegalArgumentException.class, () -> redundancy.setCopies(0));
+  }
+
+  @Test
+  void pathsAreLookedUpInBackground() {
+    TestPathContext context = new TestPathContext();
+    Redundancy redundancy = new Redundancy(context);
+    redundancy.setCopies(2);
+    RequestPath path = PackageVisibilityHelper.createDummyPath();
+    assertTrue(redundancy.getPaths(path).isEmpty());
+    assertEquals(1, context.lookups.size());
+    // Only one lookup at a time
+    assertTrue(redundancy.getPaths(path).isEmpty());
+    assertEquals(1, context.lookups.size());
+
+    context.lookups.get(0).accept(Collections.singletonList(path), null);
+    // The path itself is not an alternative
+    assertTrue(redundancy.getPaths(path).isEmpty());
+    // Lookups for the same path are rate limited
+    assertEquals(1, context.lookups.size());
+  }
+}
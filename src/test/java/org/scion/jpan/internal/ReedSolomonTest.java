@@ -0,0 +1,101 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class ReedSolomonTest {
+
+  private static final int SHARD_SIZE = 100;
+
+  private static byte[][] createShards(int k, int m, Random rnd) {
+    byte[][] shards = new byte[k + m][SHARD_SIZE];
+    for (int i = 0; i < k; i++) {
+      rnd.nextBytes(shards[i]);
+    }
+    return shards;
+  }
+
+  private static byte[][] copy(byte[][] shards) {
+    byte[][] copy = new byte[shards.length][];
+    for (int i = 0; i < shards.length; i++) {
+      copy[i] = shards[i].clone();
+    }
+    return copy;
+  }
+
+  @Test
+  void allErasurePatterns() {
+    int k = 4;
+    int m = 3;
+    Random rnd = new Random(42);
+    ReedSolomon rs = new ReedSolomon(k, m);
+    byte[][] original = createShards(k, m, rnd);
+    rs.encode(original, SHARD_SIZE);
+
+    // Every combination of up to m missing shards
+    for (int mask = 0; mask < (1 << (k + m)); mask++) {
+      int nMissing = Integer.bitCount(mask);
+      byte[][] shards = copy(original);
+      boolean[] present = new boolean[k + m];
+      for (int i = 0; i < k + m; i++) {
+        present[i] = (mask & (1 << i)) == 0;
+        if (!present[i]) {
+          rnd.nextBytes(shards[i]);
+        }
+      }
+      assertEquals(nMissing <= m, rs.decode(shards, present, SHARD_SIZE));
+      if (nMissing <= m) {
+        for (int i = 0; i < k; i++) {
+          assertArrayEquals(original[i], shards[i]);
+        }
+      }
+    }
+  }
+
+  @Test
+  void largeBlock() {
+    int k = 200;
+    int m = 56;
+    Random rnd = new Random(42);
+    ReedSolomon rs = new ReedSolomon(k, m);
+    byte[][] original = createShards(k, m, rnd);
+    rs.encode(original, SHARD_SIZE);
+
+    byte[][] shards = copy(original);
+    boolean[] present = new boolean[k + m];
+    Arrays.fill(present, true);
+    // Remove m data shards
+    for (int i = 0; i < m; i++) {
+      present[i * 3] = false;
+      shards[i * 3] = new byte[SHARD_SIZE];
+    }
+    assertTrue(rs.decode(shards, present, SHARD_SIZE));
+    for (int i = 0; i < k; i++) {
+      assertArrayEquals(original[i], shards[i]);
+    }
+  }
+
+  @Test
+  void invalidParameters() {
+    assertThrows(IllegalArgumentException.class, () -> new ReedSolomon(0, 1));
+    assertThrows(IllegalArgumentException.class, () -> new ReedSolomon(1, -1));
+    assertThrows(IllegalArgumentException.class, () -> new ReedSolomon(200, 57));
+  }
+}
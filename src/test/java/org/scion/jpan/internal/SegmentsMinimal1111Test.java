@@ -23,12 +23,10 @@ import java.util.List;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
-import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 import org.scion.jpan.PackageVisibilityHelper;
 import org.scion.jpan.Scion;
 import org.scion.jpan.ScionService;
-import org.scion.jpan.demo.util.ToStringUtil;
 import org.scion.jpan.proto.daemon.Daemon;
 import org.scion.jpan.testutil.DNSUtil;
 import org.scion.jpan.testutil.MockControlServer;
@@ -151,7 +149,6 @@ public class SegmentsMinimal1111Test extends AbstractSegmentsMinimalTest {
     assertEquals(1, controlServer.getAndResetCallCount());
   }
 
-  @Disabled // TODO implement shortcuts!
   @Test
   void caseE_SameIsd_UpDown_OneCoreAS() throws IOException {
     addResponses();
@@ -162,7 +159,7 @@ public class SegmentsMinimal1111Test extends AbstractSegmentsMinimalTest {
       //  [0] Hops: [1-ff00:0:1111 123>1111 1-ff00:0:111 1112>234 1-ff00:0:1112]
       //  MTU: 1472 NextHop: 127.0.0.41:31024 Status: alive LocalIP: 127.0.0.1
 
-      // TODO this uses a shortcut!
+      //  This uses a shortcut at 1-ff00:0:111.
       //  Path:  exp=1704928949 / 2024-01-10T23:22:29Z  mtu=1472
       //  Path: first hop = 127.0.0.41:31024
       //  pathIf: 0: 123 561850441797905  1-ff00:0:1111
@@ -179,36 +176,33 @@ public class SegmentsMinimal1111Test extends AbstractSegmentsMinimalTest {
         58, -37
       };
 
-      System.out.println(ToStringUtil.pathLong(raw)); // TODO
-      System.out.println(ToStringUtil.path(raw)); // TODO
+      // The regular path via 110 contains a loop, only the shortcut is returned.
+      assertEquals(1, paths.size());
       Daemon.Path path = paths.get(0);
-      System.out.println(ToStringUtil.path(path.getRaw().toByteArray())); // TODO
-      System.out.println(ToStringUtil.pathLong(path.getRaw().toByteArray())); // TODO
+      ByteBuffer rawBB = path.getRaw().asReadOnlyByteBuffer();
+      checkMetaHeader(rawBB, 2, 2, 0);
+      checkInfo(rawBB, 25161, 0);
+      // SegID is XORed with the MAC of the skipped hop field of 110
+      checkInfo(rawBB, 25161 ^ 0x0102, 1);
+      checkHopField(rawBB, 123, 0);
+      checkHopField(rawBB, 111, 1111);
+      checkHopField(rawBB, 111, 1112);
+      checkHopField(rawBB, 234, 0);
+      assertEquals(0, rawBB.remaining());
 
-      //      Daemon.Path path = paths.get(0);
-      //      ByteBuffer rawBB = path.getRaw().asReadOnlyByteBuffer();
-      //      checkMetaHeader(rawBB, 2, 2, 0);
-      //      checkInfo(rawBB, 18215, 0);
-      //      checkInfo(rawBB, 5701, 1);
-      //      checkHopField(rawBB, 111, 0);
-      //      checkHopField(rawBB, 0, 2);
-      //      checkHopField(rawBB, 0, 3);
-      //      checkHopField(rawBB, 453, 0);
-      //      assertEquals(0, rawBB.remaining());
-      //
-      //      // compare with recorded byte[]
-      //      checkRaw(raw, path.getRaw().toByteArray());
-      //
-      //      assertEquals(1450, path.getMtu());
-      //      assertEquals("127.0.0.25:31016", path.getInterface().getAddress().getAddress());
-      //      checkInterface(path, 0, 111, "1-ff00:0:111");
-      //      checkInterface(path, 1, 2, "1-ff00:0:110");
-      //      checkInterface(path, 2, 3, "1-ff00:0:110");
-      //      checkInterface(path, 3, 453, "1-ff00:0:112");
-      //      assertEquals(4, path.getInterfacesCount());
+      // compare with recorded byte[]
+      checkRaw(raw, path.getRaw().toByteArray());
+
+      assertEquals(1472, path.getMtu());
+      assertEquals(firstHop, path.getInterface().getAddress().getAddress());
+      checkInterface(path, 0, 123, "1-ff00:0:1111");
+      checkInterface(path, 1, 1111, "1-ff00:0:111");
+      checkInterface(path, 2, 1112, "1-ff00:0:111");
+      checkInterface(path, 3, 234, "1-ff00:0:1112");
+      assertEquals(4, path.getInterfacesCount());
     }
-    //    assertEquals(1, topoServer.getAndResetCallCount());
-    //    assertEquals(2, controlServer.getAndResetCallCount());
+    assertEquals(1, topoServer.getAndResetCallCount());
+    assertEquals(2, controlServer.getAndResetCallCount());
   }
 
   @Test
@@ -279,4 +273,42 @@ public class SegmentsMinimal1111Test extends AbstractSegmentsMinimalTest {
     assertEquals(1, topoServer.getAndResetCallCount());
     assertEquals(2, controlServer.getAndResetCallCount());
   }
+
+  @Test
+  void caseE_SameIsd_UpDown_Peering() throws IOException {
+    addResponsesWithPeering();
+    try (Scion.CloseableService ss = Scion.newServiceWithDNS(AS_HOST)) {
+      List<Daemon.Path> paths = PackageVisibilityHelper.getPathListCS(ss, AS_1111, AS_1121);
+      // Regular path via core AS 110 + peering path via 111 -> 112
+      assertEquals(2, paths.size());
+      assertEquals(8, paths.get(0).getInterfacesCount());
+
+      Daemon.Path path = paths.get(1);
+      ByteBuffer rawBB = path.getRaw().asReadOnlyByteBuffer();
+      checkMetaHeader(rawBB, 2, 2, 0);
+      // UP (against construction direction): the SegID is the beta of the first traversed hop
+      // 1111, i.e. the MACs of 110 and 111 are XORed into the SegID.
+      checkInfo(rawBB, 10619 ^ MAC_110_UP ^ MAC_111, 2);
+      // DOWN (construction direction), starting with the peer hop field of 112: the peer hop field
+      // is authenticated with the beta of the following hop field, i.e. 110 and 112 are XORed.
+      checkInfo(rawBB, 2700 ^ MAC_110_DOWN ^ MAC_112, 3);
+      checkHopField(rawBB, 123, 0);
+      checkHopField(rawBB, 5, 1111);
+      checkHopField(rawBB, 4, 1121);
+      checkHopField(rawBB, 345, 0);
+      assertEquals(0, rawBB.remaining());
+
+      assertEquals(1450, path.getMtu());
+      assertEquals(firstHop, path.getInterface().getAddress().getAddress());
+      checkInterface(path, 0, 123, "1-ff00:0:1111");
+      checkInterface(path, 1, 1111, "1-ff00:0:111");
+      checkInterface(path, 2, 5, "1-ff00:0:111");
+      checkInterface(path, 3, 4, "1-ff00:0:112");
+      checkInterface(path, 4, 1121, "1-ff00:0:112");
+      checkInterface(path, 5, 345, "1-ff00:0:1121");
+      assertEquals(6, path.getInterfacesCount());
+    }
+    assertEquals(1, topoServer.getAndResetCallCount());
+    assertEquals(2, controlServer.getAndResetCallCount());
+  }
 }
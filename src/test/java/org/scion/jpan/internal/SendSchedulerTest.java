@@ -0,0 +1,192 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import org.junit.jupiter.api.Test;
+import org.scion.jpan.Path;
+
+class SendSchedulerTest {
+
+  private static void enqueue(
+      SendScheduler scheduler, SendScheduler.ClassQueue sendClass, int n, int size) {
+    for (int i = 0; i < n; i++) {
+      scheduler.enqueue(sendClass, ByteBuffer.allocate(size), null, false);
+    }
+  }
+
+  private static SendScheduler.ClassQueue sendNext(SendScheduler scheduler) {
+    SendScheduler.ClassQueue sendClass = scheduler.next();
+    scheduler.remove(sendClass, true);
+    return sendClass;
+  }
+
+  @Test
+  void weights() {
+    SendScheduler scheduler = new SendScheduler();
+    SendScheduler.ClassQueue c1 = scheduler.addClass(0, 1, 1000);
+    SendScheduler.ClassQueue c3 = scheduler.addClass(0, 3, 1000);
+    enqueue(scheduler, c1, 100, 1000);
+    enqueue(scheduler, c3, 100, 1000);
+    assertEquals(100, c1.getQueueDepth());
+    assertEquals(100_000, c3.getQueuedBytes());
+
+    assertTrue(scheduler.startDrain());
+    assertFalse(scheduler.startDrain());
+    int n1 = 0;
+    for (int i = 0; i < 80; i++) {
+      n1 += sendNext(scheduler) == c1 ? 1 : 0;
+    }
+    assertEquals(20, n1, 2);
+    assertEquals(100 - n1, c1.getQueueDepth());
+    assertEquals(n1, c1.getSentPackets());
+    assertEquals(1000L * n1, c1.getSentBytes());
+    assertEquals(100, c1.getMaxObservedQueueDepth());
+
+    // Remaining packets of c1 are sent when c3 is empty
+    for (int i = 0; i < 120; i++) {
+      sendNext(scheduler);
+    }
+    assertNull(scheduler.next());
+    assertEquals(100, c1.getSentPackets());
+    assertEquals(100, c3.getSentPackets());
+    assertEquals(0, c3.getQueuedBytes());
+    assertFalse(scheduler.startDrain());
+  }
+
+  @Test
+  void interactiveNotBehindBulk() {
+    SendScheduler scheduler = new SendScheduler();
+    SendScheduler.ClassQueue bulk = scheduler.addClass(0, 1, 1000);
+    SendScheduler.ClassQueue interactive = scheduler.addClass(46, 1, 1000);
+    enqueue(scheduler, bulk, 100, 1400);
+    assertTrue(scheduler.startDrain());
+    sendNext(scheduler);
+    enqueue(scheduler, interactive, 1, 100);
+    int position = 0;
+    while (sendNext(scheduler) != interactive) {
+      position++;
+    }
+    assertTrue(position <= 1, "position=" + position);
+  }
+
+  @Test
+  void queueLimit() throws InterruptedIOException {
+    SendScheduler scheduler = new SendScheduler();
+    SendScheduler.ClassQueue sendClass = scheduler.addClass(0, 1, 2);
+    assertTrue(scheduler.reserve(sendClass, false));
+    assertTrue(scheduler.reserve(sendClass, false));
+    assertFalse(scheduler.reserve(sendClass, false));
+    scheduler.cancelReservation(sendClass);
+    scheduler.enqueue(sendClass, ByteBuffer.allocate(10), null, true);
+    assertTrue(scheduler.reserve(sendClass, false));
+    assertFalse(scheduler.reserve(sendClass, false));
+    scheduler.cancelReservation(sendClass);
+    // Copies can be queued without reservation
+    enqueue(scheduler, sendClass, 2, 10);
+    assertEquals(3, sendClass.getQueueDepth());
+
+    scheduler.clear();
+    assertEquals(0, sendClass.getQueueDepth());
+    assertEquals(3, sendClass.getDroppedPackets());
+    assertTrue(scheduler.reserve(sendClass, false));
+
+    SendScheduler.ClassQueue unknown = new SendScheduler().addClass(0, 1, 1);
+    assertThrows(IllegalArgumentException.class, () -> scheduler.reserve(unknown, false));
+    assertThrows(IllegalArgumentException.class, () -> scheduler.addClass(256, 1, 1));
+    assertThrows(IllegalArgumentException.class, () -> scheduler.addClass(0, 0, 1));
+  }
+
+  @Test
+  void directSend() throws InterruptedIOException {
+    SendScheduler scheduler = new SendScheduler();
+    SendScheduler.ClassQueue sendClass = scheduler.addClass(0, 1, 1);
+    assertTrue(scheduler.reserve(sendClass, false));
+    assertTrue(scheduler.startDirectSend());
+    // Only one thread at a time
+    assertFalse(scheduler.startDirectSend());
+    assertFalse(scheduler.startDrain());
+    scheduler.finishDirectSend(sendClass, 100, true);
+    assertEquals(1, sendClass.getSentPackets());
+    assertEquals(100, sendClass.getSentBytes());
+    assertEquals(0, sendClass.getQueueDepth());
+    assertTrue(scheduler.reserve(sendClass, false));
+    scheduler.cancelReservation(sendClass);
+
+    // Not while packets are queued
+    enqueue(scheduler, sendClass, 1, 10);
+    assertFalse(scheduler.startDirectSend());
+    assertTrue(scheduler.startDrain());
+    sendNext(scheduler);
+    assertNull(scheduler.next());
+    assertTrue(scheduler.startDirectSend());
+    scheduler.stopDrain();
+    assertTrue(scheduler.startDirectSend());
+  }
+
+  @Test
+  void sendAndDrain() throws IOException {
+    SendScheduler scheduler = new SendScheduler();
+    SendScheduler.ClassQueue sendClass = scheduler.addClass(0, 1, 10);
+    TestSender sender = new TestSender();
+    scheduler.send(sendClass, ByteBuffer.allocate(100), null, false, sender);
+    assertEquals(1, sender.sent);
+    assertEquals(0, sendClass.getQueueDepth());
+
+    // Packets are queued while the pacer delays them
+    sender.delay = 1000;
+    scheduler.send(sendClass, ByteBuffer.allocate(100), null, false, sender);
+    scheduler.send(sendClass, ByteBuffer.allocate(100), null, false, sender);
+    assertEquals(2, sendClass.getQueueDepth());
+    assertEquals(1000, scheduler.drain(sender));
+    assertEquals(2, sendClass.getQueueDepth());
+
+    // Packets stay queued while the socket buffer is full
+    sender.delay = 0;
+    sender.full = true;
+    assertTrue(scheduler.drain(sender) > 0);
+    assertEquals(2, sendClass.getQueueDepth());
+
+    sender.full = false;
+    assertEquals(0, scheduler.drain(sender));
+    assertEquals(0, sendClass.getQueueDepth());
+    assertEquals(3, sender.sent);
+    assertEquals(3, sendClass.getSentPackets());
+  }
+
+  private static class TestSender implements SendScheduler.PacketSender {
+    long delay = 0;
+    boolean full = false;
+    int sent = 0;
+
+    @Override
+    public long tryPace(Path path, int bytes) {
+      return delay;
+    }
+
+    @Override
+    public int send(ByteBuffer packet, Path path) {
+      if (full) {
+        return 0;
+      }
+      sent++;
+      return packet.remaining();
+    }
+  }
+}
@@ -0,0 +1,53 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import org.scion.jpan.Path;
+import org.scion.jpan.RequestPath;
+
+/** PathContext that records lookups instead of performing them. */
+class TestPathContext implements PathContext {
+  final List<BiConsumer<List<Path>, Throwable>> lookups = new ArrayList<>();
+  final FailedInterfaces failedInterfaces = new FailedInterfaces(10);
+  Path connectionPath = null;
+
+  @Override
+  public void lookupPaths(RequestPath path, BiConsumer<List<Path>, Throwable> callback) {
+    lookups.add(callback);
+  }
+
+  @Override
+  public FailedInterfaces getFailedInterfaces() {
+    return failedInterfaces;
+  }
+
+  @Override
+  public Path getConnectionPath() {
+    return connectionPath;
+  }
+
+  @Override
+  public RequestPath getCurrentPath(RequestPath path) {
+    return path;
+  }
+
+  @Override
+  public int getExpirationSafetyMargin() {
+    return 0;
+  }
+}
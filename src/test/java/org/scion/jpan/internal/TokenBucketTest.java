@@ -0,0 +1,71 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class TokenBucketTest {
+
+  private static final long MS = 1_000_000;
+
+  @Test
+  void burstAndRate() {
+    // 8 Mbit/s = 1000 bytes per ms, burst of 3000 bytes
+    TokenBucket bucket = new TokenBucket(8_000_000, 3000);
+    long now = System.nanoTime();
+    for (int i = 0; i < 4; i++) {
+      assertEquals(0, bucket.getDelayNanos(now));
+      bucket.consume(1000, now);
+    }
+    assertEquals(1 * MS, bucket.getDelayNanos(now));
+    assertFalse(bucket.isIdle(now));
+
+    // Sending at the configured rate is never delayed
+    now += MS;
+    for (int i = 0; i < 10; i++) {
+      assertEquals(0, bucket.getDelayNanos(now));
+      bucket.consume(1000, now);
+      now += MS;
+    }
+
+    // Idle time is credited only up to the burst size
+    now += 100 * MS;
+    assertTrue(bucket.isIdle(now));
+    for (int i = 0; i < 4; i++) {
+      assertEquals(0, bucket.getDelayNanos(now));
+      bucket.consume(1000, now);
+    }
+    assertEquals(1 * MS, bucket.getDelayNanos(now));
+  }
+
+  @Test
+  void setRate() {
+    TokenBucket bucket = new TokenBucket(8_000_000, 1000);
+    long now = System.nanoTime();
+    bucket.consume(1000, now);
+    bucket.consume(1000, now);
+    assertEquals(1 * MS, bucket.getDelayNanos(now));
+    // Halving the rate doubles the time per byte and the burst tolerance
+    bucket.setRate(4_000_000);
+    assertEquals(4_000_000, bucket.getRate());
+    assertEquals(0, bucket.getDelayNanos(now + MS));
+    bucket.consume(1000, now + MS);
+    assertEquals(0, bucket.getDelayNanos(now + 2 * MS));
+    assertEquals(1 * MS, bucket.getDelayNanos(now + MS));
+    assertThrows(IllegalArgumentException.class, () -> bucket.setRate(0));
+  }
+}
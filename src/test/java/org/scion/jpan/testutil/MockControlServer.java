@@ -26,6 +26,7 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 import org.scion.jpan.ScionUtil;
 import org.scion.jpan.proto.control_plane.Seg;
@@ -38,6 +39,8 @@ public class MockControlServer implements AutoCloseable {
 
   private static final Logger logger = LoggerFactory.getLogger(MockControlServer.class.getName());
   private final AtomicInteger callCount = new AtomicInteger();
+  private final AtomicInteger responseDelayMs = new AtomicInteger();
+  private final AtomicReference<Status> errorStatus = new AtomicReference<>();
   private final InetSocketAddress address;
   // TODO remove or use
   private final List<InetSocketAddress> borderRouters;
@@ -67,6 +70,17 @@ public class MockControlServer implements AutoCloseable {
     return callCount.getAndSet(0);
   }
 
+  public void setResponseDelayMs(int delayMs) {
+    responseDelayMs.set(delayMs);
+  }
+
+  /**
+   * @param status If not null, all segment requests fail with this status.
+   */
+  public void setErrorStatus(Status status) {
+    errorStatus.set(status);
+  }
+
   private MockControlServer startInternal() throws IOException {
     List<String> brStr =
         borderRouters.stream().map(br -> br.toString().substring(1)).collect(Collectors.toList());
@@ -134,6 +148,20 @@ public class MockControlServer implements AutoCloseable {
       logger.info("Segment request: " + srcIsdAsStr + " -> " + dstIsdAsStr);
       callCount.incrementAndGet();
 
+      if (responseDelayMs.get() > 0) {
+        try {
+          Thread.sleep(responseDelayMs.get());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+
+      Status status = errorStatus.get();
+      if (status != null) {
+        responseObserver.onError(status.asRuntimeException());
+        return;
+      }
+
       if (responses.isEmpty()) {
         responseObserver.onNext(defaultResponse(req.getSrcIsdAs(), req.getDstIsdAs()));
       } else {
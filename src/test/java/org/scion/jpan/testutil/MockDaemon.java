@@ -17,12 +17,18 @@ package org.scion.jpan.testutil;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.Timestamp;
 import io.grpc.*;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import io.grpc.netty.shaded.io.netty.channel.EventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollServerDomainSocketChannel;
+import io.grpc.netty.shaded.io.netty.channel.unix.DomainSocketAddress;
 import io.grpc.stub.StreamObserver;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
@@ -45,9 +51,14 @@ public class MockDaemon implements AutoCloseable {
   public static MockDaemon DEFAULT = null;
 
   private final InetSocketAddress address;
+  private final java.nio.file.Path socketFile;
+  private EventLoopGroup eventLoopGroup;
   private Server server;
   private final List<InetSocketAddress> borderRouters;
   private static final AtomicInteger callCount = new AtomicInteger();
+  private static final AtomicInteger pathsDelayMs = new AtomicInteger();
+  private static final List<Daemon.NotifyInterfaceDownRequest> interfaceDownNotifications =
+      new CopyOnWriteArrayList<>();
   private static final byte[] PATH_RAW_TINY_110_112 = {
     0, 0, 32, 0, 1, 0, 11, 16,
     101, 83, 118, -81, 0, 63, 0, 0,
@@ -82,27 +93,56 @@ public class MockDaemon implements AutoCloseable {
     System.clearProperty(Constants.PROPERTY_DAEMON);
   }
 
+  /**
+   * Create a daemon that listens on a Unix domain socket. This requires Linux (epoll).
+   *
+   * @param socketFile socket file, must not exist.
+   * @return daemon, not yet started
+   */
+  public static MockDaemon createForUnixSocket(java.nio.file.Path socketFile) {
+    return new MockDaemon(null, socketFile);
+  }
+
   private MockDaemon(InetSocketAddress address) {
+    this(address, (java.nio.file.Path) null);
+  }
+
+  private MockDaemon(InetSocketAddress address, java.nio.file.Path socketFile) {
     this.address = address;
+    this.socketFile = socketFile;
     this.borderRouters = new ArrayList<>();
     this.borderRouters.add(new InetSocketAddress("127.0.0.10", 31004));
   }
 
   private MockDaemon(InetSocketAddress address, List<InetSocketAddress> borderRouters) {
     this.address = address;
+    this.socketFile = null;
     this.borderRouters = borderRouters;
   }
 
   public MockDaemon start() throws IOException {
     List<String> brStr =
         borderRouters.stream().map(br -> br.toString().substring(1)).collect(Collectors.toList());
-    int port = address.getPort();
-    server =
-        Grpc.newServerBuilderForPort(port, InsecureServerCredentials.create())
-            .addService(new MockDaemon.DaemonImpl(brStr))
-            .build()
-            .start();
-    logger.info("Server started, listening on " + address);
+    if (socketFile != null) {
+      eventLoopGroup = new EpollEventLoopGroup();
+      server =
+          NettyServerBuilder.forAddress(new DomainSocketAddress(socketFile.toString()))
+              .channelType(EpollServerDomainSocketChannel.class)
+              .bossEventLoopGroup(eventLoopGroup)
+              .workerEventLoopGroup(eventLoopGroup)
+              .addService(new MockDaemon.DaemonImpl(brStr))
+              .build()
+              .start();
+      logger.info("Server started, listening on " + socketFile);
+    } else {
+      int port = address.getPort();
+      server =
+          Grpc.newServerBuilderForPort(port, InsecureServerCredentials.create())
+              .addService(new MockDaemon.DaemonImpl(brStr))
+              .build()
+              .start();
+      logger.info("Server started, listening on " + address);
+    }
 
     Runtime.getRuntime()
         .addShutdownHook(
@@ -129,6 +169,9 @@ public class MockDaemon implements AutoCloseable {
           logger.error("Daemon server did not terminate");
         }
       }
+      if (eventLoopGroup != null) {
+        eventLoopGroup.shutdownGracefully(0, 5, TimeUnit.SECONDS).await(5, TimeUnit.SECONDS);
+      }
       logger.info("Daemon server shut down");
     } catch (InterruptedException ie) {
       // (Re-)Cancel if current thread also interrupted
@@ -138,10 +181,23 @@ public class MockDaemon implements AutoCloseable {
     }
   }
 
+  /**
+   * @param delayMs Delay (in milliseconds) before answering path requests.
+   */
+  public static void setPathsDelay(int delayMs) {
+    pathsDelayMs.set(delayMs);
+  }
+
   public static int getAndResetCallCount() {
     return callCount.getAndSet(0);
   }
 
+  public static List<Daemon.NotifyInterfaceDownRequest> getAndResetInterfaceDownNotifications() {
+    List<Daemon.NotifyInterfaceDownRequest> result = new ArrayList<>(interfaceDownNotifications);
+    interfaceDownNotifications.clear();
+    return result;
+  }
+
   static class DaemonImpl extends DaemonServiceGrpc.DaemonServiceImplBase {
     final List<String> borderRouters;
 
@@ -156,13 +212,21 @@ public class MockDaemon implements AutoCloseable {
       //     "Got request from client: " + req.getSourceIsdAs() + " / " +
       // req.getDestinationIsdAs());
       callCount.incrementAndGet();
+      if (pathsDelayMs.get() > 0) {
+        try {
+          Thread.sleep(pathsDelayMs.get());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
       ByteString rawPath = ByteString.copyFrom(PATH_RAW_TINY_110_112);
-      long expirySecs = Instant.now().getEpochSecond() + Constants.DEFAULT_PATH_EXPIRY_MARGIN + 5;
+      long expirySecs = Instant.now().getEpochSecond() + 3600;
       Timestamp expiry = Timestamp.newBuilder().setSeconds(expirySecs).build();
       Daemon.PathsResponse.Builder replyBuilder = Daemon.PathsResponse.newBuilder();
       if (req.getSourceIsdAs() == ExamplePacket.SRC_IA
           && req.getDestinationIsdAs() == ExamplePacket.DST_IA) {
-        for (String brAddress : borderRouters) {
+        for (int i = 0; i < borderRouters.size(); i++) {
+          String brAddress = borderRouters.get(i);
           Daemon.Path p0 =
               Daemon.Path.newBuilder()
                   .setInterface(
@@ -171,7 +235,7 @@ public class MockDaemon implements AutoCloseable {
                           .build())
                   .addInterfaces(
                       Daemon.PathInterface.newBuilder()
-                          .setId(2)
+                          .setId(MockNetwork.getBorderRouterInterfaceId(i))
                           .setIsdAs(ExamplePacket.SRC_IA)
                           .build())
                   .addInterfaces(
@@ -222,5 +286,14 @@ public class MockDaemon implements AutoCloseable {
       responseObserver.onNext(replyBuilder.build());
       responseObserver.onCompleted();
     }
+
+    @Override
+    public void notifyInterfaceDown(
+        Daemon.NotifyInterfaceDownRequest req,
+        StreamObserver<Daemon.NotifyInterfaceDownResponse> responseObserver) {
+      interfaceDownNotifications.add(req);
+      responseObserver.onNext(Daemon.NotifyInterfaceDownResponse.newBuilder().build());
+      responseObserver.onCompleted();
+    }
   }
 }
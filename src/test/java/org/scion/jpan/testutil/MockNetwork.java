@@ -31,7 +31,9 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 import java.util.stream.Collectors;
 import org.scion.jpan.*;
 import org.scion.jpan.demo.inspector.ScionPacketInspector;
@@ -66,6 +68,8 @@ public class MockNetwork {
   static final AtomicInteger dropNextPackets = new AtomicInteger();
   static final AtomicReference<Scmp.TypeCode> scmpErrorOnNextPacket = new AtomicReference<>();
   static final AtomicInteger answerNextScmpEchos = new AtomicInteger();
+  // Forwarding rate limit per border router in bytes per second, 0 means no limit
+  static final AtomicLong routerBandwidth = new AtomicLong();
   static CountDownLatch barrier = null;
   public static final int BORDER_ROUTER_PORT1 = 30555;
   public static final int BORDER_ROUTER_PORT2 = 30556;
@@ -183,6 +187,7 @@ public class MockNetwork {
     dropNextPackets.getAndSet(0);
     answerNextScmpEchos.getAndSet(0);
     scmpErrorOnNextPacket.set(null);
+    routerBandwidth.set(0);
   }
 
   public static InetSocketAddress getTinyServerAddress() throws IOException {
@@ -218,10 +223,28 @@ public class MockNetwork {
     answerNextScmpEchos.set(n);
   }
 
+  /**
+   * Limit the rate at which each border router forwards UDP packets. Packets that arrive while the
+   * router is busy are queued in the socket buffer and dropped when the buffer is full.
+   *
+   * @param bytesPerSecond limit per border router, 0 for no limit
+   */
+  public static void setRouterBandwidth(long bytesPerSecond) {
+    routerBandwidth.set(bytesPerSecond);
+  }
+
   public static void returnScmpErrorOnNextPacket(Scmp.TypeCode scmpTypeCode) {
     scmpErrorOnNextPacket.set(scmpTypeCode);
   }
 
+  /**
+   * @param routerId ID of the border router
+   * @return the ID of the interface in the local AS that is served by the border router.
+   */
+  public static int getBorderRouterInterfaceId(int routerId) {
+    return 2 + routerId;
+  }
+
   public static int getForwardCount(int routerId) {
     return nForwards.get(routerId);
   }
@@ -247,6 +270,7 @@ public class MockNetwork {
 class MockBorderRouter implements Runnable {
 
   private static final Logger logger = LoggerFactory.getLogger(MockBorderRouter.class.getName());
+  private static final long MAX_RATE_LIMIT_LAG = 1_000_000; // 1 ms
 
   private final int id;
   private final String name;
@@ -254,6 +278,7 @@ class MockBorderRouter implements Runnable {
   private final int port2;
   private final String ip1;
   private final String ip2;
+  private long nextForwardNanos = 0;
 
   MockBorderRouter(int id, int port1, int port2, String ip1, String ip2) {
     this.id = id;
@@ -301,6 +326,7 @@ class MockBorderRouter implements Runnable {
 
             if (MockNetwork.dropNextPackets.get() > 0) {
               MockNetwork.dropNextPackets.decrementAndGet();
+              buffer.clear();
               iter.remove();
               continue;
             }
@@ -338,6 +364,7 @@ class MockBorderRouter implements Runnable {
   private void forwardPacket(ByteBuffer buffer, SocketAddress srcAddress, DatagramChannel outgoing)
       throws IOException {
     InetSocketAddress dstAddress = PackageVisibilityHelper.getDstAddress(buffer);
+    limitRate(buffer.remaining());
     logger.info(
         "{} forwarding {} bytes from {} to {}", name, buffer.remaining(), srcAddress, dstAddress);
 
@@ -347,6 +374,22 @@ class MockBorderRouter implements Runnable {
     MockNetwork.nForwards.incrementAndGet(id);
   }
 
+  private void limitRate(int bytes) {
+    long bandwidth = MockNetwork.routerBandwidth.get();
+    if (bandwidth <= 0) {
+      return;
+    }
+    long now = System.nanoTime();
+    if (nextForwardNanos - now > 0) {
+      LockSupport.parkNanos(nextForwardNanos - now);
+    } else if (now - nextForwardNanos > MAX_RATE_LIMIT_LAG) {
+      // Idle. Otherwise, keep the schedule so that oversleeping in parkNanos() does not reduce
+      // the effective bandwidth.
+      nextForwardNanos = now;
+    }
+    nextForwardNanos += bytes * 1_000_000_000L / bandwidth;
+  }
+
   private void handleScmp(ByteBuffer buffer, SocketAddress srcAddress, DatagramChannel outgoing)
       throws IOException {
     buffer.position(ScionHeaderParser.extractHeaderLength(buffer));
@@ -388,6 +431,8 @@ class MockBorderRouter implements Runnable {
     spi.reversePath();
     ScmpHeader scmpHeader = spi.getScmpHeader();
     scmpHeader.setCode(type);
+    int interfaceId = MockNetwork.getBorderRouterInterfaceId(id);
+    scmpHeader.setErrorData(ExamplePacket.SRC_IA, interfaceId, 0);
     ByteBuffer out = ByteBuffer.allocate(100);
     spi.writePacketSCMP(out);
     out.flip();
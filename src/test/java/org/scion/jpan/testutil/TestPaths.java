@@ -0,0 +1,59 @@
+// Copyright 2024 ETH Zurich
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.scion.jpan.testutil;
+
+import java.net.InetAddress;
+import org.scion.jpan.PackageVisibilityHelper;
+import org.scion.jpan.RequestPath;
+import org.scion.jpan.proto.daemon.Daemon;
+
+/** Creates paths with given interfaces for unit tests that do not need a network. */
+public class TestPaths {
+
+  public static final int DST_PORT = 12345;
+
+  private TestPaths() {}
+
+  /**
+   * @param isdAsAndIds pairs of ISD/AS and interface ID, e.g. {AS_110, 1, AS_111, 2, ...}
+   * @return A path builder with the interfaces.
+   */
+  public static Daemon.Path.Builder builder(long... isdAsAndIds) {
+    Daemon.Path.Builder builder = Daemon.Path.newBuilder();
+    for (int i = 0; i < isdAsAndIds.length; i += 2) {
+      builder.addInterfaces(
+          Daemon.PathInterface.newBuilder().setIsdAs(isdAsAndIds[i]).setId(isdAsAndIds[i + 1]));
+    }
+    return builder;
+  }
+
+  /**
+   * @param isdAsAndIds pairs of ISD/AS and interface ID, e.g. {AS_110, 1, AS_111, 2, ...}
+   * @return A path to the loopback address in the ISD/AS of the last interface.
+   */
+  public static RequestPath create(long... isdAsAndIds) {
+    return create(builder(isdAsAndIds));
+  }
+
+  /**
+   * @param builder a path builder with at least one interface
+   * @return A path to the loopback address in the ISD/AS of the last interface.
+   */
+  public static RequestPath create(Daemon.Path.Builder builder) {
+    long dstIsdAs = builder.getInterfaces(builder.getInterfacesCount() - 1).getIsdAs();
+    InetAddress dst = InetAddress.getLoopbackAddress();
+    return PackageVisibilityHelper.createRequestPath110_110(builder, dstIsdAs, dst, DST_PORT);
+  }
+}